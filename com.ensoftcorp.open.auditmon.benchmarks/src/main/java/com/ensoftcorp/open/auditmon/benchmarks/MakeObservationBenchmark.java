@@ -0,0 +1,62 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-observation latency of ObservationEngine.observe against a session with a
+ * recorded history
+ *
+ * The graph grows while the benchmark runs, so the fixture is rebuilt for every
+ * iteration. Run with "-prof gc" for the allocation rate per observation.
+ *
+ * @author Ben Holland
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MakeObservationBenchmark {
+	
+	@Param({"100000"})
+	public int universeSize;
+	
+	@Param({"10000"})
+	public int historySize;
+	
+	@Param({"1", "10", "100", "1000", "10000"})
+	public int selectionSize;
+	
+	@Param({"0.3"})
+	public double repeatRate;
+	
+	private ObservationHistory history;
+	private SelectionWorkload workload;
+	
+	@Setup(Level.Iteration)
+	public void setup(){
+		history = new ObservationHistory(universeSize, historySize, repeatRate, 42);
+		workload = new SelectionWorkload(history.getUniverse(), 7, repeatRate, selectionSize, selectionSize);
+	}
+	
+	@Benchmark
+	public int makeObservation(){
+		int[] selection = workload.next();
+		return history.getEngine().observe(selection, history.nextTimestamp(), ObservationHistory.ORIGIN);
+	}
+
+}
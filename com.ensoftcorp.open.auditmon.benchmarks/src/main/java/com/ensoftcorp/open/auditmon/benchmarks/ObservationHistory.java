@@ -0,0 +1,55 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import com.ensoftcorp.open.auditmon.store.ObservationEngine;
+
+/**
+ * Builds a synthetic universe and a session with a recorded observation history,
+ * the shared fixture of the benchmarks
+ *
+ * The history is recorded by the ObservationEngine that AuditMon records with,
+ * over an InMemoryObservationStore instead of the Atlas index.
+ *
+ * @author Ben Holland
+ */
+public class ObservationHistory {
+	
+	public static final String SESSION = "benchmark";
+	public static final String ORIGIN = "Java Editor:Benchmark.java";
+	
+	private final SyntheticUniverse universe;
+	private final ObservationEngine engine;
+	private long time = 0;
+	
+	/**
+	 * @param universeSize the number of program artifacts
+	 * @param observations the number of observations in the history
+	 * @param repeatRate the fraction of observations that revisit a recent selection
+	 * @param seed
+	 */
+	public ObservationHistory(int universeSize, int observations, double repeatRate, long seed){
+		universe = SyntheticUniverse.generate(universeSize, seed);
+		engine = new ObservationEngine(universe.getStore(), SESSION);
+		engine.start(nextTimestamp());
+		SelectionWorkload history = new SelectionWorkload(universe, seed, repeatRate, 1, 100);
+		for(int i=0; i<observations; i++){
+			engine.observe(history.next(), nextTimestamp(), ORIGIN);
+		}
+	}
+	
+	public SyntheticUniverse getUniverse(){
+		return universe;
+	}
+	
+	public ObservationEngine getEngine(){
+		return engine;
+	}
+	
+	/**
+	 * Returns a strictly increasing timestamp
+	 * @return
+	 */
+	public long nextTimestamp(){
+		return ++time;
+	}
+
+}
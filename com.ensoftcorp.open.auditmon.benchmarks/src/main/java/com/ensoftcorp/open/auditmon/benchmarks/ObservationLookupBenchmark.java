@@ -0,0 +1,92 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.store.ObservationEngine;
+
+/**
+ * Latency of the lookups on the observation path, findObservationNode for selections
+ * that were observed before (hits) and that were not (misses), and addSessionEdgeNumber
+ *
+ * @author Ben Holland
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ObservationLookupBenchmark {
+	
+	private static final int SELECTIONS = 64;
+	
+	@Param({"100000"})
+	public int universeSize;
+	
+	@Param({"10000"})
+	public int historySize;
+	
+	@Param({"1", "10", "100", "1000", "10000"})
+	public int selectionSize;
+	
+	private ObservationHistory history;
+	private final ArrayList<int[]> observed = new ArrayList<int[]>();
+	private final ArrayList<int[]> unobserved = new ArrayList<int[]>();
+	private int observationEdge;
+	private int next = 0;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		history = new ObservationHistory(universeSize, historySize, 0.3, 42);
+		SelectionWorkload workload = new SelectionWorkload(history.getUniverse(), 7, 0, selectionSize, selectionSize);
+		ObservationEngine engine = history.getEngine();
+		for(int i=0; i<SELECTIONS; i++){
+			int[] selection = workload.newSelection(selectionSize);
+			engine.observe(selection, history.nextTimestamp(), ObservationHistory.ORIGIN);
+			observed.add(selection);
+			unobserved.add(workload.newSelection(selectionSize));
+		}
+	}
+	
+	@Setup(Level.Iteration)
+	public void setupEdge(){
+		// edge numbers accumulate on this edge, start from a fresh one each iteration
+		SyntheticUniverse universe = history.getUniverse();
+		int[] nodes = universe.getNodes();
+		observationEdge = universe.getStore().createEdge(nodes[0], nodes[1], AuditConstants.OBSERVATION);
+	}
+	
+	@Benchmark
+	public int findObservationNodeHit(){
+		next = (next + 1) % SELECTIONS;
+		return history.getEngine().findObservationNode(observed.get(next));
+	}
+	
+	@Benchmark
+	public int findObservationNodeMiss(){
+		next = (next + 1) % SELECTIONS;
+		return history.getEngine().findObservationNode(unobserved.get(next));
+	}
+	
+	@Benchmark
+	public int addSessionEdgeNumber(){
+		history.getEngine().addSessionEdgeNumber(observationEdge);
+		return observationEdge;
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the selections of an auditor exploring a synthetic universe
+ *
+ * A selection is a run of neighboring program artifacts (the universe is generated in
+ * declaration order). With the given repeat rate a selection revisits one of the recent
+ * selections instead, which is what makes ObservationEngine.findObservationNode succeed
+ * in practice.
+ *
+ * @author Ben Holland
+ */
+public class SelectionWorkload {
+	
+	private static final int RECENT_SELECTIONS = 256;
+	
+	private final int[] nodes;
+	private final Random random;
+	private final double repeatRate;
+	private final int minSelectionSize;
+	private final int maxSelectionSize;
+	private final ArrayList<int[]> recentSelections = new ArrayList<int[]>();
+	private int nextRecent = 0;
+	
+	/**
+	 * @param universe
+	 * @param seed
+	 * @param repeatRate the fraction of selections that revisit a recent selection
+	 * @param minSelectionSize
+	 * @param maxSelectionSize selection sizes are log-uniform between the min and max
+	 */
+	public SelectionWorkload(SyntheticUniverse universe, long seed, double repeatRate, int minSelectionSize, int maxSelectionSize){
+		this.nodes = universe.getNodes();
+		this.random = new Random(seed);
+		this.repeatRate = repeatRate;
+		this.minSelectionSize = Math.max(1, minSelectionSize);
+		this.maxSelectionSize = Math.min(nodes.length, Math.max(this.minSelectionSize, maxSelectionSize));
+	}
+	
+	/**
+	 * Returns the next selection, distinct member nodes in declaration order
+	 * @return
+	 */
+	public int[] next(){
+		if(!recentSelections.isEmpty() && random.nextDouble() < repeatRate){
+			return recentSelections.get(random.nextInt(recentSelections.size()));
+		}
+		int[] selection = newSelection(nextSize());
+		if(recentSelections.size() < RECENT_SELECTIONS){
+			recentSelections.add(selection);
+		} else {
+			recentSelections.set(nextRecent, selection);
+			nextRecent = (nextRecent + 1) % RECENT_SELECTIONS;
+		}
+		return selection;
+	}
+	
+	/**
+	 * Returns a new selection of the given size that has (most likely) not been made before
+	 * @param size
+	 * @return
+	 */
+	public int[] newSelection(int size){
+		size = Math.min(size, nodes.length);
+		int first = random.nextInt(nodes.length - size + 1);
+		return Arrays.copyOfRange(nodes, first, first + size);
+	}
+	
+	private int nextSize(){
+		if(minSelectionSize == maxSelectionSize){
+			return minSelectionSize;
+		}
+		double log = Math.log(minSelectionSize) + random.nextDouble() * (Math.log(maxSelectionSize) - Math.log(minSelectionSize));
+		return (int) Math.round(Math.exp(log));
+	}
+
+}
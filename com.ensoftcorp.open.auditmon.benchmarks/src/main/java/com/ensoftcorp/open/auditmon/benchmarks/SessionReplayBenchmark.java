@@ -0,0 +1,54 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of replaying a whole session (ObservationGraph.replay, which the session
+ * index and the timeline replay with) by session length, divide by the session length
+ * for visits per second
+ *
+ * @author Ben Holland
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SessionReplayBenchmark {
+	
+	@Param({"100000"})
+	public int universeSize;
+	
+	@Param({"1000", "10000", "100000"})
+	public int sessionLength;
+	
+	@Param({"0.3"})
+	public double repeatRate;
+	
+	private ObservationHistory history;
+	
+	@Setup(Level.Trial)
+	public void setup(){
+		history = new ObservationHistory(universeSize, sessionLength, repeatRate, 42);
+	}
+	
+	@Benchmark
+	public int[] replay(){
+		return history.getEngine().replay();
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.ensoftcorp.open.auditmon.benchmarks;
+
+import java.util.Random;
+
+import com.ensoftcorp.open.auditmon.store.InMemoryObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
+
+/**
+ * Generates a program graph shaped like an indexed Java project into an in-memory
+ * observation store, packages declare classes which declare methods and fields, which
+ * declare variables and control flow
+ *
+ * Nodes are generated in declaration order, so neighboring program artifacts (the
+ * members of a class or the statements of a method) have neighboring indexes, which
+ * lets the workload generator pick selections with realistic locality.
+ *
+ * @author Ben Holland
+ */
+public class SyntheticUniverse {
+	
+	public static final String DECLARES = "declares";
+	public static final String PACKAGE = "package";
+	public static final String CLASS = "class";
+	public static final String METHOD = "method";
+	public static final String FIELD = "field";
+	public static final String VARIABLE = "variable";
+	public static final String CONTROL_FLOW = "control_flow";
+	
+	private final InMemoryObservationStore store;
+	private final int[] nodes;
+	
+	private SyntheticUniverse(InMemoryObservationStore store, int[] nodes){
+		this.store = store;
+		this.nodes = nodes;
+	}
+	
+	/**
+	 * Generates a universe with the given number of program artifact nodes
+	 * @param size
+	 * @param seed
+	 * @return
+	 */
+	public static SyntheticUniverse generate(int size, long seed){
+		Random random = new Random(seed);
+		InMemoryObservationStore store = new InMemoryObservationStore();
+		int[] nodes = new int[size];
+		int numNodes = 0;
+		int packages = 0;
+		while(numNodes < size){
+			int pkg = declare(store, ObservationStore.NONE, PACKAGE, "p" + packages++);
+			nodes[numNodes++] = pkg;
+			int classes = 1 + random.nextInt(20);
+			for(int c=0; c<classes && numNodes < size; c++){
+				int cls = declare(store, pkg, CLASS, "C" + c);
+				nodes[numNodes++] = cls;
+				int fields = random.nextInt(8);
+				for(int f=0; f<fields && numNodes < size; f++){
+					nodes[numNodes++] = declare(store, cls, FIELD, "f" + f);
+				}
+				int methods = 1 + random.nextInt(15);
+				for(int m=0; m<methods && numNodes < size; m++){
+					int method = declare(store, cls, METHOD, "m" + m);
+					nodes[numNodes++] = method;
+					int statements = random.nextInt(30);
+					for(int s=0; s<statements && numNodes < size; s++){
+						nodes[numNodes++] = declare(store, method, random.nextInt(3) == 0 ? VARIABLE : CONTROL_FLOW, "s" + s);
+					}
+				}
+			}
+		}
+		return new SyntheticUniverse(store, nodes);
+	}
+	
+	private static int declare(ObservationStore store, int parent, String kind, String name){
+		int node = store.createNode(name);
+		store.addTag(node, kind);
+		if(parent != ObservationStore.NONE){
+			int declares = store.createEdge(parent, node, DECLARES);
+			store.addTag(declares, DECLARES);
+		}
+		return node;
+	}
+	
+	public InMemoryObservationStore getStore(){
+		return store;
+	}
+	
+	/**
+	 * Returns the program artifact nodes in declaration order
+	 * @return
+	 */
+	public int[] getNodes(){
+		return nodes;
+	}
+	
+	public int size(){
+		return nodes.length;
+	}
+
+}
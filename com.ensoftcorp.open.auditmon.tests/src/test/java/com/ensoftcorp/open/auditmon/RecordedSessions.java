@@ -0,0 +1,261 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarFormat;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarSessionWriter;
+import com.ensoftcorp.open.auditmon.store.InMemoryObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationEngine;
+import com.ensoftcorp.open.auditmon.store.ObservationGraph;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
+
+/**
+ * Sessions recorded by the ObservationEngine into an InMemoryObservationStore over a
+ * small program, the shared fixture of the tests
+ *
+ * The program has one package of classes with a few members each, plus the package
+ * itself as a member that is too coarse for the class and source file granularities.
+ * Members are named by their signature, for example "p.C1.m2".
+ *
+ * @author Ben Holland
+ */
+public class RecordedSessions {
+	
+	public static final String PACKAGE = "p";
+	public static final String PROJECT = "project";
+	public static final int CLASSES = 4;
+	public static final int MEMBERS_PER_CLASS = 5;
+	public static final String ORIGIN = "Java Editor:Test.java";
+	public static final String STOP_REASON = "idle";
+	
+	private final InMemoryObservationStore store = new InMemoryObservationStore();
+	private final int[] members;
+	private final HashMap<Integer,String> classes = new HashMap<Integer,String>();
+	private final HashMap<String,Integer> signatures = new HashMap<String,Integer>();
+	
+	public RecordedSessions(){
+		members = new int[CLASSES * MEMBERS_PER_CLASS + 1];
+		int numMembers = 0;
+		members[numMembers++] = createMember(PACKAGE, null);
+		for(int c=0; c<CLASSES; c++){
+			String cls = PACKAGE + ".C" + c;
+			for(int m=0; m<MEMBERS_PER_CLASS; m++){
+				members[numMembers++] = createMember(cls + ".m" + m, cls);
+			}
+		}
+	}
+	
+	private int createMember(String signature, String cls){
+		int member = store.createNode(signature);
+		if(cls != null){
+			classes.put(member, cls);
+		}
+		signatures.put(signature, member);
+		return member;
+	}
+	
+	public InMemoryObservationStore getStore(){
+		return store;
+	}
+	
+	/**
+	 * Returns the program artifact nodes, the package first
+	 * @return
+	 */
+	public int[] getMembers(){
+		return members;
+	}
+	
+	/**
+	 * Returns the member with the given signature or NONE
+	 * @param signature
+	 * @return
+	 */
+	public int getMember(String signature){
+		Integer member = signatures.get(signature);
+		return member == null ? ObservationStore.NONE : member;
+	}
+	
+	public String getSignature(int member){
+		return store.getName(member);
+	}
+	
+	/**
+	 * Returns the signature (which is also the display name) of the member's granule, or
+	 * null if the member is too coarse for the granularity, as AuditUtils.getNodeGranule
+	 * @param member
+	 * @param granularity
+	 * @return
+	 */
+	public String getGranule(int member, Granularity granularity){
+		String cls = classes.get(member);
+		switch(granularity){
+		case PROGRAM_ARTIFACT:
+			return getSignature(member);
+		case PARENT_CLASS:
+			return cls;
+		case SOURCE_FILE:
+			return cls == null ? null : cls + ".java";
+		case PACKAGE:
+			return PACKAGE;
+		default:
+			return PROJECT;
+		}
+	}
+	
+	/**
+	 * Records a session of several runs, each a start, a number of observations and a stop
+	 * Selections are one to three members, some revisit a recent selection and selections
+	 * are never repeated back to back (AuditMon skips those). With irregularTimes some
+	 * observations share a timestamp or go back in time, as a clock change would.
+	 * @param session
+	 * @param seed
+	 * @param start the timestamp of the first start
+	 * @param runs
+	 * @param observationsPerRun
+	 * @param irregularTimes
+	 * @return the timestamp of the last stop
+	 */
+	public long record(String session, long seed, long start, int runs, int observationsPerRun, boolean irregularTimes){
+		Random random = new Random(seed);
+		ObservationEngine engine = new ObservationEngine(store, session);
+		ArrayList<int[]> recent = new ArrayList<int[]>();
+		int[] last = null;
+		long time = start;
+		for(int run=0; run<runs; run++){
+			engine.start(time);
+			for(int i=0; i<observationsPerRun; i++){
+				int[] selection;
+				do {
+					if(!recent.isEmpty() && random.nextDouble() < 0.3){
+						selection = recent.get(random.nextInt(recent.size()));
+					} else {
+						selection = newSelection(random);
+						recent.add(selection);
+					}
+				} while(last != null && Arrays.equals(sorted(selection), sorted(last)));
+				int step = random.nextInt(10);
+				if(irregularTimes && step == 0){
+					// the same time as the previous visit
+				} else if(irregularTimes && step == 1){
+					time -= 500;
+				} else {
+					time += 1 + random.nextInt(5000);
+				}
+				engine.observe(selection, time, ORIGIN);
+				last = selection;
+			}
+			time += 1 + random.nextInt(5000);
+			engine.stop(time, STOP_REASON);
+			last = null;
+			time += 60000 + random.nextInt(60000);
+		}
+		return time;
+	}
+	
+	private int[] newSelection(Random random){
+		int size = 1 + random.nextInt(3);
+		int[] selection = new int[size];
+		for(int i=0; i<size; i++){
+			int member;
+			boolean duplicate;
+			do {
+				member = members[random.nextInt(members.length)];
+				duplicate = false;
+				for(int j=0; j<i; j++){
+					duplicate |= selection[j] == member;
+				}
+			} while(duplicate);
+			selection[i] = member;
+		}
+		return selection;
+	}
+	
+	private static int[] sorted(int[] values){
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+	
+	/**
+	 * Writes the given sessions of the store to a columnar session file the way
+	 * ColumnarSessionExporter writes the sessions of the index
+	 * @param file
+	 * @param rowGroupSize
+	 * @param sessions
+	 * @return the number of written visits
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public long export(File file, int rowGroupSize, String... sessions) throws IOException {
+		ColumnarSessionWriter writer = new ColumnarSessionWriter(file, rowGroupSize);
+		boolean written = false;
+		try {
+			HashMap<Integer,Integer> memberIds = new HashMap<Integer,Integer>();
+			for(String session : sessions){
+				int[] visits = ObservationGraph.replay(store, session);
+				if(visits.length == 0){
+					continue;
+				}
+				int sessionNode = store.registerSession(session);
+				ArrayList<String> startTimestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS);
+				ArrayList<String> stopTimestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS);
+				ArrayList<String> stopReasons = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_REASONS);
+				int sessionId = writer.getSessionId(session);
+				int starts = 0;
+				int stops = 0;
+				HashMap<Integer,Integer> visitationCounts = new HashMap<Integer,Integer>();
+				for(int observationNode : visits){
+					int observationId = writer.getObservationId(Integer.toString(observationNode));
+					if(store.hasTag(observationNode, AuditConstants.START)){
+						writer.start(sessionId, Long.parseLong(startTimestamps.get(starts++)), observationId);
+					} else if(store.hasTag(observationNode, AuditConstants.STOP)){
+						String reason = stopReasons.get(stops);
+						writer.stop(sessionId, Long.parseLong(stopTimestamps.get(stops++)), observationId, reason);
+					} else {
+						Integer visitationCount = visitationCounts.get(observationNode);
+						int visitationIndex = visitationCount == null ? 0 : visitationCount;
+						visitationCounts.put(observationNode, visitationIndex + 1);
+						long timestamp = Long.parseLong(((ArrayList<String>) store.getAttr(observationNode, session)).get(visitationIndex));
+						String origin = ((ArrayList<String>) store.getAttr(observationNode, session + AuditConstants.OBSERVATION_ORIGIN_SUFFIX)).get(visitationIndex);
+						int[] observationMembers = store.getPredecessors(observationNode, AuditConstants.OBSERVATION_MEMBER);
+						for(int i=0; i<observationMembers.length; i++){
+							observationMembers[i] = getMemberId(writer, memberIds, observationMembers[i]);
+						}
+						writer.observation(sessionId, timestamp, observationId, origin, observationMembers, 0, observationMembers.length);
+					}
+				}
+			}
+			written = true;
+		} finally {
+			if(written){
+				writer.close();
+			} else {
+				writer.abort();
+			}
+		}
+		return writer.getRows();
+	}
+	
+	private int getMemberId(ColumnarSessionWriter writer, HashMap<Integer,Integer> memberIds, int member){
+		Integer id = memberIds.get(member);
+		if(id == null){
+			int[] granuleIds = new int[ColumnarFormat.GRANULARITIES.length];
+			for(int level=0; level<granuleIds.length; level++){
+				Granularity granularity = ColumnarFormat.GRANULARITIES[level];
+				String granule = getGranule(member, granularity);
+				granuleIds[level] = granule == null ? -1 : writer.getGranuleId(granularity, granule, granule);
+			}
+			id = writer.getMemberId(getSignature(member), getSignature(member), granuleIds);
+			memberIds.put(member, id);
+		}
+		return id;
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.store.ObservationGraph;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
+
+/**
+ * The in-index session analyses run over an ObservationStore, step for step as
+ * AuditUtils.getSessionObservations, AuditUtils.getAuditStatistics (with its
+ * SessionTimeline), ObservedTimeAllocationsChart and DOIModel.getDOIModelForSession
+ * run over the Atlas index, which the tests cannot load
+ *
+ * @author Ben Holland
+ */
+public class StoreAnalysis {
+	
+	/**
+	 * A visit of an observation node, as an AbstractObservation
+	 */
+	public static class Visit {
+		public final int observationNode;
+		public final long timestamp;
+		public final boolean observation;
+		
+		Visit(int observationNode, long timestamp, boolean observation){
+			this.observationNode = observationNode;
+			this.timestamp = timestamp;
+			this.observation = observation;
+		}
+	}
+	
+	private StoreAnalysis(){}
+	
+	/**
+	 * Returns the visits of the session by timestamp as AuditUtils.getSessionObservations,
+	 * the last visit wins when visits share a timestamp
+	 * @param store
+	 * @param session
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static TreeMap<Long,Visit> getSessionObservations(ObservationStore store, String session){
+		int sessionNode = store.registerSession(session);
+		HashMap<Integer,Integer> visitationCounts = new HashMap<Integer,Integer>();
+		TreeMap<Long,Visit> visits = new TreeMap<Long,Visit>();
+		for(int observationNode : ObservationGraph.replay(store, session)){
+			Integer visitationCount = visitationCounts.get(observationNode);
+			int visitationIndex = visitationCount == null ? 0 : visitationCount;
+			visitationCounts.put(observationNode, visitationIndex + 1);
+			ArrayList<String> timestamps;
+			boolean observation = false;
+			if(store.hasTag(observationNode, AuditConstants.START)){
+				timestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS);
+			} else if(store.hasTag(observationNode, AuditConstants.STOP)){
+				timestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS);
+			} else {
+				timestamps = (ArrayList<String>) store.getAttr(observationNode, session);
+				observation = true;
+			}
+			long timestamp = Long.parseLong(timestamps.get(visitationIndex));
+			visits.put(timestamp, new Visit(observationNode, timestamp, observation));
+		}
+		return visits;
+	}
+	
+	/**
+	 * Returns the statistics of AuditUtils.getAuditStatistics
+	 * @param store
+	 * @param session
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String,Object> getAuditStatistics(ObservationStore store, String session){
+		int sessionNode = store.registerSession(session);
+		ArrayList<String> startTimestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS);
+		ArrayList<String> stopTimestamps = (ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS);
+		int numStarts = startTimestamps.size();
+		int numStops = stopTimestamps.size();
+		
+		// the timeline merges the starts and stops by time, a start wins a tie
+		long[] timestamps = new long[numStarts + numStops];
+		boolean[] isStart = new boolean[numStarts + numStops];
+		int startIndex = 0;
+		int stopIndex = 0;
+		for(int i=0; i<timestamps.length; i++){
+			long nextStart = startIndex < numStarts ? Long.parseLong(startTimestamps.get(startIndex)) : Long.MAX_VALUE;
+			long nextStop = stopIndex < numStops ? Long.parseLong(stopTimestamps.get(stopIndex)) : Long.MAX_VALUE;
+			if(startIndex < numStarts && nextStart <= nextStop){
+				timestamps[i] = nextStart;
+				isStart[i] = true;
+				startIndex++;
+			} else {
+				timestamps[i] = nextStop;
+				stopIndex++;
+			}
+		}
+		long auditTime = 0L;
+		long breakTime = 0L;
+		Date auditStarted = null;
+		Date auditFinished = null;
+		for(int i=0; i<timestamps.length; i++){
+			if(isStart[i]){
+				if(i > 0){
+					breakTime += timestamps[i] - timestamps[i-1];
+				}
+				if(auditStarted == null){
+					auditStarted = new Date(timestamps[i]);
+				}
+			} else {
+				if(i > 0){
+					auditTime += timestamps[i] - timestamps[i-1];
+				}
+				auditFinished = new Date(timestamps[i]);
+			}
+		}
+		
+		// every visit after the first start is reached by exactly one numbered observation edge
+		int numObservations = 0;
+		if(numStarts > 0){
+			long numEdgeNumbers = 0;
+			for(int edge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION, session)){
+				ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(edge, session);
+				if(edgeNumbers != null){
+					numEdgeNumbers += edgeNumbers.size();
+				}
+			}
+			numObservations = (int) (numEdgeNumbers + 1 - numStarts - numStops);
+		}
+		
+		HashMap<String,Object> stats = new HashMap<String,Object>();
+		stats.put("Total Audit Time", auditTime);
+		stats.put("Total Break Time", breakTime);
+		stats.put("Audit Started", auditStarted);
+		stats.put("Audit Finished", auditFinished);
+		stats.put("Number of Times Resumed", numStarts - 1);
+		stats.put("Number of Observations", numObservations);
+		return stats;
+	}
+	
+	/**
+	 * Returns the time allocations ObservedTimeAllocationsChart shows, by granule display name
+	 * @param sessions
+	 * @param session
+	 * @param granularity
+	 * @return
+	 */
+	public static HashMap<String,Long> getTimeAllocations(RecordedSessions sessions, String session, Granularity granularity){
+		ObservationStore store = sessions.getStore();
+		HashMap<String,Long> timeAllocations = new HashMap<String,Long>();
+		Visit lastObservation = null;
+		for(Visit observation : getSessionObservations(store, session).values()){
+			// start and end nodes don't count towards time spent, but they do reset the time deltas
+			if(!observation.observation){
+				lastObservation = null;
+				continue;
+			}
+			if(lastObservation != null){
+				long timeDelta = observation.timestamp - lastObservation.timestamp;
+				for(int programArtifact : store.getPredecessors(lastObservation.observationNode, AuditConstants.OBSERVATION_MEMBER)){
+					String granule = sessions.getGranule(programArtifact, granularity);
+					if(granule != null){
+						Long timeSpent = timeAllocations.get(granule);
+						timeAllocations.put(granule, timeSpent == null ? timeDelta : timeSpent + timeDelta);
+					}
+				}
+			}
+			lastObservation = observation;
+		}
+		return timeAllocations;
+	}
+	
+	/**
+	 * Returns the degree of interest model of DOIModel.getDOIModelForSession, by granule signature
+	 * @param sessions
+	 * @param session
+	 * @param granularity
+	 * @param decayRate
+	 * @param interestIncrease
+	 * @param interestThreshold
+	 * @return
+	 */
+	public static HashMap<String,Double> getDOIModel(RecordedSessions sessions, String session, Granularity granularity, double decayRate, double interestIncrease, double interestThreshold){
+		ObservationStore store = sessions.getStore();
+		HashMap<String,double[]> table = new HashMap<String,double[]>();
+		for(Visit observation : getSessionObservations(store, session).values()){
+			// ignore start and stop observation nodes
+			if(!observation.observation){
+				continue;
+			}
+			// each member of a simultaneous observation is a separate observation
+			for(int observedNode : store.getPredecessors(observation.observationNode, AuditConstants.OBSERVATION_MEMBER)){
+				String nodeOfInterest = sessions.getGranule(observedNode, granularity);
+				if(nodeOfInterest == null){
+					continue;
+				}
+				if(table.containsKey(nodeOfInterest)){
+					table.get(nodeOfInterest)[0] += interestIncrease;
+				} else {
+					table.put(nodeOfInterest, new double[]{ interestIncrease });
+				}
+				LinkedList<String> nodesToRemove = new LinkedList<String>();
+				for(Entry<String,double[]> entry : table.entrySet()){
+					if(!entry.getKey().equals(nodeOfInterest)){
+						entry.getValue()[0] -= decayRate;
+					}
+					if(entry.getValue()[0] < interestThreshold){
+						nodesToRemove.add(entry.getKey());
+					}
+				}
+				for(String nodeToRemove : nodesToRemove){
+					table.remove(nodeToRemove);
+				}
+			}
+		}
+		HashMap<String,Double> doi = new HashMap<String,Double>();
+		for(Entry<String,double[]> entry : table.entrySet()){
+			doi.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return doi;
+	}
+
+}
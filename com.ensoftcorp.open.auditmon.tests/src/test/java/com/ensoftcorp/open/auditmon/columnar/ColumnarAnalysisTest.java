@@ -0,0 +1,120 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.RecordedSessions;
+import com.ensoftcorp.open.auditmon.StoreAnalysis;
+
+/**
+ * Checks that the offline analyses of ColumnarAnalysis give the same results as the
+ * in-index analyses (see StoreAnalysis) for sessions recorded into an InMemoryObservationStore
+ *
+ * @author Ben Holland
+ */
+public class ColumnarAnalysisTest {
+	
+	private static final String REGULAR = "regular";
+	private static final String IRREGULAR = "irregular";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private RecordedSessions sessions;
+	private ColumnarSessionFile file;
+	
+	@Before
+	public void setUp() throws IOException {
+		sessions = new RecordedSessions();
+		sessions.record(REGULAR, 1, 1000000L, 5, 40, false);
+		sessions.record(IRREGULAR, 2, 5000000L, 6, 60, true);
+		File export = folder.newFile("sessions.amc");
+		sessions.export(export, 16, REGULAR, IRREGULAR);
+		file = new ColumnarSessionFile(export);
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		file.close();
+	}
+	
+	@Test
+	public void auditStatisticsMatchTheIndex() throws IOException {
+		for(String session : new String[]{ REGULAR, IRREGULAR }){
+			HashMap<String,Object> expected = StoreAnalysis.getAuditStatistics(sessions.getStore(), session);
+			assertEquals(session, expected, ColumnarAnalysis.getAuditStatistics(file.readSession(session)));
+		}
+	}
+	
+	@Test
+	public void sortedVisitsMatchTheIndex() throws IOException {
+		for(String session : new String[]{ REGULAR, IRREGULAR }){
+			ColumnarSession columns = file.readSession(session);
+			int[] visits = ColumnarAnalysis.getSortedVisits(columns);
+			Long[] expected = StoreAnalysis.getSessionObservations(sessions.getStore(), session).keySet().toArray(new Long[0]);
+			assertEquals(session, expected.length, visits.length);
+			for(int i=0; i<visits.length; i++){
+				assertEquals(session, expected[i].longValue(), columns.getTimestamps()[visits[i]]);
+			}
+		}
+		// the irregular session has visits that share a timestamp, only the last one is kept
+		assertTrue(ColumnarAnalysis.getSortedVisits(file.readSession(IRREGULAR)).length < file.readSession(IRREGULAR).getRows());
+	}
+	
+	@Test
+	public void timeAllocationsMatchTheIndex() throws IOException {
+		for(String session : new String[]{ REGULAR, IRREGULAR }){
+			ColumnarSession columns = file.readSession(session);
+			for(Granularity granularity : Granularity.values()){
+				HashMap<String,Long> expected = StoreAnalysis.getTimeAllocations(sessions, session, granularity);
+				long[] allocations = ColumnarAnalysis.getTimeAllocations(file, columns, granularity);
+				assertFalse(session + " " + granularity, expected.isEmpty());
+				assertEquals(session + " " + granularity, expected, ColumnarAnalysis.getTimeAllocationsDisplay(file, granularity, allocations));
+			}
+		}
+	}
+	
+	@Test
+	public void doiModelMatchesTheIndex() throws IOException {
+		for(String session : new String[]{ REGULAR, IRREGULAR }){
+			ColumnarSession columns = file.readSession(session);
+			for(Granularity granularity : Granularity.values()){
+				// a fast decay drops granules from the model, which the default parameters rarely do
+				assertDOIModel(session, columns, granularity, AuditConstants.DEFAULT_DOI_DECAY_RATE, AuditConstants.DEFAULT_DOI_INTEREST_INCREASE, AuditConstants.DEFAULT_DOI_INTEREST_THRESHOLD);
+				assertDOIModel(session, columns, granularity, 0.5, 1.0, -2.0);
+			}
+		}
+	}
+	
+	private void assertDOIModel(String session, ColumnarSession columns, Granularity granularity, double decayRate, double interestIncrease, double interestThreshold){
+		String message = session + " " + granularity + " " + decayRate;
+		HashMap<String,Double> expected = StoreAnalysis.getDOIModel(sessions, session, granularity, decayRate, interestIncrease, interestThreshold);
+		double[] interest = ColumnarAnalysis.getDOIModel(file, columns, granularity, decayRate, interestIncrease, interestThreshold);
+		HashMap<String,Double> actual = new HashMap<String,Double>();
+		for(int granule=0; granule<interest.length; granule++){
+			if(!Double.isNaN(interest[granule])){
+				actual.put(file.getGranuleSignature(granularity, granule), interest[granule]);
+			}
+		}
+		assertFalse(message, expected.isEmpty());
+		assertEquals(message, expected.keySet(), actual.keySet());
+		for(Entry<String,Double> entry : expected.entrySet()){
+			assertEquals(message + " " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 1e-9);
+		}
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.RecordedSessions;
+import com.ensoftcorp.open.auditmon.merge.JournalEntry;
+import com.ensoftcorp.open.auditmon.merge.JournalSource;
+
+/**
+ * Writes sessions with ColumnarSessionWriter and checks that ColumnarSessionFile reads back
+ * every visit, dictionary and granule as written
+ *
+ * @author Ben Holland
+ */
+public class ColumnarRoundTripTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * A visit as it was written
+	 */
+	private static class Row {
+		final int session;
+		final long timestamp;
+		final byte type;
+		final int observation;
+		final String origin;
+		final int[] members;
+		
+		Row(int session, long timestamp, byte type, int observation, String origin, int[] members){
+			this.session = session;
+			this.timestamp = timestamp;
+			this.type = type;
+			this.observation = observation;
+			this.origin = origin;
+			this.members = members;
+		}
+	}
+	
+	@Test
+	public void visitsAndDictionariesRoundTrip() throws IOException {
+		File file = folder.newFile("sessions.amc");
+		String[] sessionNames = { "first", "second" };
+		String[] origins = { "Java Editor:A.java", "Package Explorer", null };
+		List<Row> rows = new ArrayList<Row>();
+		// a row group size that does not divide the sessions, so groups are split by size and by session
+		ColumnarSessionWriter writer = new ColumnarSessionWriter(file, 7);
+		try {
+			int[] granules = new int[ColumnarFormat.GRANULARITIES.length];
+			int[] members = new int[10];
+			for(int member=0; member<members.length; member++){
+				for(int level=0; level<granules.length; level++){
+					Granularity granularity = ColumnarFormat.GRANULARITIES[level];
+					// the first member is too coarse for the class granularity
+					granules[level] = member == 0 && granularity == Granularity.PARENT_CLASS ? -1 : writer.getGranuleId(granularity, granularity + "/" + (member / 3), "granule " + (member / 3));
+				}
+				members[member] = writer.getMemberId("sig" + member, "name" + member, granules);
+			}
+			// the same member again keeps its first id
+			assertEquals(members[4], writer.getMemberId("sig4", "other", granules));
+			
+			int startId = writer.getObservationId("start");
+			int stopId = writer.getObservationId("stop");
+			long timestamp = 1000L;
+			for(String sessionName : sessionNames){
+				int session = writer.getSessionId(sessionName);
+				for(int run=0; run<3; run++){
+					writer.start(session, timestamp, startId);
+					rows.add(new Row(session, timestamp, ColumnarFormat.TYPE_START, startId, null, new int[0]));
+					for(int i=0; i<5; i++){
+						// timestamps go back once in a while, deltas are zigzag encoded
+						timestamp += i == 3 ? -250 : 1000 + i;
+						int[] observationMembers = Arrays.copyOfRange(members, i, i + 1 + (i % 3));
+						int observation = writer.getObservationId("observation" + i);
+						String origin = origins[i % origins.length];
+						writer.observation(session, timestamp, observation, origin, observationMembers, 0, observationMembers.length);
+						rows.add(new Row(session, timestamp, ColumnarFormat.TYPE_OBSERVATION, observation, origin, observationMembers));
+					}
+					timestamp += 10;
+					String reason = run == 1 ? null : "reason" + run;
+					writer.stop(session, timestamp, stopId, reason);
+					rows.add(new Row(session, timestamp, ColumnarFormat.TYPE_STOP, stopId, reason, new int[0]));
+					timestamp += 100000;
+				}
+			}
+			assertEquals(rows.size(), writer.getRows());
+		} finally {
+			writer.close();
+		}
+		
+		assertTrue(ColumnarSessionFile.isColumnarSessionFile(file));
+		ColumnarSessionFile columnar = new ColumnarSessionFile(file);
+		try {
+			assertEquals(Arrays.asList(sessionNames), columnar.getSessions());
+			assertEquals(rows.size(), columnar.getRows());
+			assertEquals(10, columnar.getNumMembers());
+			assertEquals(7, columnar.getNumObservations());
+			for(int member=0; member<10; member++){
+				assertEquals("sig" + member, columnar.getMemberSignature(member));
+				assertEquals("name" + member, columnar.getMemberName(member));
+				assertEquals(member, columnar.getMemberGranules(Granularity.PROGRAM_ARTIFACT)[member]);
+				for(Granularity granularity : ColumnarFormat.GRANULARITIES){
+					int granule = columnar.getMemberGranules(granularity)[member];
+					if(member == 0 && granularity == Granularity.PARENT_CLASS){
+						assertEquals(-1, granule);
+					} else {
+						assertEquals(granularity + "/" + (member / 3), columnar.getGranuleSignature(granularity, granule));
+						assertEquals("granule " + (member / 3), columnar.getGranuleName(granularity, granule));
+					}
+				}
+			}
+			assertEquals(4, columnar.getNumGranules(Granularity.PARENT_CLASS));
+			assertEquals(4, columnar.getNumGranules(Granularity.PROJECT));
+			
+			int row = 0;
+			for(int session=0; session<sessionNames.length; session++){
+				ColumnarSession columns = columnar.readSession(sessionNames[session]);
+				assertEquals(sessionNames[session], columns.getSession());
+				for(int i=0; i<columns.getRows(); i++, row++){
+					Row expected = rows.get(row);
+					assertEquals(session, expected.session);
+					assertEquals(expected.timestamp, columns.getTimestamps()[i]);
+					assertEquals(expected.type, columns.getTypes()[i]);
+					assertEquals(expected.observation, columns.getObservations()[i]);
+					assertEquals(expected.origin, columnar.getOrigin(columns.getOrigins()[i]));
+					int[] members = Arrays.copyOfRange(columns.getMembers(), columns.getMemberOffsets()[i], columns.getMemberOffsets()[i+1]);
+					assertArrayEquals(expected.members, members);
+				}
+			}
+			assertEquals(rows.size(), row);
+			assertNull(columnar.readSession("missing"));
+		} finally {
+			columnar.close();
+		}
+	}
+	
+	@Test
+	public void recordedSessionsRoundTrip() throws IOException {
+		RecordedSessions sessions = new RecordedSessions();
+		sessions.record("a", 3, 1000L, 3, 25, true);
+		sessions.record("b", 4, 2000L, 2, 25, false);
+		File file = folder.newFile("recorded.amc");
+		long rows = sessions.export(file, ColumnarSessionWriter.DEFAULT_ROW_GROUP_SIZE, "a", "b");
+		// a start, 25 observations and a stop per run
+		assertEquals(3 * 27 + 2 * 27, rows);
+		ColumnarSessionFile columnar = new ColumnarSessionFile(file);
+		try {
+			assertEquals(rows, columnar.getRows());
+			ColumnarSession a = columnar.readSession("a");
+			assertEquals(3 * 27, a.getRows());
+			for(int i=0; i<a.getRows(); i++){
+				if(a.getTypes()[i] == ColumnarFormat.TYPE_OBSERVATION){
+					assertEquals(RecordedSessions.ORIGIN, columnar.getOrigin(a.getOrigins()[i]));
+					assertTrue(a.getMemberOffsets()[i+1] > a.getMemberOffsets()[i]);
+				} else if(a.getTypes()[i] == ColumnarFormat.TYPE_STOP){
+					assertEquals(RecordedSessions.STOP_REASON, columnar.getOrigin(a.getOrigins()[i]));
+				}
+			}
+		} finally {
+			columnar.close();
+		}
+	}
+	
+	@Test
+	public void fingerprintsFollowTheContent() throws IOException {
+		RecordedSessions sessions = new RecordedSessions();
+		sessions.record("a", 5, 1000L, 2, 20, false);
+		File first = folder.newFile("first.amc");
+		File second = folder.newFile("second.amc");
+		sessions.export(first, 8, "a");
+		sessions.export(second, 8, "a");
+		long fingerprint;
+		long layoutFingerprint;
+		ColumnarSessionFile columnar = new ColumnarSessionFile(first);
+		try {
+			fingerprint = columnar.getFingerprint(columnar.readSession("a"));
+			layoutFingerprint = columnar.getLayoutFingerprint("a");
+		} finally {
+			columnar.close();
+		}
+		columnar = new ColumnarSessionFile(second);
+		try {
+			assertEquals(fingerprint, columnar.getFingerprint(columnar.readSession("a")));
+			assertEquals(layoutFingerprint, columnar.getLayoutFingerprint("a"));
+		} finally {
+			columnar.close();
+		}
+		
+		// one more run changes both fingerprints
+		sessions.record("a", 6, 10000000L, 1, 5, false);
+		File third = folder.newFile("third.amc");
+		sessions.export(third, 8, "a");
+		columnar = new ColumnarSessionFile(third);
+		try {
+			assertNotEquals(fingerprint, columnar.getFingerprint(columnar.readSession("a")));
+			assertNotEquals(layoutFingerprint, columnar.getLayoutFingerprint("a"));
+		} finally {
+			columnar.close();
+		}
+	}
+	
+	@Test
+	public void abortedWriterLeavesNoFile() throws IOException {
+		File file = new File(folder.getRoot(), "aborted.amc");
+		ColumnarSessionWriter writer = new ColumnarSessionWriter(file);
+		writer.start(writer.getSessionId("a"), 1L, writer.getObservationId("start"));
+		writer.abort();
+		assertFalse(file.exists());
+	}
+	
+	@Test
+	public void otherFilesAreNotColumnar() throws IOException {
+		File file = folder.newFile("journal.txt");
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(JournalEntry.start("a", 1L) + "\n");
+		} finally {
+			writer.close();
+		}
+		assertFalse(ColumnarSessionFile.isColumnarSessionFile(file));
+	}
+	
+	@Test
+	public void importedJournalsRoundTrip() throws IOException {
+		final List<JournalEntry> entries = new ArrayList<JournalEntry>();
+		entries.add(JournalEntry.start("a", 1L));
+		entries.add(JournalEntry.start("b", 2L));
+		entries.add(JournalEntry.observation("a", 3L, "origin", Arrays.asList("x", "y")));
+		entries.add(JournalEntry.observation("b", 4L, "origin", Arrays.asList("y")));
+		entries.add(JournalEntry.observation("a", 5L, "origin", Arrays.asList("x", "y")));
+		entries.add(JournalEntry.stop("a", 6L, "done"));
+		File file = folder.newFile("imported.amc");
+		long rows = ColumnarJournalImporter.importJournal(new JournalSource(){
+			private int next = 0;
+			
+			@Override
+			public JournalEntry next(){
+				return next < entries.size() ? entries.get(next++) : null;
+			}
+			
+			@Override
+			public void close(){}
+		}, file);
+		assertEquals(entries.size(), rows);
+		
+		ColumnarSessionFile columnar = new ColumnarSessionFile(file);
+		try {
+			assertEquals(Arrays.asList("a", "b"), columnar.getSessions());
+			ColumnarSession a = columnar.readSession("a");
+			assertArrayEquals(new long[]{ 1L, 3L, 5L, 6L }, Arrays.copyOf(a.getTimestamps(), a.getRows()));
+			// observations of the same members share an observation id
+			assertEquals(a.getObservations()[1], a.getObservations()[2]);
+			assertEquals("done", columnar.getOrigin(a.getOrigins()[3]));
+			// journal members have no granules
+			assertEquals(-1, columnar.getMemberGranules(Granularity.PARENT_CLASS)[0]);
+		} finally {
+			columnar.close();
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.RecordedSessions;
+import com.ensoftcorp.open.auditmon.store.InMemoryObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationGraph;
+
+/**
+ * Merges journals into an InMemoryObservationStore and checks that merging the same
+ * entries again leaves the store unchanged
+ *
+ * @author Ben Holland
+ */
+public class JournalMergerTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private RecordedSessions sessions;
+	private InMemoryObservationStore store;
+	private JournalMerger.MemberResolver resolver;
+	
+	@Before
+	public void setUp(){
+		sessions = new RecordedSessions();
+		store = sessions.getStore();
+		resolver = new JournalMerger.MemberResolver(){
+			@Override
+			public int resolve(String member) {
+				return sessions.getMember(member);
+			}
+		};
+	}
+	
+	private List<JournalEntry> journal(String session, long start){
+		List<JournalEntry> entries = new ArrayList<JournalEntry>();
+		entries.add(JournalEntry.start(session, start));
+		entries.add(JournalEntry.observation(session, start + 10, "origin", Arrays.asList("p.C0.m0")));
+		entries.add(JournalEntry.observation(session, start + 20, "origin", Arrays.asList("p.C0.m1", "p.C1.m0")));
+		// repeated back to back, skipped
+		entries.add(JournalEntry.observation(session, start + 25, "origin", Arrays.asList("p.C1.m0", "p.C0.m1")));
+		// no member resolves, skipped
+		entries.add(JournalEntry.observation(session, start + 27, "origin", Arrays.asList("missing")));
+		entries.add(JournalEntry.observation(session, start + 30, "origin", Arrays.asList("p.C0.m0")));
+		entries.add(JournalEntry.stop(session, start + 40, "idle"));
+		entries.add(JournalEntry.start(session, start + 1000));
+		entries.add(JournalEntry.observation(session, start + 1010, "origin", Arrays.asList("p.C2.m3", "p")));
+		entries.add(JournalEntry.stop(session, start + 1020, "closed"));
+		return entries;
+	}
+	
+	private MergeResult merge(List<JournalEntry> entries){
+		JournalMerger merger = new JournalMerger(store, resolver);
+		merger.merge(entries);
+		return merger.getResult();
+	}
+	
+	@Test
+	public void mergingAgainChangesNothing(){
+		List<JournalEntry> entries = journal("s", 1000L);
+		MergeResult first = merge(entries);
+		assertEquals(2, first.getNumberOfStarts());
+		assertEquals(2, first.getNumberOfStops());
+		assertEquals(4, first.getNumberOfObservations());
+		assertEquals(3, first.getNumberOfNewObservationNodes());
+		assertEquals(2, first.getNumberOfSkippedEntries());
+		assertEquals(1, first.getNumberOfUnresolvedMembers());
+		int size = store.size();
+		int[] replay = ObservationGraph.replay(store, "s");
+		assertEquals(1 + 3 + 1 + 1 + 1 + 1, replay.length);
+		
+		MergeResult second = merge(entries);
+		assertEquals(entries.size(), second.getNumberOfAlreadyMergedEntries());
+		assertEquals(0, second.getNumberOfObservations());
+		assertEquals(size, store.size());
+		assertArrayEquals(replay, ObservationGraph.replay(store, "s"));
+	}
+	
+	@Test
+	public void mergedSessionsShareObservationNodes(){
+		merge(journal("s", 1000L));
+		int size = store.size();
+		// a second session observing the same members reuses the observation nodes
+		MergeResult result = merge(journal("t", 1000L));
+		assertEquals(0, result.getNumberOfNewObservationNodes());
+		assertEquals(4, result.getNumberOfObservations());
+		assertEquals(0, result.getNumberOfAlreadyMergedEntries());
+		// the observation edges are shared too, only the session node of the new session is added
+		assertEquals(size + 1, store.size());
+		assertArrayEquals(ObservationGraph.replay(store, "s"), ObservationGraph.replay(store, "t"));
+		assertEquals(3, store.getNodesTaggedWithAll(AuditConstants.OBSERVATION, "t").length);
+	}
+	
+	@Test
+	public void mergingJournalsAgainChangesNothing() throws IOException {
+		// two journals of interleaved sessions, merged by timestamp
+		File first = write("first.txt", journal("s", 1000L));
+		File second = write("second.txt", journal("t", 1005L));
+		MergeResult result = mergeFiles(first, second);
+		assertEquals(8, result.getNumberOfObservations());
+		int size = store.size();
+		int[] s = ObservationGraph.replay(store, "s");
+		int[] t = ObservationGraph.replay(store, "t");
+		
+		result = mergeFiles(second, first, second);
+		assertEquals(0, result.getNumberOfObservations());
+		assertEquals(3 * journal("s", 0L).size(), result.getNumberOfAlreadyMergedEntries());
+		assertEquals(size, store.size());
+		assertArrayEquals(s, ObservationGraph.replay(store, "s"));
+		assertArrayEquals(t, ObservationGraph.replay(store, "t"));
+		
+		// a journal that continues a session is appended after the merged visits
+		List<JournalEntry> later = new ArrayList<JournalEntry>();
+		later.add(JournalEntry.start("s", 9000L));
+		later.add(JournalEntry.observation("s", 9010L, "origin", Arrays.asList("p.C3.m4")));
+		later.add(JournalEntry.stop("s", 9020L, "idle"));
+		result = mergeFiles(write("later.txt", later), first);
+		assertEquals(1, result.getNumberOfObservations());
+		assertEquals(journal("s", 0L).size(), result.getNumberOfAlreadyMergedEntries());
+		int[] continued = ObservationGraph.replay(store, "s");
+		assertArrayEquals(s, Arrays.copyOf(continued, s.length));
+		assertEquals(s.length + 3, continued.length);
+	}
+	
+	private File write(String name, List<JournalEntry> entries) throws IOException {
+		File file = folder.newFile(name);
+		FileWriter writer = new FileWriter(file);
+		try {
+			for(JournalEntry entry : entries){
+				writer.write(entry + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+	
+	private MergeResult mergeFiles(File... files) throws IOException {
+		List<JournalReader> readers = new ArrayList<JournalReader>();
+		try {
+			for(File file : files){
+				readers.add(new JournalReader(file));
+			}
+			JournalMerger merger = new JournalMerger(store, resolver);
+			merger.merge(readers);
+			return merger.getResult();
+		} finally {
+			for(JournalReader reader : readers){
+				reader.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.RecordedSessions;
+import com.ensoftcorp.open.auditmon.StoreAnalysis;
+import com.ensoftcorp.open.auditmon.StoreAnalysis.Visit;
+
+/**
+ * Caps sessions recorded into an InMemoryObservationStore (see ObservationGraph.capSession,
+ * which the ObservationCompactor applies to the index) and checks what is dropped and
+ * that the kept visits are renumbered to replay from a start without a gap
+ *
+ * @author Ben Holland
+ */
+public class CapSessionTest {
+	
+	private static final String SESSION = "capped";
+	private static final String OTHER = "other";
+	
+	// a run is a start, 5 observations and a stop
+	private static final int RUN = 7;
+	
+	private RecordedSessions sessions;
+	private InMemoryObservationStore store;
+	
+	@Before
+	public void setUp(){
+		sessions = new RecordedSessions();
+		store = sessions.getStore();
+		sessions.record(SESSION, 1, 1000L, 4, RUN - 2, false);
+		sessions.record(OTHER, 1, 1000000000L, 2, RUN - 2, false);
+	}
+	
+	@Test
+	public void capDropsTheOldestRuns(){
+		int[] visits = ObservationGraph.replay(store, SESSION);
+		TreeMap<Long,Visit> observations = StoreAnalysis.getSessionObservations(store, SESSION);
+		int[] other = ObservationGraph.replay(store, OTHER);
+		assertEquals(4 * RUN, visits.length);
+		
+		// 15 visits fit the last two runs but not the last three
+		assertEquals(2 * RUN, ObservationGraph.capSession(store, SESSION, 15));
+		int[] kept = ObservationGraph.replay(store, SESSION);
+		assertArrayEquals(Arrays.copyOfRange(visits, 2 * RUN, visits.length), kept);
+		assertEquals(new ArrayList<Long>(observations.keySet()).subList(2 * RUN, visits.length), new ArrayList<Long>(StoreAnalysis.getSessionObservations(store, SESSION).keySet()));
+		assertArrayEquals(other, ObservationGraph.replay(store, OTHER));
+		
+		int sessionNode = store.registerSession(SESSION);
+		assertEquals(2, ((List<?>) store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS)).size());
+		assertEquals(2, ((List<?>) store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS)).size());
+		assertEquals(2, ((List<?>) store.getAttr(sessionNode, AuditConstants.STOP_REASONS)).size());
+		assertEdgeNumbers(kept.length - 1);
+		
+		// only the observation nodes of the kept runs are still tagged with the session
+		Set<Integer> keptObservations = new HashSet<Integer>();
+		for(int visit : kept){
+			if(!store.hasTag(visit, AuditConstants.START) && !store.hasTag(visit, AuditConstants.STOP)){
+				keptObservations.add(visit);
+			}
+		}
+		Set<Integer> tagged = new HashSet<Integer>();
+		for(int node : store.getNodesTaggedWithAll(AuditConstants.OBSERVATION, SESSION)){
+			tagged.add(node);
+			assertNotNull(store.getAttr(node, SESSION + AuditConstants.OBSERVATION_ORIGIN_SUFFIX));
+		}
+		assertEquals(keptObservations, tagged);
+		
+		// capping again changes nothing
+		assertEquals(0, ObservationGraph.capSession(store, SESSION, 15));
+		assertArrayEquals(kept, ObservationGraph.replay(store, SESSION));
+	}
+	
+	@Test
+	public void capKeepsTheMostRecentRun(){
+		int[] visits = ObservationGraph.replay(store, SESSION);
+		assertEquals(3 * RUN, ObservationGraph.capSession(store, SESSION, 3));
+		assertArrayEquals(Arrays.copyOfRange(visits, 3 * RUN, visits.length), ObservationGraph.replay(store, SESSION));
+		assertEdgeNumbers(RUN - 1);
+		
+		// a single run is never capped
+		assertEquals(0, ObservationGraph.capSession(store, SESSION, 1));
+		assertEquals(RUN, ObservationGraph.replay(store, SESSION).length);
+	}
+	
+	@Test
+	public void recordingContinuesAfterACap(){
+		ObservationGraph.capSession(store, SESSION, 2 * RUN);
+		int[] kept = ObservationGraph.replay(store, SESSION);
+		
+		// restore the session the way AuditMon.restoreSession does
+		ObservationEngine engine = new ObservationEngine(store, SESSION);
+		int lastEdge = ObservationGraph.findLastObservationEdge(store, SESSION);
+		engine.setLastObservation(store.getEdgeTo(lastEdge), lastEdge);
+		long time = StoreAnalysis.getSessionObservations(store, SESSION).lastKey();
+		engine.start(time + 1000);
+		int observation = engine.observe(new int[]{ sessions.getMember("p.C0.m0") }, time + 2000, RecordedSessions.ORIGIN);
+		
+		int[] visits = ObservationGraph.replay(store, SESSION);
+		assertEquals(kept.length + 2, visits.length);
+		assertArrayEquals(kept, Arrays.copyOf(visits, kept.length));
+		assertEquals(observation, visits[visits.length - 1]);
+		assertEdgeNumbers(visits.length - 1);
+	}
+	
+	/**
+	 * Asserts that the session's edge numbers are exactly 1 to the given number
+	 */
+	@SuppressWarnings("unchecked")
+	private void assertEdgeNumbers(int numEdges){
+		TreeSet<Long> numbers = new TreeSet<Long>();
+		int count = 0;
+		for(int edge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION, SESSION)){
+			ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(edge, SESSION);
+			assertNotNull(edgeNumbers);
+			for(String edgeNumber : edgeNumbers){
+				numbers.add(Long.parseLong(edgeNumber));
+				count++;
+			}
+		}
+		assertEquals(numEdges, count);
+		assertEquals(numEdges, numbers.size());
+		assertEquals(Long.valueOf(1), numbers.first());
+		assertEquals(Long.valueOf(numEdges), numbers.last());
+	}
+
+}
@@ -4,6 +4,11 @@ import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import com.ensoftcorp.open.auditmon.AuditMonMetrics;
+import com.ensoftcorp.open.auditmon.IndexCheckpointer;
+import com.ensoftcorp.open.auditmon.ObservationCompactor;
+import com.ensoftcorp.open.auditmon.WriteAheadLog;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -28,6 +33,7 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		AuditMonMetrics.registerMBean();
 	}
 
 	/*
@@ -35,6 +41,11 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		ObservationCompactor.cancel();
+		IndexCheckpointer.shutdown();
+		WriteAheadLog.closeAll();
+		AuditMonMetrics.cancelLogging();
+		AuditMonMetrics.unregisterMBean();
 		plugin = null;
 		super.stop(context);
 	}
@@ -2,6 +2,27 @@ package com.ensoftcorp.open.auditmon;
 
 public class AuditConstants {
 
+	// the tags and attributes of the observation graph, kept free of Atlas so the
+	// observation logic can run against any ObservationStore
+	public static final String OBSERVATION_MEMBER = "observation_member";
+	public static final String OBSERVATION = "observation";
+	public static final String START = "start";
+	public static final String STOP = "stop";
+	public static final String RESUME = "resume";
+	public static final String STOP_REASON_SUFFIX = "_stop_reason";
+	public static final String OBSERVATION_ORIGIN_SUFFIX = "_observation_origin";
+	
+	// the tag and attributes of session nodes (see SessionRegistry)
+	public static final String SESSION = "observation_session";
+	public static final String START_TIMESTAMPS = "start_timestamps";
+	public static final String STOP_TIMESTAMPS = "stop_timestamps";
+	public static final String STOP_REASONS = "stop_reasons";
+	
+	// the default degree of interest model parameters (see DOIModel)
+	public static final double DEFAULT_DOI_DECAY_RATE = 0.1;
+	public static final double DEFAULT_DOI_INTEREST_INCREASE = 1.0;
+	public static final double DEFAULT_DOI_INTEREST_THRESHOLD = -10.0;
+
 	// levels of granularity range in order from finest to coarsest
 	public enum Granularity {
 		PROGRAM_ARTIFACT,
@@ -15,4 +36,11 @@ public class AuditConstants {
 		SECONDS, MINUTES, HOURS, DAYS;
 	}
 	
+	// the resolved elements of an editor selection that are recorded as observation members
+	public enum EditorSelectionMembers {
+		ALL, // identifier, control flow and data flow
+		IDENTIFIER, 
+		CONTROL_FLOW;
+	}
+	
 }
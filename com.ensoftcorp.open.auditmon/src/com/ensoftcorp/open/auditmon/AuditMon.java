@@ -1,20 +1,21 @@
 package com.ensoftcorp.open.auditmon;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
-import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
+import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.db.set.EmptyAtlasSet;
 import com.ensoftcorp.atlas.core.indexing.IIndexListener;
 import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
 import com.ensoftcorp.atlas.core.licensing.AtlasLicenseException;
 import com.ensoftcorp.atlas.core.log.Log;
-import com.ensoftcorp.atlas.core.query.Attr.Edge;
-import com.ensoftcorp.atlas.core.query.Attr.Node;
 import com.ensoftcorp.atlas.core.query.Q;
 //import com.ensoftcorp.atlas.java.ui.selection.IAtlasSelectionListener;
 import com.ensoftcorp.atlas.core.script.Common;
@@ -22,24 +23,51 @@ import com.ensoftcorp.atlas.ui.selection.IAtlasSelectionListener;
 import com.ensoftcorp.atlas.ui.selection.SelectionUtil;
 import com.ensoftcorp.atlas.ui.selection.event.IAtlasSelectionEvent;
 import com.ensoftcorp.atlas.ui.selection.event.IEditorAtlasSelectionEvent;
+import com.ensoftcorp.open.auditmon.AuditConstants.EditorSelectionMembers;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Counter;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Latency;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.Observation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StartObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StopObservation;
+import com.ensoftcorp.open.auditmon.ObservationTrace.Outcome;
+import com.ensoftcorp.open.auditmon.ObservationTrace.Stage;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationEngine;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
 
 public class AuditMon {
 
-	public static final String OBSERVATION_MEMBER = "observation_member";
-	public static final String OBSERVATION = "observation";
-	public static final String START = "start";
-	public static final String STOP = "stop";
-	public static final String RESUME = "resume";
-	public static final String STOP_REASON_SUFFIX = "_stop_reason";
-	public static final String OBSERVATION_ORIGIN_SUFFIX = "_observation_origin";
+	public static final String OBSERVATION_MEMBER = AuditConstants.OBSERVATION_MEMBER;
+	public static final String OBSERVATION = AuditConstants.OBSERVATION;
+	public static final String START = AuditConstants.START;
+	public static final String STOP = AuditConstants.STOP;
+	public static final String RESUME = AuditConstants.RESUME;
+	public static final String STOP_REASON_SUFFIX = AuditConstants.STOP_REASON_SUFFIX;
+	public static final String OBSERVATION_ORIGIN_SUFFIX = AuditConstants.OBSERVATION_ORIGIN_SUFFIX;
+	
+	// listeners notified of observations recorded by any AuditMon session
+	private static final CopyOnWriteArrayList<IObservationListener> observationListeners = new CopyOnWriteArrayList<IObservationListener>();
 	
 	private String session;
-	private GraphElement lastObservationNode = null;
-	private GraphElement lastObservationEdge = null;
+	// written by the ObservationWriter, which may run on another thread
+	private volatile GraphElement lastObservationNode = null;
+	private volatile GraphElement lastObservationEdge = null;
 	
 	private Q context = null;
+	
+	// the observation filter context evaluated once, so filtering an observation is a set lookup per node
+	private AtlasSet<GraphElement> contextNodes = null;
+	
 	private File journal = null;
 	
+	// deltas logged before they are applied to the index, replayed after a crash
+	private WriteAheadLog writeAheadLog = null;
+	
+	// the number of changes of this session submitted to the ObservationWriter and not applied yet,
+	// replaced when the index is reloaded so changes still running only count down the old counter
+	private volatile AtomicInteger pendingChanges = new AtomicInteger(0);
+	
 	// by default let AuditMon start in an initialized state.  AuditMon will assume 
 	// its running on an already indexed workspace unless it observes otherwise from 
 	// an indexOperationStarted event at which point it will become uninitialized until 
@@ -52,6 +80,19 @@ public class AuditMon {
 	// TODO: clean up this hack, if set to false this prevents writing to the index and works in journaling mode only
 	private boolean updateIndex = true;
 	
+	// which of the resolved elements of an editor selection are recorded as observation members
+	private EditorSelectionMembers editorSelectionMembers = EditorSelectionMembers.ALL;
+	
+	// the members of lastObservationNode if they are known without querying the index
+	private AtlasSet<GraphElement> lastObservationMembers = null;
+	
+	// if true the journal records node signatures instead of addresses
+	private boolean journalSignatures = false;
+	
+	// whether the session's own listeners are registered
+	private boolean indexListenerRegistered = false;
+	private boolean selectionListenerRegistered = false;
+	
 	public boolean isUpdatingIndex(){
 		return updateIndex;
 	}
@@ -59,6 +100,35 @@ public class AuditMon {
 	public void setUpdateIndex(boolean updateIndex) {
 		this.updateIndex = updateIndex;
 	}
+	
+	public boolean isJournalingSignatures(){
+		return journalSignatures;
+	}
+	
+	/**
+	 * Sets whether the journal records observation members by their stable signature
+	 * (see NodeSignatures) instead of their address. Addresses can only be interpreted
+	 * by the index the journal was recorded against, signatures can be resolved against
+	 * any later index of the same code.
+	 * @param journalSignatures
+	 */
+	public void setJournalSignatures(boolean journalSignatures){
+		this.journalSignatures = journalSignatures;
+	}
+	
+	public EditorSelectionMembers getEditorSelectionMembers(){
+		return editorSelectionMembers;
+	}
+	
+	/**
+	 * Sets which of the resolved elements of an editor selection are recorded
+	 * Recording only the identifier or only the control flow elements makes for
+	 * smaller observations and less work per selection
+	 * @param editorSelectionMembers
+	 */
+	public void setEditorSelectionMembers(EditorSelectionMembers editorSelectionMembers){
+		this.editorSelectionMembers = editorSelectionMembers;
+	}
 
 	private IIndexListener indexListener = new IIndexListener() {
 		@Override
@@ -76,15 +146,32 @@ public class AuditMon {
 			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
 				initialized = false;
 				monitoring = false;
+				contextNodes = null;
 				lastObservationNode = null;
+				lastObservationMembers = null;
 				lastObservationEdge = null;
+				// changes waiting on a checkpoint belong to the old index and are discarded
+				pendingChanges = new AtomicInteger(0);
 			}
 		}
 
 		@Override
 		public void indexOperationComplete(IndexOperation io) {
 			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				// the filter's nodes belong to the old index, evaluate the filter context against the new one
+				if(context != null){
+					try {
+						contextNodes = materializeObservationFilter(context);
+					} catch (Exception e){
+						Log.error("An error has occured re-evaluating the AuditMon observation filter.", e);
+					}
+				}
 				initialized = true; // index is ready
+				
+				// a loaded index is missing everything logged since it was saved
+				if(writeAheadLog != null && io != IndexOperation.NEW_INDEX){
+					restoreSession(session);
+				}
 			}
 		}
 
@@ -95,27 +182,23 @@ public class AuditMon {
 	IAtlasSelectionListener selectionListener = new IAtlasSelectionListener(){
 		@Override
 		public void selectionChanged(IAtlasSelectionEvent atlasSelection) {
+			// only registered while the session is not managed, the SessionManager counts the rest
+			AuditMonMetrics.increment(Counter.SELECTION_EVENTS);
 			if(monitoring){
 				try {
 					long currentTime = System.currentTimeMillis();
-					// if for some reason the event originates from an unregistered site, just call it a selection
-					String origin = "selection"; 
-					
-					// actual name of the editor (ie "Base64.java") or graph (ie "Graph 5")
-					String originName =  atlasSelection.getContributingPart().getTitle();
-					// the origin type (ie Atlas Graph or Java Editor)
-					String originType = atlasSelection.getContributingPart().getSite().getRegisteredName();
-					origin = originType + ":" + originName;
+					String origin = getSelectionOrigin(atlasSelection);
+					ObservationTrace.Record trace = ObservationTrace.begin(session, currentTime, origin);
 					
-					// get the selection (or all possible resolved selections)
-					Q selection = atlasSelection.getSelection();
-					if(atlasSelection instanceof IEditorAtlasSelectionEvent){
-						IEditorAtlasSelectionEvent atlasEditorSelection = (IEditorAtlasSelectionEvent) atlasSelection;
-						selection = atlasEditorSelection.getIdentifier().union(atlasEditorSelection.getControlFlow(), atlasEditorSelection.getDataFlow());
-					}
+					// get the selection (or the configured resolved selections)
+					long start = System.nanoTime();
+					Q selection = getSelection(atlasSelection, editorSelectionMembers);
+					AtlasSet<GraphElement> nodes = selection.retainNodes().eval().nodes();
+					AuditMonMetrics.record(Latency.GRAPH_QUERY, start);
+					ObservationTrace.lap(trace, Stage.SELECTION);
 					
-					// make the observation
-					makeObservation(selection, currentTime, origin);
+					// make the observation, the selection is evaluated exactly once here
+					makeObservation(nodes, currentTime, origin, trace);
 				} catch (Exception e){
 					Log.error("An error has occured in AuditMon.", e);
 				}
@@ -123,6 +206,59 @@ public class AuditMon {
 		}					
 	};
 
+	/**
+	 * Returns the observation origin of a selection event, the type and name of the 
+	 * part it came from (ie "Java Editor:Base64.java" or "Atlas Graph:Graph 5")
+	 * @param atlasSelection
+	 * @return
+	 */
+	static String getSelectionOrigin(IAtlasSelectionEvent atlasSelection){
+		// if for some reason the event originates from an unregistered site, just call it a selection
+		String origin = "selection"; 
+		
+		// actual name of the editor (ie "Base64.java") or graph (ie "Graph 5")
+		String originName =  atlasSelection.getContributingPart().getTitle();
+		// the origin type (ie Atlas Graph or Java Editor)
+		String originType = atlasSelection.getContributingPart().getSite().getRegisteredName();
+		origin = originType + ":" + originName;
+		return origin;
+	}
+	
+	/**
+	 * Returns the selection of a selection event, for an editor selection only the
+	 * resolved elements of the given kind are returned
+	 * @param atlasSelection
+	 * @param editorSelectionMembers
+	 * @return
+	 */
+	static Q getSelection(IAtlasSelectionEvent atlasSelection, EditorSelectionMembers editorSelectionMembers){
+		Q selection = atlasSelection.getSelection();
+		if(atlasSelection instanceof IEditorAtlasSelectionEvent){
+			IEditorAtlasSelectionEvent atlasEditorSelection = (IEditorAtlasSelectionEvent) atlasSelection;
+			switch(editorSelectionMembers){
+			case IDENTIFIER:
+				selection = atlasEditorSelection.getIdentifier();
+				break;
+			case CONTROL_FLOW:
+				selection = atlasEditorSelection.getControlFlow();
+				break;
+			default:
+				selection = atlasEditorSelection.getIdentifier().union(atlasEditorSelection.getControlFlow(), atlasEditorSelection.getDataFlow());
+				break;
+			}
+		}
+		return selection;
+	}
+	
+	/**
+	 * Returns the index listener of this session, sessions added to the SessionManager
+	 * receive index events through the manager's single index listener
+	 * @return
+	 */
+	IIndexListener getIndexListener(){
+		return indexListener;
+	}
+
 	/**
 	 * Creates a named AuditMon session
 	 * By default this constructor registers selection listeners
@@ -130,7 +266,7 @@ public class AuditMon {
 	 * @param session
 	 */
 	public AuditMon(String session){
-		initAuditMon(session, null, true);
+		initAuditMon(session, null, null, true);
 	}
 	
 	/**
@@ -140,7 +276,7 @@ public class AuditMon {
 	 * @param session
 	 */
 	public AuditMon(String session, boolean registerSelectionListener){
-		initAuditMon(session, null, registerSelectionListener);
+		initAuditMon(session, null, null, registerSelectionListener);
 	}
 	
 	/**
@@ -149,7 +285,7 @@ public class AuditMon {
 	 * @param session
 	 */
 	public AuditMon(String session, String journalFilePath){
-		initAuditMon(session, journalFilePath, true);
+		initAuditMon(session, journalFilePath, null, true);
 	}
 	
 	/**
@@ -158,11 +294,24 @@ public class AuditMon {
 	 * @param session
 	 */
 	public AuditMon(String session, String journalFilePath, boolean registerSelectionListener){
-		initAuditMon(session, journalFilePath, registerSelectionListener);
+		initAuditMon(session, journalFilePath, null, registerSelectionListener);
+	}
+	
+	/**
+	 * Creates a named AuditMon session with a write-ahead log (see setWriteAheadLog)
+	 * Anything logged since the index was last saved is replayed as the session is restored
+	 * This constructor provides functionality to prevent registration of selection listeners
+	 * @param session
+	 * @param journalFilePath the journal or null for no journaling
+	 * @param writeAheadLogPath
+	 * @param registerSelectionListener
+	 */
+	public AuditMon(String session, String journalFilePath, String writeAheadLogPath, boolean registerSelectionListener){
+		initAuditMon(session, journalFilePath, writeAheadLogPath, registerSelectionListener);
 	}
 	
 	// just a little helper method for initializing AuditMon
-	private void initAuditMon(String session, String journalFilePath, boolean registerSelectionListener){
+	private void initAuditMon(String session, String journalFilePath, String writeAheadLogPath, boolean registerSelectionListener){
 		this.session = session;
 		
 		if(journalFilePath != null){
@@ -171,6 +320,10 @@ public class AuditMon {
 			journal = file;
 		}
 		
+		// the write-ahead log is replayed as the session is restored
+		if(writeAheadLogPath != null){
+			writeAheadLog = WriteAheadLog.getLog(writeAheadLogPath);
+		}
 		restoreSession(session);
 		registerIndexListener();
 		if(registerSelectionListener){
@@ -180,21 +333,46 @@ public class AuditMon {
 	
 	/**
 	 * Saves a copy of the index to the given path (this is a blocking action)
+	 * Changes to the observation graph wait until the copy is saved
 	 * @param path
 	 * @throws InterruptedException
 	 * @throws AtlasLicenseException 
 	 */
 	public void saveIndex(String path) throws InterruptedException, AtlasLicenseException {
-		IndexingUtil.saveIndex(path, true).join();
+		IndexCheckpointer.saveIndex(path);
 	}
 	
 	/**
 	 * Updates the current index (this is a blocking action)
+	 * The index is saved like a checkpoint, so changes to the observation graph wait
+	 * until it is saved and the write-ahead logs only keep what the save may have missed
 	 * @throws IOException
 	 * @throws AtlasLicenseException 
 	 */
 	public void saveIndex() throws IOException, AtlasLicenseException {
-		IndexingUtil.saveIndex(true);
+		IndexCheckpointer.saveIndex();
+	}
+	
+	/**
+	 * Returns the write-ahead log of this session or null if there is none
+	 * @return
+	 */
+	public WriteAheadLog getWriteAheadLog(){
+		return writeAheadLog;
+	}
+	
+	/**
+	 * Sets the file of the write-ahead log that observation graph changes are appended 
+	 * to before they are applied to the index. Anything logged since the index was last
+	 * saved is replayed now and whenever the session is restored, so the index only needs
+	 * to be saved occasionally. A null path disables the write-ahead log.
+	 * @param path
+	 */
+	public void setWriteAheadLog(String path){
+		writeAheadLog = path == null ? null : WriteAheadLog.getLog(path);
+		if(writeAheadLog != null){
+			restoreSession(session);
+		}
 	}
 	
 	/**
@@ -212,36 +390,113 @@ public class AuditMon {
 	 * @param session
 	 */
 	public void restoreSession(String session){
+		// replay anything logged after the index was last saved
+		if(writeAheadLog != null && initialized){
+			try {
+				writeAheadLog.recover(session);
+			} catch (Exception e){
+				Log.error("An error has occured recovering the AuditMon write-ahead log.", e);
+			}
+		}
 		lastObservationNode = findLastObservationNodeForSession(session);
+		lastObservationMembers = null;
 		lastObservationEdge = findLastObservationEdgeForSession(session);
 	}
 	
 	/**
 	 * Registers the index listener
 	 */
-	public void registerIndexListener(){
+	public synchronized void registerIndexListener(){
 		IndexingUtil.addListener(indexListener);
+		indexListenerRegistered = true;
 	}
 	
 	/**
 	 * Unregisters the index listener
 	 */
-	public void unregisterIndexListener(){
+	public synchronized void unregisterIndexListener(){
 		IndexingUtil.removeListener(indexListener);
+		indexListenerRegistered = false;
 	}
 	
 	/**
-	 * Registers the index listener
+	 * Returns true if the index listener is registered
+	 * @return
+	 */
+	public synchronized boolean isIndexListenerRegistered(){
+		return indexListenerRegistered;
+	}
+	
+	/**
+	 * Registers the selection listener
 	 */
-	public void registerSelectionListener(){
+	public synchronized void registerSelectionListener(){
 		SelectionUtil.addSelectionListener(selectionListener);
+		selectionListenerRegistered = true;
 	}
 	
 	/**
-	 * Unregisters the index listener
+	 * Unregisters the selection listener
 	 */
-	public void unregisterSelectionListener(){
+	public synchronized void unregisterSelectionListener(){
 		SelectionUtil.removeSelectionListener(selectionListener);
+		selectionListenerRegistered = false;
+	}
+	
+	/**
+	 * Returns true if the selection listener is registered
+	 * @return
+	 */
+	public synchronized boolean isSelectionListenerRegistered(){
+		return selectionListenerRegistered;
+	}
+	
+	/**
+	 * Returns a snapshot of the counters and latencies of every AuditMon session
+	 * @return
+	 */
+	public static AuditMonMetrics.Snapshot getMetrics(){
+		return AuditMonMetrics.getSnapshot();
+	}
+	
+	/**
+	 * Registers a listener to be notified of each observation recorded 
+	 * in the index by any AuditMon session
+	 * @param listener
+	 */
+	public static void addObservationListener(IObservationListener listener){
+		observationListeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Unregisters an observation listener
+	 * @param listener
+	 */
+	public static void removeObservationListener(IObservationListener listener){
+		observationListeners.remove(listener);
+	}
+	
+	/**
+	 * Notifies the registered observation listeners of a new observation
+	 * @param observation
+	 */
+	private static void notifyObservationListeners(AbstractObservation observation){
+		for(IObservationListener listener : observationListeners){
+			try {
+				listener.observationRecorded(observation);
+			} catch (Exception e){
+				Log.error("An error has occured notifying an AuditMon observation listener.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the index of the most recent visit to the given observation node for the current session
+	 * @param observationNode
+	 * @return
+	 */
+	private int getLastVisitationIndex(GraphElement observationNode){
+		return AuditUtils.getTimestamps(observationNode, session).size() - 1;
 	}
 	
 	/**
@@ -261,31 +516,45 @@ public class AuditMon {
 	}
 
 	private void journalStart(Long timestamp) throws IOException {
-		FileWriter writer = new FileWriter(journal, true);
-		writer.write(session + ",start," + timestamp.toString() + "\n");
-		writer.close();
+		writeJournal(session + ",start," + timestamp.toString() + "\n");
 	}
 	
 	private void journalStop(Long timestamp, String reason) throws IOException {
-		FileWriter writer = new FileWriter(journal, true);
-		writer.write(session + ",stop," + timestamp.toString() + "," + reason + "\n");
-		writer.close();
+		writeJournal(session + ",stop," + timestamp.toString() + "," + reason + "\n");
 	}
 	
 	private void journalObservation(AtlasSet<GraphElement> nodes, Long timestamp, String origin) throws IOException {
-		FileWriter writer = new FileWriter(journal, true);
 		String observedNodes = "";
 		boolean isFirst = true;
 		for(GraphElement node : nodes){
+			// signatures are cached, so only the first observation of a node computes its signature
+			String member = journalSignatures ? NodeSignatures.getSignature(node) : node.address().toAddressString();
 			if(isFirst){
-				observedNodes += node.address().toAddressString();
+				observedNodes += member;
 				isFirst = false;
 			} else {
-				observedNodes += "," + node.address().toAddressString();
+				observedNodes += "," + member;
 			}
 		}
-		writer.write(session + ",observation," + timestamp.toString() + "," + origin + ",<" + observedNodes + ">" + "\n");
-		writer.close();
+		writeJournal(session + ",observation," + timestamp.toString() + "," + origin + ",<" + observedNodes + ">" + "\n");
+	}
+	
+	/**
+	 * Appends a line to the journal, in the platform's default encoding
+	 * @param line
+	 * @throws IOException
+	 */
+	private void writeJournal(String line) throws IOException {
+		long start = System.nanoTime();
+		byte[] bytes = line.getBytes();
+		FileOutputStream stream = new FileOutputStream(journal, true);
+		try {
+			stream.write(bytes);
+		} finally {
+			stream.close();
+		}
+		AuditMonMetrics.add(Counter.JOURNAL_BYTES, bytes.length);
+		AuditMonMetrics.record(Latency.JOURNAL_FLUSH, start);
 	}
 	
 	/**
@@ -302,18 +571,32 @@ public class AuditMon {
 	 */
 	public void clearObservationFilter(){
 		context = null;
+		contextNodes = null;
 	}
 	
 	/**
 	 * Sets a context filter so that this AuditMon instance only makes
 	 * observations if the observation is completely contained in the 
-	 * given context.
+	 * given context. The context is evaluated once now (and again after 
+	 * the index is reloaded), not for each observation.
 	 * @param context
 	 */
 	public void setObservationFilter(Q context){
+		this.contextNodes = materializeObservationFilter(context);
 		this.context = context;
 	}
 	
+	/**
+	 * Evaluates the nodes of the filter context into a hash set for fast containment checks
+	 * @param context
+	 * @return
+	 */
+	private static AtlasSet<GraphElement> materializeObservationFilter(Q context){
+		AtlasSet<GraphElement> contextNodes = new AtlasHashSet<GraphElement>();
+		contextNodes.addAll(context.eval().nodes());
+		return contextNodes;
+	}
+	
 	/**
 	 * Enables observation monitoring
 	 * Returns boolean true if monitoring was successfully started
@@ -329,8 +612,7 @@ public class AuditMon {
 	 * @param timestamp
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
-	public boolean start(Long timestamp){
+	public synchronized boolean start(final Long timestamp){
 		if(initialized){
 			monitoring = true;
 
@@ -347,84 +629,49 @@ public class AuditMon {
 				return true;
 			}
 			
-			// find or create the start node
-			GraphElement startNode = null;
-			AtlasSet<GraphElement> nodes = Common.universe().nodesTaggedWithAll(OBSERVATION,START).eval().nodes();
-			if(!nodes.isEmpty()){
-				// there should only be one start node
-				startNode = nodes.getFirst();
-			} else {
-				// create the start node
-				startNode = Graph.U.createNode();
-				startNode.attr().put(Node.NAME, START);
-				startNode.tags().add(OBSERVATION);
-				startNode.tags().add(START);
-			}
-
-			if(lastObservationNode != null){
-				// this is not our first start for this session...
-				if(lastObservationNode.tags().contains(STOP)){
-					// we are resuming a session, find or create the resume edge from stop to start
-					GraphElement resumeEdge = null;
-					
-					// first check to see if an edge from the stop node already exists to the start node
-					Q context = Common.universe().edgesTaggedWithAny(OBSERVATION).retainEdges();
-					Q from = Common.toQ(Common.toGraph(lastObservationNode));
-					Q to = Common.universe().nodesTaggedWithAll(OBSERVATION, START);
-					AtlasSet<GraphElement> edges = context.betweenStep(from, to).eval().edges();
-					if(!edges.isEmpty()){
-						// there should only be one observation edge between the stop and start nodes
-						resumeEdge = edges.getFirst();
-						startNode = resumeEdge.getNode(EdgeDirection.TO);
-					} else {
-						// no edge go ahead and create it
-						resumeEdge = Graph.U.createEdge(lastObservationNode, startNode);
-						resumeEdge.tags().add(OBSERVATION);
-						resumeEdge.tags().add(RESUME);
-						resumeEdge.attr().put(Edge.NAME, OBSERVATION);
-					}
-
-					// add the observation edge number for the session
-					addSessionEdgeNumber(resumeEdge);
-					
-					// add the session tag to the resume edge if its not there already
-					if(!resumeEdge.tags().contains(session)){
-						resumeEdge.tags().add(session);
-					}
-					
-					lastObservationEdge = resumeEdge;
-				} else {
-					// TODO: Consider if this is the right way to handle this case
-					// last session was not closed properly...
-					// for now just letting it be, we've turned 
-					// on monitoring and the session will resume without a stop -> start sequence
-					return monitoring;
+			if(writeAheadLog != null){
+				try {
+					writeAheadLog.logStart(session, timestamp);
+				} catch (IOException e) {
+					Log.error("An error has occured writing to the AuditMon write-ahead log.", e);
 				}
-			} else {
-				// this is the first node of the session, all we need to is add the start node and timestamps
-				// start node is already created, timestamps will need to be added and that happens regardless below
-			}
-			
-			// add the start time for this session
-			if(startNode.attr().get(session) == null){
-				// this session does not exist on the start node, add it
-				ArrayList<String> timestamps = new ArrayList<String>();
-				timestamps.add(timestamp.toString());
-				startNode.attr().put(session, timestamps);
-			} else {
-				// this start node has this session already, add the stop time to the node
-				((ArrayList<String>)startNode.attr().get(session)).add(timestamp.toString());
 			}
 			
-			// add the session tag to the start node if it is not there already
-			if(!startNode.tags().contains(session)){
-				startNode.tags().add(session);
-			}
-			
-			lastObservationNode = startNode;
+			// the index is updated now, or right after a checkpoint in progress
+			lastObservationMembers = null;
+			applyChange(new Runnable(){
+				@Override
+				public void run() {
+					applyStart(timestamp);
+				}
+			});
 		}
 		return monitoring;
 	}
+	
+	/**
+	 * Records a start of the session in the index
+	 * @param timestamp
+	 */
+	private void applyStart(Long timestamp){
+		long start = System.nanoTime();
+		ObservationEngine engine = getEngine();
+		int startNode = engine.start(timestamp);
+		AuditMonMetrics.record(Latency.INDEX_UPDATE, start);
+		if(startNode == ObservationStore.NONE){
+			// TODO: Consider if this is the right way to handle this case
+			// last session was not closed properly...
+			// for now just letting it be, we've turned 
+			// on monitoring and the session will resume without a stop -> start sequence
+			return;
+		}
+		updateLastObservation(engine);
+		
+		// let any observation listeners know about the new start
+		if(!observationListeners.isEmpty()){
+			notifyObservationListeners(new StartObservation(lastObservationNode, session, getLastVisitationIndex(lastObservationNode)));
+		}
+	}
 
 	/**
 	 * Stops monitoring for observations and inserts a stop node with the reason of "stop"
@@ -449,8 +696,7 @@ public class AuditMon {
 	 * @param timestamp
 	 * @param reason
 	 */
-	@SuppressWarnings("unchecked")
-	public void stop(Long timestamp, String reason){
+	public synchronized void stop(final Long timestamp, final String reason){
 		// you can't stop monitoring twice, that's just silly
 		// no reason to add another stop node
 		if(monitoring){
@@ -458,7 +704,7 @@ public class AuditMon {
 			// if lastSelectionNode is null then the session never really started
 			// or if it has started it never really "restarted"
 			// so all we have to do is turn off monitoring
-			if(lastObservationNode != null){
+			if(lastObservationNode != null || pendingChanges.get() != 0){
 				
 				if(journal != null){
 					try {
@@ -473,79 +719,52 @@ public class AuditMon {
 					return;
 				}
 				
-				// find or create the stop node and edge
-				GraphElement stopNode = null;
-				GraphElement stopEdge = null;
-				
-				// first check to see if an edge to the stop node already exists from the last observation
-				Q context = Common.universe().edgesTaggedWithAny(OBSERVATION).retainEdges();
-				Q from = Common.toQ(Common.toGraph(lastObservationNode));
-				Q to = Common.universe().nodesTaggedWithAll(OBSERVATION, STOP);
-				AtlasSet<GraphElement> edges = context.betweenStep(from, to).eval().edges();
-				if(!edges.isEmpty()){
-					// there should only be one observation edge between two observation nodes
-					stopEdge = edges.getFirst();
-					stopNode = stopEdge.getNode(EdgeDirection.TO);
-				} else {
-					// the stop edge does not exist, but the stop node might
-					AtlasSet<GraphElement> nodes = Common.universe().nodesTaggedWithAll(OBSERVATION,STOP).eval().nodes();
-					if(!nodes.isEmpty()){
-						// there should only be one stop node
-						stopNode = nodes.getFirst();
-					} else {
-						// create the stop node it must be our first stop
-						stopNode = Graph.U.createNode();
-						stopNode.attr().put(Node.NAME, STOP);
-						stopNode.tags().add(OBSERVATION);
-						stopNode.tags().add(STOP);
+				if(writeAheadLog != null){
+					try {
+						writeAheadLog.logStop(session, timestamp, reason);
+					} catch (IOException e) {
+						Log.error("An error has occured writing to the AuditMon write-ahead log.", e);
 					}
-					
-					// still need to create the observation edge
-					stopEdge = Graph.U.createEdge(lastObservationNode, stopNode);
-					stopEdge.tags().add(OBSERVATION);
-					stopEdge.attr().put(Edge.NAME, OBSERVATION);
 				}
 				
-				// add the session tag to the stop node and edge if its not there already
-				if(!stopNode.tags().contains(session)){
-					stopNode.tags().add(session);
-				}
-				if(!stopEdge.tags().contains(session)){
-					stopEdge.tags().add(session);
-				}
-				
-				// add the stop time for this session
-				if(stopNode.attr().get(session) == null){
-					// this session does not exist on the stop node, add it
-					ArrayList<String> timestamps = new ArrayList<String>();
-					timestamps.add(timestamp.toString());
-					stopNode.attr().put(session, timestamps);
-				} else {
-					// this stop node has this session already, add the stop time to the node
-					((ArrayList<String>)stopNode.attr().get(session)).add(timestamp.toString());
-				}
+				lastObservationMembers = null;
+				applyChange(new Runnable(){
+					@Override
+					public void run() {
+						applyStop(timestamp, reason);
+					}
+				});
 				
-				// add the stop reason for this session
-				if(stopNode.attr().get(session + STOP_REASON_SUFFIX) == null){
-					// this session does not exist on the stop node, add it
-					ArrayList<String> reasons = new ArrayList<String>();
-					reasons.add(reason);
-					stopNode.attr().put(session + STOP_REASON_SUFFIX, reasons);
-				} else {
-					// this stop node has this session already, add the stop time to the node
-					((ArrayList<String>)stopNode.attr().get(session + STOP_REASON_SUFFIX)).add(reason);
+				// monitoring has ended, make sure the index is saved soon
+				if(IndexCheckpointer.isScheduled()){
+					IndexCheckpointer.requestCheckpoint();
 				}
-				
-				// add the observation edge number for the session
-				addSessionEdgeNumber(stopEdge);
-				
-				// update the last observation node and edge
-				lastObservationNode = stopNode;
-				lastObservationEdge = stopEdge;
 			}
 		}
 	}
 	
+	/**
+	 * Records a stop of the session in the index
+	 * @param timestamp
+	 * @param reason
+	 */
+	private void applyStop(Long timestamp, String reason){
+		if(lastObservationNode == null){
+			// the session never really started
+			return;
+		}
+		long start = System.nanoTime();
+		ObservationEngine engine = getEngine();
+		engine.stop(timestamp, reason);
+		updateLastObservation(engine);
+		AuditMonMetrics.record(Latency.INDEX_UPDATE, start);
+		
+		// let any observation listeners know about the new stop
+		if(!observationListeners.isEmpty()){
+			notifyObservationListeners(new StopObservation(lastObservationNode, session, getLastVisitationIndex(lastObservationNode)));
+		}
+	}
+	
 	/**
 	 * Records an observation of the given set of nodes in the index for the current session
 	 * This observation origin defaults to "manual"
@@ -571,37 +790,100 @@ public class AuditMon {
 	 * @param timestamp
 	 * @param origin
 	 */
-	@SuppressWarnings("unchecked")
 	public void makeObservation(Q observation, Long timestamp, String origin){
 		if(monitoring){
+			ObservationTrace.Record trace = ObservationTrace.begin(session, timestamp, origin);
 			// make sure the element set only contains nodes
-			observation = observation.retainNodes();
-			AtlasSet<GraphElement> nodeSet = observation.eval().nodes();
-			
-			// if selection is empty just skip it
-			if(nodeSet.isEmpty()){
-				return;
+			AtlasSet<GraphElement> nodes = observation.retainNodes().eval().nodes();
+			ObservationTrace.lap(trace, Stage.SELECTION);
+			makeObservation(nodes, timestamp, origin, trace);
+		}
+	}
+	
+	/**
+	 * Records an observation of the given set of nodes in the index for the current session
+	 * The node set is used as is for every step of recording the observation, so callers 
+	 * should evaluate their selection only once
+	 * @param nodeSet
+	 * @param timestamp
+	 * @param origin
+	 */
+	public void makeObservation(AtlasSet<GraphElement> nodeSet, Long timestamp, String origin){
+		makeObservation(nodeSet, timestamp, origin, ObservationTrace.begin(session, timestamp, origin));
+	}
+	
+	/**
+	 * Records an observation of the given set of nodes, timing its stages in the 
+	 * given trace record (null if tracing is disabled)
+	 * @param nodeSet
+	 * @param timestamp
+	 * @param origin
+	 * @param trace
+	 */
+	synchronized void makeObservation(AtlasSet<GraphElement> nodeSet, Long timestamp, String origin, ObservationTrace.Record trace){
+		if(monitoring){
+			long start = System.nanoTime();
+			try {
+				recordObservation(nodeSet, timestamp, origin, trace);
+			} finally {
+				AuditMonMetrics.record(Latency.OBSERVATION, start);
 			}
+		}
+	}
+	
+	/**
+	 * Records an observation while monitoring, see makeObservation
+	 * @param nodeSet
+	 * @param timestamp
+	 * @param origin
+	 * @param trace
+	 */
+	private void recordObservation(final AtlasSet<GraphElement> nodeSet, final Long timestamp, final String origin, final ObservationTrace.Record trace){
+		// if selection is empty just skip it
+		if(nodeSet.isEmpty()){
+			AuditMonMetrics.increment(Counter.SKIPPED_EMPTY);
+			ObservationTrace.finish(trace, Outcome.SKIPPED_EMPTY);
+			return;
+		}
+		if(trace != null){
+			trace.setSelectedNodes((int) nodeSet.size());
+		}
 
-			// if there is an observation filter, make sure the observation is contained in the context
-			if(context != null){
-				if(observation.intersection(context).eval().nodes().size() != nodeSet.size()){
-					return;
-				}
+		// if there is an observation filter, make sure the observation is contained in the context
+		if(context != null){
+			if(contextNodes == null){
+				// the filter could not be evaluated after the last index reload
+				long start = System.nanoTime();
+				contextNodes = materializeObservationFilter(context);
+				AuditMonMetrics.record(Latency.GRAPH_QUERY, start);
 			}
-			
-			// ignore selections of selections
 			for(GraphElement node : nodeSet){
-				if(node.tags().contains(OBSERVATION)){
+				if(!contextNodes.contains(node)){
+					AuditMonMetrics.increment(Counter.SKIPPED_FILTER);
+					ObservationTrace.lap(trace, Stage.FILTER);
+					ObservationTrace.finish(trace, Outcome.SKIPPED_FILTER);
 					return;
 				}
 			}
-			
-			// TODO: Seems stale graph element references are highly elusive :\
-			// this is extra defensive check for stale graph elements
-			// This check is not catching them for whatever reason
-			// This situation will result in a graph that has a selection -> selection edge with no member edges
-			// Just going to assume they don't happen for now...
+		}
+		ObservationTrace.lap(trace, Stage.FILTER);
+		
+		// ignore selections of selections
+		for(GraphElement node : nodeSet){
+			if(node.tags().contains(OBSERVATION)){
+				AuditMonMetrics.increment(Counter.SKIPPED_SELF_SELECTION);
+				ObservationTrace.lap(trace, Stage.SELF_SELECTION);
+				ObservationTrace.finish(trace, Outcome.SKIPPED_SELF_SELECTION);
+				return;
+			}
+		}
+		ObservationTrace.lap(trace, Stage.SELF_SELECTION);
+		
+		// TODO: Seems stale graph element references are highly elusive :\
+		// this is extra defensive check for stale graph elements
+		// This check is not catching them for whatever reason
+		// This situation will result in a graph that has a selection -> selection edge with no member edges
+		// Just going to assume they don't happen for now...
 //			UniverseGraph ug = UniverseGraph.getInstance();
 //			UniverseGraphElementSet universeNodes = ug.nodes();
 //			for(GraphElement node : nodeSet){
@@ -612,142 +894,144 @@ public class AuditMon {
 //				}
 //			}
 
-			// skip immediately repeated observations
-			if(lastObservationNode != null){
-				Q memberEdges = Common.universe().edgesTaggedWithAny(OBSERVATION_MEMBER).retainEdges();
-				if(memberEdges.predecessors(Common.toQ(Common.toGraph(lastObservationNode))).eval().isomorphic(observation.eval())){
-					return; // last observation is the same as the current observation, do nothing
-				}
-			}
-			
-			// make the observation
-			if(journal != null){
-				try {
-					journalObservation(nodeSet, timestamp, origin);
-				} catch (IOException e) {
-					// what happens when the backup to the backup fails?
-				}
-			}
-			
-			// may need to short circuit if just journaling
-			if(updateIndex == false){
-				return;
+		// skip immediately repeated observations
+		if(lastObservationMembers == null && lastObservationNode != null && pendingChanges.get() == 0){
+			long start = System.nanoTime();
+			Q memberEdges = Common.universe().edgesTaggedWithAny(OBSERVATION_MEMBER).retainEdges();
+			lastObservationMembers = memberEdges.predecessors(Common.toQ(Common.toGraph(lastObservationNode))).eval().nodes();
+			AuditMonMetrics.record(Latency.GRAPH_QUERY, start);
+		}
+		if(lastObservationMembers != null && sameNodes(lastObservationMembers, nodeSet)){
+			AuditMonMetrics.increment(Counter.SKIPPED_REPEAT);
+			ObservationTrace.lap(trace, Stage.REPEAT_CHECK);
+			ObservationTrace.finish(trace, Outcome.SKIPPED_REPEAT);
+			return; // last observation is the same as the current observation, do nothing
+		}
+		ObservationTrace.lap(trace, Stage.REPEAT_CHECK);
+		
+		// make the observation
+		if(journal != null){
+			try {
+				journalObservation(nodeSet, timestamp, origin);
+			} catch (IOException e) {
+				// what happens when the backup to the backup fails?
 			}
-			
-			GraphElement observationNode = findObservationNode(observation);
-			if(observationNode == null){
-				// observation node does not exist, lets create it
-				observationNode = Graph.U.createNode();
-				observationNode.attr().put(Node.NAME, OBSERVATION);
-				observationNode.tags().add(OBSERVATION);
-				
-				// add the session observation timestamp
-				ArrayList<String> timestamps = new ArrayList<String>();
-				timestamps.add(timestamp.toString());
-				observationNode.attr().put(session, timestamps);
-				
-				// add the session observation origin
-				ArrayList<String> origins = new ArrayList<String>();
-				origins.add(origin);
-				observationNode.attr().put(session + OBSERVATION_ORIGIN_SUFFIX, origins);
-				
-				// connect the observation members to the observation node
-				for(GraphElement observationMember : observation.eval().nodes()){
-					GraphElement memberEdge = Graph.U.createEdge(observationMember, observationNode);
-					memberEdge.tags().add(OBSERVATION_MEMBER);
-					memberEdge.attr().put(Edge.NAME, OBSERVATION_MEMBER);
-				}
-			} else {
-				// observation node exists, update it
-				// add the session observation timestamp
-				if(observationNode.attr().containsKey(session)){
-					((ArrayList<String>) observationNode.attr().get(session)).add(timestamp.toString());
-				} else {
-					// observation node is being reused, but not for this session
-					ArrayList<String> timestamps = new ArrayList<String>();
-					timestamps.add(timestamp.toString());
-					observationNode.attr().put(session, timestamps);
-				}
-				
-				// add the session observation origin
-				if(observationNode.attr().containsKey(session + OBSERVATION_ORIGIN_SUFFIX)){
-					((ArrayList<String>) observationNode.attr().get(session + OBSERVATION_ORIGIN_SUFFIX)).add(origin);
-				} else {
-					// observation node is being reused, but not for this session
-					ArrayList<String> origins = new ArrayList<String>();
-					origins.add(origin);
-					observationNode.attr().put(session + OBSERVATION_ORIGIN_SUFFIX, origins);
-				}
+			ObservationTrace.lap(trace, Stage.JOURNAL);
+		}
+		
+		// may need to short circuit if just journaling
+		if(updateIndex == false){
+			ObservationTrace.finish(trace, Outcome.JOURNALED);
+			return;
+		}
+		
+		if(writeAheadLog != null){
+			try {
+				writeAheadLog.logObservation(session, timestamp, origin, nodeSet);
+			} catch (IOException e) {
+				Log.error("An error has occured writing to the AuditMon write-ahead log.", e);
 			}
-			// add session tag to node
-			if(!observationNode.tags().contains(session)){
-				observationNode.tags().add(session);
+			ObservationTrace.lap(trace, Stage.WRITE_AHEAD_LOG);
+		}
+		
+		// the index is updated now, or right after a checkpoint in progress
+		lastObservationMembers = nodeSet;
+		applyChange(new Runnable(){
+			@Override
+			public void run() {
+				applyObservation(nodeSet, timestamp, origin, trace);
 			}
-			
-			// find or create the observation edge
-			GraphElement observationEdge = findObservationEdge(lastObservationNode, observationNode);
-			if(observationEdge == null){
-				// observation edge does not exist, create it
-				observationEdge = Graph.U.createEdge(lastObservationNode, observationNode);
-				observationEdge.tags().add(OBSERVATION);
-				observationEdge.attr().put(Edge.NAME, OBSERVATION);
+		});
+	}
+	
+	/**
+	 * Records an observation of the given set of nodes in the index
+	 * @param nodeSet
+	 * @param timestamp
+	 * @param origin
+	 * @param trace
+	 */
+	private void applyObservation(AtlasSet<GraphElement> nodeSet, Long timestamp, String origin, ObservationTrace.Record trace){
+		ObservationTrace.lap(trace, Stage.QUEUE_WAIT);
+		if(lastObservationNode == null){
+			// the session never really started
+			ObservationTrace.finish(trace, Outcome.NOT_STARTED);
+			return;
+		}
+		// the trace is finished even if the observation could not be recorded
+		Outcome outcome = Outcome.FAILED;
+		try {
+			long start = System.nanoTime();
+			ObservationEngine engine = getEngine();
+			int[] members = ((AtlasObservationStore) engine.getStore()).getHandles(nodeSet);
+			if(engine.observe(members, timestamp, origin, trace) != ObservationStore.NONE){
+				AuditMonMetrics.increment(Counter.OBSERVATIONS_RECORDED);
 			}
+			updateLastObservation(engine);
+			AuditMonMetrics.record(Latency.INDEX_UPDATE, start);
 			
-			// add session tag to edge
-			if(!observationEdge.tags().contains(session)){
-				observationEdge.tags().add(session);
+			// let any observation listeners know about the new observation
+			if(!observationListeners.isEmpty()){
+				notifyObservationListeners(new Observation(lastObservationNode, session, getLastVisitationIndex(lastObservationNode)));
+				ObservationTrace.lap(trace, Stage.NOTIFY);
 			}
-			
-			// add edge number to observation edge
-			addSessionEdgeNumber(observationEdge);
-			
-			// update the last observation edge
-			lastObservationEdge = observationEdge;
-			
-			// update the last observation node
-			lastObservationNode = observationNode;
+			outcome = Outcome.RECORDED;
+		} finally {
+			ObservationTrace.finish(trace, outcome);
 		}
 	}
+	
+	/**
+	 * Returns an engine that records one change of this session into the index, positioned 
+	 * at the last observation node and edge of the session
+	 * @return
+	 */
+	private ObservationEngine getEngine(){
+		// a store per change, so its handles never outlive the change
+		AtlasObservationStore store = new AtlasObservationStore();
+		ObservationEngine engine = new ObservationEngine(store, session);
+		engine.setLastObservation(store.getHandle(lastObservationNode), store.getHandle(lastObservationEdge));
+		return engine;
+	}
+	
+	/**
+	 * Updates the last observation node and edge from the engine after a change
+	 * @param engine
+	 */
+	private void updateLastObservation(ObservationEngine engine){
+		AtlasObservationStore store = (AtlasObservationStore) engine.getStore();
+		lastObservationEdge = store.getElement(engine.getLastObservationEdge());
+		lastObservationNode = store.getElement(engine.getLastObservationNode());
+	}
 
 	/**
-	 * Adds the next incremental edge number to the given edge for the current session
-	 * @param observationEdge
+	 * Submits a change to the index to the ObservationWriter, which applies the changes
+	 * of every session one at a time and in order (after any checkpoint in progress)
+	 * @param change
 	 */
-	@SuppressWarnings("unchecked")
-	private void addSessionEdgeNumber(GraphElement observationEdge) {
-		Long edgeNumber = 1L;
-		if(lastObservationEdge != null) {
-			// edgeNumber = max(session edge numbers) + 1
-			ArrayList<String> edgeNumbers = ((ArrayList<String>) lastObservationEdge.attr().get(session));
-			if(edgeNumbers != null && !edgeNumbers.isEmpty()){
-				edgeNumber = Long.parseLong(edgeNumbers.get(edgeNumbers.size()-1)) + 1;
+	private void applyChange(final Runnable change){
+		final AtomicInteger pendingChanges = this.pendingChanges;
+		pendingChanges.incrementAndGet();
+		ObservationWriter.submit(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					change.run();
+				} finally {
+					pendingChanges.decrementAndGet();
+				}
 			}
-		}
-		if(observationEdge.attr().get(session) == null){
-			// this session does not exist on the edge, add it
-			ArrayList<String> edgeNumbers = new ArrayList<String>();
-			edgeNumbers.add(edgeNumber.toString());
-			observationEdge.attr().put(session, edgeNumbers);
-		} else {
-			// this edge has this session already, add the edge number to the node
-			((ArrayList<String>)observationEdge.attr().get(session)).add(edgeNumber.toString());
-		}
+		});
 	}
-
+	
 	/**
-	 * Returns an observation edge from the given firstObservationNode to the given secondObservationNode
-	 * if the edge exists or returns null if the edge does not exist
-	 * Assumes it is only possible for a single edge to exist from first to second observation node
-	 * @param firstObservationNode
-	 * @param secondObservationNode
+	 * Finds a observation node that has member edges to each and only every GE in the node set
+	 * Returns null if no observation node exists
+	 * @param nodes
 	 * @return
 	 */
-	private GraphElement findObservationEdge(GraphElement firstObservationNode, GraphElement secondObservationNode) {
-		Q context = Common.universe().edgesTaggedWithAll(OBSERVATION).retainEdges();
-		Q first = Common.toQ(Common.toGraph(firstObservationNode));
-		Q second = Common.toQ(Common.toGraph(secondObservationNode));
-		AtlasSet<GraphElement> edges = context.betweenStep(first, second).eval().edges();
-		return edges.isEmpty() ? null : edges.getFirst();
+	public static GraphElement findObservationNode(Q nodes) {
+		return findObservationNode(nodes.eval().nodes());
 	}
 	
 	/**
@@ -756,18 +1040,34 @@ public class AuditMon {
 	 * @param nodes
 	 * @return
 	 */
-	public static GraphElement findObservationNode(Q nodes) {
+	public static GraphElement findObservationNode(AtlasSet<GraphElement> nodes) {
 		Q memberEdges = Common.universe().edgesTaggedWithAny(OBSERVATION_MEMBER).retainEdges();
-		long numObservationMembers = nodes.eval().nodes().size();
-		Q reachableObservations = memberEdges.successors(nodes);
-		GraphElement observationNode = null;
+		Q reachableObservations = memberEdges.successors(Common.toQ(new UncheckedGraph(nodes, EmptyAtlasSet.<GraphElement> instance())));
 		for(GraphElement reachableObservation : reachableObservations.eval().nodes()){
-			long numMembersInReachableObservation = memberEdges.predecessors(Common.toQ(Common.toGraph(reachableObservation))).eval().nodes().size();
-			if(numMembersInReachableObservation == numObservationMembers){
-				observationNode = reachableObservation;
+			AtlasSet<GraphElement> members = memberEdges.predecessors(Common.toQ(Common.toGraph(reachableObservation))).eval().nodes();
+			if(sameNodes(members, nodes)){
+				return reachableObservation;
 			}
 		}
-		return observationNode;
+		return null;
+	}
+	
+	/**
+	 * Returns true if the two node sets contain exactly the same nodes
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static boolean sameNodes(AtlasSet<GraphElement> a, AtlasSet<GraphElement> b){
+		if(a.size() != b.size()){
+			return false;
+		}
+		for(GraphElement node : b){
+			if(!a.contains(node)){
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	/**
@@ -775,19 +1075,18 @@ public class AuditMon {
 	 * @param session
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static GraphElement findLastObservationNodeForSession(String session){
 		GraphElement result = null;
-		Q observationNodes = Common.universe().nodesTaggedWithAll(OBSERVATION, session);
-		for(GraphElement observationNode : observationNodes.eval().nodes()){
-			if(result == null){
+		long resultTimestamp = Long.MIN_VALUE;
+		for(GraphElement observationNode : getSessionObservationNodes(session)){
+			ArrayList<String> timestamps = AuditUtils.getTimestamps(observationNode, session);
+			if(timestamps == null || timestamps.isEmpty()){
+				continue;
+			}
+			long timestamp = Long.parseLong(timestamps.get(timestamps.size()-1));
+			if(result == null || timestamp > resultTimestamp){
 				result = observationNode;
-			} else {
-				ArrayList<String> observationNodeTimestamps = ((ArrayList<String>)observationNode.attr().get(session));
-				ArrayList<String> resultNodeTimestamps = ((ArrayList<String>)result.attr().get(session));
-				if(Long.parseLong(observationNodeTimestamps.get(observationNodeTimestamps.size()-1)) > Long.parseLong(resultNodeTimestamps.get(resultNodeTimestamps.size()-1))){
-					result = observationNode;
-				}
+				resultTimestamp = timestamp;
 			}
 		}
 		return result;
@@ -798,24 +1097,37 @@ public class AuditMon {
 	 * @param session
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static GraphElement findFirstObservationNodeForSession(String session){
 		GraphElement result = null;
-		Q observationNodes = Common.universe().nodesTaggedWithAll(OBSERVATION, session);
-		for(GraphElement observationNode : observationNodes.eval().nodes()){
-			if(result == null){
+		long resultTimestamp = Long.MAX_VALUE;
+		for(GraphElement observationNode : getSessionObservationNodes(session)){
+			ArrayList<String> timestamps = AuditUtils.getTimestamps(observationNode, session);
+			if(timestamps == null || timestamps.isEmpty()){
+				continue;
+			}
+			long timestamp = Long.parseLong(timestamps.get(0));
+			if(result == null || timestamp < resultTimestamp){
 				result = observationNode;
-			} else {
-				ArrayList<String> observationNodeTimestamps = ((ArrayList<String>)observationNode.attr().get(session));
-				ArrayList<String> resultNodeTimestamps = ((ArrayList<String>)result.attr().get(session));
-				if(Long.parseLong(observationNodeTimestamps.get(0)) < Long.parseLong(resultNodeTimestamps.get(0))){
-					result = observationNode;
-				}
+				resultTimestamp = timestamp;
 			}
 		}
 		return result;
 	}
 	
+	/**
+	 * Returns the observation nodes tagged with the session along with the shared start 
+	 * and stop nodes, which are not tagged with session names
+	 * @param session
+	 * @return
+	 */
+	private static AtlasSet<GraphElement> getSessionObservationNodes(String session){
+		AtlasSet<GraphElement> observationNodes = new AtlasHashSet<GraphElement>();
+		observationNodes.addAll(Common.universe().nodesTaggedWithAll(OBSERVATION, session).eval().nodes());
+		observationNodes.addAll(Common.universe().nodesTaggedWithAll(OBSERVATION, START).eval().nodes());
+		observationNodes.addAll(Common.universe().nodesTaggedWithAll(OBSERVATION, STOP).eval().nodes());
+		return observationNodes;
+	}
+	
 	/**
 	 * Finds the last observation edge for the given session or returns null if none exists
 	 * @param session
@@ -0,0 +1,386 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ensoftcorp.atlas.core.log.Log;
+
+/**
+ * Counters and latency histograms of every AuditMon session
+ *
+ * Metrics are read through getSnapshot, through JMX (the platform MBean server,
+ * under the name com.ensoftcorp.open.auditmon:type=Metrics) or from the snapshots
+ * written to the workspace log by scheduleLogging. Recording never allocates.
+ * Latencies are recorded in nanoseconds.
+ *
+ * @author Ben Holland
+ */
+public class AuditMonMetrics implements AuditMonMetricsMBean {
+	
+	public static final String OBJECT_NAME = "com.ensoftcorp.open.auditmon:type=Metrics";
+	
+	public static enum Counter {
+		// selection events received by the SessionManager, each event is counted once however many sessions observe it
+		SELECTION_EVENTS,
+		// observations applied to the index
+		OBSERVATIONS_RECORDED,
+		// observations skipped because the selection had no nodes
+		SKIPPED_EMPTY,
+		// observations skipped because they repeat the last observation
+		SKIPPED_REPEAT,
+		// observations skipped by the observation filter
+		SKIPPED_FILTER,
+		// observations skipped because observation nodes were selected
+		SKIPPED_SELF_SELECTION,
+		// bytes appended to journals
+		JOURNAL_BYTES,
+		// bytes appended to write-ahead logs
+		WRITE_AHEAD_LOG_BYTES
+	}
+	
+	public static enum Latency {
+		// makeObservation on the calling (UI) thread, including journaling
+		OBSERVATION,
+		// evaluating selections, observation filters and the last observation's members
+		GRAPH_QUERY,
+		// applying a start, stop or observation to the index
+		INDEX_UPDATE,
+		// writing and flushing a journal or write-ahead log entry
+		JOURNAL_FLUSH
+	}
+	
+	/**
+	 * A snapshot of the metrics
+	 */
+	public static class Snapshot {
+		private final long timestamp;
+		private final long[] counters;
+		private final LatencyHistogram.Snapshot[] latencies;
+		private final int queueDepth;
+		private final int maxQueueDepth;
+		
+		private Snapshot(long timestamp, long[] counters, LatencyHistogram.Snapshot[] latencies, int queueDepth, int maxQueueDepth){
+			this.timestamp = timestamp;
+			this.counters = counters;
+			this.latencies = latencies;
+			this.queueDepth = queueDepth;
+			this.maxQueueDepth = maxQueueDepth;
+		}
+		
+		public long getTimestamp(){
+			return timestamp;
+		}
+		
+		public long getCount(Counter counter){
+			return counters[counter.ordinal()];
+		}
+		
+		/**
+		 * Returns the latency histogram snapshot, values are in nanoseconds
+		 * @param latency
+		 * @return
+		 */
+		public LatencyHistogram.Snapshot getLatency(Latency latency){
+			return latencies[latency.ordinal()];
+		}
+		
+		/**
+		 * Returns the number of changes waiting for the ObservationWriter when the snapshot was taken
+		 * @return
+		 */
+		public int getQueueDepth(){
+			return queueDepth;
+		}
+		
+		public int getMaxQueueDepth(){
+			return maxQueueDepth;
+		}
+		
+		@Override
+		public String toString(){
+			StringBuilder result = new StringBuilder();
+			for(Counter counter : Counter.values()){
+				result.append(counter.name().toLowerCase()).append("=").append(getCount(counter)).append(", ");
+			}
+			result.append("queue_depth=").append(queueDepth).append(" (max ").append(maxQueueDepth).append(")");
+			for(Latency latency : Latency.values()){
+				result.append("; ").append(latency.name().toLowerCase()).append(": ").append(getLatency(latency).toMicrosString());
+			}
+			return result.toString();
+		}
+	}
+	
+	private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+	private static final LatencyHistogram[] latencies = new LatencyHistogram[Latency.values().length];
+	private static final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private static final AuditMonMetrics mbean = new AuditMonMetrics();
+	
+	private static ScheduledExecutorService executor = null;
+	private static ScheduledFuture<?> logging = null;
+	
+	static {
+		for(int i=0; i<latencies.length; i++){
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+	
+	private AuditMonMetrics(){}
+	
+	public static void increment(Counter counter){
+		counters.incrementAndGet(counter.ordinal());
+	}
+	
+	public static void add(Counter counter, long value){
+		counters.addAndGet(counter.ordinal(), value);
+	}
+	
+	/**
+	 * Records the time elapsed since the given System.nanoTime() value
+	 * @param latency
+	 * @param startNanos
+	 */
+	public static void record(Latency latency, long startNanos){
+		latencies[latency.ordinal()].recordSince(startNanos);
+	}
+	
+	/**
+	 * Records the depth of the ObservationWriter queue
+	 * @param depth
+	 */
+	public static void recordQueueDepth(int depth){
+		int currentMax = maxQueueDepth.get();
+		while(depth > currentMax && !maxQueueDepth.compareAndSet(currentMax, depth)){
+			currentMax = maxQueueDepth.get();
+		}
+	}
+	
+	public static Snapshot getSnapshot(){
+		long[] counterValues = new long[counters.length()];
+		for(int i=0; i<counterValues.length; i++){
+			counterValues[i] = counters.get(i);
+		}
+		LatencyHistogram.Snapshot[] latencySnapshots = new LatencyHistogram.Snapshot[latencies.length];
+		for(int i=0; i<latencySnapshots.length; i++){
+			latencySnapshots[i] = latencies[i].getSnapshot();
+		}
+		return new Snapshot(System.currentTimeMillis(), counterValues, latencySnapshots, ObservationWriter.getNumberOfPendingChanges(), maxQueueDepth.get());
+	}
+	
+	/**
+	 * Resets every counter and histogram
+	 */
+	public static void resetAll(){
+		for(int i=0; i<counters.length(); i++){
+			counters.set(i, 0);
+		}
+		for(LatencyHistogram latency : latencies){
+			latency.reset();
+		}
+		maxQueueDepth.set(0);
+	}
+	
+	/**
+	 * Registers the metrics with the platform MBean server
+	 */
+	public static synchronized void registerMBean(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name)){
+				server.registerMBean(mbean, name);
+			}
+		} catch (Exception e){
+			Log.error("An error has occured registering the AuditMon metrics MBean.", e);
+		}
+	}
+	
+	/**
+	 * Unregisters the metrics from the platform MBean server
+	 */
+	public static synchronized void unregisterMBean(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e){
+			Log.error("An error has occured unregistering the AuditMon metrics MBean.", e);
+		}
+	}
+	
+	/**
+	 * Writes a snapshot of the metrics to the workspace log every interval milliseconds
+	 * @param interval
+	 */
+	public static synchronized void scheduleLogging(long interval){
+		cancelLogging();
+		if(interval <= 0){
+			return;
+		}
+		if(executor == null){
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "AuditMon Metrics Logger");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		logging = executor.scheduleAtFixedRate(new Runnable(){
+			@Override
+			public void run() {
+				Log.info("AuditMon metrics: " + getSnapshot());
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops writing snapshots to the workspace log
+	 */
+	public static synchronized void cancelLogging(){
+		if(logging != null){
+			logging.cancel(false);
+			logging = null;
+		}
+	}
+	
+	private static long getPercentileMicros(Latency latency, double percentile){
+		return latencies[latency.ordinal()].getSnapshot().getValueAtPercentile(percentile) / 1000;
+	}
+	
+	private static long getMaxMicros(Latency latency){
+		return latencies[latency.ordinal()].getSnapshot().getMax() / 1000;
+	}
+	
+	@Override
+	public long getSelectionEvents() {
+		return counters.get(Counter.SELECTION_EVENTS.ordinal());
+	}
+	
+	@Override
+	public long getObservationsRecorded() {
+		return counters.get(Counter.OBSERVATIONS_RECORDED.ordinal());
+	}
+	
+	@Override
+	public long getSkippedEmpty() {
+		return counters.get(Counter.SKIPPED_EMPTY.ordinal());
+	}
+	
+	@Override
+	public long getSkippedRepeat() {
+		return counters.get(Counter.SKIPPED_REPEAT.ordinal());
+	}
+	
+	@Override
+	public long getSkippedFilter() {
+		return counters.get(Counter.SKIPPED_FILTER.ordinal());
+	}
+	
+	@Override
+	public long getSkippedSelfSelection() {
+		return counters.get(Counter.SKIPPED_SELF_SELECTION.ordinal());
+	}
+	
+	@Override
+	public long getJournalBytes() {
+		return counters.get(Counter.JOURNAL_BYTES.ordinal());
+	}
+	
+	@Override
+	public long getWriteAheadLogBytes() {
+		return counters.get(Counter.WRITE_AHEAD_LOG_BYTES.ordinal());
+	}
+	
+	@Override
+	public int getQueueDepth() {
+		return ObservationWriter.getNumberOfPendingChanges();
+	}
+	
+	@Override
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+	
+	@Override
+	public long getObservationP50Micros() {
+		return getPercentileMicros(Latency.OBSERVATION, 50);
+	}
+	
+	@Override
+	public long getObservationP99Micros() {
+		return getPercentileMicros(Latency.OBSERVATION, 99);
+	}
+	
+	@Override
+	public long getObservationMaxMicros() {
+		return getMaxMicros(Latency.OBSERVATION);
+	}
+	
+	@Override
+	public long getGraphQueryP50Micros() {
+		return getPercentileMicros(Latency.GRAPH_QUERY, 50);
+	}
+	
+	@Override
+	public long getGraphQueryP99Micros() {
+		return getPercentileMicros(Latency.GRAPH_QUERY, 99);
+	}
+	
+	@Override
+	public long getGraphQueryMaxMicros() {
+		return getMaxMicros(Latency.GRAPH_QUERY);
+	}
+	
+	@Override
+	public long getIndexUpdateP50Micros() {
+		return getPercentileMicros(Latency.INDEX_UPDATE, 50);
+	}
+	
+	@Override
+	public long getIndexUpdateP99Micros() {
+		return getPercentileMicros(Latency.INDEX_UPDATE, 99);
+	}
+	
+	@Override
+	public long getIndexUpdateMaxMicros() {
+		return getMaxMicros(Latency.INDEX_UPDATE);
+	}
+	
+	@Override
+	public long getJournalFlushP50Micros() {
+		return getPercentileMicros(Latency.JOURNAL_FLUSH, 50);
+	}
+	
+	@Override
+	public long getJournalFlushP99Micros() {
+		return getPercentileMicros(Latency.JOURNAL_FLUSH, 99);
+	}
+	
+	@Override
+	public long getJournalFlushMaxMicros() {
+		return getMaxMicros(Latency.JOURNAL_FLUSH);
+	}
+	
+	@Override
+	public String getSummary() {
+		return getSnapshot().toString();
+	}
+	
+	@Override
+	public void reset() {
+		resetAll();
+	}
+
+}
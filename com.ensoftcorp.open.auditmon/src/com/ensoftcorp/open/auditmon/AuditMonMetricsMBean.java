@@ -0,0 +1,58 @@
+package com.ensoftcorp.open.auditmon;
+
+/**
+ * The JMX view of the AuditMon metrics, latencies are in microseconds
+ * 
+ * @author Ben Holland
+ */
+public interface AuditMonMetricsMBean {
+	
+	public long getSelectionEvents();
+	
+	public long getObservationsRecorded();
+	
+	public long getSkippedEmpty();
+	
+	public long getSkippedRepeat();
+	
+	public long getSkippedFilter();
+	
+	public long getSkippedSelfSelection();
+	
+	public long getJournalBytes();
+	
+	public long getWriteAheadLogBytes();
+	
+	public int getQueueDepth();
+	
+	public int getMaxQueueDepth();
+	
+	public long getObservationP50Micros();
+	
+	public long getObservationP99Micros();
+	
+	public long getObservationMaxMicros();
+	
+	public long getGraphQueryP50Micros();
+	
+	public long getGraphQueryP99Micros();
+	
+	public long getGraphQueryMaxMicros();
+	
+	public long getIndexUpdateP50Micros();
+	
+	public long getIndexUpdateP99Micros();
+	
+	public long getIndexUpdateMaxMicros();
+	
+	public long getJournalFlushP50Micros();
+	
+	public long getJournalFlushP99Micros();
+	
+	public long getJournalFlushMaxMicros();
+	
+	public String getSummary();
+	
+	public void reset();
+	
+}
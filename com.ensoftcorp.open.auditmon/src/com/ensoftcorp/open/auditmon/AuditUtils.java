@@ -1,5 +1,7 @@
 package com.ensoftcorp.open.auditmon;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -7,11 +9,12 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
 
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
-import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
 import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
@@ -21,6 +24,8 @@ import com.ensoftcorp.atlas.core.query.Attr.Node;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.java.core.script.Common;
 import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.merge.MergeResult;
+import com.ensoftcorp.open.auditmon.merge.ObservationMerger;
 
 /**
  * A utility class providing some convenience methods for working with an index annotated by AuditMon
@@ -43,6 +48,10 @@ public class AuditUtils {
 		protected int visitationIndex;
 		protected GraphElement observationNode;
 		protected String session;
+		
+		// the members of an observation node never change, so the query result is kept
+		// for charts that share a replay of the session (a race just repeats the query)
+		private volatile AtlasSet<GraphElement> observedNodes = null;
 
 		public AbstractObservation(GraphElement observationNode, String session, int visitationIndex){
 			this.visitationIndex = visitationIndex;
@@ -50,9 +59,8 @@ public class AuditUtils {
 			this.session = session;
 		}
 		
-		@SuppressWarnings("unchecked")
 		public long getTimestamp() {
-			ArrayList<String> timestamps = (ArrayList<String>) observationNode.attr().get(session);
+			ArrayList<String> timestamps = getTimestamps(observationNode, session);
 			return Long.parseLong(timestamps.get(visitationIndex));
 		}
 		
@@ -69,13 +77,33 @@ public class AuditUtils {
 		}
 		
 		public AtlasSet<GraphElement> getObservedNodes(){
-			Q context = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).retainEdges();
-			Q observedNodes = Common.stepFrom(context, Common.toQ(Common.toGraph(observationNode)));
-			return observedNodes.eval().nodes();
+			if(observedNodes == null){
+				Q context = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).retainEdges();
+				observedNodes = Common.stepFrom(context, Common.toQ(Common.toGraph(observationNode))).eval().nodes();
+			}
+			return observedNodes;
 		}
 		
 		public abstract ObservationType getType();
 		
+		// two instances of the same visit are equal, no matter which replay or index they came from
+		@Override
+		public boolean equals(Object o){
+			if(this == o){
+				return true;
+			}
+			if(o == null || o.getClass() != getClass()){
+				return false;
+			}
+			AbstractObservation other = (AbstractObservation) o;
+			return visitationIndex == other.visitationIndex && session.equals(other.session) && observationNode.equals(other.observationNode);
+		}
+		
+		@Override
+		public int hashCode(){
+			return (observationNode.hashCode() * 31 + session.hashCode()) * 31 + visitationIndex;
+		}
+		
 		@Override
 		public String toString(){
 			if(getType() == ObservationType.START){
@@ -126,9 +154,8 @@ public class AuditUtils {
 			super(observationNode, session, visitationIndex);
 		}
 		
-		@SuppressWarnings("unchecked")
 		public String getReason(){
-			ArrayList<String> reasons = (ArrayList<String>) observationNode.attr().get(session + AuditMon.STOP_REASON_SUFFIX);
+			ArrayList<String> reasons = SessionRegistry.getStopReasons(session);
 			return reasons.get(visitationIndex);
 		}
 		
@@ -139,95 +166,50 @@ public class AuditUtils {
 	}
 	
 	/**
-	 * Returns a sorted map of timestamps to visited Observations
+	 * Returns the visit timestamps of the given observation node in the given session
+	 * or null if the session never visited the node. The timestamps of the shared start 
+	 * and stop nodes are kept in the SessionRegistry.
+	 * @param observationNode
 	 * @param session
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
-	public static TreeMap<Long,AbstractObservation> getSessionObservations(String session){
-		TreeMap<Long,AbstractObservation> observations = new TreeMap<Long,AbstractObservation>();
-		
-		// find the start node
-		GraphElement startNode = null;
-		AtlasSet<GraphElement> nodes = Common.universe().nodesTaggedWithAll(AuditMon.OBSERVATION, AuditMon.START).eval().nodes();
-		if(!nodes.isEmpty()){
-			// there should only ever be one start node
-			startNode = nodes.getFirst();
-		} else {
-			// no start node means no observations just return an empty result
-			return observations;
-		}
-
-		if(startNode.attr().get(session) == null){
-			// no session for start node, just return empty result
-			return observations;
+	public static ArrayList<String> getTimestamps(GraphElement observationNode, String session){
+		if(observationNode.tags().contains(AuditMon.START)){
+			return SessionRegistry.getStartTimestamps(session);
+		} else if(observationNode.tags().contains(AuditMon.STOP)){
+			return SessionRegistry.getStopTimestamps(session);
 		} else {
-			// add the first timestamp of the session's start node to the results
-			AbstractObservation observation = new StartObservation(startNode, session, 0);
-			observations.put(observation.getTimestamp(), observation);
+			return (ArrayList<String>) observationNode.attr().get(session);
 		}
-		
-		Q observationContext = Common.universe().edgesTaggedWithAll(AuditMon.OBSERVATION, session);
-		Long edgeNumber = 1L;
-		Q currentNode = Common.toQ(Common.toGraph(startNode));
-		GraphElement nextEdge = null;
-		
-		// keep track of how many times we've seen the observation nodes in the traversal
-		HashMap<GraphElement, Integer> visitationIndexMap = new HashMap<GraphElement, Integer>();
-		
-		// follow the observation edges in order for the session until there are no more
-		// add each node we hit during the traversal to the results
-		do {
-			nextEdge = null;
-			Q nextNodes = Common.stepTo(observationContext, currentNode);
-			AtlasSet<GraphElement> nextEdges = observationContext.betweenStep(currentNode, nextNodes).eval().edges();
-			for(GraphElement edge : nextEdges){
-				if(edge.attr().get(session) != null){
-					if(((ArrayList<String>) edge.attr().get(session)).contains(edgeNumber.toString())){
-						nextEdge = edge;
-						edgeNumber++;
-						break;
-					}
-				}
-			}
-			if(nextEdge != null){
-				GraphElement observationNode = nextEdge.getNode(EdgeDirection.TO);
-
-				int visitationIndex = 0;
-				if(visitationIndexMap.containsKey(observationNode)){
-					visitationIndex = visitationIndexMap.remove(observationNode);
-					visitationIndexMap.remove(visitationIndex + 1);
-				} else {
-					visitationIndexMap.put(observationNode, 1);
-				}
-				
-				AbstractObservation observation = null;
-				if(observationNode.tags().contains(AuditMon.START)){
-					// this is a start node, there are only timestamps
-					observation = new StartObservation(observationNode, session, visitationIndex);
-				} else if(observationNode.tags().contains(AuditMon.STOP)){
-					// this is a stop node, there are timestamps and stop reasons
-					observation = new StopObservation(observationNode, session, visitationIndex); 
-				} else {
-					// just a normal observation node, there are timestamps, origins, and observation members
-					observation = new Observation(observationNode, session, visitationIndex);
-				}
-				
-				// add the observation to the result
-				observations.put(observation.getTimestamp(), observation);
-				
-				// move the currentNode to the recently observed node
-				currentNode = Common.toQ(Common.toGraph(observationNode));
-			}
-		} while(nextEdge != null);
-		
-		return observations;
 	}
 	
-//	public static void merge(String session, String indexPath){
-//		View v = ImportExportUtils.importGraph(indexPath);
-//		Graph alginedGraph = ImportExportUtils.alignGraph(searchSpace, toAlign, ignoreProjectMatches, ignoreVarNames, addMissingEdges);
-//	}
+	/**
+	 * Returns a sorted map of timestamps to visited Observations
+	 * The session is replayed once and then served from its SessionObservationIndex
+	 * @param session
+	 * @return
+	 */
+	public static TreeMap<Long,AbstractObservation> getSessionObservations(String session){
+		return SessionObservationIndex.getIndex(session).toSortedMap();
+	}
+	
+	/**
+	 * Merges the sessions recorded in the given journals or session exports into the current index
+	 * A session recorded in another index can be merged by exporting it from that index 
+	 * with SessionExporter, the export aligns observation members by node signature
+	 * @param paths
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static MergeResult merge(String... paths) throws IOException, InterruptedException {
+		ArrayList<File> sources = new ArrayList<File>();
+		for(String path : paths){
+			sources.add(new File(path));
+		}
+		return ObservationMerger.merge(sources);
+	}
 	
 	/**
 	 * Given a date this function zeros out the milliseconds
@@ -455,7 +437,7 @@ public class AuditUtils {
     // does not includes start and stop nodes
     public static Q getObservedNodesInTimeRange(String session, Long beginRange, Long endRange){
     	AtlasSet<GraphElement> observedNodesInRange = new AtlasHashSet<GraphElement>();
-    	for(AbstractObservation observation : getObservationsInTimeRange(session, beginRange, endRange)){
+    	for(AbstractObservation observation : iterateObservationsInTimeRange(session, beginRange, endRange)){
     		if(observation.getType() == ObservationType.OBSERVATION){
     			observedNodesInRange.addAll(observation.getObservedNodes());
     		}
@@ -466,98 +448,86 @@ public class AuditUtils {
     // includes start and stop nodes
     public static Set<AbstractObservation> getObservationsInTimeRange(String session, Long beginRange, Long endRange){
     	HashSet<AbstractObservation> observationsInRange = new HashSet<AbstractObservation>();
-    	TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-    	for(AbstractObservation observation : observations.values()){
-    		if(observation.getTimestamp() >= beginRange){
-    			if(observation.getTimestamp() <= endRange){
-    				observationsInRange.add(observation);
-        		}
-    		}
+    	for(AbstractObservation observation : iterateObservationsInTimeRange(session, beginRange, endRange)){
+    		observationsInRange.add(observation);
     	}
     	return observationsInRange;
     }
     
+    /**
+     * Lazily iterates in time order over the visits (including start and stop nodes)
+     * with timestamps in the inclusive range, the range is found by binary search
+     * @param session
+     * @param beginRange
+     * @param endRange
+     * @return
+     */
+    public static Iterable<AbstractObservation> iterateObservationsInTimeRange(String session, Long beginRange, Long endRange){
+    	return SessionObservationIndex.getIndex(session).getObservations(beginRange, endRange);
+    }
+    
     // does not include start and stop nodes
     public static Set<AbstractObservation> getObservationsInContext(String session, Q context){
-    	HashSet<AbstractObservation> observationsInContext = new HashSet<AbstractObservation>();
-    	TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-    	for(AbstractObservation observation : observations.values()){
-    		if(observation.getType() == ObservationType.OBSERVATION){
-    			Q observedNodes = Common.toQ(new UncheckedGraph(observation.getObservedNodes(), EmptyAtlasSet.<GraphElement> instance()));
-    			if(!observedNodes.intersection(context).eval().nodes().isEmpty()){
-    				observationsInContext.add(observation);
-    			}
-    		}
-    	}
-    	return observationsInContext;
+    	return new LinkedHashSet<AbstractObservation>(ObservationInvertedIndex.getObservations(session, context, Granularity.PROGRAM_ARTIFACT));
     }
     
+    /**
+     * Returns the visits of any session that observed the given context at the given granularity
+     * in time order, for example the visits to any artifact of a package at the PACKAGE granularity
+     * does not include start and stop nodes
+     * @param context
+     * @param granularity
+     * @return
+     */
+    public static List<AbstractObservation> getObservationsInContext(Q context, Granularity granularity){
+    	return ObservationInvertedIndex.getObservations(context, granularity);
+    }
+    
+    /**
+     * Returns the audit and break totals, resume count and number of observations of a session
+     * The totals are computed from the session's start/stop timeline and the number of observations
+     * from the observation edge numbers, so no observation nodes are visited
+     * @param session
+     * @return
+     */
     public static HashMap<String,Object> getAuditStatistics(String session){
     	HashMap<String,Object> stats = new HashMap<String,Object>();
-    	TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-    	
-    	Date auditStarted = null;
-    	Date auditFinished = null;
-    	Long auditTime = 0L;
-    	Long breakTime = 0L;
-    	Integer numResumes = -1;
-    	Integer numObservations = 0;
-    	
-    	// iterate over the observations in order and look for start/stop node visits
-    	AbstractObservation lastObservation = null;
-		for (AbstractObservation observation : observations.values()) {
-			
-			if(observation.getType() == ObservationType.START){
-				if(lastObservation != null){
-					breakTime += observation.getTimestamp() - lastObservation.getTimestamp();
-				} else {
-					auditStarted = new Date(observation.getTimestamp());
-				}
-				lastObservation = observation;
-				numResumes++;
-				continue;
-			}
-			
-			if(observation.getType() == ObservationType.STOP){
-				auditTime += observation.getTimestamp() - lastObservation.getTimestamp();
-				auditFinished = new Date(observation.getTimestamp());
-				lastObservation = observation;
-				continue;
-			}
-			
-			numObservations++;
-		}
+    	SessionTimeline timeline = SessionTimeline.getTimeline(session);
 		
-		stats.put("Total Audit Time", auditTime);
-		stats.put("Total Break Time", breakTime);
-		stats.put("Audit Started", auditStarted);
-		stats.put("Audit Finished", auditFinished);
-		stats.put("Number of Times Resumed", numResumes);
-		stats.put("Number of Observations", numObservations);
+		stats.put("Total Audit Time", timeline.getAuditTime());
+		stats.put("Total Break Time", timeline.getBreakTime());
+		stats.put("Audit Started", timeline.getAuditStarted());
+		stats.put("Audit Finished", timeline.getAuditFinished());
+		stats.put("Number of Times Resumed", timeline.getNumberOfResumes());
+		stats.put("Number of Observations", getNumberOfObservations(session, timeline));
     	
     	return stats;
     }
+    
+    /**
+     * Returns the number of observations (not counting starts and stops) in the session
+     * Every visit after the first start is reached by exactly one numbered observation edge
+     * @param session
+     * @param timeline
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static int getNumberOfObservations(String session, SessionTimeline timeline){
+    	if(timeline.getNumberOfStarts() == 0){
+    		return 0;
+    	}
+    	long numEdgeNumbers = 0;
+    	for(GraphElement edge : Common.universe().edgesTaggedWithAll(AuditMon.OBSERVATION, session).eval().edges()){
+    		ArrayList<String> edgeNumbers = (ArrayList<String>) edge.attr().get(session);
+    		if(edgeNumbers != null){
+    			numEdgeNumbers += edgeNumbers.size();
+    		}
+    	}
+    	return (int) (numEdgeNumbers + 1 - timeline.getNumberOfStarts() - timeline.getNumberOfStops());
+    }
 
     public static Set<String> getSessions(){
-    	HashSet<String> sessions = new HashSet<String>();
-    	GraphElement startNode = null;
-		AtlasSet<GraphElement> startNodes = Common.universe().nodesTaggedWithAll(AuditMon.OBSERVATION, AuditMon.START).eval().nodes();
-		if(!startNodes.isEmpty()){
-			// there should only ever be one start node
-			startNode = startNodes.getFirst();
-		} else {
-			// no start node, means no sessions
-			return sessions;
-		}
-		
-		for(String key : startNode.attr().keys()){
-			if(key.equals(Node.NAME)){
-				continue;
-			}
-			sessions.add(key);
-		}
-		
-    	return sessions;
+    	return SessionRegistry.getSessions();
     }
 	
 }
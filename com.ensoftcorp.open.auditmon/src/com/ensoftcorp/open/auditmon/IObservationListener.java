@@ -0,0 +1,21 @@
+package com.ensoftcorp.open.auditmon;
+
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+
+/**
+ * A listener that is notified each time an AuditMon session records an
+ * observation (including start and stop observations) in the index
+ * @author Ben Holland
+ */
+public interface IObservationListener {
+
+	/**
+	 * Called after the given observation has been recorded in the index
+	 * This method is called on the thread that made the observation, so
+	 * implementations should do as little work as possible and defer anything
+	 * expensive (such as graph queries) until later
+	 * @param observation
+	 */
+	public void observationRecorded(AbstractObservation observation);
+
+}
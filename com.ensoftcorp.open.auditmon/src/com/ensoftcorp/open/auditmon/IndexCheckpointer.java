@@ -0,0 +1,373 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.licensing.AtlasLicenseException;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.ObservationType;
+
+/**
+ * Saves the index in the background every so often and/or after a number of observations
+ *
+ * Changes to the observation graph are applied by the ObservationWriter while holding
+ * a shared lock that a checkpoint takes exclusively for the duration of the save (as
+ * does AuditMon.saveIndex, see saveIndex). AuditMon never waits for
+ * a checkpoint, changes made while the index is being saved are deferred and applied
+ * as soon as the save completes (they are already in the write-ahead log, if there is
+ * one). After each checkpoint the write-ahead logs are truncated.
+ *
+ * AuditMon requests a final checkpoint when a session is stopped while checkpoints
+ * are scheduled.
+ *
+ * @author Ben Holland
+ */
+public class IndexCheckpointer {
+	
+	/**
+	 * Notified after each checkpoint, on the checkpoint thread
+	 */
+	public static interface ICheckpointListener {
+		public void checkpointCompleted();
+	}
+	
+	/**
+	 * A snapshot of the checkpoint metrics, durations are in milliseconds
+	 */
+	public static class CheckpointMetrics {
+		private int numCheckpoints;
+		private int numFailures;
+		private long lastCheckpointTime;
+		private long lastDuration;
+		private long maxDuration;
+		private long totalDuration;
+		private long lastLockWait;
+		private long maxLockWait;
+		
+		private CheckpointMetrics copy(){
+			CheckpointMetrics copy = new CheckpointMetrics();
+			copy.numCheckpoints = numCheckpoints;
+			copy.numFailures = numFailures;
+			copy.lastCheckpointTime = lastCheckpointTime;
+			copy.lastDuration = lastDuration;
+			copy.maxDuration = maxDuration;
+			copy.totalDuration = totalDuration;
+			copy.lastLockWait = lastLockWait;
+			copy.maxLockWait = maxLockWait;
+			return copy;
+		}
+		
+		/**
+		 * Returns the number of completed checkpoints
+		 * @return
+		 */
+		public int getNumberOfCheckpoints(){
+			return numCheckpoints;
+		}
+		
+		public int getNumberOfFailures(){
+			return numFailures;
+		}
+		
+		/**
+		 * Returns the time the last checkpoint completed or 0 if there has not been one
+		 * @return
+		 */
+		public long getLastCheckpointTime(){
+			return lastCheckpointTime;
+		}
+		
+		/**
+		 * Returns how long the last checkpoint held off observation graph changes
+		 * @return
+		 */
+		public long getLastDuration(){
+			return lastDuration;
+		}
+		
+		public long getMaxDuration(){
+			return maxDuration;
+		}
+		
+		public long getAverageDuration(){
+			return numCheckpoints == 0 ? 0 : totalDuration / numCheckpoints;
+		}
+		
+		/**
+		 * Returns how long the last checkpoint waited for changes in progress to finish
+		 * @return
+		 */
+		public long getLastLockWait(){
+			return lastLockWait;
+		}
+		
+		public long getMaxLockWait(){
+			return maxLockWait;
+		}
+		
+		@Override
+		public String toString(){
+			return numCheckpoints + " checkpoints (" + numFailures + " failed), last " + lastDuration + "ms, max " + maxDuration
+					+ "ms, average " + getAverageDuration() + "ms, max lock wait " + maxLockWait + "ms";
+		}
+	}
+	
+	private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private static final CopyOnWriteArrayList<ICheckpointListener> listeners = new CopyOnWriteArrayList<ICheckpointListener>();
+	private static final CheckpointMetrics metrics = new CheckpointMetrics();
+	
+	private static ScheduledExecutorService executor = null;
+	private static ScheduledFuture<?> scheduledCheckpoints = null;
+	private static Future<?> requestedCheckpoint = null;
+	private static boolean checkpointRequested = false;
+	private static long interval = 0;
+	private static int observationThreshold = 0;
+	private static final AtomicInteger observationsSinceCheckpoint = new AtomicInteger(0);
+	
+	// counts observations towards the observation threshold
+	private static final IObservationListener observationListener = new IObservationListener(){
+		@Override
+		public void observationRecorded(AbstractObservation observation) {
+			if(observation.getType() == ObservationType.OBSERVATION && observationThreshold > 0
+					&& observationsSinceCheckpoint.incrementAndGet() >= observationThreshold){
+				requestCheckpoint();
+			}
+		}
+	};
+	
+	private static final Runnable checkpoint = new Runnable(){
+		@Override
+		public void run() {
+			runCheckpoint();
+		}
+	};
+	
+	/**
+	 * Schedules a checkpoint every interval milliseconds and/or every observationThreshold
+	 * observations, a value of 0 disables that trigger
+	 * @param interval
+	 * @param observationThreshold
+	 */
+	public static synchronized void schedule(long interval, int observationThreshold){
+		cancel();
+		IndexCheckpointer.interval = Math.max(0, interval);
+		IndexCheckpointer.observationThreshold = Math.max(0, observationThreshold);
+		observationsSinceCheckpoint.set(0);
+		if(IndexCheckpointer.interval > 0){
+			scheduledCheckpoints = getExecutor().scheduleWithFixedDelay(checkpoint, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		if(IndexCheckpointer.observationThreshold > 0){
+			AuditMon.addObservationListener(observationListener);
+		}
+	}
+	
+	/**
+	 * Cancels any scheduled checkpoints, a checkpoint in progress still completes
+	 */
+	public static synchronized void cancel(){
+		if(scheduledCheckpoints != null){
+			scheduledCheckpoints.cancel(false);
+			scheduledCheckpoints = null;
+		}
+		AuditMon.removeObservationListener(observationListener);
+		interval = 0;
+		observationThreshold = 0;
+	}
+	
+	/**
+	 * Cancels any scheduled or requested checkpoints and shuts down the checkpoint thread,
+	 * a checkpoint in progress still completes. A later schedule or request starts a new thread.
+	 */
+	public static synchronized void shutdown(){
+		cancel();
+		if(requestedCheckpoint != null){
+			requestedCheckpoint.cancel(false);
+			requestedCheckpoint = null;
+		}
+		checkpointRequested = false;
+		if(executor != null){
+			executor.shutdown();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Returns true if checkpoints are scheduled by time or by observations
+	 * @return
+	 */
+	public static synchronized boolean isScheduled(){
+		return interval > 0 || observationThreshold > 0;
+	}
+	
+	/**
+	 * Requests a checkpoint in the background, if one has already been requested and
+	 * has not started yet no other checkpoint is requested
+	 * @return
+	 */
+	public static synchronized Future<?> requestCheckpoint(){
+		if(!checkpointRequested){
+			checkpointRequested = true;
+			requestedCheckpoint = getExecutor().submit(checkpoint);
+		}
+		return requestedCheckpoint;
+	}
+	
+	/**
+	 * Requests a checkpoint and blocks until it is completed
+	 * @throws InterruptedException
+	 */
+	public static void checkpoint() throws InterruptedException {
+		try {
+			requestCheckpoint().get();
+		} catch (ExecutionException e){
+			Log.error("An error has occured checkpointing the index.", e.getCause());
+		}
+	}
+	
+	public static CheckpointMetrics getMetrics(){
+		synchronized(metrics){
+			return metrics.copy();
+		}
+	}
+	
+	public static void addCheckpointListener(ICheckpointListener listener){
+		listeners.addIfAbsent(listener);
+	}
+	
+	public static void removeCheckpointListener(ICheckpointListener listener){
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Saves the index on the calling thread the same as a checkpoint: changes to the
+	 * observation graph are deferred until the index is saved, then the write-ahead 
+	 * logs are truncated. Must not be called from a change of the ObservationWriter.
+	 * @throws IOException
+	 * @throws AtlasLicenseException
+	 */
+	public static void saveIndex() throws IOException, AtlasLicenseException {
+		save();
+	}
+	
+	/**
+	 * Saves a copy of the index to the given path, changes to the observation graph
+	 * are deferred until the copy is saved. Must not be called from a change of the
+	 * ObservationWriter.
+	 * @param path
+	 * @throws InterruptedException
+	 * @throws AtlasLicenseException
+	 */
+	public static void saveIndex(String path) throws InterruptedException, AtlasLicenseException {
+		lock.writeLock().lock();
+		try {
+			IndexingUtil.saveIndex(path, true).join();
+		} finally {
+			lock.writeLock().unlock();
+			notifyListeners();
+		}
+	}
+	
+	/**
+	 * Tries to begin applying a change to the observation graph, returns false
+	 * (without waiting) if a checkpoint is in progress. A successful call must be
+	 * followed by endApply. Only the ObservationWriter applies changes.
+	 * @return
+	 */
+	static boolean beginApply(){
+		return lock.readLock().tryLock();
+	}
+	
+	/**
+	 * Ends applying a change to the observation graph
+	 */
+	static void endApply(){
+		lock.readLock().unlock();
+	}
+	
+	private static synchronized ScheduledExecutorService getExecutor(){
+		if(executor == null){
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "AuditMon Index Checkpointer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+	
+	private static void runCheckpoint(){
+		// changes made from now on need another checkpoint
+		synchronized(IndexCheckpointer.class){
+			checkpointRequested = false;
+		}
+		try {
+			save();
+		} catch (Exception e){
+			Log.error("An error has occured checkpointing the index.", e);
+		}
+	}
+	
+	/**
+	 * Saves the index while holding off changes to the observation graph, then applies
+	 * the deferred changes and truncates the write-ahead logs
+	 */
+	private static void save() throws IOException, AtlasLicenseException {
+		long requested = System.currentTimeMillis();
+		lock.writeLock().lock();
+		long started = System.currentTimeMillis();
+		boolean saved = false;
+		try {
+			observationsSinceCheckpoint.set(0);
+			WriteAheadLog.beginCheckpoint();
+			IndexingUtil.saveIndex(true);
+			saved = true;
+		} finally {
+			lock.writeLock().unlock();
+			long completed = System.currentTimeMillis();
+			synchronized(metrics){
+				if(saved){
+					metrics.numCheckpoints++;
+					metrics.lastCheckpointTime = completed;
+					metrics.lastDuration = completed - started;
+					metrics.maxDuration = Math.max(metrics.maxDuration, metrics.lastDuration);
+					metrics.totalDuration += metrics.lastDuration;
+					metrics.lastLockWait = started - requested;
+					metrics.maxLockWait = Math.max(metrics.maxLockWait, metrics.lastLockWait);
+				} else {
+					metrics.numFailures++;
+				}
+			}
+			
+			// apply the changes deferred during the save before the logs are truncated
+			notifyListeners();
+			if(saved){
+				WriteAheadLog.completeCheckpoint();
+			}
+		}
+	}
+	
+	private static void notifyListeners(){
+		for(ICheckpointListener listener : listeners){
+			try {
+				listener.checkpointCompleted();
+			} catch (Exception e){
+				Log.error("An error has occured notifying an AuditMon checkpoint listener.", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent latency histogram with logarithmic buckets (in the style of HdrHistogram)
+ *
+ * Values below 64 have their own bucket, larger values are bucketed by power of two
+ * with 32 linear sub-buckets each, so any recorded value is reported within about 3%.
+ * Recording is a few atomic increments and never allocates, the buckets for every
+ * positive long are allocated up front (under 16KB).
+ *
+ * @author Ben Holland
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+	
+	/**
+	 * A snapshot of a histogram, values are in the unit they were recorded in
+	 */
+	public static class Snapshot {
+		private final long count;
+		private final long total;
+		private final long max;
+		private final long[] counts;
+		
+		private Snapshot(long count, long total, long max, long[] counts){
+			this.count = count;
+			this.total = total;
+			this.max = max;
+			this.counts = counts;
+		}
+		
+		public long getCount(){
+			return count;
+		}
+		
+		public long getMax(){
+			return max;
+		}
+		
+		public double getMean(){
+			return count == 0 ? 0 : (double) total / count;
+		}
+		
+		/**
+		 * Returns the (highest equivalent) value at the given percentile (0-100)
+		 * @param percentile
+		 * @return
+		 */
+		public long getValueAtPercentile(double percentile){
+			long recorded = 0;
+			for(long bucketCount : counts){
+				recorded += bucketCount;
+			}
+			if(recorded == 0){
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100.0 * recorded));
+			long seen = 0;
+			for(int bucket=0; bucket<counts.length; bucket++){
+				seen += counts[bucket];
+				if(seen >= rank){
+					return Math.min(max, highestEquivalentValue(bucket));
+				}
+			}
+			return max;
+		}
+		
+		/**
+		 * Returns a summary of the snapshot with values converted from nanoseconds to microseconds
+		 * @return
+		 */
+		public String toMicrosString(){
+			return count + " samples, mean " + (long) (getMean() / 1000) + "us, p50 " + getValueAtPercentile(50) / 1000
+					+ "us, p99 " + getValueAtPercentile(99) / 1000 + "us, max " + max / 1000 + "us";
+		}
+	}
+	
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a value, negative values are recorded as 0
+	 * @param value
+	 */
+	public void record(long value){
+		if(value < 0){
+			value = 0;
+		}
+		counts.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long currentMax = max.get();
+		while(value > currentMax && !max.compareAndSet(currentMax, value)){
+			currentMax = max.get();
+		}
+	}
+	
+	/**
+	 * Records the time elapsed since the given System.nanoTime() value
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos){
+		record(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Returns a snapshot of the histogram, samples recorded while the snapshot is
+	 * taken may be partially included
+	 * @return
+	 */
+	public Snapshot getSnapshot(){
+		long[] bucketCounts = new long[NUM_BUCKETS];
+		for(int bucket=0; bucket<NUM_BUCKETS; bucket++){
+			bucketCounts[bucket] = counts.get(bucket);
+		}
+		return new Snapshot(count.get(), total.get(), max.get(), bucketCounts);
+	}
+	
+	/**
+	 * Discards every recorded value
+	 */
+	public void reset(){
+		for(int bucket=0; bucket<NUM_BUCKETS; bucket++){
+			counts.set(bucket, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	private static int getBucket(long value){
+		if(value < 2 * SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+	
+	private static long highestEquivalentValue(int bucket){
+		if(bucket < 2 * SUB_BUCKETS){
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Attr.Edge;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.toolbox.commons.FormattedSourceCorrespondence;
+
+/**
+ * Stable signatures of program artifacts
+ *
+ * An address is only meaningful in the index it came from. A signature is a hash of
+ * the qualified name, kind and source position of a node, so the same program
+ * artifact has the same signature in any index of the same code. The kind is the
+ * node's subset of a fixed list of node type tags, so tags added by analyses (or by
+ * AuditMon itself) do not change a signature. Signatures are written as PREFIX
+ * followed by 16 hex digits.
+ *
+ * The declaring parents of every node are read with a single pass over the declares
+ * edges the first time a signature is needed, qualified names are then built from
+ * that map instead of querying each node's parents. Signatures are computed once per
+ * node and the signature to node table used to resolve signatures is built once, both
+ * are kept until the index changes.
+ *
+ * @author Ben Holland
+ */
+public class NodeSignatures {
+	
+	public static final String PREFIX = "s:";
+	
+	// 64 bit FNV-1a
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	// the node type tags that make up the kind of a node, in signature order
+	private static final String[] KIND_TAGS = { Node.PROJECT, Node.LIBRARY, Node.PACKAGE, Node.CLASS, Node.INTERFACE, Node.ENUM, 
+		Node.METHOD, Node.FIELD, Node.PARAMETER, Node.VARIABLE, Node.CONTROL_FLOW, Node.DATA_FLOW };
+	
+	// lazily built from the index, null until then
+	private static HashMap<GraphElement,GraphElement> parents = null;
+	private static HashMap<GraphElement,String> qualifiedNames = new HashMap<GraphElement,String>();
+	private static HashMap<GraphElement,String> signatures = new HashMap<GraphElement,String>();
+	private static HashMap<String,GraphElement> signatureTable = null;
+	
+	// signatures are stable, but the nodes and addresses they were computed for are not
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+	};
+	
+	static {
+		IndexingUtil.addListener(indexListener);
+	}
+	
+	/**
+	 * Discards every cached signature and the signature table
+	 */
+	public static synchronized void clear(){
+		parents = null;
+		qualifiedNames = new HashMap<GraphElement,String>();
+		signatures = new HashMap<GraphElement,String>();
+		signatureTable = null;
+	}
+	
+	/**
+	 * Returns true if the given journal token is a signature (and not an address)
+	 * @param token
+	 * @return
+	 */
+	public static boolean isSignature(String token){
+		return token.startsWith(PREFIX);
+	}
+	
+	/**
+	 * Returns the signature of the given node, the signature is only computed the first time
+	 * @param node
+	 * @return
+	 */
+	public static synchronized String getSignature(GraphElement node){
+		String signature = signatures.get(node);
+		if(signature == null){
+			signature = computeSignature(node);
+			signatures.put(node, signature);
+		}
+		return signature;
+	}
+	
+	/**
+	 * Resolves the given signatures to the nodes of the current index with a single
+	 * probe of the signature table each. Signatures that do not match exactly one 
+	 * node of the index are not in the result.
+	 * @param signatures
+	 * @return
+	 */
+	public static synchronized HashMap<String,GraphElement> resolve(Collection<String> signatures){
+		HashMap<String,GraphElement> table = getSignatureTable();
+		HashMap<String,GraphElement> result = new HashMap<String,GraphElement>();
+		for(String signature : signatures){
+			GraphElement node = table.get(signature);
+			if(node != null){
+				result.put(signature, node);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Resolves the given signatures to the addresses of the matching nodes of the current index
+	 * @param signatures
+	 * @return
+	 */
+	public static synchronized HashMap<String,String> resolveAddresses(Collection<String> signatures){
+		HashMap<String,String> result = new HashMap<String,String>();
+		for(Entry<String,GraphElement> resolved : resolve(signatures).entrySet()){
+			result.put(resolved.getKey(), resolved.getValue().address().toAddressString());
+		}
+		return result;
+	}
+	
+	/**
+	 * Resolves a single signature, returns null if it does not match exactly one node of the current index
+	 * @param signature
+	 * @return
+	 */
+	public static synchronized GraphElement resolve(String signature){
+		return getSignatureTable().get(signature);
+	}
+	
+	/**
+	 * Returns true if the given signature matches several nodes of the current index,
+	 * an ambiguous signature does not resolve
+	 * @param signature
+	 * @return
+	 */
+	public static synchronized boolean isAmbiguous(String signature){
+		HashMap<String,GraphElement> table = getSignatureTable();
+		return table.containsKey(signature) && table.get(signature) == null;
+	}
+	
+	/**
+	 * Returns the hash table from signature to node for every program artifact in the index,
+	 * building it the first time. Signatures shared by several nodes (for instance nodes 
+	 * without a name or source position) are ambiguous and map to null.
+	 * @return
+	 */
+	private static HashMap<String,GraphElement> getSignatureTable(){
+		if(signatureTable == null){
+			HashMap<String,GraphElement> table = new HashMap<String,GraphElement>();
+			for(GraphElement node : Common.universe().eval().nodes()){
+				if(node.tags().contains(AuditMon.OBSERVATION)){
+					continue;
+				}
+				String signature = getSignature(node);
+				if(table.containsKey(signature)){
+					table.put(signature, null);
+				} else {
+					table.put(signature, node);
+				}
+			}
+			signatureTable = table;
+		}
+		return signatureTable;
+	}
+	
+	private static String computeSignature(GraphElement node){
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, getQualifiedName(node));
+		hash = hash(hash, getKind(node));
+		hash = hash(hash, getSourcePosition(node));
+		String hex = Long.toHexString(hash);
+		StringBuilder signature = new StringBuilder(PREFIX.length() + 16);
+		signature.append(PREFIX);
+		for(int i=hex.length(); i<16; i++){
+			signature.append('0');
+		}
+		return signature.append(hex).toString();
+	}
+	
+	/**
+	 * Returns the names of the node's declaring parents and the node separated by slashes
+	 * @param node
+	 * @return
+	 */
+	private static String getQualifiedName(GraphElement node){
+		if(parents == null){
+			parents = new HashMap<GraphElement,GraphElement>();
+			for(GraphElement declaresEdge : Common.universe().edgesTaggedWithAny(Edge.DECLARES).eval().edges()){
+				parents.put(declaresEdge.getNode(EdgeDirection.TO), declaresEdge.getNode(EdgeDirection.FROM));
+			}
+		}
+		
+		String qualifiedName = qualifiedNames.get(node);
+		if(qualifiedName != null){
+			return qualifiedName;
+		}
+		
+		// walk up to the first parent with a known qualified name (or the root)
+		ArrayList<GraphElement> chain = new ArrayList<GraphElement>();
+		HashSet<GraphElement> visited = new HashSet<GraphElement>();
+		GraphElement current = node;
+		String prefix = "";
+		while(current != null && visited.add(current)){
+			String known = qualifiedNames.get(current);
+			if(known != null){
+				prefix = known;
+				break;
+			}
+			chain.add(current);
+			current = parents.get(current);
+		}
+		
+		// then name the chain from the top down
+		for(int i=chain.size()-1; i>=0; i--){
+			GraphElement element = chain.get(i);
+			Object name = element.attr().get(Node.NAME);
+			prefix = prefix + "/" + (name == null ? "" : name.toString());
+			qualifiedNames.put(element, prefix);
+		}
+		return prefix;
+	}
+	
+	private static String getKind(GraphElement node){
+		StringBuilder kind = new StringBuilder();
+		for(String tag : KIND_TAGS){
+			if(node.tags().contains(tag)){
+				kind.append(tag).append(',');
+			}
+		}
+		return kind.toString();
+	}
+	
+	private static String getSourcePosition(GraphElement node){
+		FormattedSourceCorrespondence sc = FormattedSourceCorrespondence.getSourceCorrespondent(node);
+		if(sc == null || sc.getFile() == null){
+			return "";
+		}
+		return sc.getFile().getName() + ":" + sc.getStartLineNumber();
+	}
+	
+	private static long hash(long hash, String value){
+		for(int i=0; i<value.length(); i++){
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		// separate the fields so "ab","c" and "a","bc" hash differently
+		return (hash ^ 0xff) * FNV_PRIME;
+	}
+
+}
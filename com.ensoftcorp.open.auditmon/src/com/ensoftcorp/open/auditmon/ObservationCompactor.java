@@ -0,0 +1,540 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.java.core.script.Common;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationGraph;
+
+/**
+ * Applies a RetentionPolicy to the observation graph
+ *
+ * Each session is dropped, archived or capped by its own change through the
+ * ObservationWriter, so observations are only held up for one session at a time.
+ * A capped session keeps a whole number of its most recent runs and the edge numbers
+ * of what is kept are renumbered from 1 at its first start, so the session still
+ * replays (see AuditUtils.getSessionObservations) from a start visit without a gap.
+ * An archived session keeps its session node, which counts the archived visits, and an
+ * archive edge from each granule it observed to the session node holding the number of
+ * visits to the granule and the time observed in it. Once every session has been
+ * processed the observation edges, observation nodes and member edges no session uses
+ * anymore are deleted.
+ *
+ * The index is checkpointed after a compaction. Sessions that are being monitored by
+ * the SessionManager are never dropped or archived. Any other AuditMon instance of a changed session must restore its session
+ * (see AuditMon.restoreSession) before recording again.
+ *
+ * @author Ben Holland
+ */
+public class ObservationCompactor {
+	
+	public static final String ARCHIVE = "observation_archive";
+	public static final String ARCHIVED_GRANULARITY = "archived_granularity";
+	public static final String ARCHIVED_VISITS = "archived_visits";
+	public static final String ARCHIVED_TIME = "archived_time";
+	public static final String ARCHIVED_FIRST_TIMESTAMP = "archived_first_timestamp";
+	public static final String ARCHIVED_LAST_TIMESTAMP = "archived_last_timestamp";
+	
+	private static ScheduledExecutorService executor = null;
+	private static ScheduledFuture<?> scheduled = null;
+	
+	/**
+	 * What a compaction changed
+	 */
+	public static class Result {
+		private final ArrayList<String> droppedSessions = new ArrayList<String>();
+		private final ArrayList<String> archivedSessions = new ArrayList<String>();
+		private final ArrayList<String> cappedSessions = new ArrayList<String>();
+		private long visitsRemoved = 0;
+		private long edgesDeleted = 0;
+		private long nodesDeleted = 0;
+		private long memberEdgesDeleted = 0;
+		
+		public List<String> getDroppedSessions(){
+			return Collections.unmodifiableList(droppedSessions);
+		}
+		
+		public List<String> getArchivedSessions(){
+			return Collections.unmodifiableList(archivedSessions);
+		}
+		
+		public List<String> getCappedSessions(){
+			return Collections.unmodifiableList(cappedSessions);
+		}
+		
+		/**
+		 * Returns the number of visits removed from the observation graph (archived visits included)
+		 * @return
+		 */
+		public long getVisitsRemoved(){
+			return visitsRemoved;
+		}
+		
+		public long getEdgesDeleted(){
+			return edgesDeleted;
+		}
+		
+		public long getNodesDeleted(){
+			return nodesDeleted;
+		}
+		
+		public long getMemberEdgesDeleted(){
+			return memberEdgesDeleted;
+		}
+		
+		public boolean isEmpty(){
+			return droppedSessions.isEmpty() && archivedSessions.isEmpty() && cappedSessions.isEmpty() && edgesDeleted == 0 && nodesDeleted == 0;
+		}
+		
+		@Override
+		public String toString(){
+			return "Dropped " + droppedSessions + ", archived " + archivedSessions + ", capped " + cappedSessions
+					+ ", removed " + visitsRemoved + " visits and deleted " + nodesDeleted + " observation nodes, "
+					+ edgesDeleted + " observation edges and " + memberEdgesDeleted + " member edges";
+		}
+	}
+	
+	/**
+	 * Applies the policy every interval milliseconds in the background
+	 * @param policy
+	 * @param interval
+	 */
+	public static synchronized void schedule(RetentionPolicy policy, long interval){
+		cancel();
+		if(interval <= 0){
+			return;
+		}
+		if(executor == null){
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "AuditMon Observation Compactor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		// the compactor thread works on a copy, so the policy can be changed without affecting it
+		final RetentionPolicy scheduledPolicy = new RetentionPolicy(policy);
+		scheduled = executor.scheduleWithFixedDelay(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					Result result = apply(scheduledPolicy);
+					if(!result.isEmpty()){
+						Log.info("AuditMon retention: " + result);
+					}
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				} catch (Exception e){
+					Log.error("An error has occured applying the AuditMon retention policy.", e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Cancels the scheduled compactions, a compaction in progress still completes
+	 */
+	public static synchronized void cancel(){
+		if(scheduled != null){
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+	}
+	
+	/**
+	 * Applies the policy to every session of the current index and deletes what is left unused
+	 * @param policy
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static Result apply(final RetentionPolicy policy) throws InterruptedException {
+		final Result result = new Result();
+		long now = System.currentTimeMillis();
+		for(final String session : SessionRegistry.getSessions()){
+			if(policy.getProtectedSessions().contains(session)){
+				continue;
+			}
+			long lastActive = getLastActive(session);
+			if(lastActive == Long.MIN_VALUE){
+				// nothing left to compact (the session may be archived)
+				continue;
+			}
+			if(policy.getMaxAge() > 0 && now - lastActive > policy.getMaxAge()){
+				ObservationWriter.submitAndWait(new Runnable(){
+					@Override
+					public void run() {
+						if(!isMonitored(session)){
+							result.visitsRemoved += dropSession(session);
+							result.droppedSessions.add(session);
+						}
+					}
+				});
+			} else if(policy.getArchiveAge() > 0 && now - lastActive > policy.getArchiveAge()){
+				ObservationWriter.submitAndWait(new Runnable(){
+					@Override
+					public void run() {
+						if(!isMonitored(session)){
+							result.visitsRemoved += archiveSession(session, policy.getArchiveGranularity());
+							result.archivedSessions.add(session);
+						}
+					}
+				});
+			} else if(policy.getMaxVisits() > 0){
+				// the most recent run is always kept, so a session can be capped while it is recording
+				ObservationWriter.submitAndWait(new Runnable(){
+					@Override
+					public void run() {
+						long removed = capSession(session, policy.getMaxVisits());
+						if(removed > 0){
+							result.visitsRemoved += removed;
+							result.cappedSessions.add(session);
+						}
+					}
+				});
+			}
+		}
+		if(!result.isEmpty()){
+			ObservationWriter.submitAndWait(new Runnable(){
+				@Override
+				public void run() {
+					SessionRegistry.clear();
+					deleteUnused(SessionRegistry.getSessions(), result);
+				}
+			});
+			refresh(result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the archived visit count and observed time (in milliseconds) of each granule
+	 * observed by an archived session, or an empty map if the session was never archived
+	 * @param session
+	 * @return
+	 */
+	public static HashMap<GraphElement,long[]> getArchive(String session){
+		HashMap<GraphElement,long[]> archive = new HashMap<GraphElement,long[]>();
+		GraphElement sessionNode = SessionRegistry.getSessionNode(session);
+		if(sessionNode == null){
+			return archive;
+		}
+		for(GraphElement archiveEdge : getArchiveEdges(sessionNode).values()){
+			archive.put(archiveEdge.getNode(EdgeDirection.FROM), new long[]{
+				Long.parseLong(archiveEdge.attr().get(ARCHIVED_VISITS).toString()),
+				Long.parseLong(archiveEdge.attr().get(ARCHIVED_TIME).toString())
+			});
+		}
+		return archive;
+	}
+	
+	private static boolean isMonitored(String session){
+		AuditMon auditMon = SessionManager.getSession(session);
+		return auditMon != null && auditMon.isMonitoring();
+	}
+	
+	/**
+	 * Returns the timestamp of the last visit of the session, or Long.MIN_VALUE if the session has no visits
+	 */
+	private static long getLastActive(String session){
+		GraphElement lastObservationNode = AuditMon.findLastObservationNodeForSession(session);
+		if(lastObservationNode == null){
+			return Long.MIN_VALUE;
+		}
+		ArrayList<String> timestamps = AuditUtils.getTimestamps(lastObservationNode, session);
+		return Long.parseLong(timestamps.get(timestamps.size()-1));
+	}
+	
+	/**
+	 * Removes the session and its archive from the observation graph
+	 * @return the number of visits removed
+	 */
+	private static long dropSession(String session){
+		long visits = removeSessionData(session);
+		GraphElement sessionNode = SessionRegistry.getSessionNode(session);
+		if(sessionNode != null){
+			for(GraphElement archiveEdge : getArchiveEdges(sessionNode).values()){
+				Graph.U.delete(archiveEdge);
+			}
+			Graph.U.delete(sessionNode);
+		}
+		return visits;
+	}
+	
+	/**
+	 * Adds the visits and observed time of each granule of the session to its archive
+	 * and removes the visits from the observation graph
+	 * @return the number of visits archived
+	 */
+	@SuppressWarnings("unchecked")
+	private static long archiveSession(String session, Granularity granularity){
+		GraphElement sessionNode = SessionRegistry.registerSession(session);
+		Object archivedGranularity = sessionNode.attr().get(ARCHIVED_GRANULARITY);
+		if(archivedGranularity != null){
+			// add to the counts of the existing archive
+			granularity = Granularity.valueOf(archivedGranularity.toString());
+		}
+		HashMap<GraphElement,GraphElement> archiveEdges = getArchiveEdges(sessionNode);
+		HashMap<GraphElement,long[]> counts = new HashMap<GraphElement,long[]>();
+		HashMap<GraphElement,Set<GraphElement>> granules = new HashMap<GraphElement,Set<GraphElement>>();
+		HashMap<GraphElement,Integer> visitationCounts = new HashMap<GraphElement,Integer>();
+		Set<GraphElement> lastGranules = null;
+		long lastTimestamp = 0;
+		
+		// add up the visits and time deltas like the observed time allocations chart
+		List<GraphElement> visits = replay(session);
+		for(GraphElement observationNode : visits){
+			Integer visitationCount = visitationCounts.get(observationNode);
+			int visitationIndex = visitationCount == null ? 0 : visitationCount;
+			visitationCounts.put(observationNode, visitationIndex + 1);
+			if(observationNode.tags().contains(AuditMon.START) || observationNode.tags().contains(AuditMon.STOP)){
+				lastGranules = null;
+				continue;
+			}
+			long timestamp = Long.parseLong(((ArrayList<String>) observationNode.attr().get(session)).get(visitationIndex));
+			if(lastGranules != null){
+				for(GraphElement granule : lastGranules){
+					getCounts(counts, granule)[1] += timestamp - lastTimestamp;
+				}
+			}
+			Set<GraphElement> observedGranules = granules.get(observationNode);
+			if(observedGranules == null){
+				observedGranules = new HashSet<GraphElement>();
+				for(GraphElement member : getMembers(observationNode)){
+					GraphElement granule = AuditUtils.getNodeGranule(member, granularity);
+					if(granule != null){
+						observedGranules.add(granule);
+					}
+				}
+				granules.put(observationNode, observedGranules);
+			}
+			for(GraphElement granule : observedGranules){
+				getCounts(counts, granule)[0]++;
+			}
+			lastGranules = observedGranules;
+			lastTimestamp = timestamp;
+		}
+		
+		long firstTimestamp = getFirst(SessionRegistry.getStartTimestamps(session));
+		long lastActive = getLastActive(session);
+		for(Entry<GraphElement,long[]> count : counts.entrySet()){
+			GraphElement archiveEdge = archiveEdges.get(count.getKey());
+			long[] archived = new long[2];
+			if(archiveEdge == null){
+				archiveEdge = Graph.U.createEdge(count.getKey(), sessionNode);
+				archiveEdge.tags().add(ARCHIVE);
+			} else {
+				archived[0] = Long.parseLong(archiveEdge.attr().get(ARCHIVED_VISITS).toString());
+				archived[1] = Long.parseLong(archiveEdge.attr().get(ARCHIVED_TIME).toString());
+			}
+			archiveEdge.attr().put(ARCHIVED_VISITS, Long.toString(archived[0] + count.getValue()[0]));
+			archiveEdge.attr().put(ARCHIVED_TIME, Long.toString(archived[1] + count.getValue()[1]));
+		}
+		
+		long archivedVisits = removeSessionData(session);
+		Object previousVisits = sessionNode.attr().get(ARCHIVED_VISITS);
+		Object previousFirst = sessionNode.attr().get(ARCHIVED_FIRST_TIMESTAMP);
+		Object previousLast = sessionNode.attr().get(ARCHIVED_LAST_TIMESTAMP);
+		if(previousFirst != null){
+			firstTimestamp = Math.min(firstTimestamp, Long.parseLong(previousFirst.toString()));
+		}
+		if(previousLast != null){
+			lastActive = Math.max(lastActive, Long.parseLong(previousLast.toString()));
+		}
+		sessionNode.attr().put(ARCHIVED_GRANULARITY, granularity.name());
+		sessionNode.attr().put(ARCHIVED_VISITS, Long.toString(archivedVisits + (previousVisits == null ? 0 : Long.parseLong(previousVisits.toString()))));
+		sessionNode.attr().put(ARCHIVED_FIRST_TIMESTAMP, Long.toString(firstTimestamp));
+		sessionNode.attr().put(ARCHIVED_LAST_TIMESTAMP, Long.toString(lastActive));
+		return archivedVisits;
+	}
+	
+	private static long[] getCounts(HashMap<GraphElement,long[]> counts, GraphElement granule){
+		long[] result = counts.get(granule);
+		if(result == null){
+			result = new long[2];
+			counts.put(granule, result);
+		}
+		return result;
+	}
+	
+	private static long getFirst(ArrayList<String> timestamps){
+		return timestamps == null || timestamps.isEmpty() ? Long.MAX_VALUE : Long.parseLong(timestamps.get(0));
+	}
+	
+	/**
+	 * Removes the visits of the session from the observation graph, the session node is kept without any starts or stops
+	 * @return the number of visits removed
+	 */
+	private static long removeSessionData(String session){
+		long visits = 0;
+		String originKey = session + AuditMon.OBSERVATION_ORIGIN_SUFFIX;
+		for(GraphElement observationEdge : new AtlasHashSet<GraphElement>(Common.universe().edgesTaggedWithAll(AuditMon.OBSERVATION, session).eval().edges())){
+			observationEdge.attr().remove(session);
+			observationEdge.tags().remove(session);
+		}
+		for(GraphElement observationNode : new AtlasHashSet<GraphElement>(Common.universe().nodesTaggedWithAll(AuditMon.OBSERVATION, session).eval().nodes())){
+			visits += size(observationNode.attr().remove(session));
+			observationNode.attr().remove(originKey);
+			observationNode.tags().remove(session);
+		}
+		GraphElement sessionNode = SessionRegistry.getSessionNode(session);
+		if(sessionNode != null){
+			visits += size(sessionNode.attr().get(SessionRegistry.START_TIMESTAMPS));
+			visits += size(sessionNode.attr().get(SessionRegistry.STOP_TIMESTAMPS));
+			sessionNode.attr().put(SessionRegistry.START_TIMESTAMPS, new ArrayList<String>());
+			sessionNode.attr().put(SessionRegistry.STOP_TIMESTAMPS, new ArrayList<String>());
+			sessionNode.attr().put(SessionRegistry.STOP_REASONS, new ArrayList<String>());
+		}
+		// a session recorded by an earlier version keeps its starts and stops on the start and stop nodes
+		for(GraphElement node : new GraphElement[]{ AtlasObservationStore.findSingletonNode(AuditMon.START), AtlasObservationStore.findSingletonNode(AuditMon.STOP) }){
+			if(node != null){
+				visits += size(node.attr().remove(session));
+				node.attr().remove(session + AuditMon.STOP_REASON_SUFFIX);
+				node.tags().remove(session);
+			}
+		}
+		return visits;
+	}
+	
+	private static int size(Object list){
+		return list instanceof ArrayList ? ((ArrayList<?>) list).size() : 0;
+	}
+	
+	/**
+	 * Drops the oldest runs of the session until at most maxVisits visits are left or only the most recent run is left
+	 * @return the number of visits removed
+	 */
+	private static long capSession(String session, int maxVisits){
+		return ObservationGraph.capSession(new AtlasObservationStore(), session, maxVisits);
+	}
+	
+	/**
+	 * Deletes the observation edges no session traverses, then the observation nodes
+	 * no session visits along with their member edges
+	 */
+	private static void deleteUnused(Set<String> sessions, Result result){
+		AtlasSet<GraphElement> observationEdges = new AtlasHashSet<GraphElement>(Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION).eval().edges());
+		AtlasSet<GraphElement> keptEdges = new AtlasHashSet<GraphElement>();
+		for(GraphElement observationEdge : observationEdges){
+			if(hasSessionData(observationEdge, sessions)){
+				keptEdges.add(observationEdge);
+			} else {
+				Graph.U.delete(observationEdge);
+				result.edgesDeleted++;
+			}
+		}
+		
+		HashSet<GraphElement> unused = new HashSet<GraphElement>();
+		for(GraphElement observationNode : Common.universe().nodesTaggedWithAny(AuditMon.OBSERVATION).eval().nodes()){
+			if(observationNode.tags().contains(AuditMon.START) || observationNode.tags().contains(AuditMon.STOP)
+					|| observationNode.tags().contains(SessionRegistry.SESSION)){
+				continue;
+			}
+			if(!hasSessionData(observationNode, sessions)){
+				unused.add(observationNode);
+			}
+		}
+		if(unused.isEmpty()){
+			return;
+		}
+		// a node is only deleted once nothing leads to it
+		for(GraphElement observationEdge : keptEdges){
+			unused.remove(observationEdge.getNode(EdgeDirection.FROM));
+			unused.remove(observationEdge.getNode(EdgeDirection.TO));
+		}
+		for(GraphElement memberEdge : new AtlasHashSet<GraphElement>(Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).eval().edges())){
+			if(unused.contains(memberEdge.getNode(EdgeDirection.TO))){
+				Graph.U.delete(memberEdge);
+				result.memberEdgesDeleted++;
+			}
+		}
+		for(GraphElement observationNode : unused){
+			Graph.U.delete(observationNode);
+			result.nodesDeleted++;
+		}
+	}
+	
+	private static boolean hasSessionData(GraphElement element, Set<String> sessions){
+		for(String key : element.attr().keys()){
+			if(sessions.contains(key)){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Discards what is cached about the changed sessions, checkpoints the index (so the
+	 * write-ahead logs cannot replay removed visits) and restores any managed AuditMon of them
+	 */
+	private static void refresh(Result result) throws InterruptedException {
+		HashSet<String> changed = new HashSet<String>();
+		changed.addAll(result.droppedSessions);
+		changed.addAll(result.archivedSessions);
+		changed.addAll(result.cappedSessions);
+		for(String session : changed){
+			SessionObservationIndex.invalidate(session);
+			ObservationInvertedIndex.invalidate(session);
+		}
+		SessionTimeline.clear();
+		// the cached granules and signatures may hold deleted elements
+		ObservationInvertedIndex.clear();
+		NodeSignatures.clear();
+		IndexCheckpointer.checkpoint();
+		for(AuditMon auditMon : SessionManager.getSessions()){
+			if(changed.contains(auditMon.getSessionName()) && !auditMon.isMonitoring()){
+				auditMon.restoreSession(auditMon.getSessionName());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the archive edges of a session node by the granule they come from
+	 */
+	private static HashMap<GraphElement,GraphElement> getArchiveEdges(GraphElement sessionNode){
+		HashMap<GraphElement,GraphElement> archiveEdges = new HashMap<GraphElement,GraphElement>();
+		for(GraphElement edge : Graph.U.edges(sessionNode, NodeDirection.IN)){
+			if(edge.tags().contains(ARCHIVE)){
+				archiveEdges.put(edge.getNode(EdgeDirection.FROM), edge);
+			}
+		}
+		return archiveEdges;
+	}
+	
+	private static AtlasSet<GraphElement> getMembers(GraphElement observationNode){
+		Q memberEdges = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).retainEdges();
+		return memberEdges.predecessors(Common.toQ(Common.toGraph(observationNode))).eval().nodes();
+	}
+	
+	/**
+	 * Returns the observation nodes of the session's visits in visit order, starting with the start node
+	 */
+	private static List<GraphElement> replay(String session){
+		if(SessionRegistry.getStartTimestamps(session) == null){
+			return new ArrayList<GraphElement>();
+		}
+		return AtlasObservationStore.replay(session);
+	}
+
+}
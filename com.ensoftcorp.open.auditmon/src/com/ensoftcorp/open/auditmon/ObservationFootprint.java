@@ -0,0 +1,587 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.script.Common;
+
+/**
+ * Estimates the heap retained by the observation graph, by session and by component
+ *
+ * The estimate walks every observation node, observation edge and member edge once.
+ * Attribute lists and strings are sized exactly for a 64-bit JVM with compressed
+ * references (with compact strings on Java 9 and later), the nodes, edges, tags and
+ * attribute entries themselves are sized with the rough per element constants below
+ * since their representation is internal to Atlas. Data that belongs to a session
+ * (timestamps, origins, edge numbers, stop reasons, session tags and the session node)
+ * is charged to the session, the rest of the graph is shared by every session.
+ *
+ * The observation data is kept as lists of strings, which every reader of the index
+ * expects, so compact only trims the slack of the lists and makes equal origins, stop
+ * reasons and edge numbers share a single string. It reports what that saved.
+ *
+ * @author Ben Holland
+ */
+public class ObservationFootprint {
+	
+	// rough estimates of the Atlas graph element representation
+	public static final int ELEMENT_BYTES = 64;
+	public static final int ATTRIBUTE_BYTES = 48;
+	public static final int TAG_BYTES = 32;
+	
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version", "1.8").startsWith("1.");
+	private static final Field ELEMENT_DATA = getElementDataField();
+	private static final int UNKNOWN_CAPACITY = -1;
+	
+	public static enum Component {
+		// observation, start and stop nodes with their tags
+		OBSERVATION_NODES,
+		// observation edges between observation nodes with their tags
+		OBSERVATION_EDGES,
+		// member edges from program artifacts to observation nodes
+		MEMBERS,
+		// visit timestamps of observation nodes and start/stop timestamps of sessions
+		TIMESTAMPS,
+		// visit origins of observation nodes
+		ORIGINS,
+		// the session's numbers of each observation edge
+		EDGE_NUMBERS,
+		// stop reasons of sessions
+		STOP_REASONS,
+		// session nodes
+		SESSIONS
+	}
+	
+	private final long[] sharedBytes = new long[Component.values().length];
+	private final HashMap<String,long[]> sessionBytes = new HashMap<String,long[]>();
+	private final HashMap<String,Long> sessionVisits = new HashMap<String,Long>();
+	private long visits = 0;
+	private long firstTimestamp = Long.MAX_VALUE;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private long slackBytes = 0;
+	private long duplicateBytes = 0;
+	
+	// the first instance of each shareable string value seen
+	private final HashMap<String,String> canonicalStrings = new HashMap<String,String>();
+	
+	private ObservationFootprint(){}
+	
+	/**
+	 * Estimates the footprint of the observation graph of the current index
+	 * The graph is read without blocking observations, so changes made meanwhile may be partially counted
+	 * @return
+	 */
+	public static ObservationFootprint measure(){
+		ObservationFootprint footprint = new ObservationFootprint();
+		Set<String> sessions = SessionRegistry.getSessions();
+		for(String session : sessions){
+			footprint.sessionBytes.put(session, new long[Component.values().length]);
+		}
+		for(GraphElement node : Common.universe().nodesTaggedWithAny(AuditMon.OBSERVATION).eval().nodes()){
+			footprint.addNode(node, sessions);
+		}
+		for(GraphElement edge : Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION).eval().edges()){
+			footprint.addEdge(edge, sessions);
+		}
+		for(GraphElement edge : Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).eval().edges()){
+			footprint.addElement(null, Component.MEMBERS, edge, sessions);
+		}
+		return footprint;
+	}
+	
+	private void addNode(GraphElement node, Set<String> sessions){
+		if(node.tags().contains(SessionRegistry.SESSION)){
+			Object name = node.attr().get(Node.NAME);
+			String session = name == null ? null : name.toString();
+			addElement(session, Component.SESSIONS, node, sessions);
+			for(String key : node.attr().keys()){
+				Object value = node.attr().get(key);
+				if(key.equals(SessionRegistry.START_TIMESTAMPS) || key.equals(SessionRegistry.STOP_TIMESTAMPS)){
+					addVisits(session, value);
+					addList(session, Component.TIMESTAMPS, value, false);
+				} else if(key.equals(SessionRegistry.STOP_REASONS)){
+					addList(session, Component.STOP_REASONS, value, true);
+				}
+			}
+			return;
+		}
+		addElement(null, Component.OBSERVATION_NODES, node, sessions);
+		for(String key : node.attr().keys()){
+			Object value = node.attr().get(key);
+			if(sessions.contains(key)){
+				// visits of the session (or legacy start and stop timestamps)
+				addVisits(key, value);
+				addList(key, Component.TIMESTAMPS, value, false);
+			} else if(key.endsWith(AuditMon.OBSERVATION_ORIGIN_SUFFIX)){
+				addList(key.substring(0, key.length() - AuditMon.OBSERVATION_ORIGIN_SUFFIX.length()), Component.ORIGINS, value, true);
+			} else if(key.endsWith(AuditMon.STOP_REASON_SUFFIX)){
+				addList(key.substring(0, key.length() - AuditMon.STOP_REASON_SUFFIX.length()), Component.STOP_REASONS, value, true);
+			}
+		}
+	}
+	
+	private void addEdge(GraphElement edge, Set<String> sessions){
+		addElement(null, Component.OBSERVATION_EDGES, edge, sessions);
+		for(String key : edge.attr().keys()){
+			if(sessions.contains(key)){
+				addList(key, Component.EDGE_NUMBERS, edge.attr().get(key), true);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the element itself, its attribute entries and tags, attribute entries
+	 * and tags named for a session are charged to the session
+	 */
+	private void addElement(String session, Component component, GraphElement element, Set<String> sessions){
+		add(session, component, ELEMENT_BYTES);
+		for(String key : element.attr().keys()){
+			add(getSession(key, sessions), component, ATTRIBUTE_BYTES);
+		}
+		for(String tag : element.tags()){
+			add(sessions.contains(tag) ? tag : session, component, TAG_BYTES);
+		}
+	}
+	
+	private static String getSession(String key, Set<String> sessions){
+		if(sessions.contains(key)){
+			return key;
+		}
+		if(key.endsWith(AuditMon.OBSERVATION_ORIGIN_SUFFIX)){
+			String session = key.substring(0, key.length() - AuditMon.OBSERVATION_ORIGIN_SUFFIX.length());
+			return sessions.contains(session) ? session : null;
+		}
+		return null;
+	}
+	
+	private void addVisits(String session, Object value){
+		if(!(value instanceof ArrayList)){
+			return;
+		}
+		ArrayList<?> timestamps = (ArrayList<?>) value;
+		int size = timestamps.size();
+		visits += size;
+		Long count = sessionVisits.get(session);
+		sessionVisits.put(session, (count == null ? 0 : count) + size);
+		for(int i=0; i<size; i++){
+			Object timestamp = timestamps.get(i);
+			if(timestamp == null){
+				continue;
+			}
+			try {
+				long time = Long.parseLong(timestamp.toString());
+				firstTimestamp = Math.min(firstTimestamp, time);
+				lastTimestamp = Math.max(lastTimestamp, time);
+			} catch (NumberFormatException e){
+				// not a timestamp
+			}
+		}
+	}
+	
+	private void addList(String session, Component component, Object value, boolean shareable){
+		if(!(value instanceof ArrayList)){
+			return;
+		}
+		ArrayList<?> list = (ArrayList<?>) value;
+		int size = list.size();
+		int capacity = getCapacity(list);
+		if(capacity == UNKNOWN_CAPACITY){
+			// the slack cannot be measured, the list is charged as if it grew one element at a time
+			add(session, component, getListBytes(getGrowthCapacity(size)));
+		} else {
+			add(session, component, getListBytes(capacity));
+			slackBytes += 4L * (capacity - size);
+		}
+		for(int i=0; i<size; i++){
+			Object element = list.get(i);
+			if(!(element instanceof String)){
+				continue;
+			}
+			String string = (String) element;
+			if(shareable){
+				String canonical = canonicalStrings.get(string);
+				if(canonical == null){
+					canonicalStrings.put(string, string);
+				} else if(canonical == string){
+					// shared, the string was already counted
+					continue;
+				} else {
+					duplicateBytes += getStringBytes(string);
+				}
+			}
+			add(session, component, getStringBytes(string));
+		}
+	}
+	
+	private void add(String session, Component component, long bytes){
+		long[] bytesByComponent = session == null ? null : sessionBytes.get(session);
+		if(bytesByComponent == null){
+			bytesByComponent = sharedBytes;
+		}
+		bytesByComponent[component.ordinal()] += bytes;
+	}
+	
+	private static Field getElementDataField(){
+		try {
+			Field field = ArrayList.class.getDeclaredField("elementData");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e){
+			// not accessible on this JVM (Java 16 and later), capacities are unknown
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the capacity of a list, or UNKNOWN_CAPACITY if it cannot be read
+	 */
+	private static int getCapacity(ArrayList<?> list){
+		if(ELEMENT_DATA != null){
+			try {
+				return ((Object[]) ELEMENT_DATA.get(list)).length;
+			} catch (Exception e){
+				// unknown
+			}
+		}
+		return UNKNOWN_CAPACITY;
+	}
+	
+	/**
+	 * Returns the capacity a list of the given size would have after growing one element at a time
+	 */
+	private static int getGrowthCapacity(int size){
+		if(size == 0){
+			return 0;
+		}
+		int capacity = 10;
+		while(capacity < size){
+			capacity += capacity >> 1;
+		}
+		return capacity;
+	}
+	
+	private static long align(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+	
+	private static long getListBytes(int capacity){
+		return 24 + (capacity == 0 ? 0 : align(16 + 4L * capacity));
+	}
+	
+	private static long getStringBytes(String string){
+		return 24 + align(16 + (COMPACT_STRINGS ? 1L : 2L) * string.length());
+	}
+	
+	/**
+	 * Returns the estimated bytes of the whole observation graph
+	 * @return
+	 */
+	public long getTotalBytes(){
+		long total = getSharedBytes();
+		for(String session : sessionBytes.keySet()){
+			total += getSessionBytes(session);
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the estimated bytes of a component for every session and the shared graph
+	 * @param component
+	 * @return
+	 */
+	public long getBytes(Component component){
+		long total = sharedBytes[component.ordinal()];
+		for(long[] bytesByComponent : sessionBytes.values()){
+			total += bytesByComponent[component.ordinal()];
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the estimated bytes of the graph that is shared by every session
+	 * @return
+	 */
+	public long getSharedBytes(){
+		long total = 0;
+		for(long bytes : sharedBytes){
+			total += bytes;
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the estimated bytes charged to a session
+	 * @param session
+	 * @return
+	 */
+	public long getSessionBytes(String session){
+		long[] bytesByComponent = sessionBytes.get(session);
+		if(bytesByComponent == null){
+			return 0;
+		}
+		long total = 0;
+		for(long bytes : bytesByComponent){
+			total += bytes;
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the estimated bytes of a component charged to a session
+	 * @param session
+	 * @param component
+	 * @return
+	 */
+	public long getSessionBytes(String session, Component component){
+		long[] bytesByComponent = sessionBytes.get(session);
+		return bytesByComponent == null ? 0 : bytesByComponent[component.ordinal()];
+	}
+	
+	public Set<String> getSessions(){
+		return Collections.unmodifiableSet(sessionBytes.keySet());
+	}
+	
+	/**
+	 * Returns the number of visits (observations, starts and stops) of every session
+	 * @return
+	 */
+	public long getVisits(){
+		return visits;
+	}
+	
+	public long getVisits(String session){
+		Long count = sessionVisits.get(session);
+		return count == null ? 0 : count;
+	}
+	
+	/**
+	 * Returns the average estimated bytes of the graph per visit
+	 * @return
+	 */
+	public double getBytesPerVisit(){
+		return visits == 0 ? 0 : (double) getTotalBytes() / visits;
+	}
+	
+	/**
+	 * Returns the number of days between the first and last visit
+	 * @return
+	 */
+	public double getDays(){
+		return visits == 0 || lastTimestamp <= firstTimestamp ? 0 : (double) (lastTimestamp - firstTimestamp) / MILLIS_PER_DAY;
+	}
+	
+	/**
+	 * Returns the average number of visits per day so far
+	 * @return
+	 */
+	public double getVisitsPerDay(){
+		double days = getDays();
+		return days == 0 ? 0 : visits / days;
+	}
+	
+	/**
+	 * Projects the estimated bytes of the graph after the given number of further days
+	 * of auditing at the rate so far
+	 * @param days
+	 * @return
+	 */
+	public long projectBytes(double days){
+		return getTotalBytes() + (long) (getBytesPerVisit() * getVisitsPerDay() * days);
+	}
+	
+	/**
+	 * Projects the estimated bytes of the graph with the given total number of visits
+	 * @param visits
+	 * @return
+	 */
+	public long projectBytesForVisits(long visits){
+		return (long) (getBytesPerVisit() * visits);
+	}
+	
+	/**
+	 * Returns the estimated bytes compact would free: list slack and duplicate strings
+	 * The list slack is only included if the capacity of lists can be read on this JVM
+	 * @return
+	 */
+	public long getReclaimableBytes(){
+		return slackBytes + duplicateBytes;
+	}
+	
+	private static String format(long bytes){
+		if(bytes >= 1024L * 1024 * 1024){
+			return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+		} else if(bytes >= 1024L * 1024){
+			return String.format("%.2f MB", bytes / (1024.0 * 1024));
+		} else if(bytes >= 1024){
+			return String.format("%.1f KB", bytes / 1024.0);
+		}
+		return bytes + " B";
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder result = new StringBuilder();
+		result.append("Observation graph: ").append(format(getTotalBytes())).append(" (estimated) for ").append(visits).append(" visits, ");
+		result.append((long) getBytesPerVisit()).append(" bytes per visit");
+		result.append(String.format(" over %.1f days (%.0f visits per day)%n", getDays(), getVisitsPerDay()));
+		for(Component component : Component.values()){
+			result.append(String.format("  %-18s %12s  (shared %s)%n", component.name().toLowerCase(), format(getBytes(component)), format(sharedBytes[component.ordinal()])));
+		}
+		List<String> sessions = new ArrayList<String>(sessionBytes.keySet());
+		Collections.sort(sessions, new Comparator<String>(){
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(getSessionBytes(b), getSessionBytes(a));
+			}
+		});
+		result.append(String.format("Sessions (%d), shared graph %s%n", sessions.size(), format(getSharedBytes())));
+		for(String session : sessions.subList(0, Math.min(20, sessions.size()))){
+			result.append(String.format("  %-30s %12s  %d visits%n", session, format(getSessionBytes(session)), getVisits(session)));
+		}
+		if(sessions.size() > 20){
+			result.append("  ... ").append(sessions.size() - 20).append(" more sessions\n");
+		}
+		if(getVisitsPerDay() > 0){
+			result.append("Projected: ");
+			result.append("30 days ").append(format(projectBytes(30)));
+			result.append(", 180 days ").append(format(projectBytes(180)));
+			result.append(", 365 days ").append(format(projectBytes(365))).append("\n");
+		}
+		result.append("Reclaimable by compact: ").append(format(getReclaimableBytes()));
+		result.append(" (list slack ").append(ELEMENT_DATA == null ? "unknown" : format(slackBytes)).append(", duplicate strings ").append(format(duplicateBytes)).append(")\n");
+		return result.toString();
+	}
+	
+	/**
+	 * The outcome of compacting the observation graph
+	 */
+	public static class CompactionResult {
+		private final ObservationFootprint before;
+		private final ObservationFootprint after;
+		private final long listsTrimmed;
+		private final long stringsShared;
+		
+		private CompactionResult(ObservationFootprint before, ObservationFootprint after, long listsTrimmed, long stringsShared){
+			this.before = before;
+			this.after = after;
+			this.listsTrimmed = listsTrimmed;
+			this.stringsShared = stringsShared;
+		}
+		
+		public ObservationFootprint getBefore(){
+			return before;
+		}
+		
+		public ObservationFootprint getAfter(){
+			return after;
+		}
+		
+		public long getListsTrimmed(){
+			return listsTrimmed;
+		}
+		
+		public long getStringsShared(){
+			return stringsShared;
+		}
+		
+		public long getSavedBytes(){
+			return before.getTotalBytes() - after.getTotalBytes();
+		}
+		
+		@Override
+		public String toString(){
+			return "Compacted the observation graph from " + format(before.getTotalBytes()) + " to " + format(after.getTotalBytes())
+					+ " (saved " + format(getSavedBytes()) + ", trimmed " + listsTrimmed + " lists, shared " + stringsShared + " strings)";
+		}
+	}
+	
+	/**
+	 * Trims every observation data list to its size and makes equal origins, stop reasons
+	 * and edge numbers share one string, then reports the savings. The compaction is applied
+	 * by the ObservationWriter so it never runs at the same time as an observation.
+	 * Returns null if the index was reloaded before the compaction could be applied.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static CompactionResult compact() throws InterruptedException {
+		final ObservationFootprint before = measure();
+		final long[] counts = new long[2];
+		boolean applied = ObservationWriter.submitAndWait(new Runnable(){
+			@Override
+			public void run() {
+				HashMap<String,String> canonicalStrings = new HashMap<String,String>();
+				Set<String> sessions = SessionRegistry.getSessions();
+				for(GraphElement node : Common.universe().nodesTaggedWithAny(AuditMon.OBSERVATION).eval().nodes()){
+					boolean sessionNode = node.tags().contains(SessionRegistry.SESSION);
+					for(String key : node.attr().keys()){
+						if(sessionNode && key.equals(SessionRegistry.STOP_REASONS)){
+							compact(node.attr().get(key), canonicalStrings, counts);
+						} else if(sessionNode || sessions.contains(key)){
+							// timestamps are unique, only the list is trimmed
+							compact(node.attr().get(key), null, counts);
+						} else if(key.endsWith(AuditMon.OBSERVATION_ORIGIN_SUFFIX) || key.endsWith(AuditMon.STOP_REASON_SUFFIX)){
+							compact(node.attr().get(key), canonicalStrings, counts);
+						}
+					}
+				}
+				for(GraphElement edge : Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION).eval().edges()){
+					for(String key : edge.attr().keys()){
+						if(sessions.contains(key)){
+							compact(edge.attr().get(key), canonicalStrings, counts);
+						}
+					}
+				}
+			}
+		});
+		if(!applied){
+			return null;
+		}
+		CompactionResult result = new CompactionResult(before, measure(), counts[0], counts[1]);
+		Log.info(result.toString());
+		return result;
+	}
+	
+	/**
+	 * Trims a list of strings and replaces its strings with canonical instances (if canonicalStrings is not null)
+	 */
+	@SuppressWarnings("unchecked")
+	private static void compact(Object value, HashMap<String,String> canonicalStrings, long[] counts){
+		if(!(value instanceof ArrayList)){
+			return;
+		}
+		ArrayList<Object> list = (ArrayList<Object>) value;
+		if(canonicalStrings != null){
+			for(int i=0; i<list.size(); i++){
+				Object element = list.get(i);
+				if(!(element instanceof String)){
+					continue;
+				}
+				String canonical = canonicalStrings.get(element);
+				if(canonical == null){
+					canonicalStrings.put((String) element, (String) element);
+				} else if(canonical != element){
+					list.set(i, canonical);
+					counts[1]++;
+				}
+			}
+		}
+		int capacity = getCapacity(list);
+		if(capacity == UNKNOWN_CAPACITY){
+			// trimming a list that has no slack does nothing, but it cannot be counted
+			list.trimToSize();
+		} else if(capacity > list.size()){
+			list.trimToSize();
+			counts[0]++;
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.ObservationType;
+
+/**
+ * An inverted index from observed program artifacts (and their granules at each
+ * level of granularity) to the visits of the observations that contain them
+ *
+ * Each posting is a visit of a session (an observation node and visitation index).
+ * A session's postings are built from its SessionObservationIndex on first use and
+ * then kept up to date as observations are recorded. Coarser granularity levels are
+ * only built the first time they are queried.
+ *
+ * @author Ben Holland
+ */
+public class ObservationInvertedIndex {
+	
+	private static final HashMap<String,SessionPostings> sessions = new HashMap<String,SessionPostings>();
+	private static boolean listening = false;
+	
+	// the granules of each observed program artifact, shared by all sessions
+	private static final HashMap<GraphElement,GraphElement[]> granules = new HashMap<GraphElement,GraphElement[]>();
+	
+	private static final IObservationListener observationListener = new IObservationListener(){
+		@Override
+		public void observationRecorded(AbstractObservation observation) {
+			if(observation.getType() != ObservationType.OBSERVATION){
+				return;
+			}
+			// finding the observed nodes is a query, so indexing waits until the next lookup
+			synchronized(ObservationInvertedIndex.class){
+				SessionPostings postings = sessions.get(observation.getSession());
+				if(postings != null){
+					postings.pending.add(observation);
+				}
+			}
+		}
+	};
+	
+	// a new or reloaded index invalidates every posting
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+	};
+	
+	/**
+	 * The postings of a single session at each level of granularity that has been built
+	 */
+	private static class SessionPostings {
+		private ArrayList<AbstractObservation> pending = new ArrayList<AbstractObservation>();
+		private EnumMap<Granularity,HashMap<GraphElement,ArrayList<AbstractObservation>>> levels = new EnumMap<Granularity,HashMap<GraphElement,ArrayList<AbstractObservation>>>(Granularity.class);
+		
+		private SessionPostings(){
+			levels.put(Granularity.PROGRAM_ARTIFACT, new HashMap<GraphElement,ArrayList<AbstractObservation>>());
+		}
+		
+		private void add(AbstractObservation observation){
+			for(Entry<Granularity,HashMap<GraphElement,ArrayList<AbstractObservation>>> level : levels.entrySet()){
+				for(GraphElement node : observation.getObservedNodes()){
+					GraphElement granule = getGranule(node, level.getKey());
+					if(granule != null){
+						addPosting(level.getValue(), granule, observation);
+					}
+				}
+			}
+		}
+		
+		private HashMap<GraphElement,ArrayList<AbstractObservation>> getLevel(Granularity granularity){
+			HashMap<GraphElement,ArrayList<AbstractObservation>> level = levels.get(granularity);
+			if(level == null){
+				// a granule's postings are the merged postings of the artifacts it contains
+				level = new HashMap<GraphElement,ArrayList<AbstractObservation>>();
+				for(Entry<GraphElement,ArrayList<AbstractObservation>> artifactPostings : levels.get(Granularity.PROGRAM_ARTIFACT).entrySet()){
+					GraphElement granule = getGranule(artifactPostings.getKey(), granularity);
+					if(granule != null){
+						ArrayList<AbstractObservation> granulePostings = level.get(granule);
+						if(granulePostings == null){
+							granulePostings = new ArrayList<AbstractObservation>();
+							level.put(granule, granulePostings);
+						}
+						granulePostings.addAll(artifactPostings.getValue());
+					}
+				}
+				for(ArrayList<AbstractObservation> granulePostings : level.values()){
+					sortAndRemoveDuplicates(granulePostings);
+				}
+				levels.put(granularity, level);
+			}
+			return level;
+		}
+	}
+	
+	/**
+	 * Adds a posting unless the visit was the last one added for the key (an observation
+	 * may contain several artifacts of the same granule)
+	 */
+	private static void addPosting(HashMap<GraphElement,ArrayList<AbstractObservation>> level, GraphElement key, AbstractObservation observation){
+		ArrayList<AbstractObservation> postings = level.get(key);
+		if(postings == null){
+			postings = new ArrayList<AbstractObservation>(2);
+			level.put(key, postings);
+		} else {
+			AbstractObservation last = postings.get(postings.size()-1);
+			if(last.getVisitationIndex() == observation.getVisitationIndex() && last.getObservationNode().equals(observation.getObservationNode())){
+				return;
+			}
+		}
+		postings.add(observation);
+	}
+	
+	private static final Comparator<AbstractObservation> TIME_ORDER = new Comparator<AbstractObservation>(){
+		@Override
+		public int compare(AbstractObservation a, AbstractObservation b) {
+			return Long.compare(a.getTimestamp(), b.getTimestamp());
+		}
+	};
+	
+	private static void sortAndRemoveDuplicates(ArrayList<AbstractObservation> postings){
+		Collections.sort(postings, TIME_ORDER);
+		LinkedHashSet<AbstractObservation> unique = new LinkedHashSet<AbstractObservation>(postings);
+		if(unique.size() != postings.size()){
+			postings.clear();
+			postings.addAll(unique);
+		}
+	}
+	
+	/**
+	 * Returns the node at the requested granularity (see AuditUtils.getNodeGranule),
+	 * granules are cached so each artifact's granule is only computed once
+	 * @param programArtifact
+	 * @param granularity
+	 * @return
+	 */
+	public static synchronized GraphElement getGranule(GraphElement programArtifact, Granularity granularity){
+		if(granularity == Granularity.PROGRAM_ARTIFACT){
+			return programArtifact;
+		}
+		GraphElement[] artifactGranules = granules.get(programArtifact);
+		if(artifactGranules == null){
+			artifactGranules = new GraphElement[Granularity.values().length];
+			granules.put(programArtifact, artifactGranules);
+		}
+		if(artifactGranules[granularity.ordinal()] == null){
+			artifactGranules[granularity.ordinal()] = AuditUtils.getNodeGranule(programArtifact, granularity);
+		}
+		return artifactGranules[granularity.ordinal()];
+	}
+	
+	private static SessionPostings getSessionPostings(String session){
+		if(!listening){
+			AuditMon.addObservationListener(observationListener);
+			IndexingUtil.addListener(indexListener);
+			listening = true;
+		}
+		SessionPostings postings = sessions.get(session);
+		if(postings == null){
+			postings = new SessionPostings();
+			for(AbstractObservation observation : SessionObservationIndex.getIndex(session).getObservations()){
+				if(observation.getType() == ObservationType.OBSERVATION){
+					postings.add(observation);
+				}
+			}
+			sessions.put(session, postings);
+		}
+		if(!postings.pending.isEmpty()){
+			for(AbstractObservation observation : postings.pending){
+				postings.add(observation);
+			}
+			postings.pending.clear();
+		}
+		return postings;
+	}
+	
+	/**
+	 * Returns the visits of the given session that observed any of the nodes in the context
+	 * at the given granularity, in time order
+	 * @param session
+	 * @param context
+	 * @param granularity
+	 * @return
+	 */
+	public static synchronized List<AbstractObservation> getObservations(String session, Q context, Granularity granularity){
+		HashMap<GraphElement,ArrayList<AbstractObservation>> level = getSessionPostings(session).getLevel(granularity);
+		AtlasSet<GraphElement> contextNodes = context.eval().nodes();
+		ArrayList<AbstractObservation> result = new ArrayList<AbstractObservation>();
+		int numPostingLists = 0;
+		if(contextNodes.size() <= level.size()){
+			for(GraphElement node : contextNodes){
+				ArrayList<AbstractObservation> postings = level.get(node);
+				if(postings != null){
+					result.addAll(postings);
+					numPostingLists++;
+				}
+			}
+		} else {
+			// a large context (such as the universe), probe the context with the indexed keys instead
+			for(Entry<GraphElement,ArrayList<AbstractObservation>> postings : level.entrySet()){
+				if(contextNodes.contains(postings.getKey())){
+					result.addAll(postings.getValue());
+					numPostingLists++;
+				}
+			}
+		}
+		if(numPostingLists > 1){
+			sortAndRemoveDuplicates(result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the visits of every session that observed any of the nodes in the context
+	 * at the given granularity, in time order
+	 * @param context
+	 * @param granularity
+	 * @return
+	 */
+	public static synchronized List<AbstractObservation> getObservations(Q context, Granularity granularity){
+		ArrayList<AbstractObservation> result = new ArrayList<AbstractObservation>();
+		for(String session : AuditUtils.getSessions()){
+			result.addAll(getObservations(session, context, granularity));
+		}
+		Collections.sort(result, TIME_ORDER);
+		return result;
+	}
+	
+	/**
+	 * Returns the visits of the given session that observed the given program artifact
+	 * or granule at the given granularity, in time order
+	 * @param session
+	 * @param node
+	 * @param granularity
+	 * @return
+	 */
+	public static synchronized List<AbstractObservation> getObservations(String session, GraphElement node, Granularity granularity){
+		ArrayList<AbstractObservation> postings = getSessionPostings(session).getLevel(granularity).get(node);
+		if(postings == null){
+			return Collections.emptyList();
+		}
+		return new ArrayList<AbstractObservation>(postings);
+	}
+	
+	/**
+	 * Returns the nodes with postings in the given session at the given granularity
+	 * @param session
+	 * @param granularity
+	 * @return
+	 */
+	public static synchronized Set<GraphElement> getObservedNodes(String session, Granularity granularity){
+		return new LinkedHashSet<GraphElement>(getSessionPostings(session).getLevel(granularity).keySet());
+	}
+	
+	/**
+	 * Discards the postings of the given session so they are rebuilt on their next use
+	 * @param session
+	 */
+	public static synchronized void invalidate(String session){
+		sessions.remove(session);
+	}
+	
+	/**
+	 * Discards every posting and cached granule
+	 */
+	public static synchronized void clear(){
+		sessions.clear();
+		granules.clear();
+	}
+
+}
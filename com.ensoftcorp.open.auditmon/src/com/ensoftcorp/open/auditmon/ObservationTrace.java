@@ -0,0 +1,365 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An opt-in trace of the stages of each observation
+ *
+ * While tracing is enabled every call to makeObservation produces a record of the
+ * nanoseconds spent in each stage and the number of nodes involved. Records are kept
+ * in a lock-free ring buffer that holds the most recent observations of every session,
+ * which can be dumped to a CSV file for offline analysis or summarized by the slowest
+ * observations. When tracing is disabled no records are created.
+ *
+ * Stages are timed back to back, each stage is the time since the end of the previous
+ * stage, so the stages of a record add up to its total.
+ *
+ * @author Ben Holland
+ */
+public class ObservationTrace {
+	
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	public static enum Stage {
+		// evaluating the selection into nodes (retainNodes)
+		SELECTION,
+		// checking the observation filter, including evaluating the filter after an index reload
+		FILTER,
+		// checking for selections of observation nodes
+		SELF_SELECTION,
+		// querying the last observation's members and comparing them with the selection
+		REPEAT_CHECK,
+		// writing the journal
+		JOURNAL,
+		// writing the write-ahead log
+		WRITE_AHEAD_LOG,
+		// waiting for the ObservationWriter (other sessions' changes and checkpoints)
+		QUEUE_WAIT,
+		// resolving the members and finding an existing observation node (findObservationNode)
+		FIND_OBSERVATION,
+		// creating or updating the observation node and edges in the graph
+		GRAPH_MUTATION,
+		// notifying the observation listeners
+		NOTIFY
+	}
+	
+	public static enum Outcome {
+		RECORDED,
+		JOURNALED,
+		NOT_STARTED,
+		SKIPPED_EMPTY,
+		SKIPPED_FILTER,
+		SKIPPED_SELF_SELECTION,
+		SKIPPED_REPEAT,
+		// recording the observation in the index threw an exception
+		FAILED
+	}
+	
+	/**
+	 * The trace of a single observation
+	 */
+	public static class Record {
+		private final String session;
+		private final long timestamp;
+		private final String origin;
+		private final long startNanos;
+		private final long[] stageNanos = new long[Stage.values().length];
+		private long lapNanos;
+		private long totalNanos = 0;
+		private int selectedNodes = 0;
+		private int candidateObservations = 0;
+		private Outcome outcome = null;
+		private long sequence = -1;
+		
+		private Record(String session, long timestamp, String origin){
+			this.session = session;
+			this.timestamp = timestamp;
+			this.origin = origin;
+			this.startNanos = System.nanoTime();
+			this.lapNanos = startNanos;
+		}
+		
+		/**
+		 * Adds the time since the end of the previous stage to the given stage
+		 * @param stage
+		 */
+		public void lap(Stage stage){
+			long now = System.nanoTime();
+			stageNanos[stage.ordinal()] += now - lapNanos;
+			lapNanos = now;
+		}
+		
+		public void setSelectedNodes(int selectedNodes){
+			this.selectedNodes = selectedNodes;
+		}
+		
+		public void setCandidateObservations(int candidateObservations){
+			this.candidateObservations = candidateObservations;
+		}
+		
+		public String getSession(){
+			return session;
+		}
+		
+		public long getTimestamp(){
+			return timestamp;
+		}
+		
+		public String getOrigin(){
+			return origin;
+		}
+		
+		public long getStageNanos(Stage stage){
+			return stageNanos[stage.ordinal()];
+		}
+		
+		/**
+		 * Returns the stage that took the longest
+		 * @return
+		 */
+		public Stage getSlowestStage(){
+			Stage slowest = Stage.values()[0];
+			for(Stage stage : Stage.values()){
+				if(getStageNanos(stage) > getStageNanos(slowest)){
+					slowest = stage;
+				}
+			}
+			return slowest;
+		}
+		
+		public long getTotalNanos(){
+			return totalNanos;
+		}
+		
+		/**
+		 * Returns the number of nodes in the selection
+		 * @return
+		 */
+		public int getSelectedNodes(){
+			return selectedNodes;
+		}
+		
+		/**
+		 * Returns the number of observation nodes reachable from the selection that
+		 * were compared with it to find an existing observation node
+		 * @return
+		 */
+		public int getCandidateObservations(){
+			return candidateObservations;
+		}
+		
+		public Outcome getOutcome(){
+			return outcome;
+		}
+		
+		/**
+		 * Returns the order in which the record was finished
+		 * @return
+		 */
+		public long getSequence(){
+			return sequence;
+		}
+		
+		@Override
+		public String toString(){
+			StringBuilder result = new StringBuilder();
+			result.append(session).append(" ").append(timestamp).append(" ").append(origin);
+			result.append(": ").append(outcome).append(" in ").append(totalNanos / 1000).append("us");
+			result.append(" (").append(selectedNodes).append(" nodes, ").append(candidateObservations).append(" candidates)");
+			for(Stage stage : Stage.values()){
+				long nanos = getStageNanos(stage);
+				if(nanos > 0){
+					result.append(", ").append(stage.name().toLowerCase()).append(" ").append(nanos / 1000).append("us");
+				}
+			}
+			return result.toString();
+		}
+	}
+	
+	private static final AtomicLong sequence = new AtomicLong();
+	private static volatile AtomicReferenceArray<Record> buffer = null;
+	// the records of the last trace after tracing is disabled
+	private static volatile AtomicReferenceArray<Record> retained = null;
+	
+	/**
+	 * Enables tracing with the default capacity
+	 */
+	public static void enable(){
+		enable(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Enables tracing, keeping (at least) the given number of most recent records
+	 * Any records of an earlier trace are discarded
+	 * @param capacity
+	 */
+	public static synchronized void enable(int capacity){
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		retained = null;
+		buffer = new AtomicReferenceArray<Record>(size);
+	}
+	
+	/**
+	 * Disables tracing, the records are kept until tracing is enabled again
+	 */
+	public static synchronized void disable(){
+		AtomicReferenceArray<Record> records = buffer;
+		buffer = null;
+		if(records != null){
+			retained = records;
+		}
+	}
+	
+	public static boolean isEnabled(){
+		return buffer != null;
+	}
+	
+	/**
+	 * Returns a new record for an observation starting now, or null if tracing is disabled
+	 * @param session
+	 * @param timestamp
+	 * @param origin
+	 * @return
+	 */
+	public static Record begin(String session, long timestamp, String origin){
+		return buffer == null ? null : new Record(session, timestamp, origin);
+	}
+	
+	/**
+	 * Adds the time since the end of the previous stage of the record to the given stage
+	 * Does nothing if the record is null (tracing was disabled when the observation began)
+	 * @param record
+	 * @param stage
+	 */
+	public static void lap(Record record, Stage stage){
+		if(record != null){
+			record.lap(stage);
+		}
+	}
+	
+	/**
+	 * Completes a record and adds it to the ring buffer, overwriting the oldest record when full
+	 * Does nothing if the record is null
+	 * @param record
+	 * @param outcome
+	 */
+	public static void finish(Record record, Outcome outcome){
+		if(record == null){
+			return;
+		}
+		record.outcome = outcome;
+		record.totalNanos = System.nanoTime() - record.startNanos;
+		AtomicReferenceArray<Record> records = buffer;
+		if(records != null){
+			record.sequence = sequence.getAndIncrement();
+			records.set((int) (record.sequence & (records.length() - 1)), record);
+		}
+	}
+	
+	/**
+	 * Returns the records in the ring buffer, oldest first
+	 * @return
+	 */
+	public static List<Record> getRecords(){
+		AtomicReferenceArray<Record> records = buffer;
+		if(records == null){
+			records = retained;
+		}
+		ArrayList<Record> result = new ArrayList<Record>();
+		if(records == null){
+			return result;
+		}
+		for(int i=0; i<records.length(); i++){
+			Record record = records.get(i);
+			if(record != null){
+				result.add(record);
+			}
+		}
+		Collections.sort(result, new Comparator<Record>(){
+			@Override
+			public int compare(Record a, Record b) {
+				return Long.compare(a.sequence, b.sequence);
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Returns the n slowest records in the ring buffer, slowest first
+	 * @param n
+	 * @return
+	 */
+	public static List<Record> getSlowest(int n){
+		List<Record> records = getRecords();
+		Collections.sort(records, new Comparator<Record>(){
+			@Override
+			public int compare(Record a, Record b) {
+				return Long.compare(b.totalNanos, a.totalNanos);
+			}
+		});
+		return new ArrayList<Record>(records.subList(0, Math.min(n, records.size())));
+	}
+	
+	/**
+	 * Returns a summary of the n slowest records, one per line with its slowest stage
+	 * @param n
+	 * @return
+	 */
+	public static String getSummary(int n){
+		List<Record> records = getRecords();
+		StringBuilder result = new StringBuilder();
+		result.append("Slowest ").append(Math.min(n, records.size())).append(" of ").append(records.size()).append(" traced observations\n");
+		for(Record record : getSlowest(n)){
+			result.append(record.getSlowestStage().name().toLowerCase()).append(": ").append(record).append("\n");
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Writes the records in the ring buffer to a CSV file, oldest first
+	 * Stage columns are in nanoseconds
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void dump(File file) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("sequence,session,timestamp,origin,outcome,selected_nodes,candidate_observations,total_ns");
+			for(Stage stage : Stage.values()){
+				writer.write("," + stage.name().toLowerCase() + "_ns");
+			}
+			writer.write("\n");
+			for(Record record : getRecords()){
+				writer.write(record.sequence + "," + quote(record.session) + "," + record.timestamp + "," + quote(record.origin)
+						+ "," + record.outcome + "," + record.selectedNodes + "," + record.candidateObservations + "," + record.totalNanos);
+				for(Stage stage : Stage.values()){
+					writer.write("," + record.getStageNanos(stage));
+				}
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private static String quote(String value){
+		if(value == null){
+			return "";
+		}
+		if(value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1){
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+}
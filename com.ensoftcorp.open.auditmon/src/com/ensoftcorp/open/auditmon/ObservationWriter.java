@@ -0,0 +1,160 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.log.Log;
+
+/**
+ * The single writer of the observation graph
+ *
+ * Every AuditMon session submits its changes to the index (starts, stops and
+ * observations) here, as do merges, write-ahead log recovery (see ObservationMerger)
+ * and the ObservationCompactor. Changes are applied one at a time in the order they were
+ * submitted, so sessions running on different threads never modify the shared start
+ * and stop nodes (or any other part of the observation graph) at the same time.
+ * While a checkpoint is saving the index (see IndexCheckpointer) changes are queued
+ * and applied as soon as the checkpoint completes.
+ *
+ * @author Ben Holland
+ */
+public class ObservationWriter {
+	
+	private static final ArrayDeque<Runnable> changes = new ArrayDeque<Runnable>();
+	private static final Object writeLock = new Object();
+	// incremented each time the queued changes are discarded
+	private static long generation = 0;
+	
+	private static final IndexCheckpointer.ICheckpointListener checkpointListener = new IndexCheckpointer.ICheckpointListener(){
+		@Override
+		public void checkpointCompleted() {
+			drain();
+		}
+	};
+	
+	// queued changes belong to the index they were made in
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				synchronized(changes){
+					changes.clear();
+					generation++;
+				}
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+	};
+	
+	static {
+		IndexCheckpointer.addCheckpointListener(checkpointListener);
+		IndexingUtil.addListener(indexListener);
+	}
+	
+	/**
+	 * Applies a change to the index after every change submitted before it
+	 * The change is applied on the calling thread, unless a checkpoint is in
+	 * progress in which case it is applied when the checkpoint completes
+	 * @param change
+	 */
+	public static void submit(Runnable change){
+		synchronized(changes){
+			changes.add(change);
+			AuditMonMetrics.recordQueueDepth(changes.size());
+		}
+		drain();
+	}
+	
+	/**
+	 * Applies a change to the index after every change submitted before it and waits
+	 * until it has been applied (which may be after a checkpoint in progress completes)
+	 * Returns false if the change was discarded because the index was reloaded
+	 * Must not be called from a change
+	 * @param change
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static boolean submitAndWait(final Runnable change) throws InterruptedException {
+		final CountDownLatch applied = new CountDownLatch(1);
+		final AtomicBoolean started = new AtomicBoolean(false);
+		Runnable wrapper = new Runnable(){
+			@Override
+			public void run() {
+				started.set(true);
+				try {
+					change.run();
+				} finally {
+					applied.countDown();
+				}
+			}
+		};
+		long submitted;
+		synchronized(changes){
+			submitted = generation;
+		}
+		submit(wrapper);
+		while(!applied.await(100, TimeUnit.MILLISECONDS)){
+			synchronized(changes){
+				if(generation != submitted && !started.get() && !changes.contains(wrapper)){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of changes waiting to be applied
+	 * @return
+	 */
+	public static int getNumberOfPendingChanges(){
+		synchronized(changes){
+			return changes.size();
+		}
+	}
+	
+	/**
+	 * Applies the queued changes unless a checkpoint is in progress
+	 */
+	private static void drain(){
+		synchronized(writeLock){
+			if(!IndexCheckpointer.beginApply()){
+				return;
+			}
+			try {
+				while(true){
+					Runnable change;
+					synchronized(changes){
+						change = changes.poll();
+					}
+					if(change == null){
+						break;
+					}
+					try {
+						change.run();
+					} catch (Exception e){
+						Log.error("An error has occured applying an AuditMon change to the index.", e);
+					}
+				}
+			} finally {
+				IndexCheckpointer.endApply();
+			}
+		}
+	}
+
+}
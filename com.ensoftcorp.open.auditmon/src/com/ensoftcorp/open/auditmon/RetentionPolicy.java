@@ -0,0 +1,137 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+
+/**
+ * Which observation data the ObservationCompactor keeps
+ *
+ * A session that has not been active for the maximum age is dropped, one that has
+ * not been active for the archive age is collapsed into visit counts and observed
+ * time per granule, and the history of any other session is capped at a number of
+ * visits by dropping its oldest runs (a start and the visits up to the next start).
+ * Each policy is disabled by a value of 0, which is the default, so a new policy
+ * keeps everything.
+ *
+ * @author Ben Holland
+ */
+public class RetentionPolicy {
+	
+	private long maxAge = 0;
+	private long archiveAge = 0;
+	private int maxVisits = 0;
+	private Granularity archiveGranularity = Granularity.PARENT_CLASS;
+	private final HashSet<String> protectedSessions = new HashSet<String>();
+	
+	/**
+	 * Creates a policy that keeps everything
+	 */
+	public RetentionPolicy(){}
+	
+	/**
+	 * Creates a copy of the given policy
+	 * @param policy
+	 */
+	public RetentionPolicy(RetentionPolicy policy){
+		this.maxAge = policy.maxAge;
+		this.archiveAge = policy.archiveAge;
+		this.maxVisits = policy.maxVisits;
+		this.archiveGranularity = policy.archiveGranularity;
+		this.protectedSessions.addAll(policy.protectedSessions);
+	}
+	
+	/**
+	 * Sets the time since a session was last active after which the session is dropped
+	 * @param days
+	 */
+	public void setMaxAgeDays(double days){
+		this.maxAge = (long) (days * 24 * 60 * 60 * 1000);
+	}
+	
+	/**
+	 * Returns the time since a session was last active after which the session is dropped
+	 * @return milliseconds, 0 if sessions are never dropped
+	 */
+	public long getMaxAge(){
+		return maxAge;
+	}
+	
+	/**
+	 * Sets the time since a session was last active after which the session is archived
+	 * @param days
+	 */
+	public void setArchiveAgeDays(double days){
+		this.archiveAge = (long) (days * 24 * 60 * 60 * 1000);
+	}
+	
+	/**
+	 * Returns the time since a session was last active after which the session is archived
+	 * @return milliseconds, 0 if sessions are never archived
+	 */
+	public long getArchiveAge(){
+		return archiveAge;
+	}
+	
+	/**
+	 * Sets the maximum number of visits (starts, stops and observations) kept for a session
+	 * The most recent run of a session is always kept, even if it is longer
+	 * @param maxVisits
+	 */
+	public void setMaxVisits(int maxVisits){
+		this.maxVisits = Math.max(0, maxVisits);
+	}
+	
+	/**
+	 * Returns the maximum number of visits kept for a session, 0 if there is no limit
+	 * @return
+	 */
+	public int getMaxVisits(){
+		return maxVisits;
+	}
+	
+	/**
+	 * Sets the granularity archived sessions are counted at
+	 * @param archiveGranularity
+	 */
+	public void setArchiveGranularity(Granularity archiveGranularity){
+		this.archiveGranularity = archiveGranularity;
+	}
+	
+	public Granularity getArchiveGranularity(){
+		return archiveGranularity;
+	}
+	
+	/**
+	 * Excludes a session from every policy
+	 * @param session
+	 */
+	public void protect(String session){
+		protectedSessions.add(session);
+	}
+	
+	public void unprotect(String session){
+		protectedSessions.remove(session);
+	}
+	
+	public Set<String> getProtectedSessions(){
+		return Collections.unmodifiableSet(protectedSessions);
+	}
+	
+	/**
+	 * Returns true if no policy is enabled
+	 * @return
+	 */
+	public boolean isKeepAll(){
+		return maxAge == 0 && archiveAge == 0 && maxVisits == 0;
+	}
+	
+	@Override
+	public String toString(){
+		return "RetentionPolicy [maxAge=" + maxAge + "ms, archiveAge=" + archiveAge + "ms, maxVisits=" + maxVisits
+				+ ", archiveGranularity=" + archiveGranularity + ", protected=" + protectedSessions + "]";
+	}
+
+}
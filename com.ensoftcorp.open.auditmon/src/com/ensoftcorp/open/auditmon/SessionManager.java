@@ -0,0 +1,183 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.ui.selection.IAtlasSelectionListener;
+import com.ensoftcorp.atlas.ui.selection.SelectionUtil;
+import com.ensoftcorp.atlas.ui.selection.event.IAtlasSelectionEvent;
+import com.ensoftcorp.open.auditmon.AuditConstants.EditorSelectionMembers;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Counter;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Latency;
+import com.ensoftcorp.open.auditmon.ObservationTrace.Stage;
+
+/**
+ * Manages several concurrent AuditMon sessions with a single selection listener and
+ * a single index listener
+ *
+ * Each selection is resolved once (once per editor selection members setting in use)
+ * and the result is fanned out to every monitoring session, each session still applies
+ * its own observation filter. Sessions that are not added to the manager keep their own
+ * listeners. Graph changes of all sessions are applied by the ObservationWriter.
+ *
+ * @author Ben Holland
+ */
+public class SessionManager {
+	
+	private static final CopyOnWriteArrayList<AuditMon> sessions = new CopyOnWriteArrayList<AuditMon>();
+	private static boolean registered = false;
+	
+	// the managed sessions whose own listeners were registered when they were added
+	private static final HashSet<AuditMon> ownSelectionListeners = new HashSet<AuditMon>();
+	private static final HashSet<AuditMon> ownIndexListeners = new HashSet<AuditMon>();
+	
+	private static final IAtlasSelectionListener selectionListener = new IAtlasSelectionListener(){
+		@Override
+		public void selectionChanged(IAtlasSelectionEvent atlasSelection) {
+			AuditMonMetrics.increment(Counter.SELECTION_EVENTS);
+			try {
+				long currentTime = System.currentTimeMillis();
+				String origin = null;
+				EnumMap<EditorSelectionMembers,AtlasSet<GraphElement>> selections = new EnumMap<EditorSelectionMembers,AtlasSet<GraphElement>>(EditorSelectionMembers.class);
+				for(AuditMon session : sessions){
+					if(!session.isMonitoring()){
+						continue;
+					}
+					if(origin == null){
+						origin = AuditMon.getSelectionOrigin(atlasSelection);
+					}
+					// a shared selection is traced by the first session that evaluates it
+					ObservationTrace.Record trace = ObservationTrace.begin(session.getSessionName(), currentTime, origin);
+					EditorSelectionMembers members = session.getEditorSelectionMembers();
+					AtlasSet<GraphElement> nodes = selections.get(members);
+					if(nodes == null){
+						// the selection is evaluated exactly once for each setting in use
+						long start = System.nanoTime();
+						nodes = AuditMon.getSelection(atlasSelection, members).retainNodes().eval().nodes();
+						AuditMonMetrics.record(Latency.GRAPH_QUERY, start);
+						selections.put(members, nodes);
+					}
+					ObservationTrace.lap(trace, Stage.SELECTION);
+					try {
+						session.makeObservation(nodes, currentTime, origin, trace);
+					} catch (Exception e){
+						Log.error("An error has occured in AuditMon session " + session.getSessionName() + ".", e);
+					}
+				}
+			} catch (Exception e){
+				Log.error("An error has occured in the AuditMon session manager.", e);
+			}
+		}
+	};
+	
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {
+			for(AuditMon session : sessions){
+				session.getIndexListener().indexOperationCancelled(io);
+			}
+		}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {
+			for(AuditMon session : sessions){
+				session.getIndexListener().indexOperationError(io, t);
+			}
+		}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			for(AuditMon session : sessions){
+				session.getIndexListener().indexOperationStarted(io);
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {
+			for(AuditMon session : sessions){
+				session.getIndexListener().indexOperationComplete(io);
+			}
+		}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation io) {
+			for(AuditMon session : sessions){
+				session.getIndexListener().indexOperationScheduled(io);
+			}
+		}
+	};
+	
+	/**
+	 * Adds a session to the manager, the session's own listeners are unregistered
+	 * @param session
+	 */
+	public static synchronized void addSession(AuditMon session){
+		if(sessions.addIfAbsent(session)){
+			if(session.isSelectionListenerRegistered()){
+				ownSelectionListeners.add(session);
+				session.unregisterSelectionListener();
+			}
+			if(session.isIndexListenerRegistered()){
+				ownIndexListeners.add(session);
+				session.unregisterIndexListener();
+			}
+			if(!registered){
+				SelectionUtil.addSelectionListener(selectionListener);
+				IndexingUtil.addListener(indexListener);
+				registered = true;
+			}
+		}
+	}
+	
+	/**
+	 * Removes a session from the manager, the session's own listeners that were registered
+	 * when it was added are registered again
+	 * @param session
+	 */
+	public static synchronized void removeSession(AuditMon session){
+		if(sessions.remove(session)){
+			if(ownIndexListeners.remove(session)){
+				session.registerIndexListener();
+			}
+			if(ownSelectionListeners.remove(session)){
+				session.registerSelectionListener();
+			}
+			if(sessions.isEmpty() && registered){
+				SelectionUtil.removeSelectionListener(selectionListener);
+				IndexingUtil.removeListener(indexListener);
+				registered = false;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the managed sessions
+	 * @return
+	 */
+	public static List<AuditMon> getSessions(){
+		return new ArrayList<AuditMon>(sessions);
+	}
+	
+	/**
+	 * Returns the managed session with the given name or null if there is none
+	 * @param name
+	 * @return
+	 */
+	public static AuditMon getSession(String name){
+		for(AuditMon session : sessions){
+			if(session.getSessionName().equals(name)){
+				return session;
+			}
+		}
+		return null;
+	}
+
+}
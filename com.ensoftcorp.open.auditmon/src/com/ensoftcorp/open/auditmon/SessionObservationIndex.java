@@ -0,0 +1,338 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.Observation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StartObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StopObservation;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+
+/**
+ * A sorted timestamp index of the visits of a session
+ *
+ * The session is replayed from the index once, after that new observations are
+ * appended as they are recorded. Range queries binary search the timestamps and
+ * lazily iterate over the matching visits, so overlapping range queries never
+ * replay or scan the whole session.
+ *
+ * @author Ben Holland
+ */
+public class SessionObservationIndex {
+	
+	private static final HashMap<String,SessionObservationIndex> indexes = new HashMap<String,SessionObservationIndex>();
+	private static boolean listening = false;
+	
+	// keeps the indexed sessions up to date with observations recorded after they were replayed
+	private static final IObservationListener observationListener = new IObservationListener(){
+		@Override
+		public void observationRecorded(AbstractObservation observation) {
+			SessionObservationIndex index;
+			synchronized(SessionObservationIndex.class){
+				index = indexes.get(observation.getSession());
+			}
+			if(index != null){
+				index.add(observation);
+			}
+		}
+	};
+	
+	// a new or reloaded index invalidates every replay
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+	};
+	
+	private final String session;
+	
+	// visits sorted by timestamp, the arrays are replaced (never modified below size) when they grow
+	// so an iterator can keep reading the arrays it started with while new visits are appended
+	private long[] timestamps = new long[64];
+	private AbstractObservation[] observations = new AbstractObservation[64];
+	private int size = 0;
+	
+	private SessionObservationIndex(String session){
+		this.session = session;
+	}
+	
+	/**
+	 * Returns the timestamp index of the given session, replaying the session from the index if needed
+	 * @param session
+	 * @return
+	 */
+	public static SessionObservationIndex getIndex(String session){
+		synchronized(SessionObservationIndex.class){
+			if(!listening){
+				AuditMon.addObservationListener(observationListener);
+				IndexingUtil.addListener(indexListener);
+				listening = true;
+			}
+			SessionObservationIndex index = indexes.get(session);
+			if(index == null){
+				index = new SessionObservationIndex(session);
+				for(AbstractObservation observation : replaySession(session)){
+					index.add(observation);
+				}
+				indexes.put(session, index);
+			}
+			return index;
+		}
+	}
+	
+	/**
+	 * Discards the indexed session so it is replayed on its next use
+	 * This should be called after any third party modifications to the session in the index
+	 * @param session
+	 */
+	public static synchronized void invalidate(String session){
+		indexes.remove(session);
+	}
+	
+	/**
+	 * Discards every indexed session
+	 */
+	public static synchronized void clear(){
+		indexes.clear();
+	}
+	
+	/**
+	 * Walks the observation edges of the session in edge number order and returns every visit
+	 * @param session
+	 * @return
+	 */
+	private static List<AbstractObservation> replaySession(String session){
+		ArrayList<AbstractObservation> result = new ArrayList<AbstractObservation>();
+		if(SessionRegistry.getStartTimestamps(session) == null){
+			// no session for start node, just return empty result
+			return result;
+		}
+		List<GraphElement> visits = AtlasObservationStore.replay(session);
+		if(visits.isEmpty()){
+			// no start node means no observations just return an empty result
+			return result;
+		}
+		GraphElement startNode = visits.get(0);
+		
+		// keep track of how many times we've seen the observation nodes in the traversal
+		HashMap<GraphElement,Integer> visitationCounts = new HashMap<GraphElement,Integer>();
+		result.add(new StartObservation(startNode, session, 0));
+		visitationCounts.put(startNode, 1);
+		
+		// the remaining visits in the order they were made
+		for(GraphElement observationNode : visits.subList(1, visits.size())){
+			Integer visitationCount = visitationCounts.get(observationNode);
+			int visitationIndex = visitationCount == null ? 0 : visitationCount;
+			visitationCounts.put(observationNode, visitationIndex + 1);
+			
+			if(observationNode.tags().contains(AuditMon.START)){
+				// this is a start node, there are only timestamps
+				result.add(new StartObservation(observationNode, session, visitationIndex));
+			} else if(observationNode.tags().contains(AuditMon.STOP)){
+				// this is a stop node, there are timestamps and stop reasons
+				result.add(new StopObservation(observationNode, session, visitationIndex));
+			} else {
+				// just a normal observation node, there are timestamps, origins, and observation members
+				result.add(new Observation(observationNode, session, visitationIndex));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds a visit to the index, visits are expected to arrive in time order
+	 * @param observation
+	 */
+	private synchronized void add(AbstractObservation observation){
+		if(size > 0 && observations[size-1].getObservationNode().equals(observation.getObservationNode())
+				&& observations[size-1].getVisitationIndex() == observation.getVisitationIndex()){
+			// already replayed
+			return;
+		}
+		long timestamp = observation.getTimestamp();
+		int capacity = size == timestamps.length ? size * 2 : timestamps.length;
+		if(size == 0 || timestamps[size-1] <= timestamp){
+			if(capacity != timestamps.length){
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				observations = Arrays.copyOf(observations, capacity);
+			}
+			timestamps[size] = timestamp;
+			observations[size] = observation;
+		} else {
+			// the clock went backwards, insert into new arrays so running iterators are not disturbed
+			int index = upperBound(timestamps, size, timestamp);
+			long[] newTimestamps = new long[capacity];
+			AbstractObservation[] newObservations = new AbstractObservation[capacity];
+			System.arraycopy(timestamps, 0, newTimestamps, 0, index);
+			System.arraycopy(observations, 0, newObservations, 0, index);
+			newTimestamps[index] = timestamp;
+			newObservations[index] = observation;
+			System.arraycopy(timestamps, index, newTimestamps, index + 1, size - index);
+			System.arraycopy(observations, index, newObservations, index + 1, size - index);
+			timestamps = newTimestamps;
+			observations = newObservations;
+		}
+		size++;
+	}
+	
+	public String getSession(){
+		return session;
+	}
+	
+	/**
+	 * Returns the number of visits in the session
+	 * @return
+	 */
+	public synchronized int size(){
+		return size;
+	}
+	
+	/**
+	 * Lazily iterates over the visits with timestamps in [beginRange, endRange] in time order
+	 * Visits recorded after this method returns are not included
+	 * @param beginRange
+	 * @param endRange
+	 * @return
+	 */
+	public Iterable<AbstractObservation> getObservations(long beginRange, long endRange){
+		return getLastObservations(beginRange, endRange, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Lazily iterates over the last (at most) count visits with timestamps in [beginRange, endRange] in time order
+	 * Visits recorded after this method returns are not included
+	 * @param beginRange
+	 * @param endRange
+	 * @param count
+	 * @return
+	 */
+	public Iterable<AbstractObservation> getLastObservations(long beginRange, long endRange, int count){
+		final long[] timestamps;
+		final AbstractObservation[] observations;
+		final int size;
+		synchronized(this){
+			timestamps = this.timestamps;
+			observations = this.observations;
+			size = this.size;
+		}
+		final int last = endRange == Long.MAX_VALUE ? size : upperBound(timestamps, size, endRange);
+		final int first = Math.max(lowerBound(timestamps, size, beginRange), last - Math.max(0, count));
+		return new Iterable<AbstractObservation>(){
+			@Override
+			public Iterator<AbstractObservation> iterator() {
+				return new Iterator<AbstractObservation>(){
+					private int next = first;
+					
+					@Override
+					public boolean hasNext() {
+						return next < last;
+					}
+					
+					@Override
+					public AbstractObservation next() {
+						if(next >= last){
+							throw new NoSuchElementException();
+						}
+						return observations[next++];
+					}
+					
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Lazily iterates over every visit of the session in time order
+	 * @return
+	 */
+	public Iterable<AbstractObservation> getObservations(){
+		return getObservations(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Returns a sorted map of timestamps to visits (if several visits share a timestamp the last is kept)
+	 * @return
+	 */
+	public TreeMap<Long,AbstractObservation> toSortedMap(){
+		TreeMap<Long,AbstractObservation> result = new TreeMap<Long,AbstractObservation>();
+		long[] timestamps;
+		AbstractObservation[] observations;
+		int size;
+		synchronized(this){
+			timestamps = this.timestamps;
+			observations = this.observations;
+			size = this.size;
+		}
+		for(int i=0; i<size; i++){
+			result.put(timestamps[i], observations[i]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the index of the first timestamp >= the given time
+	 */
+	private static int lowerBound(long[] timestamps, int size, long time){
+		int lo = 0;
+		int hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(timestamps[mid] < time){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * Returns the index of the first timestamp > the given time
+	 */
+	private static int upperBound(long[] timestamps, int size, long time){
+		int lo = 0;
+		int hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(timestamps[mid] <= time){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+}
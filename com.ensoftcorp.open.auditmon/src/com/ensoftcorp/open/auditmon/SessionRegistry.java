@@ -0,0 +1,205 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.java.core.script.Common;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+
+/**
+ * A registry of the AuditMon sessions in the index
+ *
+ * Each session has its own session node holding the session's start timestamps,
+ * stop timestamps and stop reasons. Earlier versions stored these as attributes named
+ * after the session on the shared start and stop nodes (and tagged those nodes with
+ * every session name), so every new session grew the attribute maps of the two hottest
+ * nodes in the observation graph. The visits of observation nodes and the edge numbers
+ * of observation edges are still attributes named after the session, since an
+ * observation node or edge only carries the sessions that actually visited it.
+ *
+ * Sessions recorded by earlier versions are still read from the start and stop nodes
+ * and are moved to a session node the first time they are resumed.
+ *
+ * @author Ben Holland
+ */
+public class SessionRegistry {
+	
+	public static final String SESSION = AuditConstants.SESSION;
+	public static final String START_TIMESTAMPS = AuditConstants.START_TIMESTAMPS;
+	public static final String STOP_TIMESTAMPS = AuditConstants.STOP_TIMESTAMPS;
+	public static final String STOP_REASONS = AuditConstants.STOP_REASONS;
+	
+	// lazily loaded from the index, null until then
+	private static HashMap<String,GraphElement> sessionNodes = null;
+	
+	// a new or reloaded index has its own sessions
+	private static final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationCancelled(IndexOperation io) {}
+		
+		@Override
+		public void indexOperationError(IndexOperation io, Throwable t) {}
+		
+		@Override
+		public void indexOperationStarted(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationComplete(IndexOperation io) {
+			if(io == IndexOperation.NEW_INDEX || io == IndexOperation.AUTO_LOAD || io == IndexOperation.MANUAL_LOAD){
+				clear();
+			}
+		}
+		
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+	};
+	
+	static {
+		IndexingUtil.addListener(indexListener);
+	}
+	
+	private static void load(){
+		if(sessionNodes != null){
+			return;
+		}
+		sessionNodes = new HashMap<String,GraphElement>();
+		for(GraphElement sessionNode : Common.universe().nodesTaggedWithAll(AuditMon.OBSERVATION, SESSION).eval().nodes()){
+			String session = sessionNode.attr().get(Node.NAME).toString();
+			sessionNodes.put(session, sessionNode);
+		}
+	}
+	
+	/**
+	 * Discards the loaded registry, it is reloaded from the index on its next use
+	 */
+	public static synchronized void clear(){
+		sessionNodes = null;
+	}
+	
+	/**
+	 * Returns the session node of the given session or null if the session is not registered
+	 * @param session
+	 * @return
+	 */
+	public static synchronized GraphElement getSessionNode(String session){
+		load();
+		return sessionNodes.get(session);
+	}
+	
+	/**
+	 * Returns the session node of the given session, creating it if the session is not registered yet
+	 * Start and stop data of a session recorded by an earlier version is moved to the new session node
+	 * @param session
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized GraphElement registerSession(String session){
+		load();
+		GraphElement sessionNode = sessionNodes.get(session);
+		if(sessionNode != null){
+			return sessionNode;
+		}
+		
+		sessionNode = Graph.U.createNode();
+		sessionNode.attr().put(Node.NAME, session);
+		sessionNode.tags().add(AuditMon.OBSERVATION);
+		sessionNode.tags().add(SESSION);
+		
+		ArrayList<String> startTimestamps = new ArrayList<String>();
+		ArrayList<String> stopTimestamps = new ArrayList<String>();
+		ArrayList<String> stopReasons = new ArrayList<String>();
+		
+		// move any start and stop data of the session off of the shared start and stop nodes
+		GraphElement startNode = AtlasObservationStore.findSingletonNode(AuditMon.START);
+		if(startNode != null && startNode.attr().get(session) != null){
+			startTimestamps.addAll((ArrayList<String>) startNode.attr().remove(session));
+			startNode.tags().remove(session);
+		}
+		GraphElement stopNode = AtlasObservationStore.findSingletonNode(AuditMon.STOP);
+		if(stopNode != null && stopNode.attr().get(session) != null){
+			stopTimestamps.addAll((ArrayList<String>) stopNode.attr().remove(session));
+			Object reasons = stopNode.attr().remove(session + AuditMon.STOP_REASON_SUFFIX);
+			if(reasons != null){
+				stopReasons.addAll((ArrayList<String>) reasons);
+			}
+			stopNode.tags().remove(session);
+		}
+		
+		sessionNode.attr().put(START_TIMESTAMPS, startTimestamps);
+		sessionNode.attr().put(STOP_TIMESTAMPS, stopTimestamps);
+		sessionNode.attr().put(STOP_REASONS, stopReasons);
+		
+		sessionNodes.put(session, sessionNode);
+		return sessionNode;
+	}
+	
+	/**
+	 * Returns the names of every session in the index, including sessions recorded by earlier versions
+	 * @return
+	 */
+	public static synchronized Set<String> getSessions(){
+		load();
+		HashSet<String> sessions = new HashSet<String>(sessionNodes.keySet());
+		GraphElement startNode = AtlasObservationStore.findSingletonNode(AuditMon.START);
+		if(startNode != null){
+			for(String key : startNode.attr().keys()){
+				if(key.equals(Node.NAME)){
+					continue;
+				}
+				sessions.add(key);
+			}
+		}
+		return sessions;
+	}
+	
+	/**
+	 * Returns the start timestamps of the session or null if the session was never started
+	 * @param session
+	 * @return
+	 */
+	public static ArrayList<String> getStartTimestamps(String session){
+		return getSessionList(session, START_TIMESTAMPS, AuditMon.START, session);
+	}
+	
+	/**
+	 * Returns the stop timestamps of the session or null if the session was never stopped
+	 * @param session
+	 * @return
+	 */
+	public static ArrayList<String> getStopTimestamps(String session){
+		return getSessionList(session, STOP_TIMESTAMPS, AuditMon.STOP, session);
+	}
+	
+	/**
+	 * Returns the stop reasons of the session or null if the session was never stopped
+	 * @param session
+	 * @return
+	 */
+	public static ArrayList<String> getStopReasons(String session){
+		return getSessionList(session, STOP_REASONS, AuditMon.STOP, session + AuditMon.STOP_REASON_SUFFIX);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static ArrayList<String> getSessionList(String session, String key, String legacyNodeTag, String legacyKey){
+		GraphElement sessionNode = getSessionNode(session);
+		if(sessionNode != null){
+			ArrayList<String> list = (ArrayList<String>) sessionNode.attr().get(key);
+			return list == null || list.isEmpty() ? null : list;
+		}
+		GraphElement legacyNode = AtlasObservationStore.findSingletonNode(legacyNodeTag);
+		return legacyNode == null ? null : (ArrayList<String>) legacyNode.attr().get(legacyKey);
+	}
+	
+
+}
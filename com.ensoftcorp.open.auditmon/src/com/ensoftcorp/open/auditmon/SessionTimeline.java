@@ -0,0 +1,261 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StartObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StopObservation;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+
+/**
+ * An index of the start and stop visits of a session, built only from the start and
+ * stop timestamp lists of the session (see SessionRegistry) merged into time order. Answers timesheet and
+ * audit/break time questions without walking the observation edges of the session.
+ *
+ * Timelines are immutable snapshots. getTimeline(session) keeps the latest snapshot
+ * for each session and only reads the start and stops that have been recorded since.
+ *
+ * @author Ben Holland
+ */
+public class SessionTimeline {
+	
+	private static final HashMap<String,SessionTimeline> timelines = new HashMap<String,SessionTimeline>();
+	
+	/**
+	 * A period of auditing from a start until the following stop
+	 * An interval that has not been stopped yet has a null stop time
+	 */
+	public static class Interval {
+		private long start;
+		private Long stop;
+		private String stopReason;
+		
+		public Interval(long start, Long stop, String stopReason){
+			this.start = start;
+			this.stop = stop;
+			this.stopReason = stopReason;
+		}
+		
+		public long getStart(){
+			return start;
+		}
+		
+		public Long getStop(){
+			return stop;
+		}
+		
+		public String getStopReason(){
+			return stopReason;
+		}
+		
+		public boolean isOpen(){
+			return stop == null;
+		}
+	}
+	
+	private final String session;
+	private final GraphElement startNode;
+	private final GraphElement stopNode;
+	private final int numStarts;
+	private final int numStops;
+	
+	// start and stop visits merged in time order
+	private final List<AbstractObservation> observations;
+	private final long[] timestamps;
+	
+	private final long auditTime;
+	private final long breakTime;
+	private final List<Interval> intervals;
+	
+	private SessionTimeline(String session, GraphElement startNode, GraphElement stopNode, int numStarts, int numStops,
+			List<AbstractObservation> observations, long[] timestamps){
+		this.session = session;
+		this.startNode = startNode;
+		this.stopNode = stopNode;
+		this.numStarts = numStarts;
+		this.numStops = numStops;
+		this.observations = Collections.unmodifiableList(observations);
+		this.timestamps = timestamps;
+		
+		// same accounting as a walk over the whole session, audit time runs up to a
+		// stop from the visit before it and break time runs from a stop to the next start
+		long auditTime = 0L;
+		long breakTime = 0L;
+		ArrayList<Interval> intervals = new ArrayList<Interval>();
+		Long intervalStart = null;
+		for(int i=0; i<observations.size(); i++){
+			AbstractObservation observation = observations.get(i);
+			if(observation instanceof StartObservation){
+				if(i > 0){
+					breakTime += timestamps[i] - timestamps[i-1];
+				}
+				if(intervalStart == null){
+					intervalStart = timestamps[i];
+				}
+			} else {
+				if(i > 0){
+					auditTime += timestamps[i] - timestamps[i-1];
+				}
+				intervals.add(new Interval(intervalStart == null ? timestamps[i] : intervalStart, timestamps[i], ((StopObservation) observation).getReason()));
+				intervalStart = null;
+			}
+		}
+		if(intervalStart != null){
+			intervals.add(new Interval(intervalStart, null, null));
+		}
+		this.auditTime = auditTime;
+		this.breakTime = breakTime;
+		this.intervals = Collections.unmodifiableList(intervals);
+	}
+	
+	/**
+	 * Returns the up to date timeline of the given session
+	 * Only the starts and stops recorded since the last call for the session are read from the index
+	 * @param session
+	 * @return
+	 */
+	public static synchronized SessionTimeline getTimeline(String session){
+		GraphElement startNode = AtlasObservationStore.findSingletonNode(AuditMon.START);
+		GraphElement stopNode = AtlasObservationStore.findSingletonNode(AuditMon.STOP);
+		ArrayList<String> startTimestamps = startNode == null ? null : SessionRegistry.getStartTimestamps(session);
+		ArrayList<String> stopTimestamps = stopNode == null ? null : SessionRegistry.getStopTimestamps(session);
+		int numStarts = startTimestamps == null ? 0 : startTimestamps.size();
+		int numStops = stopTimestamps == null ? 0 : stopTimestamps.size();
+		
+		SessionTimeline timeline = timelines.get(session);
+		if(timeline != null && timeline.numStarts == numStarts && timeline.numStops == numStops
+				&& sameNode(timeline.startNode, startNode) && sameNode(timeline.stopNode, stopNode)){
+			return timeline;
+		}
+		
+		// starts and stops are only ever appended, so unless the index was replaced or
+		// modified by someone else the new visits all come after the indexed ones
+		ArrayList<AbstractObservation> observations = new ArrayList<AbstractObservation>();
+		long[] timestamps;
+		int startIndex = 0;
+		int stopIndex = 0;
+		if(timeline != null && sameNode(timeline.startNode, startNode) && sameNode(timeline.stopNode, stopNode)
+				&& timeline.numStarts <= numStarts && timeline.numStops <= numStops){
+			observations.addAll(timeline.observations);
+			timestamps = Arrays.copyOf(timeline.timestamps, numStarts + numStops);
+			startIndex = timeline.numStarts;
+			stopIndex = timeline.numStops;
+		} else {
+			timestamps = new long[numStarts + numStops];
+		}
+		
+		// merge the new starts and stops by time, a start wins a tie since a session must start before it stops
+		while(startIndex < numStarts || stopIndex < numStops){
+			long nextStart = startIndex < numStarts ? Long.parseLong(startTimestamps.get(startIndex)) : Long.MAX_VALUE;
+			long nextStop = stopIndex < numStops ? Long.parseLong(stopTimestamps.get(stopIndex)) : Long.MAX_VALUE;
+			if(startIndex < numStarts && nextStart <= nextStop){
+				timestamps[observations.size()] = nextStart;
+				observations.add(new StartObservation(startNode, session, startIndex++));
+			} else {
+				timestamps[observations.size()] = nextStop;
+				observations.add(new StopObservation(stopNode, session, stopIndex++));
+			}
+		}
+		
+		timeline = new SessionTimeline(session, startNode, stopNode, numStarts, numStops, observations, timestamps);
+		timelines.put(session, timeline);
+		return timeline;
+	}
+	
+	/**
+	 * Discards all indexed timelines, they will be rebuilt on demand
+	 */
+	public static synchronized void clear(){
+		timelines.clear();
+	}
+	
+	private static boolean sameNode(GraphElement a, GraphElement b){
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	
+	public String getSession(){
+		return session;
+	}
+	
+	/**
+	 * Returns the start and stop visits of the session in time order
+	 * @return
+	 */
+	public List<AbstractObservation> getStartStopObservations(){
+		return observations;
+	}
+	
+	/**
+	 * Returns the audit intervals of the session in time order
+	 * @return
+	 */
+	public List<Interval> getIntervals(){
+		return intervals;
+	}
+	
+	public int getNumberOfStarts(){
+		return numStarts;
+	}
+	
+	public int getNumberOfStops(){
+		return numStops;
+	}
+	
+	/**
+	 * Returns the number of times the session was resumed or -1 if it was never started
+	 * @return
+	 */
+	public int getNumberOfResumes(){
+		return numStarts - 1;
+	}
+	
+	/**
+	 * Returns the total time in milliseconds spent auditing
+	 * @return
+	 */
+	public long getAuditTime(){
+		return auditTime;
+	}
+	
+	/**
+	 * Returns the total time in milliseconds between stops and the following starts
+	 * @return
+	 */
+	public long getBreakTime(){
+		return breakTime;
+	}
+	
+	/**
+	 * Returns the time of the first start or null if the session was never started
+	 * @return
+	 */
+	public Date getAuditStarted(){
+		for(int i=0; i<observations.size(); i++){
+			if(observations.get(i) instanceof StartObservation){
+				return new Date(timestamps[i]);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the time of the last stop or null if the session was never stopped
+	 * @return
+	 */
+	public Date getAuditFinished(){
+		for(int i=observations.size()-1; i>=0; i--){
+			if(observations.get(i) instanceof StopObservation){
+				return new Date(timestamps[i]);
+			}
+		}
+		return null;
+	}
+
+}
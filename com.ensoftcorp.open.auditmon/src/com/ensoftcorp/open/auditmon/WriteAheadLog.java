@@ -0,0 +1,302 @@
+package com.ensoftcorp.open.auditmon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Counter;
+import com.ensoftcorp.open.auditmon.AuditMonMetrics.Latency;
+import com.ensoftcorp.open.auditmon.merge.JournalEntry;
+import com.ensoftcorp.open.auditmon.merge.JournalReader;
+import com.ensoftcorp.open.auditmon.merge.MergeResult;
+import com.ensoftcorp.open.auditmon.merge.ObservationMerger;
+
+/**
+ * A write-ahead log of the observation graph changes made by AuditMon
+ *
+ * Each start, stop and observation is appended (and flushed) before it is applied to
+ * the index, with observation members recorded by node signature. Everything logged
+ * since the index was last saved is replayed onto the loaded index by recover, so the
+ * full index only needs to be saved occasionally. Saving the index truncates the log
+ * (see also IndexCheckpointer).
+ *
+ * Several AuditMon sessions may share a log, entries are tagged with their session.
+ *
+ * @author Ben Holland
+ */
+public class WriteAheadLog {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// one log per file, so sessions sharing a file share a stream
+	private static final HashMap<File,WriteAheadLog> logs = new HashMap<File,WriteAheadLog>();
+	
+	private final File file;
+	private FileOutputStream stream = null;
+	private boolean sync = false;
+	
+	// the length of the log when the previous and the current checkpoint began
+	private long checkpointMark = 0;
+	private long pendingMark = 0;
+	
+	private WriteAheadLog(File file){
+		this.file = file;
+	}
+	
+	/**
+	 * Returns the write-ahead log stored in the given file
+	 * @param path
+	 * @return
+	 */
+	public static synchronized WriteAheadLog getLog(String path){
+		File file = new File(path).getAbsoluteFile();
+		WriteAheadLog log = logs.get(file);
+		if(log == null){
+			if(file.getParentFile() != null){
+				file.getParentFile().mkdirs();
+			}
+			log = new WriteAheadLog(file);
+			logs.put(file, log);
+		}
+		return log;
+	}
+	
+	public File getFile(){
+		return file;
+	}
+	
+	public boolean isSyncing(){
+		return sync;
+	}
+	
+	/**
+	 * Sets whether each entry is forced to the storage device before it is applied
+	 * A flushed entry already survives a crash of Eclipse, syncing also survives a
+	 * crash of the operating system at the cost of a disk write per observation
+	 * @param sync
+	 */
+	public synchronized void setSync(boolean sync){
+		this.sync = sync;
+	}
+	
+	/**
+	 * Appends an entry to the log
+	 * @param entry
+	 * @throws IOException
+	 */
+	public synchronized void append(JournalEntry entry) throws IOException {
+		long start = System.nanoTime();
+		if(stream == null){
+			stream = new FileOutputStream(file, true);
+		}
+		// the stream is unbuffered, so the entry is flushed by this single write
+		byte[] bytes = (entry.toString() + "\n").getBytes(UTF8);
+		stream.write(bytes);
+		if(sync){
+			stream.getFD().sync();
+		}
+		AuditMonMetrics.add(Counter.WRITE_AHEAD_LOG_BYTES, bytes.length);
+		AuditMonMetrics.record(Latency.JOURNAL_FLUSH, start);
+	}
+	
+	/**
+	 * Appends a start to the log
+	 * @param session
+	 * @param timestamp
+	 * @throws IOException
+	 */
+	public void logStart(String session, long timestamp) throws IOException {
+		append(JournalEntry.start(session, timestamp));
+	}
+	
+	/**
+	 * Appends a stop to the log
+	 * @param session
+	 * @param timestamp
+	 * @param reason
+	 * @throws IOException
+	 */
+	public void logStop(String session, long timestamp, String reason) throws IOException {
+		append(JournalEntry.stop(session, timestamp, reason));
+	}
+	
+	/**
+	 * Appends an observation to the log, members are recorded by signature
+	 * @param session
+	 * @param timestamp
+	 * @param origin
+	 * @param members
+	 * @throws IOException
+	 */
+	public void logObservation(String session, long timestamp, String origin, Iterable<GraphElement> members) throws IOException {
+		ArrayList<String> signatures = new ArrayList<String>();
+		for(GraphElement member : members){
+			signatures.add(NodeSignatures.getSignature(member));
+		}
+		append(JournalEntry.observation(session, timestamp, origin, signatures));
+	}
+	
+	/**
+	 * Discards every logged entry, this should only be done once the index has been saved
+	 * @throws IOException
+	 */
+	public synchronized void truncate() throws IOException {
+		close();
+		new FileOutputStream(file, false).close();
+		checkpointMark = 0;
+		pendingMark = 0;
+	}
+	
+	/**
+	 * Marks the end of every log as the index is about to be checkpointed
+	 */
+	static synchronized void beginCheckpoint(){
+		for(WriteAheadLog log : logs.values()){
+			try {
+				log.markCheckpoint();
+			} catch (IOException e){
+				Log.error("An error has occured marking the AuditMon write-ahead log " + log.getFile().getName() + ".", e);
+			}
+		}
+	}
+	
+	/**
+	 * Truncates every log after the index has been checkpointed
+	 */
+	static synchronized void completeCheckpoint(){
+		for(WriteAheadLog log : logs.values()){
+			try {
+				log.truncateCheckpointed();
+			} catch (IOException e){
+				Log.error("An error has occured truncating the AuditMon write-ahead log " + log.getFile().getName() + ".", e);
+			}
+		}
+	}
+	
+	/**
+	 * Closes every log file, each is reopened by its next append
+	 */
+	public static synchronized void closeAll(){
+		for(WriteAheadLog log : logs.values()){
+			try {
+				log.close();
+			} catch (IOException e){
+				Log.error("An error has occured closing the AuditMon write-ahead log " + log.getFile().getName() + ".", e);
+			}
+		}
+	}
+	
+	private synchronized void markCheckpoint() throws IOException {
+		pendingMark = file.length();
+	}
+	
+	/**
+	 * Drops the entries logged before the previous checkpoint began. The entries logged
+	 * since then may have been deferred while the index was saved, so they are kept
+	 * until the next checkpoint (recovery skips entries the index already has).
+	 * @throws IOException
+	 */
+	private synchronized void truncateCheckpointed() throws IOException {
+		if(checkpointMark > 0){
+			close();
+			File tail = new File(file.getParentFile(), file.getName() + ".tmp");
+			RandomAccessFile source = new RandomAccessFile(file, "r");
+			try {
+				FileOutputStream destination = new FileOutputStream(tail);
+				try {
+					FileChannel channel = source.getChannel();
+					long position = checkpointMark;
+					long size = channel.size();
+					while(position < size){
+						position += channel.transferTo(position, size - position, destination.getChannel());
+					}
+				} finally {
+					destination.close();
+				}
+			} finally {
+				source.close();
+			}
+			if(!tail.renameTo(file) && !(file.delete() && tail.renameTo(file))){
+				throw new IOException("Unable to replace " + file.getAbsolutePath());
+			}
+			pendingMark -= checkpointMark;
+		}
+		checkpointMark = pendingMark;
+	}
+	
+	/**
+	 * Closes the log file, it is reopened by the next append
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if(stream != null){
+			try {
+				stream.close();
+			} finally {
+				stream = null;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the logged entries of the given session recorded after the given time
+	 * @param session
+	 * @param after
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized List<JournalEntry> read(String session, long after) throws IOException {
+		ArrayList<JournalEntry> entries = new ArrayList<JournalEntry>();
+		if(!file.exists()){
+			return entries;
+		}
+		JournalReader reader = new JournalReader(file);
+		try {
+			JournalEntry entry;
+			while((entry = reader.next()) != null){
+				if(entry.getSession().equals(session) && entry.getTimestamp() > after){
+					entries.add(entry);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+	
+	/**
+	 * Replays the entries of the session that are missing from the loaded index, that
+	 * is the entries logged after the last visit of the session in the index. The replay
+	 * is a single change of the ObservationWriter, which finds the last visit when it is
+	 * applied (see ObservationMerger). Members that no longer resolve to exactly one node
+	 * are left out of their observation and reported in the log.
+	 * Must not be called from a change of the ObservationWriter
+	 * @param session
+	 * @return the result of the replay or null if nothing was logged for the session
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public MergeResult recover(String session) throws IOException, InterruptedException {
+		List<JournalEntry> entries = read(session, Long.MIN_VALUE);
+		if(entries.isEmpty()){
+			return null;
+		}
+		// the session was monitoring when the index was saved unless its last visit was a stop
+		MergeResult result = ObservationMerger.apply(entries, true);
+		if(result.getNumberOfUnresolvedMembers() > 0){
+			Log.warning("AuditMon recovered session " + session + " from the write-ahead log " + file.getName() + " without "
+					+ result.getNumberOfUnresolvedMembers() + " observation members that did not resolve to a single node ("
+					+ result.getNumberOfAmbiguousMembers() + " matched several nodes).");
+		}
+		return result;
+	}
+
+}
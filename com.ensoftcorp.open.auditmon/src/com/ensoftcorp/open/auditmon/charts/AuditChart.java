@@ -1,28 +1,103 @@
 package com.ensoftcorp.open.auditmon.charts;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PiePlot;
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.data.general.Dataset;
 import org.jfree.experimental.chart.swt.ChartComposite;
 
 import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.open.auditmon.AuditMon;
+import com.ensoftcorp.open.auditmon.AuditUtils;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.IObservationListener;
 
 public abstract class AuditChart {
-
+	
+	// the default upper bound on how often a live chart is redrawn
+	public static final int DEFAULT_MAX_FRAMES_PER_SECOND = 4;
+	
 	protected String session;
 	protected String title;
 	protected boolean showLegend = true;
 	protected boolean showLabels = false;
 	
+	// an optional replay of the session shared with other charts
+	private TreeMap<Long,AbstractObservation> sessionObservations = null;
+	
 	protected AuditChart(String session, String title){
 		this.session = session;
 		this.title = session + " : " + title;
 	}
-
+	
+	/**
+	 * Builds the chart from a replay of the session
+	 * The datasets backing the returned chart are retained so that
+	 * later observations can be appended to them
+	 * @return
+	 */
 	public abstract JFreeChart getChart();
 	
+	/**
+	 * Appends the given observations (in order) to the datasets of the chart
+	 * most recently returned by getChart()
+	 * @param observations
+	 */
+	protected abstract void appendObservations(List<AbstractObservation> observations);
+	
+	/**
+	 * Returns the data of the given chart (as returned by getChart()) in the form it should be exported
+	 * By default this is the dataset of the chart's plot
+	 * @param chart
+	 * @return
+	 */
+	protected Dataset getExportDataset(JFreeChart chart){
+		Plot plot = chart.getPlot();
+		if(plot instanceof XYPlot){
+			return ((XYPlot) plot).getDataset();
+		} else if(plot instanceof PiePlot){
+			return ((PiePlot) plot).getDataset();
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Supplies an existing replay of the session (see AuditUtils.getSessionObservations)
+	 * so that several charts of the same session can be built from a single replay
+	 * @param sessionObservations
+	 */
+	public void setSessionObservations(TreeMap<Long,AbstractObservation> sessionObservations){
+		this.sessionObservations = sessionObservations;
+	}
+	
+	/**
+	 * Returns the shared replay of the session if one was supplied, otherwise replays the session
+	 * @return
+	 */
+	protected TreeMap<Long,AbstractObservation> getSessionObservations(){
+		if(sessionObservations != null){
+			return sessionObservations;
+		}
+		return AuditUtils.getSessionObservations(session);
+	}
+	
+	public String getTitle(){
+		return title;
+	}
+	
 	public String getSession(){
 		return session;
 	}
@@ -49,12 +124,7 @@ public abstract class AuditChart {
 			@Override
 			public void run() {
 				try {
-					Shell shell = new Shell(display);
-			        shell.setSize(600, 400);
-			        shell.setLayout(new FillLayout());
-			        shell.setText(session + " : " + title);
-			        final ChartComposite frame = new ChartComposite(shell, SWT.NONE, getChart(), true);
-			        frame.pack();
+					Shell shell = createShell(display, getChart());
 			        shell.open();
 			        while (!shell.isDisposed()) {
 			            if (!display.readAndDispatch())
@@ -66,5 +136,121 @@ public abstract class AuditChart {
 			}
 		});
 	}
+	
+	/**
+	 * Shows the chart and keeps it up to date with new observations of the session
+	 * using the default maximum frame rate
+	 */
+	public void showLive(){
+		showLive(DEFAULT_MAX_FRAMES_PER_SECOND);
+	}
+	
+	/**
+	 * Shows the chart and keeps it up to date with new observations of the session
+	 * New observations are queued as they are recorded and appended to the existing
+	 * chart series in batches, redrawing at most maxFramesPerSecond times a second
+	 * @param maxFramesPerSecond
+	 */
+	public void showLive(final int maxFramesPerSecond){
+		final Display display = Display.getDefault();
+		display.asyncExec(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					// observations are only queued when they are recorded,
+					// the real work is deferred until the next frame
+					final ConcurrentLinkedQueue<AbstractObservation> pendingObservations = new ConcurrentLinkedQueue<AbstractObservation>();
+					final IObservationListener listener = new IObservationListener(){
+						@Override
+						public void observationRecorded(AbstractObservation observation) {
+							if(observation.getSession().equals(session)){
+								pendingObservations.add(observation);
+							}
+						}
+					};
+					
+					// observations may be recorded on another thread (see ObservationWriter), so the
+					// listener is registered before the replay and the frames skip observations the
+					// replay already has, nothing recorded in between is lost or shown twice
+					AuditMon.addObservationListener(listener);
+					final JFreeChart chart;
+					final long replayedUntil;
+					TreeMap<Long,AbstractObservation> sharedObservations = sessionObservations;
+					try {
+						TreeMap<Long,AbstractObservation> replay = getSessionObservations();
+						replayedUntil = replay.isEmpty() ? Long.MIN_VALUE : replay.lastKey();
+						sessionObservations = replay;
+						chart = getChart();
+					} catch (RuntimeException e){
+						AuditMon.removeObservationListener(listener);
+						throw e;
+					} finally {
+						sessionObservations = sharedObservations;
+					}
+					
+					final Shell shell = createShell(display, chart);
+					shell.addDisposeListener(new DisposeListener(){
+						@Override
+						public void widgetDisposed(DisposeEvent e) {
+							AuditMon.removeObservationListener(listener);
+						}
+					});
+					
+					final int frameInterval = Math.max(1, 1000 / Math.max(1, maxFramesPerSecond));
+					display.timerExec(frameInterval, new Runnable(){
+						// true once an observation recorded after the replay has been appended
+						private boolean caughtUp = false;
+						
+						@Override
+						public void run() {
+							if(shell.isDisposed()){
+								return;
+							}
+							if(!pendingObservations.isEmpty()){
+								List<AbstractObservation> batch = new ArrayList<AbstractObservation>();
+								AbstractObservation observation;
+								while((observation = pendingObservations.poll()) != null){
+									if(caughtUp || observation.getTimestamp() > replayedUntil){
+										caughtUp = true;
+										batch.add(observation);
+									}
+								}
+								if(!batch.isEmpty()){
+									// suspend chart change events so the whole batch results in a single redraw
+									chart.setNotify(false);
+									try {
+										appendObservations(batch);
+									} catch (Exception e){
+										Log.error("An error updating this chart has occurred.", e);
+									} finally {
+										chart.setNotify(true);
+									}
+								}
+							}
+							display.timerExec(frameInterval, this);
+						}
+					});
+			        
+			        shell.open();
+			        while (!shell.isDisposed()) {
+			            if (!display.readAndDispatch())
+			                display.sleep();
+			        }
+				} catch (Exception e){
+					Log.error("An error displaying this chart has occurred.", e);
+				}
+			}
+		});
+	}
+	
+	private Shell createShell(Display display, JFreeChart chart){
+		Shell shell = new Shell(display);
+		shell.setSize(600, 400);
+		shell.setLayout(new FillLayout());
+		shell.setText(session + " : " + title);
+		final ChartComposite frame = new ChartComposite(shell, SWT.NONE, chart, true);
+		frame.pack();
+		return shell;
+	}
 
 }
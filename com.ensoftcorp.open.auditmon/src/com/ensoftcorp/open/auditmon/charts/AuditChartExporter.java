@@ -0,0 +1,299 @@
+package com.ensoftcorp.open.auditmon.charts;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.general.Dataset;
+import org.jfree.data.general.PieDataset;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
+import org.jfree.data.xy.XYDataset;
+
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
+import com.ensoftcorp.open.auditmon.AuditUtils;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.ObservationWriter;
+
+/**
+ * Renders AuditCharts to files without any SWT display, so charts can be
+ * generated on headless build and reporting machines
+ * @author Ben Holland
+ */
+public class AuditChartExporter {
+	
+	public static final int DEFAULT_WIDTH = 1200;
+	public static final int DEFAULT_HEIGHT = 800;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public enum ExportFormat {
+		PNG("png"), SVG("svg"), CSV("csv");
+		
+		private String extension;
+		
+		private ExportFormat(String extension){
+			this.extension = extension;
+		}
+		
+		public String getExtension(){
+			return extension;
+		}
+	}
+	
+	/**
+	 * Builds the chart once and writes it to the output directory in each of the given formats
+	 * using the default image size, returns the files that were written
+	 * @param chart
+	 * @param outputDirectory
+	 * @param formats
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> export(AuditChart chart, File outputDirectory, ExportFormat... formats) throws IOException {
+		return export(chart, outputDirectory, DEFAULT_WIDTH, DEFAULT_HEIGHT, formats);
+	}
+	
+	/**
+	 * Builds the chart once and writes it to the output directory in each of the given formats,
+	 * returns the files that were written
+	 * @param chart
+	 * @param outputDirectory
+	 * @param width
+	 * @param height
+	 * @param formats
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> export(AuditChart chart, File outputDirectory, int width, int height, ExportFormat... formats) throws IOException {
+		outputDirectory.mkdirs();
+		JFreeChart jfreeChart = chart.getChart();
+		List<File> files = new LinkedList<File>();
+		for(ExportFormat format : formats){
+			File file = new File(outputDirectory, toFileName(chart.getTitle()) + "." + format.getExtension());
+			switch(format){
+			case PNG:
+				writePNG(jfreeChart, file, width, height);
+				break;
+			case SVG:
+				writeSVG(jfreeChart, file, width, height);
+				break;
+			case CSV:
+				writeCSV(chart.getExportDataset(jfreeChart), file);
+				break;
+			default:
+				break;
+			}
+			files.add(file);
+		}
+		return files;
+	}
+	
+	/**
+	 * Renders the chart to a PNG image
+	 * @param chart
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @throws IOException
+	 */
+	public static void writePNG(JFreeChart chart, File file, int width, int height) throws IOException {
+		ChartUtilities.saveChartAsPNG(file, chart, width, height);
+	}
+	
+	/**
+	 * Renders the chart to an SVG image
+	 * @param chart
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @throws IOException
+	 */
+	public static void writeSVG(JFreeChart chart, File file, int width, int height) throws IOException {
+		SVGGraphics2D graphics = new SVGGraphics2D(width, height);
+		chart.draw(graphics, new Rectangle2D.Double(0, 0, width, height));
+		graphics.dispose();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+		try {
+			writer.write(graphics.getSVGDocument());
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes the chart data as comma separated values
+	 * Time series are written as series,time,value rows where time is the start of the period
+	 * in milliseconds, pie datasets are written as key,value rows
+	 * @param dataset
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void writeCSV(Dataset dataset, File file) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+		try {
+			if(dataset instanceof TimeSeriesCollection){
+				TimeSeriesCollection timeSeriesCollection = (TimeSeriesCollection) dataset;
+				writer.write("series,time,value\n");
+				for(int i=0; i<timeSeriesCollection.getSeriesCount(); i++){
+					TimeSeries series = timeSeriesCollection.getSeries(i);
+					for(int j=0; j<series.getItemCount(); j++){
+						writer.write(toCSVField(series.getKey().toString()) + ","
+								+ series.getTimePeriod(j).getFirstMillisecond() + ","
+								+ series.getValue(j) + "\n");
+					}
+				}
+			} else if(dataset instanceof XYDataset){
+				XYDataset xyDataset = (XYDataset) dataset;
+				writer.write("series,x,y\n");
+				for(int i=0; i<xyDataset.getSeriesCount(); i++){
+					for(int j=0; j<xyDataset.getItemCount(i); j++){
+						writer.write(toCSVField(xyDataset.getSeriesKey(i).toString()) + ","
+								+ xyDataset.getXValue(i, j) + ","
+								+ xyDataset.getYValue(i, j) + "\n");
+					}
+				}
+			} else if(dataset instanceof PieDataset){
+				PieDataset pieDataset = (PieDataset) dataset;
+				writer.write("key,value\n");
+				for(int i=0; i<pieDataset.getItemCount(); i++){
+					writer.write(toCSVField(pieDataset.getKey(i).toString().trim()) + "," + pieDataset.getValue(i) + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Renders every chart type for every session in the index to a sub directory of the
+	 * output directory per session. Sessions are exported in parallel and each session
+	 * is replayed only once for all of its charts. Returns the files that were written.
+	 * Must not be called from a change of the ObservationWriter
+	 * @param outputDirectory
+	 * @param timeUnit
+	 * @param granularity
+	 * @param formats
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static List<File> exportAllSessions(File outputDirectory, TimeUnit timeUnit, Granularity granularity, ExportFormat... formats) throws InterruptedException {
+		return exportSessions(new ArrayList<String>(AuditUtils.getSessions()), outputDirectory, timeUnit, granularity,
+				Runtime.getRuntime().availableProcessors(), formats);
+	}
+	
+	/**
+	 * Renders every chart type for each of the given sessions to a sub directory of the
+	 * output directory per session, using at most the given number of threads.
+	 * Returns the files that were written.
+	 * Must not be called from a change of the ObservationWriter
+	 * @param sessions
+	 * @param outputDirectory
+	 * @param timeUnit
+	 * @param granularity
+	 * @param threads
+	 * @param formats
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static List<File> exportSessions(List<String> sessions, final File outputDirectory, final TimeUnit timeUnit,
+			final Granularity granularity, int threads, final ExportFormat... formats) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sessions.size())));
+		try {
+			List<Future<List<File>>> results = new LinkedList<Future<List<File>>>();
+			for(final String session : sessions){
+				results.add(executor.submit(new Callable<List<File>>(){
+					@Override
+					public List<File> call() throws Exception {
+						// every chart of the session shares the same replay, taken through the writer
+						// so the session is not being appended to while it is replayed
+						final AtomicReference<TreeMap<Long,AbstractObservation>> replay = new AtomicReference<TreeMap<Long,AbstractObservation>>();
+						boolean applied = ObservationWriter.submitAndWait(new Runnable(){
+							@Override
+							public void run() {
+								replay.set(AuditUtils.getSessionObservations(session));
+							}
+						});
+						TreeMap<Long,AbstractObservation> observations = replay.get();
+						if(!applied || observations == null){
+							throw new IOException("The session " + session + " could not be replayed, the index was reloaded or the replay failed.");
+						}
+						File sessionDirectory = new File(outputDirectory, toFileName(session));
+						List<File> files = new LinkedList<File>();
+						for(AuditChart chart : getCharts(session, timeUnit, granularity)){
+							chart.setSessionObservations(observations);
+							files.addAll(export(chart, sessionDirectory, formats));
+						}
+						return files;
+					}
+				}));
+			}
+			List<File> files = new LinkedList<File>();
+			for(Future<List<File>> result : results){
+				try {
+					files.addAll(result.get());
+				} catch (ExecutionException e){
+					Log.error("An error exporting AuditMon charts has occurred.", e.getCause());
+				}
+			}
+			return files;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Returns one chart of each type for the given session
+	 * @param session
+	 * @param timeUnit
+	 * @param granularity
+	 * @return
+	 */
+	public static List<AuditChart> getCharts(String session, TimeUnit timeUnit, Granularity granularity){
+		List<AuditChart> charts = new ArrayList<AuditChart>();
+		charts.add(new AuditTimesheetChart(session, timeUnit));
+		charts.add(new ObservedTimeAllocationsChart(session, timeUnit, granularity));
+		charts.add(new RepeatObservationsChart(session, timeUnit, granularity));
+		charts.add(new TotalVsUniqueObservationsChart(session, timeUnit, granularity));
+		return Collections.unmodifiableList(charts);
+	}
+	
+	/**
+	 * Returns a file name for a session or chart title: the name with any characters that
+	 * are not safe in a file name replaced, followed by a hash of the whole name so that
+	 * names which only differ in replaced characters never share a file and a name such
+	 * as ".." never leaves the output directory
+	 * @param name
+	 * @return
+	 */
+	public static String toFileName(String name){
+		return name.trim().replaceAll("[^A-Za-z0-9._-]+", "_") + "-" + String.format("%08x", name.hashCode());
+	}
+	
+	private static String toCSVField(String value){
+		if(value.contains(",") || value.contains("\"") || value.contains("\n")){
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+}
@@ -1,9 +1,8 @@
 package com.ensoftcorp.open.auditmon.charts;
 
 import java.text.SimpleDateFormat;
-import java.util.Collection;
 import java.util.Date;
-import java.util.TreeMap;
+import java.util.List;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -18,8 +17,8 @@ import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleInsets;
 
+import com.ensoftcorp.open.auditmon.SessionTimeline;
 import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
-import com.ensoftcorp.open.auditmon.AuditUtils;
 import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
 import com.ensoftcorp.open.auditmon.AuditUtils.ObservationType;
 
@@ -27,6 +26,11 @@ public class AuditTimesheetChart extends AuditChart {
 
 	private TimeUnit timeUnit;
 	
+	// chart state retained from the last call to getChart() so that new observations can be appended
+	private TimeSeriesCollection dataset;
+	private TimeSeries currentSeries;
+	private int sessionNum;
+	
 	public AuditTimesheetChart(String session, TimeUnit timeUnit) {
 		super(session, "Audit Timesheet");
 		this.timeUnit = timeUnit;
@@ -34,8 +38,12 @@ public class AuditTimesheetChart extends AuditChart {
 
 	@Override
 	public JFreeChart getChart() {
-		TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-		return createXYChart(createXYDataset(observations.values()));
+		dataset = new TimeSeriesCollection();
+		currentSeries = null;
+		sessionNum = 1;
+		// only starts and stops are charted, so there is no need to replay the whole session
+		appendObservations(SessionTimeline.getTimeline(session).getStartStopObservations());
+		return createXYChart(dataset);
 	}
 	
 	private JFreeChart createXYChart(XYDataset dataset) {
@@ -89,38 +97,34 @@ public class AuditTimesheetChart extends AuditChart {
 		return chart;
 	}
 
-	private XYDataset createXYDataset(Collection<AbstractObservation> observations) {
-
-		TimeSeriesCollection dataset = new TimeSeriesCollection();
-		TimeSeries s = null;
-		int sessionNum = 1;
-		
+	@Override
+	protected void appendObservations(List<AbstractObservation> observations) {
 		// iterate over the observations in order and look for start/stop node visits
+		// completed series are only added to the dataset once, so each start or stop
+		// results in at most one dataset change event
 		for (AbstractObservation observation : observations) {
 			
 			// don't count start nodes as observations for this analysis
 			if(observation.getType() == ObservationType.START){
-				if(s != null){
-					s.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
-					dataset.addSeries(s);
+				if(currentSeries != null){
+					currentSeries.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
+					dataset.addSeries(currentSeries);
 				}
-				s = new TimeSeries("Session " + sessionNum);
-				s.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
+				currentSeries = new TimeSeries("Session " + sessionNum);
+				currentSeries.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
 				continue;
 			}
 			
 			// don't count stop nodes as observations for this analysis
 			if(observation.getType() == ObservationType.STOP){
-				s.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
-				dataset.addSeries(s);
-				s = new TimeSeries("Break " + sessionNum);
-				s.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
+				currentSeries.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
+				dataset.addSeries(currentSeries);
+				currentSeries = new TimeSeries("Break " + sessionNum);
+				currentSeries.add(new Minute(new Date(observation.getTimestamp())), new Double(sessionNum));
 				sessionNum++;
 				continue;
 			}	
 		}
-		
-		return dataset;
 	}
 
 }
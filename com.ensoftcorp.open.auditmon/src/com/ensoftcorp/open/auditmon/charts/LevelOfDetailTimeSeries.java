@@ -0,0 +1,381 @@
+package com.ensoftcorp.open.auditmon.charts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.jfree.chart.axis.DateAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
+import org.jfree.data.Range;
+import org.jfree.data.time.Day;
+import org.jfree.data.time.Hour;
+import org.jfree.data.time.Minute;
+import org.jfree.data.time.RegularTimePeriod;
+import org.jfree.data.time.Second;
+import org.jfree.data.time.TimeSeries;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
+
+/**
+ * Keeps the full resolution data of a time series outside of JFreeChart and
+ * only shows a visually lossless downsampled view of it in the displayed TimeSeries.
+ *
+ * The view keeps the minimum and maximum data item of each pixel column of the
+ * visible domain range (plus the overall extremes so auto ranging still sees the
+ * whole series). Minimums and maximums are answered from a precomputed pyramid of
+ * coarser resolutions, so zooming into a region switches to finer resolutions
+ * down to the raw data items.
+ *
+ * @author Ben Holland
+ */
+public class LevelOfDetailTimeSeries {
+	
+	// roughly the number of pixel columns of a large plot, each column contributes at most two items
+	public static final int DEFAULT_PIXEL_COLUMNS = 1024;
+	
+	private final TimeSeries series;
+	private final TimeUnit timeUnit;
+	private int pixelColumns = DEFAULT_PIXEL_COLUMNS;
+	
+	// full resolution data, sorted by time
+	private long[] times = new long[64];
+	private double[] values = new double[64];
+	private int size = 0;
+	
+	// levels.get(k-1) holds the indexes of the minimum and maximum items of each block of 2^k items
+	private ArrayList<int[]> minLevels = new ArrayList<int[]>();
+	private ArrayList<int[]> maxLevels = new ArrayList<int[]>();
+	
+	// the domain range currently shown, null means the whole series
+	private Range view = null;
+	private boolean dirty = true;
+	private boolean refreshing = false;
+	
+	public LevelOfDetailTimeSeries(String name, TimeUnit timeUnit){
+		this.series = new TimeSeries(name);
+		this.timeUnit = timeUnit;
+	}
+	
+	/**
+	 * Returns the displayed (downsampled) series to add to a dataset
+	 * @return
+	 */
+	public TimeSeries getSeries(){
+		return series;
+	}
+	
+	/**
+	 * Returns a new series containing every full resolution data item
+	 * @return
+	 */
+	public TimeSeries getFullResolutionSeries(){
+		TimeSeries result = new TimeSeries(series.getKey());
+		for(int i=0; i<size; i++){
+			result.add(getTimePeriod(times[i], timeUnit), values[i], false);
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets the number of pixel columns the visible range is divided into
+	 * @param pixelColumns
+	 */
+	public void setPixelColumns(int pixelColumns){
+		this.pixelColumns = Math.max(1, pixelColumns);
+		dirty = true;
+	}
+	
+	/**
+	 * Returns the number of full resolution data items
+	 * @return
+	 */
+	public int getItemCount(){
+		return size;
+	}
+	
+	/**
+	 * Adds or updates the full resolution data item at the given time
+	 * Call refresh() to update the displayed series afterwards
+	 * @param time
+	 * @param value
+	 */
+	public void addOrUpdate(long time, double value){
+		dirty = true;
+		if(size > 0 && times[size-1] == time){
+			// the common case, the newest bucket is being updated
+			values[size-1] = value;
+			updateLevels(size-1);
+		} else if(size == 0 || times[size-1] < time){
+			// the next common case, a new bucket is appended
+			ensureCapacity(size + 1);
+			times[size] = time;
+			values[size] = value;
+			size++;
+			updateLevels(size-1);
+		} else {
+			int index = Arrays.binarySearch(times, 0, size, time);
+			if(index >= 0){
+				values[index] = value;
+				updateLevels(index);
+			} else {
+				// out of order insertion, this should be rare so just rebuild the pyramid
+				index = -(index + 1);
+				ensureCapacity(size + 1);
+				System.arraycopy(times, index, times, index + 1, size - index);
+				System.arraycopy(values, index, values, index + 1, size - index);
+				times[index] = time;
+				values[index] = value;
+				size++;
+				rebuildLevels();
+			}
+		}
+	}
+	
+	/**
+	 * Keeps the displayed series in sync with the visible range of the given axis
+	 * @param axis
+	 */
+	public void attach(final DateAxis axis){
+		axis.addChangeListener(new AxisChangeListener(){
+			@Override
+			public void axisChanged(AxisChangeEvent event) {
+				Range range = axis.isAutoRange() ? null : axis.getRange();
+				if(range == null ? view != null : !range.equals(view)){
+					view = range;
+					dirty = true;
+					refresh();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Recomputes the displayed series for the current view if anything has changed
+	 */
+	public void refresh(){
+		if(!dirty || refreshing){
+			return;
+		}
+		refreshing = true;
+		try {
+			int[] items = selectItems();
+			series.setNotify(false);
+			series.clear();
+			for(int i=0; i<items.length; i++){
+				series.add(getTimePeriod(times[items[i]], timeUnit), values[items[i]], false);
+			}
+			series.setNotify(true);
+			dirty = false;
+		} finally {
+			refreshing = false;
+		}
+	}
+	
+	/**
+	 * Returns the sorted indexes of the full resolution items to display
+	 * @return
+	 */
+	private int[] selectItems(){
+		if(size == 0){
+			return new int[0];
+		}
+		
+		long first = view == null ? times[0] : (long) view.getLowerBound();
+		long last = view == null ? times[size-1] : (long) view.getUpperBound();
+		
+		// include the neighbors just outside the view so lines continue off the plot
+		int lo = Math.max(0, lowerBound(first) - 1);
+		int hi = Math.min(size - 1, lowerBound(last + 1));
+		
+		// small enough to show everything in view without downsampling
+		if(hi - lo + 1 <= pixelColumns * 2){
+			return uniqueSorted(withExtremes(range(lo, hi)));
+		}
+		
+		int[] selected = new int[(pixelColumns * 2) + 6];
+		int count = 0;
+		selected[count++] = lo;
+		selected[count++] = hi;
+		
+		// take the min and max item of each pixel column
+		double columnWidth = (last - first) / (double) pixelColumns;
+		int[] extremes = new int[2];
+		int start = lowerBound(first);
+		for(int column=0; column<pixelColumns && start <= hi; column++){
+			long columnEnd = first + (long) Math.ceil((column + 1) * columnWidth);
+			int end = (column == pixelColumns - 1) ? hi : Math.min(hi, lowerBound(columnEnd) - 1);
+			if(end >= start){
+				rangeExtremes(start, end, extremes);
+				selected[count++] = extremes[0];
+				selected[count++] = extremes[1];
+				start = end + 1;
+			}
+		}
+		return uniqueSorted(withExtremes(Arrays.copyOf(selected, count)));
+	}
+	
+	/**
+	 * Adds the overall minimum and maximum items, which keeps auto ranging of the value axis stable
+	 * @param items
+	 * @return
+	 */
+	private int[] withExtremes(int[] items){
+		int[] extremes = new int[2];
+		rangeExtremes(0, size - 1, extremes);
+		int[] result = Arrays.copyOf(items, items.length + 4);
+		result[items.length] = 0;
+		result[items.length + 1] = size - 1;
+		result[items.length + 2] = extremes[0];
+		result[items.length + 3] = extremes[1];
+		return result;
+	}
+	
+	private static int[] range(int lo, int hi){
+		int[] result = new int[hi - lo + 1];
+		for(int i=0; i<result.length; i++){
+			result[i] = lo + i;
+		}
+		return result;
+	}
+	
+	private static int[] uniqueSorted(int[] items){
+		Arrays.sort(items);
+		int count = 0;
+		for(int i=0; i<items.length; i++){
+			if(count == 0 || items[count-1] != items[i]){
+				items[count++] = items[i];
+			}
+		}
+		return Arrays.copyOf(items, count);
+	}
+	
+	/**
+	 * Returns the index of the first item at or after the given time
+	 * @param time
+	 * @return
+	 */
+	private int lowerBound(long time){
+		int lo = 0;
+		int hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(times[mid] < time){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * Finds the indexes of the minimum and maximum items in [lo, hi] using the
+	 * coarsest complete blocks of the pyramid that fit in the range
+	 * @param lo
+	 * @param hi
+	 * @param result result[0] is set to the minimum index, result[1] to the maximum index
+	 */
+	private void rangeExtremes(int lo, int hi, int[] result){
+		int minIndex = lo;
+		int maxIndex = lo;
+		int i = lo;
+		while(i <= hi){
+			int level = 0;
+			while(level < minLevels.size()
+					&& (i & ((1 << (level + 1)) - 1)) == 0
+					&& i + (1 << (level + 1)) - 1 <= hi){
+				level++;
+			}
+			int blockMin = level == 0 ? i : minLevels.get(level-1)[i >> level];
+			int blockMax = level == 0 ? i : maxLevels.get(level-1)[i >> level];
+			if(values[blockMin] < values[minIndex]){
+				minIndex = blockMin;
+			}
+			if(values[blockMax] > values[maxIndex]){
+				maxIndex = blockMax;
+			}
+			i += 1 << level;
+		}
+		result[0] = minIndex;
+		result[1] = maxIndex;
+	}
+	
+	/**
+	 * Updates the pyramid blocks containing the given item
+	 * @param index
+	 */
+	private void updateLevels(int index){
+		for(int level=1; (1 << (level - 1)) < size; level++){
+			if(minLevels.size() < level){
+				minLevels.add(new int[16]);
+				maxLevels.add(new int[16]);
+			}
+			int block = index >> level;
+			if(minLevels.get(level-1).length <= block){
+				minLevels.set(level-1, Arrays.copyOf(minLevels.get(level-1), Math.max(block + 1, minLevels.get(level-1).length * 2)));
+				maxLevels.set(level-1, Arrays.copyOf(maxLevels.get(level-1), Math.max(block + 1, maxLevels.get(level-1).length * 2)));
+			}
+			int left = block << 1;
+			int right = left + 1;
+			boolean hasRight = (right << (level - 1)) < size;
+			int leftMin = childMin(level - 1, left);
+			int leftMax = childMax(level - 1, left);
+			int blockMin = leftMin;
+			int blockMax = leftMax;
+			if(hasRight){
+				int rightMin = childMin(level - 1, right);
+				int rightMax = childMax(level - 1, right);
+				blockMin = values[rightMin] < values[leftMin] ? rightMin : leftMin;
+				blockMax = values[rightMax] > values[leftMax] ? rightMax : leftMax;
+			}
+			minLevels.get(level-1)[block] = blockMin;
+			maxLevels.get(level-1)[block] = blockMax;
+		}
+	}
+	
+	private int childMin(int level, int block){
+		return level == 0 ? block : minLevels.get(level-1)[block];
+	}
+	
+	private int childMax(int level, int block){
+		return level == 0 ? block : maxLevels.get(level-1)[block];
+	}
+	
+	private void rebuildLevels(){
+		minLevels.clear();
+		maxLevels.clear();
+		for(int i=0; i<size; i++){
+			updateLevels(i);
+		}
+	}
+	
+	private void ensureCapacity(int capacity){
+		if(times.length < capacity){
+			int newCapacity = Math.max(capacity, times.length * 2);
+			times = Arrays.copyOf(times, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+	}
+	
+	/**
+	 * Returns the time period of the given time unit containing the given time
+	 * @param time
+	 * @param timeUnit
+	 * @return
+	 */
+	public static RegularTimePeriod getTimePeriod(long time, TimeUnit timeUnit) {
+		Date date = new Date(time);
+		switch (timeUnit) {
+		case SECONDS:
+			return new Second(date);
+		case MINUTES:
+			return new Minute(date);
+		case HOURS:
+			return new Hour(date);
+		default:
+			return new Day(date);
+		}
+	}
+
+}
@@ -1,7 +1,9 @@
 package com.ensoftcorp.open.auditmon.charts;
 
 import java.awt.Font;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
@@ -23,6 +25,11 @@ public class ObservedTimeAllocationsChart extends AuditChart {
 	private TimeUnit timeUnit;
 	private Granularity granularity;
 	
+	// chart state retained from the last call to getChart() so that new observations can be appended
+	private HashMap<GraphElement,Long> timeAllocations;
+	private AbstractObservation lastObservation;
+	private PiePlot plot;
+	
 	public ObservedTimeAllocationsChart(String session, TimeUnit timeUnit, Granularity granularity) {
 		super(session, "");
 		this.timeUnit = timeUnit;
@@ -55,21 +62,36 @@ public class ObservedTimeAllocationsChart extends AuditChart {
 
 	@Override
 	public JFreeChart getChart() {
-		TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-		HashMap<GraphElement,Long> timeAllocations = new HashMap<GraphElement,Long>();
+		timeAllocations = new HashMap<GraphElement,Long>();
+		lastObservation = null;
+		TreeMap<Long, AbstractObservation> observations = getSessionObservations();
+		addTimeAllocations(observations.values());
+		JFreeChart chart = createPieChart(createPieDataset(getTimeAllocationsDisplay()));
+		plot = (PiePlot) chart.getPlot();
+		return chart;
+	}
+	
+	@Override
+	protected void appendObservations(List<AbstractObservation> observations) {
+		addTimeAllocations(observations);
+		// the pie dataset has no way to batch changes, so swap in a 
+		// new dataset which results in a single change event
+		plot.setDataset(createPieDataset(getTimeAllocationsDisplay()));
+	}
+	
+	private void addTimeAllocations(Collection<AbstractObservation> observations) {
 		// iterate over the observations in order and add up the time deltas 
 		// according to the granularity level
-		AbstractObservation lastObservation = null;
-		for (Entry<Long, AbstractObservation> entry : observations.entrySet()) {
+		for (AbstractObservation observation : observations) {
 			
 			// start and end nodes don't count towards time spent, but they do reset the time deltas
-			if(entry.getValue().getType() == ObservationType.START || entry.getValue().getType() == ObservationType.STOP){
+			if(observation.getType() == ObservationType.START || observation.getType() == ObservationType.STOP){
 				lastObservation = null;
 				continue;
 			}
 			
 			if(lastObservation != null){
-				long timeDelta = entry.getValue().getTimestamp() - lastObservation.getTimestamp();
+				long timeDelta = observation.getTimestamp() - lastObservation.getTimestamp();
 				for(GraphElement programArtifact : lastObservation.getObservedNodes()){
 					GraphElement granule = AuditUtils.getNodeGranule(programArtifact, granularity);
 					if(granule != null){
@@ -84,16 +106,17 @@ public class ObservedTimeAllocationsChart extends AuditChart {
 			}
 			
 			// update last time for next round
-			lastObservation = entry.getValue();
+			lastObservation = observation;
 		}
-		
+	}
+	
+	private HashMap<String,Long> getTimeAllocationsDisplay() {
 		// convert timeAllocations to a displayable version of the data
 		HashMap<String,Long> timeAllocationsDisplay = new HashMap<String,Long>();
 		for(Entry<GraphElement,Long> timeAllocation : timeAllocations.entrySet()){
 			timeAllocationsDisplay.put(AuditUtils.getNodeGranuleDisplayName(timeAllocation.getKey(), granularity), timeAllocation.getValue());
 		}
-		
-		return createPieChart(createPieDataset(timeAllocationsDisplay));
+		return timeAllocationsDisplay;
 	}
 	
 	private DefaultPieDataset createPieDataset(final HashMap<String, Long> observedElements) {
@@ -1,10 +1,11 @@
 package com.ensoftcorp.open.auditmon.charts;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.jfree.chart.ChartFactory;
@@ -13,11 +14,7 @@ import org.jfree.chart.axis.DateAxis;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.time.Day;
-import org.jfree.data.time.Hour;
-import org.jfree.data.time.Minute;
-import org.jfree.data.time.Second;
-import org.jfree.data.time.TimeSeries;
+import org.jfree.data.general.Dataset;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleInsets;
@@ -34,6 +31,12 @@ public class RepeatObservationsChart extends AuditChart {
 	private TimeUnit timeUnit;
 	private Granularity granularity;
 	
+	// chart state retained from the last call to getChart() so that new observations can be appended
+	private HashSet<HashSet<GraphElement>> observationsSeen;
+	private HashMap<Long,Integer> totalObservationsPerTimeUnit;
+	private HashMap<Long,Integer> uniqueObservationsPerTimeUnit;
+	private LevelOfDetailTimeSeries repeatSeries;
+	
 	public RepeatObservationsChart(String session, TimeUnit timeUnit, Granularity granularity) {
 		super(session, "Repeat");
 		this.timeUnit = timeUnit;
@@ -64,27 +67,44 @@ public class RepeatObservationsChart extends AuditChart {
 
 	@Override
 	public JFreeChart getChart() {
-		TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-		HashSet<HashSet<GraphElement>> observationsSeen = new HashSet<HashSet<GraphElement>>();
-		HashMap<Long,Integer> totalObservationsPerTimeUnit = new HashMap<Long,Integer>();
-		HashMap<Long,Integer> uniqueObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		observationsSeen = new HashSet<HashSet<GraphElement>>();
+		totalObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		uniqueObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		repeatSeries = new LevelOfDetailTimeSeries("Repeat Observations", timeUnit);
+		
+		TreeMap<Long, AbstractObservation> observations = getSessionObservations();
+		appendObservations(new ArrayList<AbstractObservation>(observations.values()));
+		
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(repeatSeries.getSeries());
+		JFreeChart chart = createXYChart(dataset);
+		
+		// show finer resolutions as the user zooms in
+		DateAxis axis = (DateAxis) chart.getXYPlot().getDomainAxis();
+		repeatSeries.attach(axis);
+		
+		return chart;
+	}
+	
+	@Override
+	protected void appendObservations(List<AbstractObservation> observations) {
 		// iterate over the observations in order and group number of new and
 		// seen observations into buckets according to the time unit
-		for (Entry<Long, AbstractObservation> entry : observations.entrySet()) {
+		for (AbstractObservation observation : observations) {
 			
 			// don't count start nodes as observations for this analysis
-			if(entry.getValue().getType() == ObservationType.START){
+			if(observation.getType() == ObservationType.START){
 				continue;
 			}
 			
 			// don't count stop nodes as observations for this analysis
-			if(entry.getValue().getType() == ObservationType.STOP){
+			if(observation.getType() == ObservationType.STOP){
 				continue;
 			}
 			
 			// consider an observation to be a group of nodes at the requested granularity level
 			HashSet<GraphElement> observationSeen = new HashSet<GraphElement>();
-			for(GraphElement observationNode : entry.getValue().getObservedNodes()){
+			for(GraphElement observationNode : observation.getObservedNodes()){
 				GraphElement granule = AuditUtils.getNodeGranule(observationNode, granularity);
 				if(granule != null){
 					observationSeen.add(granule);
@@ -95,7 +115,7 @@ public class RepeatObservationsChart extends AuditChart {
 				continue;
 			}
 			
-			Date bucket = new Date(entry.getKey());
+			Date bucket = new Date(observation.getTimestamp());
 			if(timeUnit == TimeUnit.SECONDS){
 				bucket = AuditUtils.trimToSecond(bucket);
 			} else if(timeUnit == TimeUnit.MINUTES){
@@ -108,38 +128,31 @@ public class RepeatObservationsChart extends AuditChart {
 			
 			// update the number of total observations
 			Long key = bucket.getTime();
-			if(totalObservationsPerTimeUnit.containsKey(key)){
-				Integer count = totalObservationsPerTimeUnit.remove(key);
-				totalObservationsPerTimeUnit.put(key, count + 1);
-			} else {
-				totalObservationsPerTimeUnit.put(key, 1);
-			}
+			Integer totalCount = totalObservationsPerTimeUnit.containsKey(key) ? totalObservationsPerTimeUnit.get(key) + 1 : 1;
+			totalObservationsPerTimeUnit.put(key, totalCount);
 			
 			// update the number of unique observations
+			Integer uniqueCount = uniqueObservationsPerTimeUnit.containsKey(key) ? uniqueObservationsPerTimeUnit.get(key) : 0;
 			if(!observationsSeen.contains(observationSeen)){
 				// observation is unique
 				observationsSeen.add(observationSeen);
-				if(uniqueObservationsPerTimeUnit.containsKey(key)){
-					Integer count = uniqueObservationsPerTimeUnit.remove(key);
-					uniqueObservationsPerTimeUnit.put(key, count + 1);
-				} else {
-					uniqueObservationsPerTimeUnit.put(key, 1);
-				}
-			} else {
-				// observation is not unique
-				if(!uniqueObservationsPerTimeUnit.containsKey(key)){
-					uniqueObservationsPerTimeUnit.put(key, 0);
-				}
+				uniqueCount++;
 			}
+			uniqueObservationsPerTimeUnit.put(key, uniqueCount);
+			
+			// calculate repeats as the difference between total and unique
+			repeatSeries.addOrUpdate(key, totalCount - uniqueCount);
 		}
 		
-		// calculate repeats as the difference between total and unique
-		HashMap<Long,Integer> repeatObservationsPerTimeUnit = new HashMap<Long,Integer>();
-		for(Entry<Long,Integer> totalEntry : totalObservationsPerTimeUnit.entrySet()){
-			repeatObservationsPerTimeUnit.put(totalEntry.getKey(), totalEntry.getValue() - uniqueObservationsPerTimeUnit.get(totalEntry.getKey()));
-		}
-		
-		return createXYChart(createXYDataset(repeatObservationsPerTimeUnit));
+		repeatSeries.refresh();
+	}
+	
+	@Override
+	protected Dataset getExportDataset(JFreeChart chart) {
+		// export the full resolution series, not the downsampled view
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(repeatSeries.getFullResolutionSeries());
+		return dataset;
 	}
 	
 	private JFreeChart createXYChart(XYDataset dataset) {
@@ -189,38 +202,4 @@ public class RepeatObservationsChart extends AuditChart {
 		return chart;
 	}
 
-	private XYDataset createXYDataset(HashMap<Long, Integer> repeatObservations) {
-		TimeSeries s1 = new TimeSeries("Repeat Observations");
-
-		switch (timeUnit) {
-		case SECONDS:
-			for (Entry<Long, Integer> entry : repeatObservations.entrySet()) {
-				s1.add(new Second(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		case MINUTES:
-			for (Entry<Long, Integer> entry : repeatObservations.entrySet()) {
-				s1.add(new Minute(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		case HOURS:
-			for (Entry<Long, Integer> entry : repeatObservations.entrySet()) {
-				s1.add(new Hour(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		case DAYS:
-			for (Entry<Long, Integer> entry : repeatObservations.entrySet()) {
-				s1.add(new Day(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		default:
-			break;
-		}
-
-		TimeSeriesCollection dataset = new TimeSeriesCollection();
-		dataset.addSeries(s1);
-		
-		return dataset;
-	}
-
 }
@@ -0,0 +1,763 @@
+package com.ensoftcorp.open.auditmon.charts;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A minimal Graphics2D that records the shapes and text JFreeChart draws as SVG elements.
+ * Only what charts need is supported: solid (or first color of gradient) paints,
+ * basic strokes, transforms, clipping (with the shape's fill rule), text and images,
+ * which are embedded as PNG data. Text is written as text elements in the font family
+ * of the chart, so a viewer without the font substitutes another one.
+ * @author Ben Holland
+ */
+public class SVGGraphics2D extends Graphics2D {
+	
+	// used for font metrics, no drawing ever happens on it
+	private static final Graphics2D METRICS = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+	
+	private final StringBuilder svg;
+	private final int width;
+	private final int height;
+	// shared with graphics created from this one so clip path ids stay unique
+	private final int[] clipCount;
+	
+	private Paint paint = Color.BLACK;
+	private Color background = Color.WHITE;
+	private Stroke stroke = new BasicStroke(1.0f);
+	private Font font = new Font("SansSerif", Font.PLAIN, 12);
+	private Composite composite = AlphaComposite.SrcOver;
+	private AffineTransform transform = new AffineTransform();
+	private Shape clip = null;
+	private String clipId = null;
+	private RenderingHints hints = new RenderingHints(null);
+	
+	public SVGGraphics2D(int width, int height){
+		this.svg = new StringBuilder();
+		this.width = width;
+		this.height = height;
+		this.clipCount = new int[1];
+	}
+	
+	private SVGGraphics2D(SVGGraphics2D parent){
+		this.svg = parent.svg;
+		this.width = parent.width;
+		this.height = parent.height;
+		this.clipCount = parent.clipCount;
+		this.paint = parent.paint;
+		this.background = parent.background;
+		this.stroke = parent.stroke;
+		this.font = parent.font;
+		this.composite = parent.composite;
+		this.transform = new AffineTransform(parent.transform);
+		this.clip = parent.clip;
+		this.clipId = parent.clipId;
+		this.hints = (RenderingHints) parent.hints.clone();
+	}
+	
+	/**
+	 * Returns the complete SVG document of everything drawn so far
+	 * @return
+	 */
+	public String getSVGDocument(){
+		StringBuilder document = new StringBuilder();
+		document.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		document.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width + "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+		document.append(svg);
+		document.append("</svg>\n");
+		return document.toString();
+	}
+	
+	@Override
+	public void draw(Shape shape) {
+		if(stroke instanceof BasicStroke){
+			BasicStroke basicStroke = (BasicStroke) stroke;
+			// stroke widths are in user space, so scale them with the transform
+			double lineWidth = basicStroke.getLineWidth() * Math.sqrt(Math.abs(transform.getDeterminant()));
+			StringBuilder element = new StringBuilder();
+			element.append("<path fill=\"none\" d=\"").append(toPathData(transform.createTransformedShape(shape))).append("\"");
+			element.append(" stroke=\"").append(toColor(getColorOf(paint))).append("\"");
+			element.append(" stroke-width=\"").append(format(lineWidth)).append("\"");
+			appendOpacity(element, "stroke-opacity");
+			float[] dashes = basicStroke.getDashArray();
+			if(dashes != null && dashes.length > 0){
+				element.append(" stroke-dasharray=\"");
+				for(int i=0; i<dashes.length; i++){
+					element.append(i == 0 ? "" : ",").append(format(dashes[i]));
+				}
+				element.append("\"");
+			}
+			appendClip(element);
+			element.append("/>\n");
+			svg.append(element);
+		} else {
+			fill(stroke.createStrokedShape(shape));
+		}
+	}
+	
+	@Override
+	public void fill(Shape shape) {
+		StringBuilder element = new StringBuilder();
+		element.append("<path d=\"").append(toPathData(transform.createTransformedShape(shape))).append("\"");
+		element.append(" fill=\"").append(toColor(getColorOf(paint))).append("\"");
+		if(isEvenOdd(shape)){
+			element.append(" fill-rule=\"evenodd\"");
+		}
+		appendOpacity(element, "fill-opacity");
+		appendClip(element);
+		element.append("/>\n");
+		svg.append(element);
+	}
+	
+	@Override
+	public void drawString(String text, float x, float y) {
+		if(text == null || text.isEmpty()){
+			return;
+		}
+		double[] matrix = new double[6];
+		transform.getMatrix(matrix);
+		StringBuilder element = new StringBuilder();
+		element.append("<text x=\"").append(format(x)).append("\" y=\"").append(format(y)).append("\"");
+		element.append(" transform=\"matrix(");
+		for(int i=0; i<matrix.length; i++){
+			element.append(i == 0 ? "" : " ").append(format(matrix[i]));
+		}
+		element.append(")\"");
+		element.append(" font-family=\"").append(escape(font.getFamily())).append("\"");
+		element.append(" font-size=\"").append(format(font.getSize2D())).append("\"");
+		if(font.isBold()){
+			element.append(" font-weight=\"bold\"");
+		}
+		if(font.isItalic()){
+			element.append(" font-style=\"italic\"");
+		}
+		element.append(" fill=\"").append(toColor(getColorOf(paint))).append("\"");
+		appendOpacity(element, "fill-opacity");
+		appendClip(element);
+		element.append(">").append(escape(text)).append("</text>\n");
+		svg.append(element);
+	}
+	
+	@Override
+	public void drawString(String text, int x, int y) {
+		drawString(text, (float) x, (float) y);
+	}
+	
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+		drawString(iterator, (float) x, (float) y);
+	}
+	
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+		StringBuilder text = new StringBuilder();
+		for(char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()){
+			text.append(c);
+		}
+		drawString(text.toString(), x, y);
+	}
+	
+	@Override
+	public void drawGlyphVector(GlyphVector glyphs, float x, float y) {
+		fill(glyphs.getOutline(x, y));
+	}
+	
+	@Override
+	public boolean drawImage(Image image, AffineTransform transform, ImageObserver observer) {
+		return embedImage(toRenderedImage(image), transform, null);
+	}
+	
+	@Override
+	public void drawImage(BufferedImage image, BufferedImageOp op, int x, int y) {
+		embedImage(op == null ? image : op.filter(image, null), AffineTransform.getTranslateInstance(x, y), null);
+	}
+	
+	@Override
+	public void drawRenderedImage(RenderedImage image, AffineTransform transform) {
+		embedImage(image, transform, null);
+	}
+	
+	@Override
+	public void drawRenderableImage(RenderableImage image, AffineTransform transform) {
+		embedImage(image.createDefaultRendering(), transform, null);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+		return embedImage(toRenderedImage(image), AffineTransform.getTranslateInstance(x, y), null);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int x, int y, int width, int height, ImageObserver observer) {
+		return drawImage(image, x, y, width, height, null, observer);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int x, int y, Color background, ImageObserver observer) {
+		return embedImage(toRenderedImage(image), AffineTransform.getTranslateInstance(x, y), background);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int x, int y, int width, int height, Color background, ImageObserver observer) {
+		RenderedImage renderedImage = toRenderedImage(image);
+		if(renderedImage == null){
+			return false;
+		}
+		AffineTransform imageTransform = AffineTransform.getTranslateInstance(x, y);
+		imageTransform.scale(width / (double) renderedImage.getWidth(), height / (double) renderedImage.getHeight());
+		return embedImage(renderedImage, imageTransform, background);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+		return drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+	}
+	
+	@Override
+	public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color background, ImageObserver observer) {
+		BufferedImage bufferedImage = toBufferedImage(image);
+		if(bufferedImage == null || sx1 == sx2 || sy1 == sy2){
+			return false;
+		}
+		// the source rectangle is cropped and mapped onto the destination, flipping it if the corners are swapped
+		int x = Math.max(0, Math.min(sx1, sx2));
+		int y = Math.max(0, Math.min(sy1, sy2));
+		int width = Math.min(bufferedImage.getWidth(), Math.max(sx1, sx2)) - x;
+		int height = Math.min(bufferedImage.getHeight(), Math.max(sy1, sy2)) - y;
+		if(width <= 0 || height <= 0){
+			return false;
+		}
+		AffineTransform imageTransform = AffineTransform.getTranslateInstance(dx1, dy1);
+		imageTransform.scale((dx2 - dx1) / (double) (sx2 - sx1), (dy2 - dy1) / (double) (sy2 - sy1));
+		imageTransform.translate(x - sx1, y - sy1);
+		return embedImage(bufferedImage.getSubimage(x, y, width, height), imageTransform, background);
+	}
+	
+	@Override
+	public boolean hit(Rectangle rectangle, Shape shape, boolean onStroke) {
+		Shape deviceShape = transform.createTransformedShape(onStroke ? stroke.createStrokedShape(shape) : shape);
+		return deviceShape.intersects(rectangle);
+	}
+	
+	@Override
+	public GraphicsConfiguration getDeviceConfiguration() {
+		return METRICS.getDeviceConfiguration();
+	}
+	
+	@Override
+	public void setComposite(Composite composite) {
+		this.composite = composite;
+	}
+	
+	@Override
+	public Composite getComposite() {
+		return composite;
+	}
+	
+	@Override
+	public void setPaint(Paint paint) {
+		if(paint != null){
+			this.paint = paint;
+		}
+	}
+	
+	@Override
+	public Paint getPaint() {
+		return paint;
+	}
+	
+	@Override
+	public void setStroke(Stroke stroke) {
+		this.stroke = stroke;
+	}
+	
+	@Override
+	public Stroke getStroke() {
+		return stroke;
+	}
+	
+	@Override
+	public void setRenderingHint(RenderingHints.Key key, Object value) {
+		hints.put(key, value);
+	}
+	
+	@Override
+	public Object getRenderingHint(RenderingHints.Key key) {
+		return hints.get(key);
+	}
+	
+	@Override
+	public void setRenderingHints(Map<?, ?> hints) {
+		this.hints.clear();
+		this.hints.putAll(hints);
+	}
+	
+	@Override
+	public void addRenderingHints(Map<?, ?> hints) {
+		this.hints.putAll(hints);
+	}
+	
+	@Override
+	public RenderingHints getRenderingHints() {
+		return (RenderingHints) hints.clone();
+	}
+	
+	@Override
+	public void translate(int x, int y) {
+		transform.translate(x, y);
+	}
+	
+	@Override
+	public void translate(double x, double y) {
+		transform.translate(x, y);
+	}
+	
+	@Override
+	public void rotate(double theta) {
+		transform.rotate(theta);
+	}
+	
+	@Override
+	public void rotate(double theta, double x, double y) {
+		transform.rotate(theta, x, y);
+	}
+	
+	@Override
+	public void scale(double sx, double sy) {
+		transform.scale(sx, sy);
+	}
+	
+	@Override
+	public void shear(double shx, double shy) {
+		transform.shear(shx, shy);
+	}
+	
+	@Override
+	public void transform(AffineTransform transform) {
+		this.transform.concatenate(transform);
+	}
+	
+	@Override
+	public void setTransform(AffineTransform transform) {
+		this.transform = new AffineTransform(transform);
+	}
+	
+	@Override
+	public AffineTransform getTransform() {
+		return new AffineTransform(transform);
+	}
+	
+	@Override
+	public void setBackground(Color color) {
+		this.background = color;
+	}
+	
+	@Override
+	public Color getBackground() {
+		return background;
+	}
+	
+	@Override
+	public void clip(Shape shape) {
+		if(shape == null){
+			setClip(null);
+			return;
+		}
+		Shape deviceShape = transform.createTransformedShape(shape);
+		if(clip != null){
+			Area area = new Area(clip);
+			area.intersect(new Area(deviceShape));
+			deviceShape = area;
+		}
+		setDeviceClip(deviceShape);
+	}
+	
+	@Override
+	public FontRenderContext getFontRenderContext() {
+		return METRICS.getFontRenderContext();
+	}
+	
+	@Override
+	public Graphics create() {
+		return new SVGGraphics2D(this);
+	}
+	
+	@Override
+	public Color getColor() {
+		return getColorOf(paint);
+	}
+	
+	@Override
+	public void setColor(Color color) {
+		setPaint(color);
+	}
+	
+	@Override
+	public void setPaintMode() {}
+	
+	@Override
+	public void setXORMode(Color color) {}
+	
+	@Override
+	public Font getFont() {
+		return font;
+	}
+	
+	@Override
+	public void setFont(Font font) {
+		if(font != null){
+			this.font = font;
+		}
+	}
+	
+	@Override
+	public FontMetrics getFontMetrics(Font font) {
+		return METRICS.getFontMetrics(font);
+	}
+	
+	@Override
+	public Rectangle getClipBounds() {
+		Shape userClip = getClip();
+		return userClip == null ? null : userClip.getBounds();
+	}
+	
+	@Override
+	public void clipRect(int x, int y, int width, int height) {
+		clip(new Rectangle(x, y, width, height));
+	}
+	
+	@Override
+	public void setClip(int x, int y, int width, int height) {
+		setClip(new Rectangle(x, y, width, height));
+	}
+	
+	@Override
+	public Shape getClip() {
+		if(clip == null){
+			return null;
+		}
+		try {
+			return transform.createInverse().createTransformedShape(clip);
+		} catch (Exception e){
+			return null;
+		}
+	}
+	
+	@Override
+	public void setClip(Shape shape) {
+		setDeviceClip(shape == null ? null : transform.createTransformedShape(shape));
+	}
+	
+	@Override
+	public void copyArea(int x, int y, int width, int height, int dx, int dy) {}
+	
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		draw(new Line2D.Double(x1, y1, x2, y2));
+	}
+	
+	@Override
+	public void fillRect(int x, int y, int width, int height) {
+		fill(new Rectangle(x, y, width, height));
+	}
+	
+	@Override
+	public void clearRect(int x, int y, int width, int height) {
+		Paint previous = paint;
+		paint = background;
+		fillRect(x, y, width, height);
+		paint = previous;
+	}
+	
+	@Override
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		draw(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+	}
+	
+	@Override
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		fill(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+	}
+	
+	@Override
+	public void drawOval(int x, int y, int width, int height) {
+		draw(new Ellipse2D.Double(x, y, width, height));
+	}
+	
+	@Override
+	public void fillOval(int x, int y, int width, int height) {
+		fill(new Ellipse2D.Double(x, y, width, height));
+	}
+	
+	@Override
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		draw(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+	}
+	
+	@Override
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		fill(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+	}
+	
+	@Override
+	public void drawPolyline(int[] xPoints, int[] yPoints, int points) {
+		for(int i=1; i<points; i++){
+			drawLine(xPoints[i-1], yPoints[i-1], xPoints[i], yPoints[i]);
+		}
+	}
+	
+	@Override
+	public void drawPolygon(int[] xPoints, int[] yPoints, int points) {
+		draw(new java.awt.Polygon(xPoints, yPoints, points));
+	}
+	
+	@Override
+	public void fillPolygon(int[] xPoints, int[] yPoints, int points) {
+		fill(new java.awt.Polygon(xPoints, yPoints, points));
+	}
+	
+	@Override
+	public void dispose() {}
+	
+	/**
+	 * Embeds an image as PNG data, placed by the given transform in user space
+	 * @param image
+	 * @param imageTransform
+	 * @param background the color behind transparent pixels or null
+	 * @return false if the image could not be drawn
+	 */
+	private boolean embedImage(RenderedImage image, AffineTransform imageTransform, Color background){
+		if(image == null || image.getWidth() <= 0 || image.getHeight() <= 0){
+			return false;
+		}
+		AffineTransform deviceTransform = new AffineTransform(transform);
+		if(imageTransform != null){
+			deviceTransform.concatenate(imageTransform);
+		}
+		String data;
+		try {
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			if(!ImageIO.write(image, "png", png)){
+				return false;
+			}
+			data = toBase64(png.toByteArray());
+		} catch (IOException e){
+			return false;
+		}
+		double[] matrix = new double[6];
+		deviceTransform.getMatrix(matrix);
+		StringBuilder element = new StringBuilder();
+		if(background != null){
+			Paint previousPaint = paint;
+			AffineTransform previousTransform = transform;
+			paint = background;
+			transform = deviceTransform;
+			fill(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+			paint = previousPaint;
+			transform = previousTransform;
+		}
+		element.append("<image x=\"0\" y=\"0\" width=\"").append(image.getWidth()).append("\" height=\"").append(image.getHeight()).append("\"");
+		element.append(" transform=\"matrix(");
+		for(int i=0; i<matrix.length; i++){
+			element.append(i == 0 ? "" : " ").append(format(matrix[i]));
+		}
+		element.append(")\"");
+		if(composite instanceof AlphaComposite && ((AlphaComposite) composite).getAlpha() < 1.0f){
+			element.append(" opacity=\"").append(format(((AlphaComposite) composite).getAlpha())).append("\"");
+		}
+		element.append(" preserveAspectRatio=\"none\"");
+		appendClip(element);
+		element.append(" xlink:href=\"data:image/png;base64,").append(data).append("\"/>\n");
+		svg.append(element);
+		return true;
+	}
+	
+	/**
+	 * Returns the image as a rendered image or null if it has not been loaded
+	 */
+	private static RenderedImage toRenderedImage(Image image){
+		if(image instanceof RenderedImage){
+			return (RenderedImage) image;
+		}
+		return toBufferedImage(image);
+	}
+	
+	/**
+	 * Returns the image as a buffered image or null if it has not been loaded
+	 */
+	private static BufferedImage toBufferedImage(Image image){
+		if(image instanceof BufferedImage){
+			return (BufferedImage) image;
+		}
+		if(image == null || image.getWidth(null) <= 0 || image.getHeight(null) <= 0){
+			return null;
+		}
+		BufferedImage bufferedImage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = bufferedImage.createGraphics();
+		try {
+			graphics.drawImage(image, 0, 0, null);
+		} finally {
+			graphics.dispose();
+		}
+		return bufferedImage;
+	}
+	
+	/**
+	 * Sets the clip in device space and emits a clip path definition for it
+	 * @param deviceShape
+	 */
+	private void setDeviceClip(Shape deviceShape){
+		clip = deviceShape;
+		if(deviceShape == null){
+			clipId = null;
+		} else {
+			clipId = "clip" + (clipCount[0]++);
+			String clipRule = isEvenOdd(deviceShape) ? " clip-rule=\"evenodd\"" : "";
+			svg.append("<clipPath id=\"" + clipId + "\"><path d=\"" + toPathData(deviceShape) + "\"" + clipRule + "/></clipPath>\n");
+		}
+	}
+	
+	private void appendClip(StringBuilder element){
+		if(clipId != null){
+			element.append(" clip-path=\"url(#").append(clipId).append(")\"");
+		}
+	}
+	
+	private void appendOpacity(StringBuilder element, String attribute){
+		double opacity = getColorOf(paint).getAlpha() / 255.0;
+		if(composite instanceof AlphaComposite){
+			opacity *= ((AlphaComposite) composite).getAlpha();
+		}
+		if(opacity < 1.0){
+			element.append(" ").append(attribute).append("=\"").append(format(opacity)).append("\"");
+		}
+	}
+	
+	private static Color getColorOf(Paint paint){
+		if(paint instanceof Color){
+			return (Color) paint;
+		} else if(paint instanceof GradientPaint){
+			return ((GradientPaint) paint).getColor1();
+		} else {
+			return Color.BLACK;
+		}
+	}
+	
+	private static String toColor(Color color){
+		return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+	}
+	
+	/**
+	 * Returns true if the shape is filled with the even-odd rule, SVG fills with the non-zero rule by default
+	 */
+	private static boolean isEvenOdd(Shape shape){
+		return shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD;
+	}
+	
+	private static String toPathData(Shape shape){
+		StringBuilder path = new StringBuilder();
+		double[] coordinates = new double[6];
+		for(PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()){
+			switch(iterator.currentSegment(coordinates)){
+			case PathIterator.SEG_MOVETO:
+				path.append("M").append(format(coordinates[0])).append(",").append(format(coordinates[1]));
+				break;
+			case PathIterator.SEG_LINETO:
+				path.append("L").append(format(coordinates[0])).append(",").append(format(coordinates[1]));
+				break;
+			case PathIterator.SEG_QUADTO:
+				path.append("Q").append(format(coordinates[0])).append(",").append(format(coordinates[1]))
+					.append(" ").append(format(coordinates[2])).append(",").append(format(coordinates[3]));
+				break;
+			case PathIterator.SEG_CUBICTO:
+				path.append("C").append(format(coordinates[0])).append(",").append(format(coordinates[1]))
+					.append(" ").append(format(coordinates[2])).append(",").append(format(coordinates[3]))
+					.append(" ").append(format(coordinates[4])).append(",").append(format(coordinates[5]));
+				break;
+			case PathIterator.SEG_CLOSE:
+				path.append("Z");
+				break;
+			default:
+				break;
+			}
+		}
+		return path.toString();
+	}
+	
+	private static String toBase64(byte[] bytes){
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		StringBuilder result = new StringBuilder((bytes.length + 2) / 3 * 4);
+		for(int i=0; i<bytes.length; i+=3){
+			int remaining = Math.min(3, bytes.length - i);
+			int group = (bytes[i] & 0xFF) << 16;
+			if(remaining > 1){
+				group |= (bytes[i+1] & 0xFF) << 8;
+			}
+			if(remaining > 2){
+				group |= bytes[i+2] & 0xFF;
+			}
+			result.append(alphabet.charAt((group >> 18) & 0x3F));
+			result.append(alphabet.charAt((group >> 12) & 0x3F));
+			result.append(remaining > 1 ? alphabet.charAt((group >> 6) & 0x3F) : '=');
+			result.append(remaining > 2 ? alphabet.charAt(group & 0x3F) : '=');
+		}
+		return result.toString();
+	}
+	
+	private static String format(double value){
+		if(value == Math.rint(value) && Math.abs(value) < 1e15){
+			return Long.toString((long) value);
+		}
+		return String.format(java.util.Locale.US, "%.2f", value);
+	}
+	
+	private static String escape(String text){
+		StringBuilder result = new StringBuilder(text.length());
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			switch(c){
+			case '<': result.append("&lt;"); break;
+			case '>': result.append("&gt;"); break;
+			case '&': result.append("&amp;"); break;
+			case '"': result.append("&quot;"); break;
+			default: result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+}
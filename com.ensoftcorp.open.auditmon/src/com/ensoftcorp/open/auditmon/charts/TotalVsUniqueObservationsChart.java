@@ -1,10 +1,11 @@
 package com.ensoftcorp.open.auditmon.charts;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.jfree.chart.ChartFactory;
@@ -13,10 +14,7 @@ import org.jfree.chart.axis.DateAxis;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.time.Day;
-import org.jfree.data.time.Hour;
-import org.jfree.data.time.Minute;
-import org.jfree.data.time.TimeSeries;
+import org.jfree.data.general.Dataset;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.data.xy.XYDataset;
 import org.jfree.ui.RectangleInsets;
@@ -33,6 +31,13 @@ public class TotalVsUniqueObservationsChart extends AuditChart {
 	private TimeUnit timeUnit;
 	private Granularity granularity;
 	
+	// chart state retained from the last call to getChart() so that new observations can be appended
+	private HashSet<HashSet<GraphElement>> observationsSeen;
+	private HashMap<Long,Integer> totalObservationsPerTimeUnit;
+	private HashMap<Long,Integer> uniqueObservationsPerTimeUnit;
+	private LevelOfDetailTimeSeries totalSeries;
+	private LevelOfDetailTimeSeries uniqueSeries;
+	
 	public TotalVsUniqueObservationsChart(String session, TimeUnit timeUnit, Granularity granularity) {
 		super(session, "Total Vs. Unique");
 		this.timeUnit = timeUnit;
@@ -63,27 +68,47 @@ public class TotalVsUniqueObservationsChart extends AuditChart {
 
 	@Override
 	public JFreeChart getChart() {
-		TreeMap<Long, AbstractObservation> observations = AuditUtils.getSessionObservations(session);
-		HashSet<HashSet<GraphElement>> observationsSeen = new HashSet<HashSet<GraphElement>>();
-		HashMap<Long,Integer> totalObservationsPerTimeUnit = new HashMap<Long,Integer>();
-		HashMap<Long,Integer> uniqueObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		observationsSeen = new HashSet<HashSet<GraphElement>>();
+		totalObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		uniqueObservationsPerTimeUnit = new HashMap<Long,Integer>();
+		totalSeries = new LevelOfDetailTimeSeries("Total Observations", timeUnit);
+		uniqueSeries = new LevelOfDetailTimeSeries("Unique Observations", timeUnit);
+		
+		TreeMap<Long, AbstractObservation> observations = getSessionObservations();
+		appendObservations(new ArrayList<AbstractObservation>(observations.values()));
+		
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(totalSeries.getSeries());
+		dataset.addSeries(uniqueSeries.getSeries());
+		JFreeChart chart = createXYChart(dataset);
+		
+		// show finer resolutions as the user zooms in
+		DateAxis axis = (DateAxis) chart.getXYPlot().getDomainAxis();
+		totalSeries.attach(axis);
+		uniqueSeries.attach(axis);
+		
+		return chart;
+	}
+	
+	@Override
+	protected void appendObservations(List<AbstractObservation> observations) {
 		// iterate over the observations in order and group number of new and
 		// seen observations into buckets according to the time unit
-		for (Entry<Long, AbstractObservation> entry : observations.entrySet()) {
+		for (AbstractObservation observation : observations) {
 			
 			// don't count start nodes as observations for this analysis
-			if(entry.getValue().getType() == ObservationType.START){
+			if(observation.getType() == ObservationType.START){
 				continue;
 			}
 			
 			// don't count stop nodes as observations for this analysis
-			if(entry.getValue().getType() == ObservationType.STOP){
+			if(observation.getType() == ObservationType.STOP){
 				continue;
 			}
 			
 			// consider an observation to be a group of nodes at the requested granularity level
 			HashSet<GraphElement> observationSeen = new HashSet<GraphElement>();
-			for(GraphElement observationNode : entry.getValue().getObservedNodes()){
+			for(GraphElement observationNode : observation.getObservedNodes()){
 				GraphElement granule = AuditUtils.getNodeGranule(observationNode, granularity);
 				if(granule != null){
 					observationSeen.add(granule);
@@ -94,7 +119,7 @@ public class TotalVsUniqueObservationsChart extends AuditChart {
 				continue;
 			}
 			
-			Date bucket = new Date(entry.getKey());
+			Date bucket = new Date(observation.getTimestamp());
 			if(timeUnit == TimeUnit.SECONDS){
 				bucket = AuditUtils.trimToSecond(bucket);
 			} else if(timeUnit == TimeUnit.MINUTES){
@@ -107,32 +132,32 @@ public class TotalVsUniqueObservationsChart extends AuditChart {
 			
 			// update the number of total observations
 			Long key = bucket.getTime();
-			if(totalObservationsPerTimeUnit.containsKey(key)){
-				Integer count = totalObservationsPerTimeUnit.remove(key);
-				totalObservationsPerTimeUnit.put(key, count + 1);
-			} else {
-				totalObservationsPerTimeUnit.put(key, 1);
-			}
+			Integer totalCount = totalObservationsPerTimeUnit.containsKey(key) ? totalObservationsPerTimeUnit.get(key) + 1 : 1;
+			totalObservationsPerTimeUnit.put(key, totalCount);
+			totalSeries.addOrUpdate(key, totalCount);
 			
 			// update the number of unique observations
+			Integer uniqueCount = uniqueObservationsPerTimeUnit.containsKey(key) ? uniqueObservationsPerTimeUnit.get(key) : 0;
 			if(!observationsSeen.contains(observationSeen)){
 				// observation is unique
 				observationsSeen.add(observationSeen);
-				if(uniqueObservationsPerTimeUnit.containsKey(key)){
-					Integer count = uniqueObservationsPerTimeUnit.remove(key);
-					uniqueObservationsPerTimeUnit.put(key, count + 1);
-				} else {
-					uniqueObservationsPerTimeUnit.put(key, 1);
-				}
-			} else {
-				// observation is not unique
-				if(!uniqueObservationsPerTimeUnit.containsKey(key)){
-					uniqueObservationsPerTimeUnit.put(key, 0);
-				}
+				uniqueCount++;
 			}
+			uniqueObservationsPerTimeUnit.put(key, uniqueCount);
+			uniqueSeries.addOrUpdate(key, uniqueCount);
 		}
 		
-		return createXYChart(createXYDataset(totalObservationsPerTimeUnit, uniqueObservationsPerTimeUnit));
+		totalSeries.refresh();
+		uniqueSeries.refresh();
+	}
+	
+	@Override
+	protected Dataset getExportDataset(JFreeChart chart) {
+		// export the full resolution series, not the downsampled view
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(totalSeries.getFullResolutionSeries());
+		dataset.addSeries(uniqueSeries.getFullResolutionSeries());
+		return dataset;
 	}
 	
 	private JFreeChart createXYChart(XYDataset dataset) {
@@ -182,45 +207,4 @@ public class TotalVsUniqueObservationsChart extends AuditChart {
 		return chart;
 	}
 
-	private XYDataset createXYDataset(HashMap<Long, Integer> totalObservations, HashMap<Long, Integer> uniqueObservations) {
-
-		TimeSeries s1 = new TimeSeries("Total Observations");
-		TimeSeries s2 = new TimeSeries("Unique Observations");
-
-		switch (timeUnit) {
-		case MINUTES:
-			for (Entry<Long, Integer> entry : totalObservations.entrySet()) {
-				s1.add(new Minute(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			for (Entry<Long, Integer> entry : uniqueObservations.entrySet()) {
-				s2.add(new Minute(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		case HOURS:
-			for (Entry<Long, Integer> entry : totalObservations.entrySet()) {
-				s1.add(new Hour(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			for (Entry<Long, Integer> entry : uniqueObservations.entrySet()) {
-				s2.add(new Hour(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		case DAYS:
-			for (Entry<Long, Integer> entry : totalObservations.entrySet()) {
-				s1.add(new Day(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			for (Entry<Long, Integer> entry : uniqueObservations.entrySet()) {
-				s2.add(new Day(new Date(entry.getKey())), new Double(entry.getValue()));
-			}
-			break;
-		default:
-			break;
-		}
-
-		TimeSeriesCollection dataset = new TimeSeriesCollection();
-		dataset.addSeries(s1);
-		dataset.addSeries(s2);
-
-		return dataset;
-	}
-
 }
@@ -0,0 +1,473 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
+
+/**
+ * Offline versions of the session analyses that run over a columnar session file
+ * instead of the Atlas index, for batch reporting on machines without the index
+ *
+ * Each analysis gives the same results as its in-index version: getAuditStatistics as
+ * AuditUtils.getAuditStatistics, getTimeAllocations as ObservedTimeAllocationsChart,
+ * getObservationCounts as TotalVsUniqueObservationsChart and RepeatObservationsChart
+ * and getDOIModel as DOIModel.getDOIModelForSession. Granules are identified by their
+ * id in the file (see ColumnarSessionFile.getGranuleSignature and getGranuleName) and
+ * results are primitive arrays indexed by granule id.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarAnalysis {
+	
+	private ColumnarAnalysis(){}
+	
+	/**
+	 * Returns the visits of the session in the order AuditUtils.getSessionObservations returns them,
+	 * sorted by timestamp and keeping only the last visit of those that share a timestamp
+	 * @param session
+	 * @return the row of each visit
+	 */
+	public static int[] getSortedVisits(ColumnarSession session){
+		long[] timestamps = session.getTimestamps();
+		int rows = session.getRows();
+		int[] order = new int[rows];
+		boolean sorted = true;
+		for(int row=0; row<rows; row++){
+			order[row] = row;
+			if(row > 0 && timestamps[row] < timestamps[row-1]){
+				sorted = false;
+			}
+		}
+		// the clock rarely goes backwards, so the visits are usually already in order
+		if(!sorted){
+			mergeSort(order, new int[rows], 0, rows, timestamps);
+		}
+		int size = 0;
+		for(int i=0; i<rows; i++){
+			if(i + 1 == rows || timestamps[order[i+1]] != timestamps[order[i]]){
+				order[size++] = order[i];
+			}
+		}
+		return Arrays.copyOf(order, size);
+	}
+	
+	/**
+	 * Returns the same statistics as AuditUtils.getAuditStatistics
+	 * @param session
+	 * @return
+	 */
+	public static HashMap<String,Object> getAuditStatistics(ColumnarSession session){
+		long[] timestamps = session.getTimestamps();
+		byte[] types = session.getTypes();
+		int rows = session.getRows();
+		
+		// the start and stop timestamps in the order they were recorded
+		long[] starts = new long[rows];
+		long[] stops = new long[rows];
+		int numStarts = 0;
+		int numStops = 0;
+		for(int row=0; row<rows; row++){
+			if(types[row] == ColumnarFormat.TYPE_START){
+				starts[numStarts++] = timestamps[row];
+			} else if(types[row] == ColumnarFormat.TYPE_STOP){
+				stops[numStops++] = timestamps[row];
+			}
+		}
+		
+		// merged by time as in SessionTimeline, a start wins a tie
+		long auditTime = 0L;
+		long breakTime = 0L;
+		Long auditStarted = null;
+		Long auditFinished = null;
+		long previous = 0L;
+		int startIndex = 0;
+		int stopIndex = 0;
+		for(int i=0; i<numStarts+numStops; i++){
+			if(startIndex < numStarts && (stopIndex == numStops || starts[startIndex] <= stops[stopIndex])){
+				long timestamp = starts[startIndex++];
+				if(i > 0){
+					breakTime += timestamp - previous;
+				}
+				if(auditStarted == null){
+					auditStarted = timestamp;
+				}
+				previous = timestamp;
+			} else {
+				long timestamp = stops[stopIndex++];
+				if(i > 0){
+					auditTime += timestamp - previous;
+				}
+				auditFinished = timestamp;
+				previous = timestamp;
+			}
+		}
+		
+		HashMap<String,Object> stats = new HashMap<String,Object>();
+		stats.put("Total Audit Time", auditTime);
+		stats.put("Total Break Time", breakTime);
+		stats.put("Audit Started", auditStarted == null ? null : new Date(auditStarted));
+		stats.put("Audit Finished", auditFinished == null ? null : new Date(auditFinished));
+		stats.put("Number of Times Resumed", numStarts - 1);
+		stats.put("Number of Observations", numStarts == 0 ? 0 : rows - numStarts - numStops);
+		return stats;
+	}
+	
+	/**
+	 * Returns the time spent on each granule as ObservedTimeAllocationsChart counts it
+	 * @param file
+	 * @param session
+	 * @param granularity
+	 * @return milliseconds indexed by granule id, -1 for granules that were not observed
+	 */
+	public static long[] getTimeAllocations(ColumnarSessionFile file, ColumnarSession session, Granularity granularity){
+		long[] timestamps = session.getTimestamps();
+		byte[] types = session.getTypes();
+		int[] memberOffsets = session.getMemberOffsets();
+		int[] members = session.getMembers();
+		int[] granules = file.getMemberGranules(granularity);
+		long[] allocations = new long[file.getNumGranules(granularity)];
+		Arrays.fill(allocations, -1L);
+		
+		int last = -1;
+		for(int row : getSortedVisits(session)){
+			// start and stop visits don't count towards time spent, but they do reset the time deltas
+			if(types[row] != ColumnarFormat.TYPE_OBSERVATION){
+				last = -1;
+				continue;
+			}
+			if(last != -1){
+				long timeDelta = timestamps[row] - timestamps[last];
+				for(int i=memberOffsets[last]; i<memberOffsets[last+1]; i++){
+					int granule = granules[members[i]];
+					if(granule != -1){
+						allocations[granule] = allocations[granule] == -1L ? timeDelta : allocations[granule] + timeDelta;
+					}
+				}
+			}
+			last = row;
+		}
+		return allocations;
+	}
+	
+	/**
+	 * Converts time allocations to the display names ObservedTimeAllocationsChart shows
+	 * @param file
+	 * @param granularity
+	 * @param allocations
+	 * @return
+	 */
+	public static HashMap<String,Long> getTimeAllocationsDisplay(ColumnarSessionFile file, Granularity granularity, long[] allocations){
+		HashMap<String,Long> display = new HashMap<String,Long>();
+		for(int granule=0; granule<allocations.length; granule++){
+			if(allocations[granule] != -1L){
+				display.put(file.getGranuleName(granularity, granule), allocations[granule]);
+			}
+		}
+		return display;
+	}
+	
+	/**
+	 * Returns the time spent on each program artifact for a heat map, the time since the previous
+	 * observation is split evenly across the members of an observation as ObservationTimeHeatMap splits it
+	 * @param file
+	 * @param session
+	 * @return milliseconds indexed by member id, -1 for members that were not observed
+	 */
+	public static long[] getTimeSpent(ColumnarSessionFile file, ColumnarSession session){
+		long[] timestamps = session.getTimestamps();
+		byte[] types = session.getTypes();
+		int[] memberOffsets = session.getMemberOffsets();
+		int[] members = session.getMembers();
+		long[] timeSpent = new long[file.getNumMembers()];
+		Arrays.fill(timeSpent, -1L);
+		
+		int last = -1;
+		for(int row : getSortedVisits(session)){
+			if(types[row] != ColumnarFormat.TYPE_OBSERVATION){
+				last = -1;
+				continue;
+			}
+			int numMembers = memberOffsets[row+1] - memberOffsets[row];
+			if(last != -1 && numMembers > 0){
+				// if time does not split evenly a few milliseconds just won't be accounted for
+				long timeSplit = (timestamps[row] - timestamps[last]) / numMembers;
+				for(int i=memberOffsets[row]; i<memberOffsets[row+1]; i++){
+					int member = members[i];
+					timeSpent[member] = timeSpent[member] == -1L ? timeSplit : timeSpent[member] + timeSplit;
+				}
+			}
+			last = row;
+		}
+		return timeSpent;
+	}
+	
+	/**
+	 * Returns the total and unique observations per time unit as TotalVsUniqueObservationsChart
+	 * counts them, the repeat observations of RepeatObservationsChart are the difference
+	 * An observation is the set of granules of its members, observations without granules are not counted
+	 * @param file
+	 * @param session
+	 * @param granularity
+	 * @param timeUnit
+	 * @return the start of each time unit (in local time) mapped to the total and unique count
+	 */
+	public static TreeMap<Long,int[]> getObservationCounts(ColumnarSessionFile file, ColumnarSession session, Granularity granularity, TimeUnit timeUnit){
+		long[] timestamps = session.getTimestamps();
+		byte[] types = session.getTypes();
+		int[] observations = session.getObservations();
+		int[] memberOffsets = session.getMemberOffsets();
+		int[] members = session.getMembers();
+		int[] granules = file.getMemberGranules(granularity);
+		
+		// each observation node always has the same members, so its granule set is computed once
+		int[] granuleSets = new int[file.getNumObservations()];
+		Arrays.fill(granuleSets, -2);
+		HashMap<GranuleSet,Integer> granuleSetIds = new HashMap<GranuleSet,Integer>();
+		int[] granuleSet = new int[16];
+		boolean[] seen = new boolean[16];
+		
+		TreeMap<Long,int[]> counts = new TreeMap<Long,int[]>();
+		Buckets buckets = new Buckets(timeUnit);
+		long bucket = 0L;
+		int[] count = null;
+		for(int row : getSortedVisits(session)){
+			// don't count start and stop nodes as observations for this analysis
+			if(types[row] != ColumnarFormat.TYPE_OBSERVATION){
+				continue;
+			}
+			int observation = observations[row];
+			if(granuleSets[observation] == -2){
+				int size = 0;
+				for(int i=memberOffsets[row]; i<memberOffsets[row+1]; i++){
+					int granule = granules[members[i]];
+					if(granule != -1){
+						if(size == granuleSet.length){
+							granuleSet = Arrays.copyOf(granuleSet, size * 2);
+						}
+						granuleSet[size++] = granule;
+					}
+				}
+				if(size == 0){
+					granuleSets[observation] = -1;
+				} else {
+					GranuleSet key = new GranuleSet(granuleSet, size);
+					Integer id = granuleSetIds.get(key);
+					if(id == null){
+						id = granuleSetIds.size();
+						granuleSetIds.put(key, id);
+					}
+					granuleSets[observation] = id;
+				}
+			}
+			// the granularity level is too fine for the request granule
+			int id = granuleSets[observation];
+			if(id == -1){
+				continue;
+			}
+			
+			long key = buckets.getBucket(timestamps[row]);
+			if(count == null || key != bucket){
+				bucket = key;
+				count = counts.get(key);
+				if(count == null){
+					count = new int[2];
+					counts.put(key, count);
+				}
+			}
+			count[0]++;
+			if(id >= seen.length){
+				seen = Arrays.copyOf(seen, Math.max(id + 1, seen.length * 2));
+			}
+			if(!seen[id]){
+				// observation is unique
+				seen[id] = true;
+				count[1]++;
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * Returns the degree of interest model of the session with the default parameters of DOIModel
+	 * @param file
+	 * @param session
+	 * @param granularity
+	 * @return the degree of interest indexed by granule id, NaN for granules that are not in the model
+	 */
+	public static double[] getDOIModel(ColumnarSessionFile file, ColumnarSession session, Granularity granularity){
+		return getDOIModel(file, session, granularity, AuditConstants.DEFAULT_DOI_DECAY_RATE, AuditConstants.DEFAULT_DOI_INTEREST_INCREASE, AuditConstants.DEFAULT_DOI_INTEREST_THRESHOLD);
+	}
+	
+	/**
+	 * Returns the same degree of interest model as DOIModel.getDOIModelForSession
+	 * @param file
+	 * @param session
+	 * @param granularity
+	 * @param decayRate
+	 * @param interestIncrease
+	 * @param interestThreshold
+	 * @return the degree of interest indexed by granule id, NaN for granules that are not in the model
+	 */
+	public static double[] getDOIModel(ColumnarSessionFile file, ColumnarSession session, Granularity granularity, double decayRate, double interestIncrease, double interestThreshold){
+		byte[] types = session.getTypes();
+		int[] memberOffsets = session.getMemberOffsets();
+		int[] members = session.getMembers();
+		int[] granules = file.getMemberGranules(granularity);
+		double[] interest = new double[file.getNumGranules(granularity)];
+		Arrays.fill(interest, Double.NaN);
+		
+		// the granules in the model, decayed in a single pass per observed member
+		int[] active = new int[interest.length];
+		int numActive = 0;
+		for(int row : getSortedVisits(session)){
+			if(types[row] != ColumnarFormat.TYPE_OBSERVATION){
+				continue;
+			}
+			// each member of a simultaneous observation is a separate observation
+			for(int i=memberOffsets[row]; i<memberOffsets[row+1]; i++){
+				int nodeOfInterest = granules[members[i]];
+				if(nodeOfInterest == -1){
+					continue;
+				}
+				if(Double.isNaN(interest[nodeOfInterest])){
+					interest[nodeOfInterest] = interestIncrease;
+					active[numActive++] = nodeOfInterest;
+				} else {
+					interest[nodeOfInterest] += interestIncrease;
+				}
+				int kept = 0;
+				for(int j=0; j<numActive; j++){
+					int granule = active[j];
+					if(granule != nodeOfInterest){
+						interest[granule] -= decayRate;
+					}
+					if(interest[granule] < interestThreshold){
+						interest[granule] = Double.NaN;
+					} else {
+						active[kept++] = granule;
+					}
+				}
+				numActive = kept;
+			}
+		}
+		return interest;
+	}
+	
+	/**
+	 * Stable sort of rows[from..to) by timestamp
+	 */
+	private static void mergeSort(int[] rows, int[] scratch, int from, int to, long[] timestamps){
+		if(to - from < 2){
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(rows, scratch, from, middle, timestamps);
+		mergeSort(rows, scratch, middle, to, timestamps);
+		if(timestamps[rows[middle-1]] <= timestamps[rows[middle]]){
+			return;
+		}
+		System.arraycopy(rows, from, scratch, from, to - from);
+		int left = from;
+		int right = middle;
+		for(int i=from; i<to; i++){
+			if(right == to || (left < middle && timestamps[scratch[left]] <= timestamps[scratch[right]])){
+				rows[i] = scratch[left++];
+			} else {
+				rows[i] = scratch[right++];
+			}
+		}
+	}
+	
+	/**
+	 * A set of granule ids, kept as a sorted array without duplicates
+	 */
+	private static class GranuleSet {
+		private final int[] granules;
+		private final int hashCode;
+		
+		GranuleSet(int[] granules, int size){
+			int[] sorted = Arrays.copyOf(granules, size);
+			Arrays.sort(sorted);
+			int distinct = 0;
+			for(int i=0; i<sorted.length; i++){
+				if(i == 0 || sorted[i] != sorted[i-1]){
+					sorted[distinct++] = sorted[i];
+				}
+			}
+			this.granules = Arrays.copyOf(sorted, distinct);
+			this.hashCode = Arrays.hashCode(this.granules);
+		}
+		
+		@Override
+		public int hashCode(){
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			return o instanceof GranuleSet && Arrays.equals(granules, ((GranuleSet) o).granules);
+		}
+	}
+	
+	/**
+	 * Trims timestamps to the start of their time unit in local time as AuditUtils.trimToSecond,
+	 * trimToMinute, trimToHour and trimToDay do, reusing the last bucket while the time zone offset is unchanged
+	 */
+	private static class Buckets {
+		private final TimeUnit timeUnit;
+		private final long length;
+		private final TimeZone zone = TimeZone.getDefault();
+		private final Calendar calendar = new GregorianCalendar();
+		private long start = 0L;
+		private long end = 0L;
+		private int offset = 0;
+		
+		Buckets(TimeUnit timeUnit){
+			this.timeUnit = timeUnit;
+			if(timeUnit == TimeUnit.SECONDS){
+				length = 1000L;
+			} else if(timeUnit == TimeUnit.MINUTES){
+				length = 60L * 1000L;
+			} else if(timeUnit == TimeUnit.HOURS){
+				length = 60L * 60L * 1000L;
+			} else if(timeUnit == TimeUnit.DAYS){
+				length = 24L * 60L * 60L * 1000L;
+			} else {
+				// an unknown time unit leaves timestamps as they are
+				length = 1L;
+			}
+		}
+		
+		long getBucket(long timestamp){
+			if(timestamp >= start && timestamp < end && zone.getOffset(timestamp) == offset){
+				return start;
+			}
+			calendar.setTimeInMillis(timestamp);
+			if(timeUnit == TimeUnit.DAYS){
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+			}
+			if(timeUnit == TimeUnit.DAYS || timeUnit == TimeUnit.HOURS){
+				calendar.set(Calendar.MINUTE, 0);
+			}
+			if(timeUnit == TimeUnit.DAYS || timeUnit == TimeUnit.HOURS || timeUnit == TimeUnit.MINUTES){
+				calendar.set(Calendar.SECOND, 0);
+			}
+			if(timeUnit != null){
+				calendar.set(Calendar.MILLISECOND, 0);
+			}
+			start = calendar.getTimeInMillis();
+			end = start + length;
+			offset = zone.getOffset(start);
+			return start;
+		}
+	}
+
+}
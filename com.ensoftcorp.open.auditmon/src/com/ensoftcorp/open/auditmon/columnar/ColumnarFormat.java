@@ -0,0 +1,107 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.io.ByteArrayOutputStream;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+
+/**
+ * The layout of an AuditMon columnar session file
+ *
+ * A file starts with MAGIC and VERSION followed by row groups. Each row group holds
+ * consecutive visits (in visit order) of a single session as one chunk per column,
+ * each chunk is deflated unless that does not make it smaller. The footer describes
+ * the file: the columns and their types, the granularities, the dictionaries (sessions,
+ * observation nodes, strings, members and granules) and for every row group its
+ * session, row count, minimum and maximum timestamp and the position, length,
+ * uncompressed length and codec of each of its column chunks. The
+ * last 12 bytes of the file are the position of the footer and MAGIC again, so a
+ * reader finds the footer first and can then read any subset of the row groups.
+ *
+ * Columns, one value per visit unless noted:
+ *   timestamp     INT64 deltas from the previous row of the group (the first from 0), zigzag varints
+ *   type          INT8 TYPE_START, TYPE_STOP or TYPE_OBSERVATION
+ *   observation   INT32 id of the visited observation node (start and stop nodes included)
+ *   origin        INT32 1 + string id of the origin (the stop reason of a stop), 0 for none
+ *   member_count  INT32 number of members of the visited observation node, 0 for starts and stops
+ *   members       INT32 member ids of every row, member_count values per row
+ *
+ * Members are the program artifacts of observations, identified by node signature.
+ * The member dictionary holds 1 + the granule id (0 for none) of each member for every
+ * granularity coarser than PROGRAM_ARTIFACT, stored as one column of ids per granularity. All
+ * integers in the footer are varints and all strings are modified UTF-8 (as written
+ * by DataOutput.writeUTF).
+ *
+ * @author Ben Holland
+ */
+public class ColumnarFormat {
+	
+	public static final int MAGIC = 0x414D4346; // AMCF
+	public static final int VERSION = 1;
+	
+	public static final byte TYPE_START = 0;
+	public static final byte TYPE_STOP = 1;
+	public static final byte TYPE_OBSERVATION = 2;
+	
+	public static final byte INT8 = 0;
+	public static final byte INT32 = 1;
+	public static final byte INT64_DELTA = 2;
+	
+	public static final byte CODEC_NONE = 0;
+	public static final byte CODEC_DEFLATE = 1;
+	
+	public static final String[] COLUMNS = { "timestamp", "type", "observation", "origin", "member_count", "members" };
+	public static final byte[] COLUMN_TYPES = { INT64_DELTA, INT8, INT32, INT32, INT32, INT32 };
+	public static final int TIMESTAMP = 0;
+	public static final int TYPE = 1;
+	public static final int OBSERVATION = 2;
+	public static final int ORIGIN = 3;
+	public static final int MEMBER_COUNT = 4;
+	public static final int MEMBERS = 5;
+	
+	// the granularities members have granules for, every granularity but PROGRAM_ARTIFACT
+	public static final Granularity[] GRANULARITIES = { Granularity.PARENT_CLASS, Granularity.SOURCE_FILE, Granularity.PACKAGE, Granularity.PROJECT };
+	
+	// the size of the trailer at the end of the file
+	public static final int TRAILER_SIZE = 12;
+	
+	private ColumnarFormat(){}
+	
+	/**
+	 * Returns the index of the granularity in GRANULARITIES or -1 for PROGRAM_ARTIFACT
+	 * @param granularity
+	 * @return
+	 */
+	public static int getGranularityIndex(Granularity granularity){
+		for(int i=0; i<GRANULARITIES.length; i++){
+			if(GRANULARITIES[i] == granularity){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	static void writeVarInt(ByteArrayOutputStream out, int value){
+		while((value & ~0x7F) != 0){
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	static void writeVarLong(ByteArrayOutputStream out, long value){
+		while((value & ~0x7FL) != 0){
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+	
+	static long zigzag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	static long unzigzag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
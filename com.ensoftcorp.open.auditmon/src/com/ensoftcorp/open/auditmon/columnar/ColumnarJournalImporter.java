@@ -0,0 +1,107 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.ensoftcorp.open.auditmon.merge.JournalEntry;
+import com.ensoftcorp.open.auditmon.merge.JournalSource;
+
+/**
+ * Converts a journal into a columnar session file, without Atlas
+ *
+ * Each journal member (a node address or signature) becomes a member of the file. A
+ * journal does not say which class, file, package or project a member belongs to, so
+ * members have no granules and only PROGRAM_ARTIFACT analyses find anything. As in
+ * the index an observation node is identified by its members, so observations of the
+ * same members share an observation id.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarJournalImporter {
+	
+	private static final int[] NO_GRANULES = new int[ColumnarFormat.GRANULARITIES.length];
+	static {
+		for(int level=0; level<NO_GRANULES.length; level++){
+			NO_GRANULES[level] = -1;
+		}
+	}
+	
+	private ColumnarJournalImporter(){}
+	
+	/**
+	 * Writes the entries of the journal to a columnar session file, grouped by session in journal order
+	 * The journal is closed afterwards
+	 * @param journal
+	 * @param file
+	 * @return the number of imported visits
+	 * @throws IOException
+	 */
+	public static long importJournal(JournalSource journal, File file) throws IOException {
+		// a journal interleaves its sessions, each session is written as consecutive row groups
+		LinkedHashMap<String,ArrayList<JournalEntry>> sessions = new LinkedHashMap<String,ArrayList<JournalEntry>>();
+		try {
+			JournalEntry entry;
+			while((entry = journal.next()) != null){
+				ArrayList<JournalEntry> entries = sessions.get(entry.getSession());
+				if(entries == null){
+					entries = new ArrayList<JournalEntry>();
+					sessions.put(entry.getSession(), entries);
+				}
+				entries.add(entry);
+			}
+		} finally {
+			journal.close();
+		}
+		
+		ColumnarSessionWriter writer = new ColumnarSessionWriter(file);
+		boolean written = false;
+		try {
+			int startId = writer.getObservationId("start");
+			int stopId = writer.getObservationId("stop");
+			HashMap<String,Integer> memberIds = new HashMap<String,Integer>();
+			int[] members = new int[16];
+			StringBuilder observation = new StringBuilder();
+			for(Entry<String,ArrayList<JournalEntry>> session : sessions.entrySet()){
+				int sessionId = writer.getSessionId(session.getKey());
+				for(JournalEntry entry : session.getValue()){
+					if(entry.getType() == JournalEntry.Type.START){
+						writer.start(sessionId, entry.getTimestamp(), startId);
+					} else if(entry.getType() == JournalEntry.Type.STOP){
+						writer.stop(sessionId, entry.getTimestamp(), stopId, entry.getReason());
+					} else {
+						List<String> entryMembers = entry.getMembers();
+						if(entryMembers.size() > members.length){
+							members = new int[Math.max(entryMembers.size(), members.length * 2)];
+						}
+						observation.setLength(0);
+						for(int i=0; i<entryMembers.size(); i++){
+							String member = entryMembers.get(i);
+							Integer id = memberIds.get(member);
+							if(id == null){
+								id = writer.getMemberId(member, member, NO_GRANULES);
+								memberIds.put(member, id);
+							}
+							members[i] = id;
+							observation.append(member).append('\n');
+						}
+						writer.observation(sessionId, entry.getTimestamp(), writer.getObservationId(observation.toString()), entry.getOrigin(), members, 0, entryMembers.size());
+					}
+				}
+			}
+			written = true;
+		} finally {
+			if(written){
+				writer.close();
+			} else {
+				writer.abort();
+			}
+		}
+		return writer.getRows();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+/**
+ * The decoded visits of one session of a columnar session file
+ *
+ * Visits are stored as parallel primitive columns in the order they were written
+ * (visit order). The member ids of visit i are members[memberOffsets[i]] up to
+ * members[memberOffsets[i+1]]. The arrays are shared, not copied, and must not be modified.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarSession {
+	
+	private final String session;
+	private final int rows;
+	private final long[] timestamps;
+	private final byte[] types;
+	private final int[] observations;
+	private final int[] origins;
+	private final int[] memberOffsets;
+	private final int[] members;
+	
+	ColumnarSession(String session, int rows, long[] timestamps, byte[] types, int[] observations, int[] origins, int[] memberOffsets, int[] members){
+		this.session = session;
+		this.rows = rows;
+		this.timestamps = timestamps;
+		this.types = types;
+		this.observations = observations;
+		this.origins = origins;
+		this.memberOffsets = memberOffsets;
+		this.members = members;
+	}
+	
+	public String getSession(){
+		return session;
+	}
+	
+	/**
+	 * Returns the number of visits
+	 * @return
+	 */
+	public int getRows(){
+		return rows;
+	}
+	
+	public long[] getTimestamps(){
+		return timestamps;
+	}
+	
+	/**
+	 * Returns the type of each visit, one of ColumnarFormat.TYPE_START, TYPE_STOP or TYPE_OBSERVATION
+	 * @return
+	 */
+	public byte[] getTypes(){
+		return types;
+	}
+	
+	public int[] getObservations(){
+		return observations;
+	}
+	
+	/**
+	 * Returns the origin of each visit as 1 + its string id or 0 for none (see ColumnarSessionFile.getOrigin)
+	 * @return
+	 */
+	public int[] getOrigins(){
+		return origins;
+	}
+	
+	/**
+	 * Returns the index of the first member id of each visit followed by the number of member ids
+	 * @return
+	 */
+	public int[] getMemberOffsets(){
+		return memberOffsets;
+	}
+	
+	public int[] getMembers(){
+		return members;
+	}
+
+}
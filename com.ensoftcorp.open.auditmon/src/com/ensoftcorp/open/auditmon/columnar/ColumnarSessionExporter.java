@@ -0,0 +1,211 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.java.core.script.Common;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditMon;
+import com.ensoftcorp.open.auditmon.AuditUtils;
+import com.ensoftcorp.open.auditmon.NodeSignatures;
+import com.ensoftcorp.open.auditmon.ObservationInvertedIndex;
+import com.ensoftcorp.open.auditmon.ObservationWriter;
+import com.ensoftcorp.open.auditmon.SessionRegistry;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+
+/**
+ * Exports the sessions of the current index as a columnar session file (see ColumnarFormat)
+ *
+ * Each session is streamed in visit order straight from its numbered observation edges
+ * and the timestamp, origin and stop reason lists, no AbstractObservation is created.
+ * Members are identified by node signature and their granules are looked up once per
+ * member for the whole export, so the cost of an export is mostly one pass over the
+ * edge numbers of each session.
+ *
+ * Each session is read as a change of the ObservationWriter, so a session is never
+ * exported half way through an observation, merge or compaction. If the export fails
+ * the file is deleted rather than left with a footer for the sessions written so far.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarSessionExporter {
+	
+	private final ColumnarSessionWriter writer;
+	
+	// the observation id followed by the member ids of each observation node written so far
+	private final HashMap<GraphElement,int[]> observationNodes = new HashMap<GraphElement,int[]>();
+	private final HashMap<GraphElement,Integer> memberIds = new HashMap<GraphElement,Integer>();
+	private final Q memberEdges = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).retainEdges();
+	
+	private ColumnarSessionExporter(ColumnarSessionWriter writer){
+		this.writer = writer;
+	}
+	
+	/**
+	 * Exports every session of the current index
+	 * @param file
+	 * @return the number of exported visits
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static long export(File file) throws IOException, InterruptedException {
+		return export(file, AuditUtils.getSessions());
+	}
+	
+	/**
+	 * Exports the given sessions of the current index
+	 * @param file
+	 * @param sessions
+	 * @return the number of exported visits
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static long export(File file, Collection<String> sessions) throws IOException, InterruptedException {
+		return export(file, sessions, ColumnarSessionWriter.DEFAULT_ROW_GROUP_SIZE);
+	}
+	
+	/**
+	 * Exports the given sessions of the current index with row groups of at most rowGroupSize visits
+	 * Must not be called from a change of the ObservationWriter
+	 * @param file
+	 * @param sessions
+	 * @param rowGroupSize
+	 * @return the number of exported visits
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static long export(File file, Collection<String> sessions, int rowGroupSize) throws IOException, InterruptedException {
+		ColumnarSessionWriter writer = new ColumnarSessionWriter(file, rowGroupSize);
+		boolean written = false;
+		try {
+			final ColumnarSessionExporter exporter = new ColumnarSessionExporter(writer);
+			for(final String session : sessions){
+				final Exception[] error = new Exception[1];
+				boolean applied = ObservationWriter.submitAndWait(new Runnable(){
+					@Override
+					public void run() {
+						try {
+							exporter.exportSession(session);
+						} catch (Exception e){
+							error[0] = e;
+						}
+					}
+				});
+				if(error[0] instanceof IOException){
+					throw (IOException) error[0];
+				} else if(error[0] instanceof RuntimeException){
+					throw (RuntimeException) error[0];
+				}
+				if(!applied){
+					throw new IOException("The export was discarded because the index was reloaded.");
+				}
+			}
+			written = true;
+		} finally {
+			if(written){
+				writer.close();
+			} else {
+				writer.abort();
+			}
+		}
+		return writer.getRows();
+	}
+	
+	/**
+	 * Writes the visits of the session, following its edge numbers until the numbering has a gap
+	 */
+	@SuppressWarnings("unchecked")
+	private void exportSession(String session) throws IOException {
+		ArrayList<String> startTimestamps = SessionRegistry.getStartTimestamps(session);
+		List<GraphElement> visits = startTimestamps == null ? null : AtlasObservationStore.replay(session);
+		if(visits == null || visits.isEmpty()){
+			return;
+		}
+		GraphElement startNode = visits.get(0);
+		ArrayList<String> stopTimestamps = SessionRegistry.getStopTimestamps(session);
+		ArrayList<String> stopReasons = SessionRegistry.getStopReasons(session);
+		String originKey = session + AuditMon.OBSERVATION_ORIGIN_SUFFIX;
+		int sessionId = writer.getSessionId(session);
+		
+		int startNodeId = getObservation(startNode)[0];
+		writer.start(sessionId, Long.parseLong(startTimestamps.get(0)), startNodeId);
+		int starts = 1;
+		int stops = 0;
+		HashMap<GraphElement,Integer> visitationCounts = new HashMap<GraphElement,Integer>();
+		for(GraphElement observationNode : visits.subList(1, visits.size())){
+			if(observationNode.equals(startNode)){
+				writer.start(sessionId, Long.parseLong(startTimestamps.get(starts++)), startNodeId);
+			} else if(observationNode.tags().contains(AuditMon.STOP)){
+				String reason = stopReasons == null || stops >= stopReasons.size() ? null : stopReasons.get(stops);
+				writer.stop(sessionId, Long.parseLong(stopTimestamps.get(stops++)), getObservation(observationNode)[0], reason);
+			} else {
+				Integer visitationCount = visitationCounts.get(observationNode);
+				int visitationIndex = visitationCount == null ? 0 : visitationCount;
+				visitationCounts.put(observationNode, visitationIndex + 1);
+				long timestamp = Long.parseLong(((ArrayList<String>) observationNode.attr().get(session)).get(visitationIndex));
+				ArrayList<String> origins = (ArrayList<String>) observationNode.attr().get(originKey);
+				String origin = origins == null || visitationIndex >= origins.size() ? null : origins.get(visitationIndex);
+				int[] observation = getObservation(observationNode);
+				writer.observation(sessionId, timestamp, observation[0], origin, observation, 1, observation.length - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the observation id followed by the member ids of the observation node
+	 * The members are in the order AbstractObservation.getObservedNodes returns them
+	 */
+	private int[] getObservation(GraphElement observationNode){
+		int[] observation = observationNodes.get(observationNode);
+		if(observation == null){
+			ArrayList<GraphElement> members = new ArrayList<GraphElement>();
+			if(!observationNode.tags().contains(AuditMon.START) && !observationNode.tags().contains(AuditMon.STOP)){
+				for(GraphElement member : Common.stepFrom(memberEdges, Common.toQ(Common.toGraph(observationNode))).eval().nodes()){
+					members.add(member);
+				}
+			}
+			observation = new int[members.size() + 1];
+			observation[0] = writer.getObservationId(observationNode.address().toAddressString());
+			for(int i=0; i<members.size(); i++){
+				observation[i+1] = getMemberId(members.get(i));
+			}
+			observationNodes.put(observationNode, observation);
+		}
+		return observation;
+	}
+	
+	private int getMemberId(GraphElement member){
+		Integer id = memberIds.get(member);
+		if(id == null){
+			int[] granuleIds = new int[ColumnarFormat.GRANULARITIES.length];
+			for(int level=0; level<granuleIds.length; level++){
+				Granularity granularity = ColumnarFormat.GRANULARITIES[level];
+				GraphElement granule = ObservationInvertedIndex.getGranule(member, granularity);
+				if(granule == null){
+					granuleIds[level] = -1;
+				} else {
+					// a granule is its own granule, so its display name is computed from the granule
+					String signature = NodeSignatures.getSignature(granule);
+					String name = writer.hasGranule(granularity, signature) ? null : AuditUtils.getNodeGranuleDisplayName(granule, granularity);
+					granuleIds[level] = writer.getGranuleId(granularity, signature, name);
+				}
+			}
+			id = writer.getMemberId(NodeSignatures.getSignature(member), getName(member), granuleIds);
+			memberIds.put(member, id);
+		}
+		return id;
+	}
+	
+	private static String getName(GraphElement node){
+		Object name = node.attr().get(Node.NAME);
+		return name == null ? "" : name.toString();
+	}
+
+}
@@ -0,0 +1,623 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+
+/**
+ * Reads a columnar session file (see ColumnarFormat) without an Atlas index
+ *
+ * The file is memory mapped and only the footer is parsed when it is opened. The
+ * column chunks of a session are decoded on demand into the primitive arrays of a
+ * ColumnarSession, uncompressed chunks are decoded straight from the mapped file.
+ * Files larger than 2GB can not be mapped as a single buffer and are not supported.
+ * Sessions may be read by several threads at once.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarSessionFile implements Closeable {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final File file;
+	private final RandomAccessFile input;
+	private final MappedByteBuffer buffer;
+	
+	// dictionaries
+	private final List<String> sessions;
+	private final List<String> observations;
+	private final List<String> strings;
+	private final List<String> memberSignatures;
+	private final List<String> memberNames;
+	private final int[][] memberGranules;
+	private final List<List<String>> granuleSignatures = new ArrayList<List<String>>();
+	private final List<List<String>> granuleNames = new ArrayList<List<String>>();
+	private final HashMap<String,Integer> sessionIds = new HashMap<String,Integer>();
+	private int[] memberFingerprints = null;
+	private long dictionaryFingerprint = -1;
+	
+	// row groups
+	private final int numRowGroups;
+	private final int[] rowGroupSessions;
+	private final int[] rowGroupRows;
+	private final long[][] chunkOffsets;
+	private final int[][] chunkLengths;
+	private final int[][] chunkUncompressedLengths;
+	private final byte[][] chunkCodecs;
+	
+	/**
+	 * Maps the file and reads its footer
+	 * @param file
+	 * @throws IOException if the file is not a columnar session file of a supported version
+	 */
+	public ColumnarSessionFile(File file) throws IOException {
+		this.file = file;
+		this.input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE){
+				throw new IOException("Columnar session file is too large to map: " + file);
+			}
+			if(size < 8 + ColumnarFormat.TRAILER_SIZE){
+				throw new IOException("Not a columnar session file: " + file);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if(buffer.getInt(0) != ColumnarFormat.MAGIC || buffer.getInt((int) size - 4) != ColumnarFormat.MAGIC){
+				throw new IOException("Not a columnar session file: " + file);
+			}
+			if(buffer.getInt(4) != ColumnarFormat.VERSION){
+				throw new IOException("Unsupported columnar session file version " + buffer.getInt(4) + ": " + file);
+			}
+			long footerPosition = buffer.getLong((int) size - ColumnarFormat.TRAILER_SIZE);
+			if(footerPosition < 8 || footerPosition > size - ColumnarFormat.TRAILER_SIZE){
+				throw new IOException("Corrupt columnar session file footer: " + file);
+			}
+			
+			ByteBuffer footer = buffer.duplicate();
+			footer.position((int) footerPosition);
+			footer.limit((int) size - ColumnarFormat.TRAILER_SIZE);
+			DataInputStream data = new DataInputStream(new BufferInputStream(footer));
+			
+			// the columns must be the ones this reader knows
+			int numColumns = readVarInt(footer);
+			if(numColumns != ColumnarFormat.COLUMNS.length){
+				throw new IOException("Unsupported columns in columnar session file: " + file);
+			}
+			for(int i=0; i<numColumns; i++){
+				String column = data.readUTF();
+				byte type = footer.get();
+				if(!column.equals(ColumnarFormat.COLUMNS[i]) || type != ColumnarFormat.COLUMN_TYPES[i]){
+					throw new IOException("Unsupported column " + column + " in columnar session file: " + file);
+				}
+			}
+			int numGranularities = readVarInt(footer);
+			if(numGranularities != ColumnarFormat.GRANULARITIES.length){
+				throw new IOException("Unsupported granularities in columnar session file: " + file);
+			}
+			for(int i=0; i<numGranularities; i++){
+				data.readUTF();
+			}
+			
+			sessions = readStrings(footer, data);
+			observations = readStrings(footer, data);
+			strings = readStrings(footer, data);
+			memberSignatures = readStrings(footer, data);
+			memberNames = readStrings(footer, data, memberSignatures.size());
+			memberGranules = new int[numGranularities][memberSignatures.size()];
+			for(int level=0; level<numGranularities; level++){
+				int[] granules = memberGranules[level];
+				for(int member=0; member<granules.length; member++){
+					granules[member] = readVarInt(footer) - 1;
+				}
+			}
+			for(int level=0; level<numGranularities; level++){
+				List<String> signatures = readStrings(footer, data);
+				granuleSignatures.add(signatures);
+				granuleNames.add(readStrings(footer, data, signatures.size()));
+			}
+			for(int i=0; i<sessions.size(); i++){
+				sessionIds.put(sessions.get(i), i);
+			}
+			
+			numRowGroups = readVarInt(footer);
+			rowGroupSessions = new int[numRowGroups];
+			rowGroupRows = new int[numRowGroups];
+			chunkOffsets = new long[numRowGroups][numColumns];
+			chunkLengths = new int[numRowGroups][numColumns];
+			chunkUncompressedLengths = new int[numRowGroups][numColumns];
+			chunkCodecs = new byte[numRowGroups][numColumns];
+			for(int group=0; group<numRowGroups; group++){
+				rowGroupSessions[group] = readVarInt(footer);
+				rowGroupRows[group] = readVarInt(footer);
+				// the time range of the group is not needed when whole sessions are read
+				readVarLong(footer);
+				readVarLong(footer);
+				for(int column=0; column<numColumns; column++){
+					chunkOffsets[group][column] = readVarLong(footer);
+					chunkLengths[group][column] = readVarInt(footer);
+					chunkUncompressedLengths[group][column] = readVarInt(footer);
+					chunkCodecs[group][column] = footer.get();
+					if(chunkOffsets[group][column] + chunkLengths[group][column] > footerPosition){
+						throw new IOException("Corrupt columnar session file row group: " + file);
+					}
+				}
+			}
+		} catch (IOException e){
+			input.close();
+			throw e;
+		} catch (RuntimeException e){
+			// a truncated footer runs past the end of the buffer
+			input.close();
+			throw new IOException("Corrupt columnar session file footer: " + file, e);
+		}
+	}
+	
+	/**
+	 * Returns true if the file starts with the columnar session file magic number
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isColumnarSessionFile(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			return input.readInt() == ColumnarFormat.MAGIC;
+		} catch (EOFException e){
+			return false;
+		} finally {
+			input.close();
+		}
+	}
+	
+	public File getFile(){
+		return file;
+	}
+	
+	/**
+	 * Returns the sessions in the file in the order they were written
+	 * @return
+	 */
+	public List<String> getSessions(){
+		return sessions;
+	}
+	
+	/**
+	 * Returns the number of visits of all sessions in the file
+	 * @return
+	 */
+	public long getRows(){
+		long rows = 0;
+		for(int group=0; group<numRowGroups; group++){
+			rows += rowGroupRows[group];
+		}
+		return rows;
+	}
+	
+	public int getNumObservations(){
+		return observations.size();
+	}
+	
+	/**
+	 * Returns the observation node identifier (the address of the node when it was exported) of an observation id
+	 * @param observation
+	 * @return
+	 */
+	public String getObservation(int observation){
+		return observations.get(observation);
+	}
+	
+	/**
+	 * Returns the origin or stop reason of an origin column value, null for none
+	 * @param origin
+	 * @return
+	 */
+	public String getOrigin(int origin){
+		return origin == 0 ? null : strings.get(origin - 1);
+	}
+	
+	public int getNumMembers(){
+		return memberSignatures.size();
+	}
+	
+	public String getMemberSignature(int member){
+		return memberSignatures.get(member);
+	}
+	
+	public String getMemberName(int member){
+		return memberNames.get(member);
+	}
+	
+	/**
+	 * Returns the number of granules at a granularity, every member is its own granule at PROGRAM_ARTIFACT
+	 * @param granularity
+	 * @return
+	 */
+	public int getNumGranules(Granularity granularity){
+		int level = ColumnarFormat.getGranularityIndex(granularity);
+		return level == -1 ? memberSignatures.size() : granuleSignatures.get(level).size();
+	}
+	
+	/**
+	 * Returns the granule id of each member at a granularity (-1 for members that are too coarse for it)
+	 * The returned array must not be modified
+	 * @param granularity
+	 * @return
+	 */
+	public int[] getMemberGranules(Granularity granularity){
+		int level = ColumnarFormat.getGranularityIndex(granularity);
+		if(level == -1){
+			int[] granules = new int[memberSignatures.size()];
+			for(int member=0; member<granules.length; member++){
+				granules[member] = member;
+			}
+			return granules;
+		}
+		return memberGranules[level];
+	}
+	
+	public String getGranuleSignature(Granularity granularity, int granule){
+		int level = ColumnarFormat.getGranularityIndex(granularity);
+		return level == -1 ? memberSignatures.get(granule) : granuleSignatures.get(level).get(granule);
+	}
+	
+	/**
+	 * Returns the display name of a granule (see AuditUtils.getNodeGranuleDisplayName)
+	 * @param granularity
+	 * @param granule
+	 * @return
+	 */
+	public String getGranuleName(Granularity granularity, int granule){
+		int level = ColumnarFormat.getGranularityIndex(granularity);
+		return level == -1 ? memberNames.get(granule) : granuleNames.get(level).get(granule);
+	}
+	
+	/**
+	 * Decodes the visits of a session
+	 * @param session
+	 * @return the visits in the order they were written or null if the session is not in the file
+	 * @throws IOException
+	 */
+	public ColumnarSession readSession(String session) throws IOException {
+		Integer sessionId = sessionIds.get(session);
+		if(sessionId == null){
+			return null;
+		}
+		int rows = 0;
+		int numMembers = 0;
+		for(int group=0; group<numRowGroups; group++){
+			if(rowGroupSessions[group] == sessionId){
+				rows += rowGroupRows[group];
+			}
+		}
+		long[] timestamps = new long[rows];
+		byte[] types = new byte[rows];
+		int[] observationIds = new int[rows];
+		int[] origins = new int[rows];
+		int[] memberOffsets = new int[rows + 1];
+		int[] memberIds = new int[16];
+		int row = 0;
+		for(int group=0; group<numRowGroups; group++){
+			if(rowGroupSessions[group] != sessionId){
+				continue;
+			}
+			int groupRows = rowGroupRows[group];
+			
+			ByteBuffer chunk = getChunk(group, ColumnarFormat.TIMESTAMP);
+			long timestamp = 0;
+			for(int i=row; i<row+groupRows; i++){
+				timestamp += ColumnarFormat.unzigzag(readVarLong(chunk));
+				timestamps[i] = timestamp;
+			}
+			chunk = getChunk(group, ColumnarFormat.TYPE);
+			chunk.get(types, row, groupRows);
+			chunk = getChunk(group, ColumnarFormat.OBSERVATION);
+			for(int i=row; i<row+groupRows; i++){
+				observationIds[i] = readVarInt(chunk);
+			}
+			chunk = getChunk(group, ColumnarFormat.ORIGIN);
+			for(int i=row; i<row+groupRows; i++){
+				origins[i] = readVarInt(chunk);
+			}
+			chunk = getChunk(group, ColumnarFormat.MEMBER_COUNT);
+			int groupMembers = 0;
+			for(int i=row; i<row+groupRows; i++){
+				groupMembers += readVarInt(chunk);
+				memberOffsets[i+1] = numMembers + groupMembers;
+			}
+			chunk = getChunk(group, ColumnarFormat.MEMBERS);
+			if(numMembers + groupMembers > memberIds.length){
+				memberIds = Arrays.copyOf(memberIds, Math.max(numMembers + groupMembers, memberIds.length * 2));
+			}
+			for(int i=numMembers; i<numMembers+groupMembers; i++){
+				memberIds[i] = readVarInt(chunk);
+			}
+			numMembers += groupMembers;
+			row += groupRows;
+		}
+		return new ColumnarSession(session, rows, timestamps, types, observationIds, origins, memberOffsets, Arrays.copyOf(memberIds, numMembers));
+	}
+	
+	/**
+	 * Returns a checksum of the visits of a session which changes whenever the visits change,
+	 * members, origins and granules are checksummed by value so the checksum does not depend
+	 * on the dictionary ids and can be compared across files
+	 * @param session
+	 * @return
+	 */
+	public long getFingerprint(ColumnarSession session){
+		int[] memberFingerprints = getMemberFingerprints();
+		long[] timestamps = session.getTimestamps();
+		byte[] types = session.getTypes();
+		int[] origins = session.getOrigins();
+		int[] memberOffsets = session.getMemberOffsets();
+		int[] members = session.getMembers();
+		CRC32 checksum = new CRC32();
+		ByteBuffer bytes = ByteBuffer.allocate(8192);
+		for(int row=0; row<session.getRows(); row++){
+			if(bytes.remaining() < 17){
+				checksum.update(bytes.array(), 0, bytes.position());
+				bytes.clear();
+			}
+			String origin = getOrigin(origins[row]);
+			bytes.putLong(timestamps[row]);
+			bytes.put(types[row]);
+			bytes.putInt(origin == null ? 0 : origin.hashCode());
+			bytes.putInt(memberOffsets[row+1] - memberOffsets[row]);
+			for(int i=memberOffsets[row]; i<memberOffsets[row+1]; i++){
+				if(bytes.remaining() < 4){
+					checksum.update(bytes.array(), 0, bytes.position());
+					bytes.clear();
+				}
+				bytes.putInt(memberFingerprints[members[i]]);
+			}
+		}
+		checksum.update(bytes.array(), 0, bytes.position());
+		return checksum.getValue();
+	}
+	
+	/**
+	 * Returns a checksum of the stored row groups of a session, computed from the footer and
+	 * the compressed column chunks without decoding any visits. Unlike getFingerprint it
+	 * depends on the dictionary ids, so it only matches the same session in a file with the
+	 * same dictionaries, such as the same file read again.
+	 * @param session
+	 * @return the checksum or -1 if the session is not in the file
+	 */
+	public long getLayoutFingerprint(String session){
+		Integer sessionId = sessionIds.get(session);
+		if(sessionId == null){
+			return -1;
+		}
+		CRC32 checksum = new CRC32();
+		byte[] bytes = new byte[8192];
+		update(checksum, getDictionaryFingerprint());
+		for(int group=0; group<numRowGroups; group++){
+			if(rowGroupSessions[group] != sessionId){
+				continue;
+			}
+			update(checksum, rowGroupRows[group]);
+			for(int column=0; column<chunkLengths[group].length; column++){
+				int offset = (int) chunkOffsets[group][column];
+				ByteBuffer chunk = buffer.duplicate();
+				chunk.position(offset);
+				chunk.limit(offset + chunkLengths[group][column]);
+				checksum.update(chunkCodecs[group][column]);
+				update(checksum, chunkUncompressedLengths[group][column]);
+				update(checksum, chunkLengths[group][column]);
+				update(checksum, chunk, bytes);
+			}
+		}
+		return checksum.getValue();
+	}
+	
+	/**
+	 * Returns a checksum of the member and string dictionaries
+	 */
+	private synchronized long getDictionaryFingerprint(){
+		if(dictionaryFingerprint == -1){
+			CRC32 checksum = new CRC32();
+			for(int fingerprint : getMemberFingerprints()){
+				update(checksum, fingerprint);
+			}
+			for(String string : strings){
+				update(checksum, string);
+			}
+			dictionaryFingerprint = checksum.getValue();
+		}
+		return dictionaryFingerprint;
+	}
+	
+	/**
+	 * Returns a checksum of the signature, name and granules of each member
+	 */
+	private synchronized int[] getMemberFingerprints(){
+		if(memberFingerprints == null){
+			int[] fingerprints = new int[memberSignatures.size()];
+			CRC32 checksum = new CRC32();
+			for(int member=0; member<fingerprints.length; member++){
+				checksum.reset();
+				update(checksum, memberSignatures.get(member));
+				update(checksum, memberNames.get(member));
+				for(int level=0; level<memberGranules.length; level++){
+					int granule = memberGranules[level][member];
+					update(checksum, granule == -1 ? "" : granuleSignatures.get(level).get(granule));
+					update(checksum, granule == -1 ? "" : granuleNames.get(level).get(granule));
+				}
+				fingerprints[member] = (int) checksum.getValue();
+			}
+			memberFingerprints = fingerprints;
+		}
+		return memberFingerprints;
+	}
+	
+	/**
+	 * Updates the checksum with the remaining bytes of the buffer, copying them through
+	 * the given bytes when the buffer has no backing array (CRC32 has no ByteBuffer
+	 * update before Java 8)
+	 */
+	private static void update(CRC32 checksum, ByteBuffer buffer, byte[] bytes){
+		if(buffer.hasArray()){
+			checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		while(buffer.hasRemaining()){
+			int length = Math.min(bytes.length, buffer.remaining());
+			buffer.get(bytes, 0, length);
+			checksum.update(bytes, 0, length);
+		}
+	}
+	
+	private static void update(CRC32 checksum, String value){
+		byte[] bytes = value.getBytes(UTF8);
+		update(checksum, bytes.length);
+		checksum.update(bytes, 0, bytes.length);
+	}
+	
+	private static void update(CRC32 checksum, long value){
+		for(int shift=56; shift>=0; shift-=8){
+			checksum.update((int) (value >>> shift));
+		}
+	}
+	
+	private static void update(CRC32 checksum, int value){
+		for(int shift=24; shift>=0; shift-=8){
+			checksum.update(value >>> shift);
+		}
+	}
+	
+	/**
+	 * Returns the uncompressed bytes of a column chunk, a view of the mapped file if the chunk is not compressed
+	 */
+	private ByteBuffer getChunk(int group, int column) throws IOException {
+		int offset = (int) chunkOffsets[group][column];
+		int length = chunkLengths[group][column];
+		int uncompressedLength = chunkUncompressedLengths[group][column];
+		ByteBuffer chunk = buffer.duplicate();
+		chunk.position(offset);
+		chunk.limit(offset + length);
+		if(chunkCodecs[group][column] == ColumnarFormat.CODEC_NONE){
+			return chunk;
+		} else if(chunkCodecs[group][column] == ColumnarFormat.CODEC_DEFLATE){
+			byte[] compressed = new byte[length];
+			chunk.get(compressed);
+			byte[] bytes = new byte[uncompressedLength];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compressed);
+				int inflated = 0;
+				while(inflated < bytes.length && !inflater.finished()){
+					int count = inflater.inflate(bytes, inflated, bytes.length - inflated);
+					if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+						break;
+					}
+					inflated += count;
+				}
+				if(inflated != bytes.length){
+					throw new IOException("Corrupt column chunk in columnar session file: " + file);
+				}
+			} catch (DataFormatException e){
+				throw new IOException("Corrupt column chunk in columnar session file: " + file, e);
+			} finally {
+				inflater.end();
+			}
+			return ByteBuffer.wrap(bytes);
+		} else {
+			throw new IOException("Unsupported codec " + chunkCodecs[group][column] + " in columnar session file: " + file);
+		}
+	}
+	
+	/**
+	 * Unmapping is left to the garbage collector, the mapped buffer stays valid after the file is closed
+	 */
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+	
+	private static List<String> readStrings(ByteBuffer footer, DataInputStream data) throws IOException {
+		return readStrings(footer, data, readVarInt(footer));
+	}
+	
+	private static List<String> readStrings(ByteBuffer footer, DataInputStream data, int size) throws IOException {
+		ArrayList<String> values = new ArrayList<String>(size);
+		for(int i=0; i<size; i++){
+			values.add(data.readUTF());
+		}
+		return Collections.unmodifiableList(values);
+	}
+	
+	private static int readVarInt(ByteBuffer in){
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return value;
+	}
+	
+	private static long readVarLong(ByteBuffer in){
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		return value;
+	}
+	
+	/**
+	 * Reads the footer strings with DataInput.readUTF from the same position as the varints
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		
+		BufferInputStream(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read(){
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length){
+			if(length == 0){
+				return 0;
+			}
+			if(!buffer.hasRemaining()){
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+
+}
@@ -0,0 +1,409 @@
+package com.ensoftcorp.open.auditmon.columnar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+
+/**
+ * Writes visits to a columnar session file (see ColumnarFormat)
+ *
+ * Visits are buffered as primitive columns and written as a row group when the group
+ * is full or the next visit belongs to another session. Dictionary ids are assigned
+ * by the writer, a caller looks each value up once and keeps the id. The dictionaries
+ * are written in the footer when the writer is closed. A writer that failed part way
+ * through is aborted instead, so no file with a valid footer and missing visits is left.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarSessionWriter implements Closeable {
+	
+	public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+	
+	private final File file;
+	private final OutputStream out;
+	private final int rowGroupSize;
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private long position = 0;
+	
+	// dictionaries
+	private final Dictionary sessions = new Dictionary();
+	private final Dictionary observations = new Dictionary();
+	private final Dictionary strings = new Dictionary();
+	private final Dictionary members = new Dictionary();
+	private final ArrayList<String> memberNames = new ArrayList<String>();
+	private int[][] memberGranules = new int[ColumnarFormat.GRANULARITIES.length][1024];
+	private final Dictionary[] granules = new Dictionary[ColumnarFormat.GRANULARITIES.length];
+	private final ArrayList<ArrayList<String>> granuleNames = new ArrayList<ArrayList<String>>();
+	
+	// the row group being buffered
+	private int session = -1;
+	private int rows = 0;
+	private long[] timestamps;
+	private byte[] types;
+	private int[] observationIds;
+	private int[] origins;
+	private int[] memberCounts;
+	private int[] memberIds = new int[1024];
+	private int numMemberIds = 0;
+	
+	// the footer entries of the written row groups
+	private final ByteArrayOutputStream rowGroups = new ByteArrayOutputStream();
+	private int numRowGroups = 0;
+	private long totalRows = 0;
+	
+	private static class Dictionary {
+		private final HashMap<String,Integer> ids = new HashMap<String,Integer>();
+		private final ArrayList<String> values = new ArrayList<String>();
+		
+		int getId(String value){
+			Integer id = ids.get(value);
+			if(id == null){
+				id = values.size();
+				ids.put(value, id);
+				values.add(value);
+			}
+			return id;
+		}
+		
+		boolean contains(String value){
+			return ids.containsKey(value);
+		}
+		
+		int size(){
+			return values.size();
+		}
+	}
+	
+	public ColumnarSessionWriter(File file) throws IOException {
+		this(file, DEFAULT_ROW_GROUP_SIZE);
+	}
+	
+	public ColumnarSessionWriter(File file, int rowGroupSize) throws IOException {
+		if(file.getParentFile() != null){
+			file.getParentFile().mkdirs();
+		}
+		this.file = file;
+		this.rowGroupSize = Math.max(1, rowGroupSize);
+		this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		this.timestamps = new long[Math.min(this.rowGroupSize, 4096)];
+		this.types = new byte[timestamps.length];
+		this.observationIds = new int[timestamps.length];
+		this.origins = new int[timestamps.length];
+		this.memberCounts = new int[timestamps.length];
+		for(int i=0; i<granules.length; i++){
+			granules[i] = new Dictionary();
+			granuleNames.add(new ArrayList<String>());
+		}
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(header);
+		data.writeInt(ColumnarFormat.MAGIC);
+		data.writeInt(ColumnarFormat.VERSION);
+		write(header.toByteArray());
+	}
+	
+	/**
+	 * Returns the id of a session
+	 * @param session
+	 * @return
+	 */
+	public int getSessionId(String session){
+		return sessions.getId(session);
+	}
+	
+	/**
+	 * Returns the id of an observation node
+	 * @param observation the address (or any other identifier) of the observation node
+	 * @return
+	 */
+	public int getObservationId(String observation){
+		return observations.getId(observation);
+	}
+	
+	/**
+	 * Returns the id of a granule
+	 * @param granularity any granularity but PROGRAM_ARTIFACT
+	 * @param signature
+	 * @param name
+	 * @return
+	 */
+	public int getGranuleId(Granularity granularity, String signature, String name){
+		int level = ColumnarFormat.getGranularityIndex(granularity);
+		boolean added = !granules[level].contains(signature);
+		int id = granules[level].getId(signature);
+		if(added){
+			granuleNames.get(level).add(name);
+		}
+		return id;
+	}
+	
+	/**
+	 * Returns true if the granule was already given an id
+	 * @param granularity
+	 * @param signature
+	 * @return
+	 */
+	public boolean hasGranule(Granularity granularity, String signature){
+		return granules[ColumnarFormat.getGranularityIndex(granularity)].contains(signature);
+	}
+	
+	/**
+	 * Returns true if the member was already given an id
+	 * @param signature
+	 * @return
+	 */
+	public boolean hasMember(String signature){
+		return members.contains(signature);
+	}
+	
+	/**
+	 * Returns the id of a member, the name and granules are only recorded the first time
+	 * @param signature
+	 * @param name
+	 * @param granuleIds the granule id for each of ColumnarFormat.GRANULARITIES or -1 if there is none
+	 * @return
+	 */
+	public int getMemberId(String signature, String name, int[] granuleIds){
+		boolean added = !members.contains(signature);
+		int id = members.getId(signature);
+		if(added){
+			memberNames.add(name);
+			if(id >= memberGranules[0].length){
+				for(int level=0; level<memberGranules.length; level++){
+					int length = memberGranules[level].length;
+					memberGranules[level] = Arrays.copyOf(memberGranules[level], length * 2);
+				}
+			}
+			for(int level=0; level<memberGranules.length; level++){
+				memberGranules[level][id] = granuleIds[level];
+			}
+		}
+		return id;
+	}
+	
+	/**
+	 * Appends a start visit of a session
+	 * @param session
+	 * @param timestamp
+	 * @param observation the id of the start node
+	 * @throws IOException
+	 */
+	public void start(int session, long timestamp, int observation) throws IOException {
+		add(session, timestamp, ColumnarFormat.TYPE_START, observation, 0, null, 0, 0);
+	}
+	
+	/**
+	 * Appends a stop visit of a session
+	 * @param session
+	 * @param timestamp
+	 * @param observation the id of the stop node
+	 * @param reason
+	 * @throws IOException
+	 */
+	public void stop(int session, long timestamp, int observation, String reason) throws IOException {
+		add(session, timestamp, ColumnarFormat.TYPE_STOP, observation, reason == null ? 0 : strings.getId(reason) + 1, null, 0, 0);
+	}
+	
+	/**
+	 * Appends an observation visit of a session
+	 * @param session
+	 * @param timestamp
+	 * @param observation
+	 * @param origin
+	 * @param members holds the member ids of the observation node
+	 * @param offset the index of the first member id in members
+	 * @param numMembers the number of member ids
+	 * @throws IOException
+	 */
+	public void observation(int session, long timestamp, int observation, String origin, int[] members, int offset, int numMembers) throws IOException {
+		add(session, timestamp, ColumnarFormat.TYPE_OBSERVATION, observation, origin == null ? 0 : strings.getId(origin) + 1, members, offset, numMembers);
+	}
+	
+	private void add(int session, long timestamp, byte type, int observation, int origin, int[] members, int offset, int numMembers) throws IOException {
+		if(rows > 0 && (session != this.session || rows == rowGroupSize)){
+			flush();
+		}
+		this.session = session;
+		if(rows == timestamps.length){
+			int capacity = Math.min(rowGroupSize, rows * 2);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			types = Arrays.copyOf(types, capacity);
+			observationIds = Arrays.copyOf(observationIds, capacity);
+			origins = Arrays.copyOf(origins, capacity);
+			memberCounts = Arrays.copyOf(memberCounts, capacity);
+		}
+		timestamps[rows] = timestamp;
+		types[rows] = type;
+		observationIds[rows] = observation;
+		origins[rows] = origin;
+		memberCounts[rows] = numMembers;
+		if(numMembers > 0){
+			if(numMemberIds + numMembers > memberIds.length){
+				memberIds = Arrays.copyOf(memberIds, Math.max(numMemberIds + numMembers, memberIds.length * 2));
+			}
+			System.arraycopy(members, offset, memberIds, numMemberIds, numMembers);
+			numMemberIds += numMembers;
+		}
+		rows++;
+	}
+	
+	/**
+	 * Returns the number of visits written so far
+	 * @return
+	 */
+	public long getRows(){
+		return totalRows + rows;
+	}
+	
+	/**
+	 * Writes the buffered visits as a row group
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		if(rows == 0){
+			return;
+		}
+		ByteArrayOutputStream[] columns = new ByteArrayOutputStream[ColumnarFormat.COLUMNS.length];
+		for(int i=0; i<columns.length; i++){
+			columns[i] = new ByteArrayOutputStream(rows * (i == ColumnarFormat.TIMESTAMP ? 3 : 1) + 16);
+		}
+		long previous = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for(int row=0; row<rows; row++){
+			min = Math.min(min, timestamps[row]);
+			max = Math.max(max, timestamps[row]);
+			ColumnarFormat.writeVarLong(columns[ColumnarFormat.TIMESTAMP], ColumnarFormat.zigzag(timestamps[row] - previous));
+			previous = timestamps[row];
+			columns[ColumnarFormat.TYPE].write(types[row]);
+			ColumnarFormat.writeVarInt(columns[ColumnarFormat.OBSERVATION], observationIds[row]);
+			ColumnarFormat.writeVarInt(columns[ColumnarFormat.ORIGIN], origins[row]);
+			ColumnarFormat.writeVarInt(columns[ColumnarFormat.MEMBER_COUNT], memberCounts[row]);
+		}
+		for(int i=0; i<numMemberIds; i++){
+			ColumnarFormat.writeVarInt(columns[ColumnarFormat.MEMBERS], memberIds[i]);
+		}
+		
+		ColumnarFormat.writeVarInt(rowGroups, session);
+		ColumnarFormat.writeVarInt(rowGroups, rows);
+		ColumnarFormat.writeVarLong(rowGroups, ColumnarFormat.zigzag(min));
+		ColumnarFormat.writeVarLong(rowGroups, ColumnarFormat.zigzag(max));
+		for(ByteArrayOutputStream column : columns){
+			byte[] bytes = column.toByteArray();
+			byte[] compressed = deflate(bytes);
+			byte codec = compressed.length < bytes.length ? ColumnarFormat.CODEC_DEFLATE : ColumnarFormat.CODEC_NONE;
+			byte[] chunk = codec == ColumnarFormat.CODEC_DEFLATE ? compressed : bytes;
+			ColumnarFormat.writeVarLong(rowGroups, position);
+			ColumnarFormat.writeVarInt(rowGroups, chunk.length);
+			ColumnarFormat.writeVarInt(rowGroups, bytes.length);
+			rowGroups.write(codec);
+			write(chunk);
+		}
+		numRowGroups++;
+		totalRows += rows;
+		rows = 0;
+		numMemberIds = 0;
+	}
+	
+	private byte[] deflate(byte[] bytes){
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length / 2 + 16);
+		byte[] buffer = new byte[8192];
+		while(!deflater.finished()){
+			int length = deflater.deflate(buffer);
+			result.write(buffer, 0, length);
+		}
+		return result.toByteArray();
+	}
+	
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		position += bytes.length;
+	}
+	
+	/**
+	 * Writes the last row group and the footer and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			long footerPosition = position;
+			ByteArrayOutputStream footer = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(footer);
+			
+			ColumnarFormat.writeVarInt(footer, ColumnarFormat.COLUMNS.length);
+			for(int i=0; i<ColumnarFormat.COLUMNS.length; i++){
+				data.writeUTF(ColumnarFormat.COLUMNS[i]);
+				footer.write(ColumnarFormat.COLUMN_TYPES[i]);
+			}
+			ColumnarFormat.writeVarInt(footer, ColumnarFormat.GRANULARITIES.length);
+			for(Granularity granularity : ColumnarFormat.GRANULARITIES){
+				data.writeUTF(granularity.name());
+			}
+			
+			writeStrings(footer, data, sessions.values);
+			writeStrings(footer, data, observations.values);
+			writeStrings(footer, data, strings.values);
+			writeStrings(footer, data, members.values);
+			for(String name : memberNames){
+				data.writeUTF(name);
+			}
+			for(int level=0; level<memberGranules.length; level++){
+				for(int member=0; member<members.size(); member++){
+					// granule ids are offset by one so no granule is 0
+					ColumnarFormat.writeVarInt(footer, memberGranules[level][member] + 1);
+				}
+			}
+			for(int level=0; level<granules.length; level++){
+				writeStrings(footer, data, granules[level].values);
+				for(String name : granuleNames.get(level)){
+					data.writeUTF(name);
+				}
+			}
+			
+			ColumnarFormat.writeVarInt(footer, numRowGroups);
+			rowGroups.writeTo(footer);
+			
+			data.writeLong(footerPosition);
+			data.writeInt(ColumnarFormat.MAGIC);
+			write(footer.toByteArray());
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+	
+	/**
+	 * Closes the file without writing the last row group or the footer and deletes it
+	 */
+	public void abort(){
+		deflater.end();
+		try {
+			out.close();
+		} catch (IOException e){
+			// the file is deleted anyway
+		}
+		file.delete();
+	}
+	
+	private static void writeStrings(ByteArrayOutputStream footer, DataOutputStream data, ArrayList<String> values) throws IOException {
+		ColumnarFormat.writeVarInt(footer, values.size());
+		for(String value : values){
+			data.writeUTF(value);
+		}
+	}
+
+}
@@ -13,6 +13,7 @@ import org.apache.commons.lang3.mutable.MutableDouble;
 
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.open.auditmon.AuditConstants;
 import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
 import com.ensoftcorp.open.auditmon.AuditUtils;
 import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
@@ -26,9 +27,9 @@ import com.ensoftcorp.open.auditmon.AuditUtils.ObservationType;
 public class DOIModel {
 
 	// The default DOI model parameters
-	public static final double DEAFULT_DECAY_RATE = 0.1;
-	public static final double DEAFULT_INTEREST_INCREASE = 1.0;
-	public static final double DEAFULT_INTEREST_THRESHOLD = -10.0;
+	public static final double DEAFULT_DECAY_RATE = AuditConstants.DEFAULT_DOI_DECAY_RATE;
+	public static final double DEAFULT_INTEREST_INCREASE = AuditConstants.DEFAULT_DOI_INTEREST_INCREASE;
+	public static final double DEAFULT_INTEREST_THRESHOLD = AuditConstants.DEFAULT_DOI_INTEREST_THRESHOLD;
 	
 	/**
 	 * Returns the DOI table for the session and granularity using the default model parameters
@@ -0,0 +1,321 @@
+package com.ensoftcorp.open.auditmon.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
+import com.ensoftcorp.open.auditmon.charts.AuditChartExporter;
+import com.ensoftcorp.open.auditmon.charts.AuditChartExporter.ExportFormat;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarJournalImporter;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarSession;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarSessionFile;
+import com.ensoftcorp.open.auditmon.headless.SessionReport.Analysis;
+import com.ensoftcorp.open.auditmon.merge.BinaryJournalReader;
+
+/**
+ * Runs the AuditMon session analyses without Eclipse, Atlas or a display
+ *
+ * The input is a columnar session file (see ColumnarSessionExporter, the way to save the
+ * sessions of an index for offline use) or a text or binary journal. The reports of each
+ * session (see SessionReport) are written to a sub directory of the output directory per
+ * session, sessions are analyzed in parallel. A warm start cache in the output directory
+ * (see RunCache) skips the sessions that have not changed since the last run with the
+ * same options.
+ *
+ * java ... HeadlessRunner <input> <output directory> [key=value ...]
+ *   keys are analyses (a comma separated list of statistics, allocations, observations,
+ *   doi, heatmap and charts, all by default), granularity (PARENT_CLASS by default),
+ *   timeunit (MINUTES by default), formats (chart formats png, svg and csv, png by default),
+ *   sessions (a comma separated list, all by default), threads and cache (true or false)
+ *
+ * @author Ben Holland
+ */
+public class HeadlessRunner {
+	
+	// the columnar session file a journal input is converted to, inside the output directory
+	public static final String JOURNAL_IMPORT_FILE_NAME = ".auditmon-journal.amc";
+	
+	private Set<Analysis> analyses = EnumSet.allOf(Analysis.class);
+	private Granularity granularity = Granularity.PARENT_CLASS;
+	private TimeUnit timeUnit = TimeUnit.MINUTES;
+	private ExportFormat[] formats = { ExportFormat.PNG };
+	private List<String> sessions = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean cache = true;
+	
+	/**
+	 * The outcome of a run
+	 */
+	public static class Result {
+		private final ArrayList<String> writtenSessions = new ArrayList<String>();
+		private final ArrayList<String> skippedSessions = new ArrayList<String>();
+		private final LinkedHashMap<String,Throwable> failures = new LinkedHashMap<String,Throwable>();
+		private final ArrayList<File> files = new ArrayList<File>();
+		
+		/**
+		 * Returns the sessions whose reports were written
+		 * @return
+		 */
+		public List<String> getWrittenSessions(){
+			return Collections.unmodifiableList(writtenSessions);
+		}
+		
+		/**
+		 * Returns the sessions that were skipped because they did not change since the last run
+		 * @return
+		 */
+		public List<String> getSkippedSessions(){
+			return Collections.unmodifiableList(skippedSessions);
+		}
+		
+		public List<String> getFailedSessions(){
+			return Collections.unmodifiableList(new ArrayList<String>(failures.keySet()));
+		}
+		
+		/**
+		 * Returns what went wrong analyzing each failed session
+		 * @return
+		 */
+		public Map<String,Throwable> getFailures(){
+			return Collections.unmodifiableMap(failures);
+		}
+		
+		public List<File> getFiles(){
+			return Collections.unmodifiableList(files);
+		}
+		
+		@Override
+		public String toString(){
+			return "Result [written=" + writtenSessions.size() + ", skipped=" + skippedSessions.size()
+					+ ", failed=" + failures.size() + ", files=" + files.size() + "]";
+		}
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2){
+			System.err.println("Usage: HeadlessRunner <input> <output directory> [key=value ...]");
+			System.exit(1);
+		}
+		HashMap<String,String> options = new HashMap<String,String>();
+		for(int i=2; i<args.length; i++){
+			int separator = args[i].indexOf('=');
+			if(separator < 0){
+				System.err.println("Expected key=value but found " + args[i]);
+				System.exit(1);
+			}
+			options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+		}
+		
+		HeadlessRunner runner = new HeadlessRunner();
+		try {
+			if(options.containsKey("analyses")){
+				EnumSet<Analysis> analyses = EnumSet.noneOf(Analysis.class);
+				for(String analysis : split(options.get("analyses"))){
+					analyses.add(Analysis.valueOf(analysis.toUpperCase()));
+				}
+				runner.setAnalyses(analyses);
+			}
+			if(options.containsKey("granularity")){
+				runner.setGranularity(Granularity.valueOf(options.get("granularity").toUpperCase()));
+			}
+			if(options.containsKey("timeunit")){
+				runner.setTimeUnit(TimeUnit.valueOf(options.get("timeunit").toUpperCase()));
+			}
+			if(options.containsKey("formats")){
+				List<ExportFormat> formats = new ArrayList<ExportFormat>();
+				for(String format : split(options.get("formats"))){
+					formats.add(ExportFormat.valueOf(format.toUpperCase()));
+				}
+				runner.setFormats(formats.toArray(new ExportFormat[formats.size()]));
+			}
+		} catch (IllegalArgumentException e){
+			System.err.println("Unknown option value: " + e.getMessage());
+			System.exit(1);
+		}
+		if(options.containsKey("sessions")){
+			runner.setSessions(split(options.get("sessions")));
+		}
+		if(options.containsKey("threads")){
+			runner.setThreads(Integer.parseInt(options.get("threads")));
+		}
+		if(options.containsKey("cache")){
+			runner.setCache(Boolean.parseBoolean(options.get("cache")));
+		}
+		
+		long start = System.currentTimeMillis();
+		Result result = runner.run(new File(args[0]), new File(args[1]));
+		System.out.println("Wrote " + result.getFiles().size() + " files for " + result.getWrittenSessions().size() + " sessions, skipped "
+				+ result.getSkippedSessions().size() + " unchanged sessions in " + (System.currentTimeMillis() - start) + "ms");
+		if(!result.getFailures().isEmpty()){
+			for(Entry<String,Throwable> failure : result.getFailures().entrySet()){
+				System.err.println("An error has occured analyzing session " + failure.getKey() + ":");
+				failure.getValue().printStackTrace();
+			}
+			System.err.println("Failed sessions: " + result.getFailedSessions());
+			System.exit(2);
+		}
+	}
+	
+	public void setAnalyses(Set<Analysis> analyses){
+		this.analyses = EnumSet.copyOf(analyses);
+	}
+	
+	public void setGranularity(Granularity granularity){
+		this.granularity = granularity;
+	}
+	
+	public void setTimeUnit(TimeUnit timeUnit){
+		this.timeUnit = timeUnit;
+	}
+	
+	/**
+	 * Sets the formats charts are written in
+	 * @param formats
+	 */
+	public void setFormats(ExportFormat... formats){
+		this.formats = formats.clone();
+	}
+	
+	/**
+	 * Restricts the run to the given sessions, null for every session of the input
+	 * @param sessions
+	 */
+	public void setSessions(List<String> sessions){
+		this.sessions = sessions == null ? null : new ArrayList<String>(sessions);
+	}
+	
+	public void setThreads(int threads){
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Enables the warm start cache (the default), when disabled every session is analyzed
+	 * @param cache
+	 */
+	public void setCache(boolean cache){
+		this.cache = cache;
+	}
+	
+	/**
+	 * Writes the reports of the sessions of a columnar session file or journal to the output directory
+	 * @param input
+	 * @param outputDirectory
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Result run(File input, final File outputDirectory) throws IOException, InterruptedException {
+		outputDirectory.mkdirs();
+		if(analyses.contains(Analysis.CHARTS)){
+			// charts are rendered to images, never to a screen
+			System.setProperty("java.awt.headless", "true");
+		}
+		
+		final RunCache runCache = RunCache.load(outputDirectory, getOptions());
+		File columnarFile = input;
+		if(!ColumnarSessionFile.isColumnarSessionFile(input)){
+			// a journal is imported once and the import is reused until the journal changes
+			columnarFile = new File(outputDirectory, JOURNAL_IMPORT_FILE_NAME);
+			if(!cache || !columnarFile.exists() || !runCache.isImported(input)){
+				ColumnarJournalImporter.importJournal(BinaryJournalReader.open(input), columnarFile);
+				runCache.setImported(input);
+			}
+		}
+		
+		final Result result = new Result();
+		final ColumnarSessionFile file = new ColumnarSessionFile(columnarFile);
+		try {
+			final SessionReport report = new SessionReport(file, granularity, timeUnit, analyses, formats);
+			List<String> sessions = new ArrayList<String>(file.getSessions());
+			if(this.sessions != null){
+				sessions.retainAll(this.sessions);
+			}
+			
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sessions.size())));
+			try {
+				List<Future<List<File>>> results = new LinkedList<Future<List<File>>>();
+				for(final String session : sessions){
+					results.add(executor.submit(new Callable<List<File>>(){
+						@Override
+						public List<File> call() throws Exception {
+							// the layout is checked from the footer, the session is only decoded if it differs
+							long layoutFingerprint = file.getLayoutFingerprint(session);
+							if(cache && runCache.isLayoutCurrent(session, layoutFingerprint)){
+								return null;
+							}
+							ColumnarSession columns = file.readSession(session);
+							long fingerprint = file.getFingerprint(columns);
+							if(cache && runCache.isCurrent(session, fingerprint)){
+								runCache.update(session, fingerprint, layoutFingerprint);
+								return null;
+							}
+							List<File> files = report.write(columns, new File(outputDirectory, AuditChartExporter.toFileName(session)));
+							runCache.update(session, fingerprint, layoutFingerprint);
+							return files;
+						}
+					}));
+				}
+				for(int i=0; i<sessions.size(); i++){
+					String session = sessions.get(i);
+					try {
+						List<File> files = results.get(i).get();
+						if(files == null){
+							result.skippedSessions.add(session);
+						} else {
+							result.writtenSessions.add(session);
+							result.files.addAll(files);
+						}
+					} catch (ExecutionException e){
+						result.failures.put(session, e.getCause());
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			
+			// only a full run knows which sessions are gone from the input
+			if(this.sessions == null){
+				runCache.retain(sessions);
+			}
+			runCache.save();
+		} finally {
+			file.close();
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns everything besides the visits that the reports depend on
+	 */
+	private String getOptions(){
+		return "analyses=" + analyses + ",granularity=" + granularity + ",timeunit=" + timeUnit + ",formats=" + Arrays.toString(formats);
+	}
+	
+	private static List<String> split(String values){
+		List<String> result = new ArrayList<String>();
+		for(String value : values.split(",")){
+			if(!value.trim().isEmpty()){
+				result.add(value.trim());
+			}
+		}
+		return result;
+	}
+
+}
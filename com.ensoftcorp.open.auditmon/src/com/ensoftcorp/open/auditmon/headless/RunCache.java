@@ -0,0 +1,162 @@
+package com.ensoftcorp.open.auditmon.headless;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+
+/**
+ * The warm start cache of a HeadlessRunner output directory
+ *
+ * Remembers the fingerprints of each session whose reports were written and the options
+ * they were written with. A later run with the same options skips the sessions whose
+ * fingerprint is unchanged. Each session has a layout fingerprint, which is checked
+ * without decoding the session (see ColumnarSessionFile.getLayoutFingerprint), and a
+ * fingerprint of its visits, which still matches when the session is unchanged but the
+ * file was written again with other dictionaries. A session is only recorded once its
+ * reports are complete, so a failed or interrupted run redoes it next time.
+ *
+ * The cache also remembers the journal that was last imported into the output directory,
+ * so an unchanged journal is not imported again.
+ *
+ * @author Ben Holland
+ */
+public class RunCache {
+	
+	public static final String FILE_NAME = ".auditmon-cache.properties";
+	
+	private static final String OPTIONS = "options";
+	private static final String SESSION_PREFIX = "session.";
+	private static final String LAYOUT_PREFIX = "layout.";
+	private static final String IMPORTED_JOURNAL = "imported_journal";
+	
+	private final File file;
+	private final Properties properties = new Properties();
+	
+	private RunCache(File file){
+		this.file = file;
+	}
+	
+	/**
+	 * Loads the cache of an output directory, the cache is empty if the options differ from the last run
+	 * @param outputDirectory
+	 * @param options a description of everything besides the visits that the reports depend on
+	 * @return
+	 * @throws IOException
+	 */
+	public static RunCache load(File outputDirectory, String options) throws IOException {
+		RunCache cache = new RunCache(new File(outputDirectory, FILE_NAME));
+		if(cache.file.exists()){
+			InputStream input = new FileInputStream(cache.file);
+			try {
+				cache.properties.load(input);
+			} finally {
+				input.close();
+			}
+			if(!options.equals(cache.properties.getProperty(OPTIONS))){
+				// the imported journal does not depend on the options
+				String importedJournal = cache.properties.getProperty(IMPORTED_JOURNAL);
+				cache.properties.clear();
+				if(importedJournal != null){
+					cache.properties.setProperty(IMPORTED_JOURNAL, importedJournal);
+				}
+			}
+		}
+		cache.properties.setProperty(OPTIONS, options);
+		return cache;
+	}
+	
+	/**
+	 * Returns true if the reports of the session were written for the given fingerprint
+	 * @param session
+	 * @param fingerprint
+	 * @return
+	 */
+	public synchronized boolean isCurrent(String session, long fingerprint){
+		return Long.toString(fingerprint).equals(properties.getProperty(SESSION_PREFIX + session));
+	}
+	
+	/**
+	 * Returns true if the reports of the session were written for the given layout fingerprint
+	 * @param session
+	 * @param layoutFingerprint
+	 * @return
+	 */
+	public synchronized boolean isLayoutCurrent(String session, long layoutFingerprint){
+		return Long.toString(layoutFingerprint).equals(properties.getProperty(LAYOUT_PREFIX + session));
+	}
+	
+	/**
+	 * Records that the reports of the session were written for the given fingerprints
+	 * @param session
+	 * @param fingerprint
+	 * @param layoutFingerprint
+	 */
+	public synchronized void update(String session, long fingerprint, long layoutFingerprint){
+		properties.setProperty(SESSION_PREFIX + session, Long.toString(fingerprint));
+		properties.setProperty(LAYOUT_PREFIX + session, Long.toString(layoutFingerprint));
+	}
+	
+	/**
+	 * Returns true if the given journal was the last journal imported into the output directory
+	 * and has not been modified since
+	 * @param journal
+	 * @return
+	 */
+	public synchronized boolean isImported(File journal){
+		return getJournalKey(journal).equals(properties.getProperty(IMPORTED_JOURNAL));
+	}
+	
+	/**
+	 * Records that the given journal was imported into the output directory
+	 * @param journal
+	 */
+	public synchronized void setImported(File journal){
+		properties.setProperty(IMPORTED_JOURNAL, getJournalKey(journal));
+	}
+	
+	private static String getJournalKey(File journal){
+		return journal.getAbsolutePath() + "," + journal.length() + "," + journal.lastModified();
+	}
+	
+	/**
+	 * Forgets the sessions that are not in the given sessions
+	 * @param sessions
+	 */
+	public synchronized void retain(Collection<String> sessions){
+		HashSet<String> keep = new HashSet<String>(sessions);
+		for(String key : properties.stringPropertyNames()){
+			if(key.startsWith(SESSION_PREFIX) && !keep.contains(key.substring(SESSION_PREFIX.length()))){
+				properties.remove(key);
+			} else if(key.startsWith(LAYOUT_PREFIX) && !keep.contains(key.substring(LAYOUT_PREFIX.length()))){
+				properties.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the cache, replacing the previous cache only once it is completely written
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		OutputStream output = new FileOutputStream(temp);
+		try {
+			properties.store(output, "AuditMon headless runner cache");
+		} finally {
+			output.close();
+		}
+		if(file.exists() && !file.delete()){
+			throw new IOException("Could not replace " + file);
+		}
+		if(!temp.renameTo(file)){
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package com.ensoftcorp.open.auditmon.headless;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PiePlot;
+import org.jfree.data.general.DefaultPieDataset;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
+
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
+import com.ensoftcorp.open.auditmon.AuditConstants.TimeUnit;
+import com.ensoftcorp.open.auditmon.charts.AuditChartExporter;
+import com.ensoftcorp.open.auditmon.charts.AuditChartExporter.ExportFormat;
+import com.ensoftcorp.open.auditmon.charts.LevelOfDetailTimeSeries;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarAnalysis;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarSession;
+import com.ensoftcorp.open.auditmon.columnar.ColumnarSessionFile;
+
+/**
+ * Writes the reports of one session of a columnar session file to a directory
+ *
+ * statistics.csv        the audit statistics (times in milliseconds)
+ * time-allocations.csv  the time spent per granule
+ * observations.csv      the total, unique and repeat observations per time unit
+ * doi.csv               the degree of interest model, most interesting granule first
+ * heat-map.csv          the time spent per program artifact
+ * charts                the time allocation and observation charts, rendered without a display
+ *
+ * @author Ben Holland
+ */
+public class SessionReport {
+	
+	public enum Analysis {
+		STATISTICS, ALLOCATIONS, OBSERVATIONS, DOI, HEATMAP, CHARTS;
+	}
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final ColumnarSessionFile file;
+	private final Granularity granularity;
+	private final TimeUnit timeUnit;
+	private final Set<Analysis> analyses;
+	private final ExportFormat[] formats;
+	
+	public SessionReport(ColumnarSessionFile file, Granularity granularity, TimeUnit timeUnit, Set<Analysis> analyses, ExportFormat... formats){
+		this.file = file;
+		this.granularity = granularity;
+		this.timeUnit = timeUnit;
+		this.analyses = analyses;
+		this.formats = formats;
+	}
+	
+	/**
+	 * Writes the reports of the session, returns the files that were written
+	 * @param session
+	 * @param outputDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	public List<File> write(ColumnarSession session, File outputDirectory) throws IOException {
+		outputDirectory.mkdirs();
+		List<File> files = new LinkedList<File>();
+		
+		if(analyses.contains(Analysis.STATISTICS)){
+			HashMap<String,Object> stats = ColumnarAnalysis.getAuditStatistics(session);
+			File output = new File(outputDirectory, "statistics.csv");
+			Writer writer = open(output, "statistic,value");
+			try {
+				for(Entry<String,Object> stat : new TreeMap<String,Object>(stats).entrySet()){
+					Object value = stat.getValue() instanceof Date ? ((Date) stat.getValue()).getTime() : stat.getValue();
+					writer.write(toCSVField(stat.getKey()) + "," + (value == null ? "" : value) + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			files.add(output);
+		}
+		
+		long[] allocations = null;
+		if(analyses.contains(Analysis.ALLOCATIONS) || analyses.contains(Analysis.CHARTS)){
+			allocations = ColumnarAnalysis.getTimeAllocations(file, session, granularity);
+		}
+		if(analyses.contains(Analysis.ALLOCATIONS)){
+			File output = new File(outputDirectory, "time-allocations.csv");
+			Writer writer = open(output, "signature,name,milliseconds");
+			try {
+				for(int granule : sortDescending(allocations)){
+					writer.write(toCSVField(file.getGranuleSignature(granularity, granule)) + ","
+							+ toCSVField(file.getGranuleName(granularity, granule)) + "," + allocations[granule] + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			files.add(output);
+		}
+		
+		TreeMap<Long,int[]> counts = null;
+		if(analyses.contains(Analysis.OBSERVATIONS) || analyses.contains(Analysis.CHARTS)){
+			counts = ColumnarAnalysis.getObservationCounts(file, session, granularity, timeUnit);
+		}
+		if(analyses.contains(Analysis.OBSERVATIONS)){
+			File output = new File(outputDirectory, "observations.csv");
+			Writer writer = open(output, "time,total,unique,repeat");
+			try {
+				for(Entry<Long,int[]> count : counts.entrySet()){
+					int[] value = count.getValue();
+					writer.write(count.getKey() + "," + value[0] + "," + value[1] + "," + (value[0] - value[1]) + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			files.add(output);
+		}
+		
+		if(analyses.contains(Analysis.DOI)){
+			final double[] doi = ColumnarAnalysis.getDOIModel(file, session, granularity);
+			File output = new File(outputDirectory, "doi.csv");
+			Writer writer = open(output, "signature,name,doi");
+			try {
+				for(int granule : sortDescending(doi)){
+					writer.write(toCSVField(file.getGranuleSignature(granularity, granule)) + ","
+							+ toCSVField(file.getGranuleName(granularity, granule)) + "," + doi[granule] + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			files.add(output);
+		}
+		
+		if(analyses.contains(Analysis.HEATMAP)){
+			long[] timeSpent = ColumnarAnalysis.getTimeSpent(file, session);
+			File output = new File(outputDirectory, "heat-map.csv");
+			Writer writer = open(output, "signature,name,milliseconds");
+			try {
+				for(int member : sortDescending(timeSpent)){
+					writer.write(toCSVField(file.getMemberSignature(member)) + ","
+							+ toCSVField(file.getMemberName(member)) + "," + timeSpent[member] + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			files.add(output);
+		}
+		
+		if(analyses.contains(Analysis.CHARTS)){
+			files.addAll(writeChart(getTimeAllocationsChart(allocations), outputDirectory));
+			files.addAll(writeChart(getObservationsChart(counts), outputDirectory));
+		}
+		return files;
+	}
+	
+	/**
+	 * Returns the time allocations as a pie chart like ObservedTimeAllocationsChart
+	 */
+	private JFreeChart getTimeAllocationsChart(long[] allocations){
+		String title;
+		double divisor = 1000.0;
+		if(timeUnit == TimeUnit.SECONDS){
+			title = "Seconds Observing ";
+		} else if(timeUnit == TimeUnit.MINUTES){
+			title = "Minutes Observing ";
+			divisor *= 60.0;
+		} else if(timeUnit == TimeUnit.HOURS){
+			title = "Hours Observing ";
+			divisor *= 60.0 * 60.0;
+		} else {
+			title = "Days Observing ";
+			divisor *= 60.0 * 60.0 * 24.0;
+		}
+		title += getGranularityName();
+		DefaultPieDataset dataset = new DefaultPieDataset();
+		for(Entry<String,Long> allocation : ColumnarAnalysis.getTimeAllocationsDisplay(file, granularity, allocations).entrySet()){
+			dataset.setValue(allocation.getKey() + " ", new Double(allocation.getValue() / divisor));
+		}
+		return ChartFactory.createPieChart(title, dataset, true, false, false);
+	}
+	
+	/**
+	 * Returns the total, unique and repeat observations as a time series chart
+	 * like TotalVsUniqueObservationsChart and RepeatObservationsChart
+	 */
+	private JFreeChart getObservationsChart(TreeMap<Long,int[]> counts){
+		TimeSeries total = new TimeSeries("Total Observations");
+		TimeSeries unique = new TimeSeries("Unique Observations");
+		TimeSeries repeat = new TimeSeries("Repeat Observations");
+		for(Entry<Long,int[]> count : counts.entrySet()){
+			int[] value = count.getValue();
+			total.addOrUpdate(LevelOfDetailTimeSeries.getTimePeriod(count.getKey(), timeUnit), value[0]);
+			unique.addOrUpdate(LevelOfDetailTimeSeries.getTimePeriod(count.getKey(), timeUnit), value[1]);
+			repeat.addOrUpdate(LevelOfDetailTimeSeries.getTimePeriod(count.getKey(), timeUnit), value[0] - value[1]);
+		}
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(total);
+		dataset.addSeries(unique);
+		dataset.addSeries(repeat);
+		String title = "Total Vs. Unique " + getGranularityName() + " Observations";
+		if(timeUnit == TimeUnit.SECONDS){
+			title += " Per Second";
+		} else if(timeUnit == TimeUnit.MINUTES){
+			title += " Per Minute";
+		} else if(timeUnit == TimeUnit.HOURS){
+			title += " Per Hour";
+		} else {
+			title += " Per Day";
+		}
+		return ChartFactory.createTimeSeriesChart(title, "Time", "Observations", dataset, true, false, false);
+	}
+	
+	private String getGranularityName(){
+		if(granularity == Granularity.PROGRAM_ARTIFACT){
+			return "Program Artifact";
+		} else if(granularity == Granularity.PARENT_CLASS){
+			return "Class";
+		} else if(granularity == Granularity.SOURCE_FILE){
+			return "Source File";
+		} else if(granularity == Granularity.PACKAGE){
+			return "Package";
+		} else {
+			return "Project";
+		}
+	}
+	
+	private List<File> writeChart(JFreeChart chart, File outputDirectory) throws IOException {
+		List<File> files = new LinkedList<File>();
+		String name = AuditChartExporter.toFileName(chart.getTitle().getText());
+		for(ExportFormat format : formats){
+			File output = new File(outputDirectory, name + "." + format.getExtension());
+			if(format == ExportFormat.PNG){
+				AuditChartExporter.writePNG(chart, output, AuditChartExporter.DEFAULT_WIDTH, AuditChartExporter.DEFAULT_HEIGHT);
+			} else if(format == ExportFormat.SVG){
+				AuditChartExporter.writeSVG(chart, output, AuditChartExporter.DEFAULT_WIDTH, AuditChartExporter.DEFAULT_HEIGHT);
+			} else {
+				AuditChartExporter.writeCSV(chart.getPlot() instanceof PiePlot ? ((PiePlot) chart.getPlot()).getDataset() : chart.getXYPlot().getDataset(), output);
+			}
+			files.add(output);
+		}
+		return files;
+	}
+	
+	/**
+	 * Returns the indexes of the values that are present (not -1 or NaN), largest value first
+	 */
+	private static List<Integer> sortDescending(final long[] values){
+		List<Integer> indexes = new ArrayList<Integer>();
+		for(int i=0; i<values.length; i++){
+			if(values[i] != -1L){
+				indexes.add(i);
+			}
+		}
+		Collections.sort(indexes, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return Long.compare(values[b], values[a]);
+			}
+		});
+		return indexes;
+	}
+	
+	private static List<Integer> sortDescending(final double[] values){
+		List<Integer> indexes = new ArrayList<Integer>();
+		for(int i=0; i<values.length; i++){
+			if(!Double.isNaN(values[i])){
+				indexes.add(i);
+			}
+		}
+		Collections.sort(indexes, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return Double.compare(values[b], values[a]);
+			}
+		});
+		return indexes;
+	}
+	
+	private static Writer open(File file, String header) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+		writer.write(header + "\n");
+		return writer;
+	}
+	
+	private static String toCSVField(String value){
+		if(value.contains(",") || value.contains("\"") || value.contains("\n")){
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.auditmon.AuditMon;
+import com.ensoftcorp.open.auditmon.NodeSignatures;
+import com.ensoftcorp.open.auditmon.ObservationWriter;
+import com.ensoftcorp.open.auditmon.merge.BinaryJournalWriter;
+
+/**
+ * Replays journal entries through AuditMon sessions into the current index
+ *
+ * Sessions are created without selection listeners. Numbered members (as generated by
+ * WorkloadGenerator) are mapped onto the program nodes of the index, wrapping around
+ * when there are fewer nodes than numbers, address and signature members are resolved
+ * as in ObservationMerger. Members that cannot be resolved are left out.
+ *
+ * @author Ben Holland
+ */
+public class AuditMonLoadTarget implements LoadTarget {
+	
+	private final HashMap<String,AuditMon> sessions = new HashMap<String,AuditMon>();
+	private ArrayList<GraphElement> programNodes = null;
+	private HashMap<String,GraphElement> addressTable = null;
+	
+	private AuditMon getSession(String session){
+		AuditMon auditMon = sessions.get(session);
+		if(auditMon == null){
+			auditMon = new AuditMon(session, false);
+			sessions.put(session, auditMon);
+		}
+		return auditMon;
+	}
+	
+	@Override
+	public void start(String session, long timestamp) {
+		getSession(session).start(timestamp);
+	}
+	
+	@Override
+	public void stop(String session, long timestamp, String reason) {
+		getSession(session).stop(timestamp, reason);
+	}
+	
+	@Override
+	public void observe(String session, long timestamp, String origin, List<String> members) {
+		AtlasSet<GraphElement> nodes = new AtlasHashSet<GraphElement>();
+		for(String member : members){
+			GraphElement node = resolve(member);
+			if(node != null){
+				nodes.add(node);
+			}
+		}
+		getSession(session).makeObservation(nodes, timestamp, origin);
+	}
+	
+	private GraphElement resolve(String member){
+		long number = BinaryJournalWriter.parseNumber(member);
+		if(number >= 0){
+			if(programNodes == null){
+				programNodes = new ArrayList<GraphElement>();
+				for(GraphElement node : Common.universe().eval().nodes()){
+					if(!node.tags().contains(AuditMon.OBSERVATION)){
+						programNodes.add(node);
+					}
+				}
+			}
+			return programNodes.isEmpty() ? null : programNodes.get((int) (number % programNodes.size()));
+		}
+		if(NodeSignatures.isSignature(member)){
+			return NodeSignatures.resolve(member);
+		}
+		if(addressTable == null){
+			addressTable = new HashMap<String,GraphElement>();
+			for(GraphElement node : Common.universe().eval().nodes()){
+				addressTable.put(node.address().toAddressString(), node);
+			}
+		}
+		return addressTable.get(member);
+	}
+	
+	@Override
+	public long getIndexSize() {
+		return Graph.U.nodes().size() + Graph.U.edges().size();
+	}
+	
+	@Override
+	public void finish() {
+		// changes are applied in order, so once an empty change is applied every change before it is too
+		try {
+			ObservationWriter.submitAndWait(new Runnable(){
+				@Override
+				public void run() {}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Stops listening for index changes in every session created by the target
+	 */
+	public void dispose(){
+		for(AuditMon auditMon : sessions.values()){
+			auditMon.unregisterIndexListener();
+		}
+		sessions.clear();
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.open.auditmon.merge.BinaryJournalWriter;
+import com.ensoftcorp.open.auditmon.store.InMemoryObservationStore;
+import com.ensoftcorp.open.auditmon.store.ObservationEngine;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
+
+/**
+ * Replays journal entries into an in-memory observation store, without Atlas
+ *
+ * Each session is recorded by its own ObservationEngine and, like AuditMon, empty and
+ * immediately repeated observations are skipped. Program nodes are created in the
+ * store the first time they are observed, so the index size is the number of observed
+ * nodes plus the observation graph. The target is not thread safe.
+ *
+ * @author Ben Holland
+ */
+public class EngineLoadTarget implements LoadTarget {
+	
+	private final InMemoryObservationStore store;
+	private final HashMap<String,ObservationEngine> engines = new HashMap<String,ObservationEngine>();
+	private final HashMap<String,int[]> lastMembers = new HashMap<String,int[]>();
+	
+	// program nodes of numbered members, indexed by node number (0 if not created yet)
+	private int[] numberedNodes = new int[1024];
+	// program nodes of address and signature members
+	private final HashMap<String,Integer> namedNodes = new HashMap<String,Integer>();
+	
+	public EngineLoadTarget(){
+		this(new InMemoryObservationStore());
+	}
+	
+	public EngineLoadTarget(InMemoryObservationStore store){
+		this.store = store;
+	}
+	
+	public InMemoryObservationStore getStore(){
+		return store;
+	}
+	
+	private ObservationEngine getEngine(String session){
+		ObservationEngine engine = engines.get(session);
+		if(engine == null){
+			engine = new ObservationEngine(store, session);
+			engines.put(session, engine);
+		}
+		return engine;
+	}
+	
+	@Override
+	public void start(String session, long timestamp) {
+		lastMembers.remove(session);
+		getEngine(session).start(timestamp);
+	}
+	
+	@Override
+	public void stop(String session, long timestamp, String reason) {
+		lastMembers.remove(session);
+		getEngine(session).stop(timestamp, reason);
+	}
+	
+	@Override
+	public void observe(String session, long timestamp, String origin, List<String> members) {
+		if(members.isEmpty()){
+			return;
+		}
+		int[] nodes = new int[members.size()];
+		for(int i=0; i<nodes.length; i++){
+			nodes[i] = getNode(members.get(i));
+		}
+		Arrays.sort(nodes);
+		nodes = distinct(nodes);
+		if(Arrays.equals(nodes, lastMembers.get(session))){
+			// last observation is the same as the current observation
+			return;
+		}
+		ObservationEngine engine = getEngine(session);
+		if(engine.observe(nodes, timestamp, origin) != ObservationStore.NONE){
+			lastMembers.put(session, nodes);
+		}
+	}
+	
+	private int getNode(String member){
+		long number = BinaryJournalWriter.parseNumber(member);
+		if(number >= 0 && number < Integer.MAX_VALUE){
+			if(number >= numberedNodes.length){
+				numberedNodes = Arrays.copyOf(numberedNodes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(number + 1, numberedNodes.length * 2L)));
+			}
+			int index = (int) number;
+			if(numberedNodes[index] == 0){
+				// handles are offset by one so 0 means no node
+				numberedNodes[index] = store.createNode(member) + 1;
+			}
+			return numberedNodes[index] - 1;
+		}
+		Integer node = namedNodes.get(member);
+		if(node == null){
+			node = store.createNode(member);
+			namedNodes.put(member, node);
+		}
+		return node;
+	}
+	
+	private static int[] distinct(int[] sorted){
+		int size = 0;
+		for(int i=0; i<sorted.length; i++){
+			if(i == 0 || sorted[i] != sorted[i-1]){
+				sorted[size++] = sorted[i];
+			}
+		}
+		return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+	}
+	
+	@Override
+	public long getIndexSize() {
+		return store.size();
+	}
+	
+	@Override
+	public void finish() {
+		// changes are applied immediately
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.util.List;
+
+/**
+ * What a load test replays journal entries against
+ *
+ * @author Ben Holland
+ */
+public interface LoadTarget {
+	
+	public void start(String session, long timestamp);
+	
+	public void stop(String session, long timestamp, String reason);
+	
+	/**
+	 * Records an observation of the given members (node numbers, addresses or signatures)
+	 * @param session
+	 * @param timestamp
+	 * @param origin
+	 * @param members
+	 */
+	public void observe(String session, long timestamp, String origin, List<String> members);
+	
+	/**
+	 * Returns the number of nodes and edges in the index
+	 * @return
+	 */
+	public long getIndexSize();
+	
+	/**
+	 * Waits until every change made so far has been applied
+	 */
+	public void finish();
+	
+}
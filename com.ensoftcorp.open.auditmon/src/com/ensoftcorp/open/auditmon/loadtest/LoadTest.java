@@ -0,0 +1,105 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.ensoftcorp.open.auditmon.merge.BinaryJournalReader;
+import com.ensoftcorp.open.auditmon.merge.JournalSource;
+
+/**
+ * Generates workloads and replays them against the in-memory observation store,
+ * from the command line and without Atlas
+ *
+ * java ... LoadTest generate <journal> [key=value ...]
+ *   writes a generated workload, keys are format (text or binary), seed, observations,
+ *   sessions, concurrency, nodes, selections and zipf
+ * java ... LoadTest replay <journal> [key=value ...]
+ *   replays a text or binary journal, keys are rate (entries per second), interval
+ *   (milliseconds between samples), limit (entries) and samples (a CSV file to write)
+ * java ... LoadTest run [key=value ...]
+ *   replays a generated workload without writing it, takes the keys of both
+ *
+ * To replay against AuditMon itself run a LoadTestDriver with an AuditMonLoadTarget in Atlas.
+ *
+ * @author Ben Holland
+ */
+public class LoadTest {
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1 || (!args[0].equals("run") && args.length < 2)){
+			System.err.println("Usage: LoadTest generate <journal> [key=value ...] | replay <journal> [key=value ...] | run [key=value ...]");
+			System.exit(1);
+		}
+		String command = args[0];
+		int firstOption = command.equals("run") ? 1 : 2;
+		HashMap<String,String> options = new HashMap<String,String>();
+		for(int i=firstOption; i<args.length; i++){
+			int separator = args[i].indexOf('=');
+			if(separator < 0){
+				System.err.println("Expected key=value but found " + args[i]);
+				System.exit(1);
+			}
+			options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+		}
+		
+		if(command.equals("generate")){
+			File journal = new File(args[1]);
+			long start = System.currentTimeMillis();
+			long entries = getGenerator(options).write(journal, "binary".equals(options.get("format")));
+			System.out.println("Wrote " + entries + " entries (" + journal.length() + " bytes) to " + journal + " in " + (System.currentTimeMillis() - start) + "ms");
+		} else if(command.equals("replay")){
+			replay(BinaryJournalReader.open(new File(args[1])), options);
+		} else if(command.equals("run")){
+			replay(getGenerator(options), options);
+		} else {
+			System.err.println("Unknown command " + command);
+			System.exit(1);
+		}
+	}
+	
+	private static WorkloadGenerator getGenerator(HashMap<String,String> options){
+		WorkloadGenerator generator = new WorkloadGenerator();
+		if(options.containsKey("seed")){
+			generator.setSeed(Long.parseLong(options.get("seed")));
+		}
+		if(options.containsKey("observations")){
+			generator.setObservations(Long.parseLong(options.get("observations")));
+		}
+		if(options.containsKey("sessions")){
+			generator.setSessions(Integer.parseInt(options.get("sessions")));
+		}
+		if(options.containsKey("concurrency")){
+			generator.setConcurrentSessions(Integer.parseInt(options.get("concurrency")));
+		}
+		if(options.containsKey("nodes")){
+			generator.setIndexNodes(Integer.parseInt(options.get("nodes")));
+		}
+		if(options.containsKey("selections")){
+			generator.setSelections(Integer.parseInt(options.get("selections")));
+		}
+		if(options.containsKey("zipf")){
+			generator.setZipfExponent(Double.parseDouble(options.get("zipf")));
+		}
+		return generator;
+	}
+	
+	private static void replay(JournalSource source, HashMap<String,String> options) throws IOException {
+		LoadTestDriver driver = new LoadTestDriver(new EngineLoadTarget());
+		if(options.containsKey("rate")){
+			driver.setRate(Double.parseDouble(options.get("rate")));
+		}
+		if(options.containsKey("interval")){
+			driver.setReportInterval(Long.parseLong(options.get("interval")));
+		}
+		if(options.containsKey("limit")){
+			driver.setMaxEntries(Long.parseLong(options.get("limit")));
+		}
+		LoadTestReport report = driver.run(source);
+		System.out.print(report);
+		if(options.containsKey("samples")){
+			report.writeSamples(new File(options.get("samples")));
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import com.ensoftcorp.open.auditmon.LatencyHistogram;
+import com.ensoftcorp.open.auditmon.merge.JournalEntry;
+import com.ensoftcorp.open.auditmon.merge.JournalSource;
+
+/**
+ * Replays a stream of journal entries against a load target and measures it
+ *
+ * Entries are replayed as fast as possible or at a fixed rate. At a fixed rate the
+ * latency of an entry is measured from the time it was due rather than the time it
+ * was replayed, so a stall is charged to every entry delayed by it (avoiding
+ * coordinated omission). The driver samples throughput, latency percentiles, used
+ * heap and index size at each reporting interval. The heap is collected before and
+ * after the run to measure its growth.
+ *
+ * @author Ben Holland
+ */
+public class LoadTestDriver {
+	
+	private final LoadTarget target;
+	private double rate = 0;
+	private long reportInterval = 1000;
+	private long maxEntries = Long.MAX_VALUE;
+	
+	public LoadTestDriver(LoadTarget target){
+		this.target = target;
+	}
+	
+	/**
+	 * Sets the number of entries to replay per second, 0 replays as fast as possible
+	 * @param entriesPerSecond
+	 */
+	public void setRate(double entriesPerSecond){
+		this.rate = entriesPerSecond;
+	}
+	
+	/**
+	 * Sets the time between samples
+	 * @param reportInterval milliseconds
+	 */
+	public void setReportInterval(long reportInterval){
+		this.reportInterval = reportInterval;
+	}
+	
+	/**
+	 * Sets the maximum number of entries to replay
+	 * @param maxEntries
+	 */
+	public void setMaxEntries(long maxEntries){
+		this.maxEntries = maxEntries;
+	}
+	
+	/**
+	 * Replays the entries of the source (closing it when done)
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public LoadTestReport run(JournalSource source) throws IOException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		LoadTestReport report = new LoadTestReport();
+		LatencyHistogram latency = new LatencyHistogram();
+		LatencyHistogram intervalLatency = new LatencyHistogram();
+		
+		System.gc();
+		long initialHeap = memory.getHeapMemoryUsage().getUsed();
+		
+		long entries = 0;
+		long observations = 0;
+		long start = System.nanoTime();
+		long intervalStart = start;
+		long intervalEntries = 0;
+		long nanosPerEntry = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+		try {
+			JournalEntry entry;
+			while(entries < maxEntries && (entry = source.next()) != null){
+				long due = System.nanoTime();
+				if(nanosPerEntry > 0){
+					due = start + entries * nanosPerEntry;
+					waitUntil(due);
+				}
+				switch(entry.getType()){
+				case START:
+					target.start(entry.getSession(), entry.getTimestamp());
+					break;
+				case STOP:
+					target.stop(entry.getSession(), entry.getTimestamp(), entry.getReason());
+					break;
+				default:
+					target.observe(entry.getSession(), entry.getTimestamp(), entry.getOrigin(), entry.getMembers());
+					observations++;
+					break;
+				}
+				long now = System.nanoTime();
+				latency.record(now - due);
+				intervalLatency.record(now - due);
+				entries++;
+				intervalEntries++;
+				
+				if(now - intervalStart >= TimeUnit.MILLISECONDS.toNanos(reportInterval)){
+					report.addSample(sample(now, start, intervalStart, entries, intervalEntries, intervalLatency, memory));
+					intervalLatency.reset();
+					intervalStart = now;
+					intervalEntries = 0;
+				}
+			}
+		} finally {
+			source.close();
+		}
+		target.finish();
+		long end = System.nanoTime();
+		if(intervalEntries > 0){
+			report.addSample(sample(end, start, intervalStart, entries, intervalEntries, intervalLatency, memory));
+		}
+		
+		System.gc();
+		long finalHeap = memory.getHeapMemoryUsage().getUsed();
+		report.complete(entries, observations, TimeUnit.NANOSECONDS.toMillis(end - start), latency.getSnapshot(), initialHeap, finalHeap, target.getIndexSize());
+		return report;
+	}
+	
+	private LoadTestReport.Sample sample(long now, long start, long intervalStart, long entries, long intervalEntries, LatencyHistogram intervalLatency, MemoryMXBean memory){
+		double seconds = Math.max(1, now - intervalStart) / (double) TimeUnit.SECONDS.toNanos(1);
+		return new LoadTestReport.Sample(TimeUnit.NANOSECONDS.toMillis(now - start), entries, intervalEntries / seconds,
+				intervalLatency.getSnapshot(), memory.getHeapMemoryUsage().getUsed(), target.getIndexSize());
+	}
+	
+	private static void waitUntil(long due){
+		long remaining;
+		while((remaining = due - System.nanoTime()) > 0){
+			if(remaining > TimeUnit.MILLISECONDS.toNanos(2)){
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+}
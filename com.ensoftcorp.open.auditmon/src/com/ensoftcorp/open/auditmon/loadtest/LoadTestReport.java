@@ -0,0 +1,183 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ensoftcorp.open.auditmon.LatencyHistogram;
+
+/**
+ * The results of a load test: totals for the whole run and a sample of throughput,
+ * latency, heap and index size for each reporting interval
+ *
+ * @author Ben Holland
+ */
+public class LoadTestReport {
+	
+	/**
+	 * The measurements of one reporting interval
+	 */
+	public static class Sample {
+		private final long elapsedMillis;
+		private final long entries;
+		private final double entriesPerSecond;
+		private final LatencyHistogram.Snapshot latency;
+		private final long usedHeap;
+		private final long indexSize;
+		
+		Sample(long elapsedMillis, long entries, double entriesPerSecond, LatencyHistogram.Snapshot latency, long usedHeap, long indexSize){
+			this.elapsedMillis = elapsedMillis;
+			this.entries = entries;
+			this.entriesPerSecond = entriesPerSecond;
+			this.latency = latency;
+			this.usedHeap = usedHeap;
+			this.indexSize = indexSize;
+		}
+		
+		/**
+		 * Returns the time since the start of the run at the end of the interval
+		 * @return
+		 */
+		public long getElapsedMillis(){
+			return elapsedMillis;
+		}
+		
+		/**
+		 * Returns the number of entries replayed since the start of the run
+		 * @return
+		 */
+		public long getEntries(){
+			return entries;
+		}
+		
+		/**
+		 * Returns the throughput during the interval
+		 * @return
+		 */
+		public double getEntriesPerSecond(){
+			return entriesPerSecond;
+		}
+		
+		/**
+		 * Returns the latencies (in nanoseconds) of the entries replayed during the interval
+		 * @return
+		 */
+		public LatencyHistogram.Snapshot getLatency(){
+			return latency;
+		}
+		
+		public long getUsedHeap(){
+			return usedHeap;
+		}
+		
+		public long getIndexSize(){
+			return indexSize;
+		}
+	}
+	
+	private final ArrayList<Sample> samples = new ArrayList<Sample>();
+	private LatencyHistogram.Snapshot latency = null;
+	private long entries = 0;
+	private long observations = 0;
+	private long elapsedMillis = 0;
+	private long initialHeap = 0;
+	private long finalHeap = 0;
+	private long indexSize = 0;
+	
+	void addSample(Sample sample){
+		samples.add(sample);
+	}
+	
+	void complete(long entries, long observations, long elapsedMillis, LatencyHistogram.Snapshot latency, long initialHeap, long finalHeap, long indexSize){
+		this.entries = entries;
+		this.observations = observations;
+		this.elapsedMillis = elapsedMillis;
+		this.latency = latency;
+		this.initialHeap = initialHeap;
+		this.finalHeap = finalHeap;
+		this.indexSize = indexSize;
+	}
+	
+	public List<Sample> getSamples(){
+		return Collections.unmodifiableList(samples);
+	}
+	
+	/**
+	 * Returns the latencies (in nanoseconds) of every replayed entry
+	 * @return
+	 */
+	public LatencyHistogram.Snapshot getLatency(){
+		return latency;
+	}
+	
+	public long getEntries(){
+		return entries;
+	}
+	
+	public long getObservations(){
+		return observations;
+	}
+	
+	public long getElapsedMillis(){
+		return elapsedMillis;
+	}
+	
+	public double getEntriesPerSecond(){
+		return elapsedMillis == 0 ? 0 : entries * 1000.0 / elapsedMillis;
+	}
+	
+	/**
+	 * Returns the growth of the heap (after garbage collection) over the run
+	 * @return
+	 */
+	public long getHeapGrowth(){
+		return finalHeap - initialHeap;
+	}
+	
+	public long getIndexSize(){
+		return indexSize;
+	}
+	
+	/**
+	 * Writes the samples to a CSV file, latencies are in microseconds
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeSamples(File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("elapsed_ms,entries,entries_per_second,p50_us,p99_us,p999_us,max_us,used_heap_bytes,index_size\n");
+			for(Sample sample : samples){
+				writer.write(sample.elapsedMillis + "," + sample.entries + "," + (long) sample.entriesPerSecond
+						+ "," + sample.latency.getValueAtPercentile(50) / 1000 + "," + sample.latency.getValueAtPercentile(99) / 1000
+						+ "," + sample.latency.getValueAtPercentile(99.9) / 1000 + "," + sample.latency.getMax() / 1000
+						+ "," + sample.usedHeap + "," + sample.indexSize + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder result = new StringBuilder();
+		result.append(entries).append(" entries (").append(observations).append(" observations) in ").append(elapsedMillis).append("ms, ");
+		result.append((long) getEntriesPerSecond()).append(" entries/s\n");
+		if(latency != null){
+			result.append("latency: ").append(latency.toMicrosString()).append(", p99.9 ").append(latency.getValueAtPercentile(99.9) / 1000).append("us\n");
+		}
+		result.append("heap growth: ").append(getHeapGrowth() / 1024).append("KB, index size: ").append(indexSize).append("\n");
+		result.append("elapsed_ms\tentries\tentries/s\tp50_us\tp99_us\tmax_us\theap_kb\tindex_size\n");
+		for(Sample sample : samples){
+			result.append(sample.elapsedMillis).append("\t").append(sample.entries).append("\t").append((long) sample.entriesPerSecond);
+			result.append("\t").append(sample.latency.getValueAtPercentile(50) / 1000).append("\t").append(sample.latency.getValueAtPercentile(99) / 1000);
+			result.append("\t").append(sample.latency.getMax() / 1000).append("\t").append(sample.usedHeap / 1024).append("\t").append(sample.indexSize).append("\n");
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,375 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.ensoftcorp.open.auditmon.merge.BinaryJournalWriter;
+import com.ensoftcorp.open.auditmon.merge.JournalEntry;
+import com.ensoftcorp.open.auditmon.merge.JournalSource;
+
+/**
+ * Generates a synthetic stream of journal entries that resembles months of auditing
+ *
+ * Auditors work in sessions, a number of which are active at the same time. Each
+ * session is a series of start/stop cycles (some of which end without a stop, as when
+ * Eclipse crashes) and each cycle is a series of observations. Observations come in
+ * bursts of quick selections separated by idle periods. What is selected follows a
+ * Zipf distribution over a fixed population of selections, so a few selections are
+ * revisited constantly (often immediately) while most are rarely seen again. Each
+ * session starts at a different place in the population, so sessions overlap in part.
+ *
+ * A selection is one node or a few nodes near each other in the index, plus some
+ * commonly selected (Zipf distributed) nodes, so observation nodes share members.
+ * Members are node numbers from 0 to the number of index nodes, written as decimal
+ * strings. The same seed always generates the same entries.
+ *
+ * Entries are generated as they are read, so workloads of any size take constant memory.
+ *
+ * @author Ben Holland
+ */
+public class WorkloadGenerator implements JournalSource {
+	
+	private static final String[] ORIGIN_TYPES = { "Java Editor", "Atlas Graph", "Atlas Smart View" };
+	
+	private long seed = 0x5EEDL;
+	private long observations = 1000000;
+	private int sessions = 2000;
+	private int concurrentSessions = 8;
+	private int indexNodes = 10000000;
+	private int selections = 200000;
+	private double zipfExponent = 1.0;
+	private double meanSelectionSize = 2.5;
+	private int maxSelectionSize = 64;
+	private double meanObservationsPerCycle = 60;
+	private double crashProbability = 0.02;
+	private double meanBurstLength = 15;
+	private long meanThinkMillis = 1500;
+	private long meanIdleMillis = 45000;
+	private long meanBreakMillis = 4 * 3600000;
+	private long startTime = 1420070400000L;
+	
+	// generation state, created when the first entry is read
+	private Random random = null;
+	private ZipfSampler selectionSampler = null;
+	private ZipfSampler nodeSampler = null;
+	private PriorityQueue<Slot> slots = null;
+	private ArrayList<JournalEntry> closing = null;
+	private int closed = 0;
+	private int nextSession = 0;
+	private long generated = 0;
+	
+	/**
+	 * A concurrently active session
+	 */
+	private static class Slot {
+		private final int id;
+		private int session;
+		private long time;
+		private long budget;
+		private long remainingInCycle = 0;
+		private boolean started = false;
+		private int offset;
+		
+		private Slot(int id){
+			this.id = id;
+		}
+	}
+	
+	public WorkloadGenerator(){}
+	
+	public WorkloadGenerator(long seed){
+		this.seed = seed;
+	}
+	
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+	
+	/**
+	 * Sets the total number of observations to generate
+	 * @param observations
+	 */
+	public void setObservations(long observations){
+		this.observations = observations;
+	}
+	
+	/**
+	 * Sets the number of distinct sessions, the observations are divided evenly between them
+	 * @param sessions
+	 */
+	public void setSessions(int sessions){
+		this.sessions = sessions;
+	}
+	
+	/**
+	 * Sets the number of sessions that are active at the same time
+	 * @param concurrentSessions
+	 */
+	public void setConcurrentSessions(int concurrentSessions){
+		this.concurrentSessions = concurrentSessions;
+	}
+	
+	/**
+	 * Sets the number of nodes in the index, members are numbered from 0 to indexNodes-1
+	 * @param indexNodes
+	 */
+	public void setIndexNodes(int indexNodes){
+		this.indexNodes = indexNodes;
+	}
+	
+	/**
+	 * Sets the number of distinct selections auditors can make
+	 * @param selections
+	 */
+	public void setSelections(int selections){
+		this.selections = selections;
+	}
+	
+	/**
+	 * Sets the Zipf exponent of selection popularity, larger exponents revisit more
+	 * @param zipfExponent
+	 */
+	public void setZipfExponent(double zipfExponent){
+		this.zipfExponent = zipfExponent;
+	}
+	
+	/**
+	 * Sets the mean and maximum number of nodes in a selection
+	 * @param meanSelectionSize
+	 * @param maxSelectionSize
+	 */
+	public void setSelectionSize(double meanSelectionSize, int maxSelectionSize){
+		this.meanSelectionSize = meanSelectionSize;
+		this.maxSelectionSize = maxSelectionSize;
+	}
+	
+	/**
+	 * Sets the mean number of observations between a start and a stop, and the
+	 * probability that a cycle ends without a stop
+	 * @param meanObservationsPerCycle
+	 * @param crashProbability
+	 */
+	public void setCycles(double meanObservationsPerCycle, double crashProbability){
+		this.meanObservationsPerCycle = meanObservationsPerCycle;
+		this.crashProbability = crashProbability;
+	}
+	
+	/**
+	 * Sets the timing of observations: the mean number of observations in a burst,
+	 * the mean time between observations of a burst, between bursts and between cycles
+	 * @param meanBurstLength
+	 * @param meanThinkMillis
+	 * @param meanIdleMillis
+	 * @param meanBreakMillis
+	 */
+	public void setTiming(double meanBurstLength, long meanThinkMillis, long meanIdleMillis, long meanBreakMillis){
+		this.meanBurstLength = meanBurstLength;
+		this.meanThinkMillis = meanThinkMillis;
+		this.meanIdleMillis = meanIdleMillis;
+		this.meanBreakMillis = meanBreakMillis;
+	}
+	
+	/**
+	 * Sets the timestamp of the first entry
+	 * @param startTime
+	 */
+	public void setStartTime(long startTime){
+		this.startTime = startTime;
+	}
+	
+	public long getObservations(){
+		return observations;
+	}
+	
+	public int getIndexNodes(){
+		return indexNodes;
+	}
+	
+	private void initialize(){
+		random = new Random(seed);
+		selectionSampler = new ZipfSampler(selections, zipfExponent);
+		nodeSampler = new ZipfSampler(indexNodes, zipfExponent);
+		slots = new PriorityQueue<Slot>(Math.max(1, concurrentSessions), new Comparator<Slot>(){
+			@Override
+			public int compare(Slot a, Slot b) {
+				return a.time != b.time ? (a.time < b.time ? -1 : 1) : a.id - b.id;
+			}
+		});
+		// a session is never active in two slots at once
+		for(int i=0; i<Math.min(concurrentSessions, sessions); i++){
+			Slot slot = new Slot(i);
+			slot.time = startTime + (long) (random.nextDouble() * meanIdleMillis);
+			assignSession(slot);
+			slots.add(slot);
+		}
+	}
+	
+	private void assignSession(Slot slot){
+		slot.session = nextSession++ % sessions;
+		slot.budget = Math.max(1, (observations + sessions - 1) / sessions);
+		slot.offset = (int) (mix(seed ^ slot.session) % selections);
+		slot.started = false;
+	}
+	
+	@Override
+	public JournalEntry next(){
+		if(random == null){
+			initialize();
+		}
+		if(closing != null){
+			// stop the sessions that are still open at the end of the workload
+			return closed < closing.size() ? closing.get(closed++) : null;
+		}
+		while(true){
+			if(generated >= observations){
+				closeOpenSessions();
+				return next();
+			}
+			Slot slot = slots.poll();
+			JournalEntry entry;
+			if(!slot.started){
+				slot.started = true;
+				slot.remainingInCycle = Math.min(slot.budget, 1 + geometric(meanObservationsPerCycle - 1));
+				entry = JournalEntry.start(getSessionName(slot.session), slot.time);
+				slot.time += exponential(meanThinkMillis);
+			} else if(slot.remainingInCycle > 0){
+				entry = observation(slot);
+				slot.remainingInCycle--;
+				slot.budget--;
+				generated++;
+				slot.time += random.nextDouble() * meanBurstLength < 1.0 ? exponential(meanIdleMillis) : exponential(meanThinkMillis);
+			} else {
+				slot.started = false;
+				entry = random.nextDouble() < crashProbability ? null : JournalEntry.stop(getSessionName(slot.session), slot.time, "stop");
+				if(slot.budget == 0){
+					assignSession(slot);
+				}
+				slot.time += exponential(meanBreakMillis);
+			}
+			slots.add(slot);
+			if(entry != null){
+				return entry;
+			}
+		}
+	}
+	
+	private void closeOpenSessions(){
+		closing = new ArrayList<JournalEntry>();
+		for(Slot slot : slots){
+			if(slot.started){
+				closing.add(JournalEntry.stop(getSessionName(slot.session), slot.time, "stop"));
+			}
+		}
+		Collections.sort(closing, new Comparator<JournalEntry>(){
+			@Override
+			public int compare(JournalEntry a, JournalEntry b) {
+				return a.getTimestamp() == b.getTimestamp() ? 0 : (a.getTimestamp() < b.getTimestamp() ? -1 : 1);
+			}
+		});
+	}
+	
+	private JournalEntry observation(Slot slot){
+		int selection = (int) ((selectionSampler.sample(random) - 1 + (long) slot.offset) % selections);
+		Random selectionRandom = new Random(mix(seed + selection));
+		int size = (int) Math.min(maxSelectionSize, 1 + geometric(selectionRandom, meanSelectionSize - 1));
+		int base = (int) (mix(seed ^ ~selection) % indexNodes);
+		ArrayList<String> members = new ArrayList<String>(size);
+		members.add(Integer.toString(base));
+		// a few attempts per member, small indexes may not have enough distinct nodes
+		for(int attempt=0; members.size() < size && attempt < size * 4; attempt++){
+			int node;
+			if(selectionRandom.nextBoolean()){
+				// a nearby node (the same file or method)
+				node = (base + selectionRandom.nextInt(256)) % indexNodes;
+			} else {
+				// a commonly selected node
+				node = nodeSampler.sample(selectionRandom) - 1;
+			}
+			String member = Integer.toString(node);
+			if(!members.contains(member)){
+				members.add(member);
+			}
+		}
+		String origin = ORIGIN_TYPES[selection % ORIGIN_TYPES.length] + ":" + (selection % 997);
+		return JournalEntry.observation(getSessionName(slot.session), slot.time, origin, members);
+	}
+	
+	private static String getSessionName(int session){
+		return "session" + session;
+	}
+	
+	private long exponential(long mean){
+		return (long) (-mean * Math.log(1.0 - random.nextDouble()));
+	}
+	
+	private long geometric(double mean){
+		return geometric(random, mean);
+	}
+	
+	/**
+	 * Returns a geometrically distributed number (0, 1, 2, ...) with the given mean
+	 */
+	private static long geometric(Random random, double mean){
+		if(mean <= 0){
+			return 0;
+		}
+		double p = 1.0 / (mean + 1.0);
+		return (long) Math.floor(Math.log(1.0 - random.nextDouble()) / Math.log(1.0 - p));
+	}
+	
+	/**
+	 * Returns a well mixed non-negative hash of a value
+	 */
+	private static long mix(long value){
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return (value ^ (value >>> 31)) & Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Writes the workload as a text journal (like AuditMon's journals) or a binary journal
+	 * @param file
+	 * @param binary
+	 * @return the number of entries written
+	 * @throws IOException
+	 */
+	public long write(File file, boolean binary) throws IOException {
+		long entries = 0;
+		if(binary){
+			BinaryJournalWriter writer = new BinaryJournalWriter(file);
+			try {
+				JournalEntry entry;
+				while((entry = next()) != null){
+					writer.write(entry);
+					entries++;
+				}
+			} finally {
+				writer.close();
+			}
+		} else {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+			try {
+				JournalEntry entry;
+				while((entry = next()) != null){
+					writer.write(entry.toString());
+					writer.write("\n");
+					entries++;
+				}
+			} finally {
+				writer.close();
+			}
+		}
+		return entries;
+	}
+	
+	@Override
+	public void close(){}
+
+}
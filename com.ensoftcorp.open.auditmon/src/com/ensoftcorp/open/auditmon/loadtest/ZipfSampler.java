@@ -0,0 +1,91 @@
+package com.ensoftcorp.open.auditmon.loadtest;
+
+import java.util.Random;
+
+/**
+ * Samples ranks 1 to n with probability proportional to 1/rank^exponent
+ *
+ * Uses rejection-inversion sampling (Hormann and Derflinger), which takes constant
+ * time and memory for any number of ranks, so ranks can range over every node of a
+ * large index.
+ *
+ * @author Ben Holland
+ */
+public class ZipfSampler {
+	
+	private final int n;
+	private final double exponent;
+	private final double hIntegralX1;
+	private final double hIntegralN;
+	private final double s;
+	
+	public ZipfSampler(int n, double exponent){
+		if(n < 1 || exponent <= 0){
+			throw new IllegalArgumentException("Zipf sampling requires at least one rank and a positive exponent.");
+		}
+		this.n = n;
+		this.exponent = exponent;
+		this.hIntegralX1 = hIntegral(1.5) - 1.0;
+		this.hIntegralN = hIntegral(n + 0.5);
+		this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+	}
+	
+	public int getNumberOfRanks(){
+		return n;
+	}
+	
+	/**
+	 * Returns a rank from 1 to n
+	 * @param random
+	 * @return
+	 */
+	public int sample(Random random){
+		while(true){
+			double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+			double x = hIntegralInverse(u);
+			int k = (int) (x + 0.5);
+			if(k < 1){
+				k = 1;
+			} else if(k > n){
+				k = n;
+			}
+			if(k - x <= s || u >= hIntegral(k + 0.5) - h(k)){
+				return k;
+			}
+		}
+	}
+	
+	private double h(double x){
+		return Math.exp(-exponent * Math.log(x));
+	}
+	
+	private double hIntegral(double x){
+		double logX = Math.log(x);
+		return helper2((1.0 - exponent) * logX) * logX;
+	}
+	
+	private double hIntegralInverse(double x){
+		double t = x * (1.0 - exponent);
+		if(t < -1.0){
+			t = -1.0;
+		}
+		return Math.exp(helper1(t) * x);
+	}
+	
+	// log(1+x)/x, accurate near 0
+	private static double helper1(double x){
+		if(Math.abs(x) > 1e-8){
+			return Math.log1p(x) / x;
+		}
+		return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+	}
+	
+	// (exp(x)-1)/x, accurate near 0
+	private static double helper2(double x){
+		if(Math.abs(x) > 1e-8){
+			return Math.expm1(x) / x;
+		}
+		return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+	}
+
+}
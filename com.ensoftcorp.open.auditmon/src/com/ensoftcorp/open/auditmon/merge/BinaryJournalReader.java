@@ -0,0 +1,127 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Streams the entries of a journal written by BinaryJournalWriter
+ *
+ * @author Ben Holland
+ */
+public class BinaryJournalReader implements JournalSource {
+	
+	private final File file;
+	private final DataInputStream input;
+	private final ArrayList<String> strings = new ArrayList<String>();
+	private long lastTimestamp = 0;
+	
+	public BinaryJournalReader(File file) throws IOException {
+		this.file = file;
+		this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		if(input.readInt() != BinaryJournalWriter.MAGIC){
+			input.close();
+			throw new IOException(file.getName() + " is not a binary journal.");
+		}
+	}
+	
+	/**
+	 * Returns true if the file starts with the binary journal magic number
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinaryJournal(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			return input.readInt() == BinaryJournalWriter.MAGIC;
+		} catch (EOFException e){
+			return false;
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Opens a binary or text journal
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static JournalSource open(File file) throws IOException {
+		if(isBinaryJournal(file)){
+			return new BinaryJournalReader(file);
+		}
+		return new JournalReader(file);
+	}
+	
+	public File getFile(){
+		return file;
+	}
+	
+	@Override
+	public JournalEntry next() throws IOException {
+		int type = input.read();
+		if(type == -1){
+			return null;
+		}
+		String session = readString();
+		lastTimestamp += unZigZag(readVarLong());
+		if(type == BinaryJournalWriter.START){
+			return JournalEntry.start(session, lastTimestamp);
+		} else if(type == BinaryJournalWriter.STOP){
+			return JournalEntry.stop(session, lastTimestamp, readString());
+		} else if(type == BinaryJournalWriter.OBSERVATION){
+			String origin = readString();
+			int numMembers = (int) readVarLong();
+			ArrayList<String> members = new ArrayList<String>(numMembers);
+			for(int i=0; i<numMembers; i++){
+				long member = readVarLong();
+				if((member & 1) == 1){
+					members.add(Long.toString(member >>> 1));
+				} else {
+					members.add(readString((int) (member >>> 1)));
+				}
+			}
+			return JournalEntry.observation(session, lastTimestamp, origin, members);
+		}
+		throw new IOException("Unknown entry type " + type + " in " + file.getName() + ".");
+	}
+	
+	private String readString() throws IOException {
+		return readString((int) readVarLong());
+	}
+	
+	private String readString(int number) throws IOException {
+		if(number == strings.size()){
+			strings.add(input.readUTF());
+		}
+		return strings.get(number);
+	}
+	
+	private static long unZigZag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift=0; shift<64; shift+=7){
+			int b = input.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in " + file.getName() + ".");
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+}
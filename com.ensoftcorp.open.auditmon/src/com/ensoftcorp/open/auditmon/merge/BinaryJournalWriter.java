@@ -0,0 +1,141 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes journal entries in a compact binary form, read with BinaryJournalReader
+ *
+ * The file starts with the MAGIC number, each entry is a type byte followed by
+ * the session, the timestamp as a variable length delta from the previous entry,
+ * the stop reason or observation origin and the observation members. Strings are
+ * written the first time they appear and referred to by number afterwards, members
+ * that are plain decimal numbers (such as the node numbers of generated workloads)
+ * are written as numbers. Every number is a variable length integer.
+ *
+ * @author Ben Holland
+ */
+public class BinaryJournalWriter implements Closeable {
+	
+	public static final int MAGIC = 0x414D4A31; // "AMJ1"
+	
+	static final int START = 0;
+	static final int STOP = 1;
+	static final int OBSERVATION = 2;
+	
+	private final DataOutputStream output;
+	private final HashMap<String,Integer> strings = new HashMap<String,Integer>();
+	private long lastTimestamp = 0;
+	// true if the last string numbered by getStringNumber was new
+	private boolean isNew = false;
+	
+	public BinaryJournalWriter(File file) throws IOException {
+		this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		output.writeInt(MAGIC);
+	}
+	
+	/**
+	 * Writes an entry
+	 * @param entry
+	 * @throws IOException
+	 */
+	public void write(JournalEntry entry) throws IOException {
+		switch(entry.getType()){
+		case START:
+			output.writeByte(START);
+			break;
+		case STOP:
+			output.writeByte(STOP);
+			break;
+		default:
+			output.writeByte(OBSERVATION);
+			break;
+		}
+		writeString(entry.getSession());
+		writeVarLong(zigZag(entry.getTimestamp() - lastTimestamp));
+		lastTimestamp = entry.getTimestamp();
+		if(entry.getType() == JournalEntry.Type.STOP){
+			writeString(entry.getReason());
+		} else if(entry.getType() == JournalEntry.Type.OBSERVATION){
+			writeString(entry.getOrigin());
+			List<String> members = entry.getMembers();
+			writeVarLong(members.size());
+			for(String member : members){
+				long number = parseNumber(member);
+				if(number >= 0){
+					writeVarLong((number << 1) | 1);
+				} else {
+					writeVarLong(getStringNumber(member) << 1);
+					if(isNew){
+						output.writeUTF(member);
+					}
+				}
+			}
+		}
+	}
+	
+	private long getStringNumber(String string){
+		Integer number = strings.get(string);
+		isNew = number == null;
+		if(number == null){
+			number = strings.size();
+			strings.put(string, number);
+		}
+		return number;
+	}
+	
+	private void writeString(String string) throws IOException {
+		if(string == null){
+			string = "";
+		}
+		writeVarLong(getStringNumber(string));
+		if(isNew){
+			output.writeUTF(string);
+		}
+	}
+	
+	/**
+	 * Returns the value of a plain decimal number (no sign or leading zeros) below 2^62, or -1
+	 * @param member
+	 * @return
+	 */
+	public static long parseNumber(String member){
+		int length = member.length();
+		if(length == 0 || length > 18 || (length > 1 && member.charAt(0) == '0')){
+			return -1;
+		}
+		long value = 0;
+		for(int i=0; i<length; i++){
+			char c = member.charAt(i);
+			if(c < '0' || c > '9'){
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	private static long zigZag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	private void writeVarLong(long value) throws IOException {
+		while((value & ~0x7FL) != 0){
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single line of an AuditMon journal
+ *
+ * Journal lines have one of the forms
+ * session,start,timestamp
+ * session,stop,timestamp,reason
+ * session,observation,timestamp,origin,<member,member,...>
+ * where each member is either a node address or a node signature (see NodeSignatures).
+ *
+ * @author Ben Holland
+ */
+public class JournalEntry {
+	
+	public static enum Type {
+		START,
+		STOP,
+		OBSERVATION
+	}
+	
+	private final String session;
+	private final Type type;
+	private final long timestamp;
+	private final String detail;
+	private final List<String> members;
+	
+	private JournalEntry(String session, Type type, long timestamp, String detail, List<String> members){
+		this.session = session;
+		this.type = type;
+		this.timestamp = timestamp;
+		this.detail = detail;
+		this.members = members;
+	}
+	
+	public static JournalEntry start(String session, long timestamp){
+		return new JournalEntry(session, Type.START, timestamp, null, Collections.<String> emptyList());
+	}
+	
+	public static JournalEntry stop(String session, long timestamp, String reason){
+		return new JournalEntry(session, Type.STOP, timestamp, reason, Collections.<String> emptyList());
+	}
+	
+	public static JournalEntry observation(String session, long timestamp, String origin, List<String> members){
+		return new JournalEntry(session, Type.OBSERVATION, timestamp, origin, members);
+	}
+	
+	/**
+	 * Parses a journal line, returns null if the line is not a valid journal entry
+	 * @param line
+	 * @return
+	 */
+	public static JournalEntry parse(String line){
+		try {
+			String[] fields = line.split(",", 4);
+			if(fields.length < 3){
+				return null;
+			}
+			String session = fields[0];
+			long timestamp = Long.parseLong(fields[2].trim());
+			if(fields[1].equals("start")){
+				return start(session, timestamp);
+			} else if(fields[1].equals("stop")){
+				return stop(session, timestamp, fields.length > 3 ? fields[3] : "stop");
+			} else if(fields[1].equals("observation") && fields.length > 3){
+				// origins may contain commas, the members are the last field
+				String rest = fields[3];
+				int membersStart = rest.lastIndexOf(",<");
+				if(membersStart < 0 || !rest.endsWith(">")){
+					return null;
+				}
+				String origin = rest.substring(0, membersStart);
+				ArrayList<String> members = new ArrayList<String>();
+				for(String member : rest.substring(membersStart + 2, rest.length() - 1).split(",")){
+					if(!member.isEmpty()){
+						members.add(member);
+					}
+				}
+				return observation(session, timestamp, origin, members);
+			}
+		} catch (NumberFormatException e){
+			// not a journal entry
+		}
+		return null;
+	}
+	
+	public String getSession(){
+		return session;
+	}
+	
+	public Type getType(){
+		return type;
+	}
+	
+	public long getTimestamp(){
+		return timestamp;
+	}
+	
+	/**
+	 * Returns the stop reason of a stop entry
+	 * @return
+	 */
+	public String getReason(){
+		return type == Type.STOP ? detail : null;
+	}
+	
+	/**
+	 * Returns the origin of an observation entry
+	 * @return
+	 */
+	public String getOrigin(){
+		return type == Type.OBSERVATION ? detail : null;
+	}
+	
+	/**
+	 * Returns the member addresses or signatures of an observation entry
+	 * @return
+	 */
+	public List<String> getMembers(){
+		return members;
+	}
+	
+	/**
+	 * Returns the entry as a journal line (without the line separator)
+	 */
+	@Override
+	public String toString(){
+		switch(type){
+		case START:
+			return session + ",start," + timestamp;
+		case STOP:
+			return session + ",stop," + timestamp + "," + detail;
+		default:
+			StringBuilder line = new StringBuilder();
+			line.append(session).append(",observation,").append(timestamp).append(",").append(detail).append(",<");
+			for(int i=0; i<members.size(); i++){
+				if(i > 0){
+					line.append(",");
+				}
+				line.append(members.get(i));
+			}
+			return line.append(">").toString();
+		}
+	}
+
+}
@@ -0,0 +1,444 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.store.ObservationGraph;
+import com.ensoftcorp.open.auditmon.store.ObservationStore;
+
+/**
+ * Merges journal entries into the observation graph of an observation store
+ *
+ * This is the merge logic of ObservationMerger without Atlas, so it can run against
+ * any ObservationStore. Observation members are aligned with hash joins: the member
+ * set table of the store's observation nodes and the table of its observation edges
+ * are each built with a single pass, then every journal entry is a few hash lookups.
+ * Observation nodes with the same member set are shared (the same as when recording),
+ * and each session's observation edges are numbered after the session's last edge
+ * number in the store.
+ *
+ * A merge only appends to a session. Entries recorded at or before the last visit of
+ * their session in the store are skipped, as are entries repeated at the same time,
+ * so merging a source again (or twice at once) leaves the store unchanged.
+ *
+ * @author Ben Holland
+ */
+public class JournalMerger {
+	
+	/**
+	 * Resolves the members recorded in a journal to nodes of the store
+	 */
+	public static interface MemberResolver {
+		
+		/**
+		 * Returns the node of the store with the given journal member (an address or a
+		 * signature) or NONE if there is none
+		 * @param member
+		 * @return
+		 */
+		public int resolve(String member);
+	
+	}
+	
+	/**
+	 * The merge state of a session
+	 */
+	private static class SessionState {
+		private int sessionNode;
+		private int lastNode = ObservationStore.NONE;
+		private long lastEdgeNumber = 0;
+		private boolean started = false;
+		private MemberKey lastMemberKey = null;
+		// the last visit of the session in the store before the merge
+		private long mergedUntil = Long.MIN_VALUE;
+		// the entries merged at the time of the last merged entry
+		private long lastTimestamp = Long.MIN_VALUE;
+		private HashSet<String> lastEntries = new HashSet<String>();
+	}
+	
+	/**
+	 * The sorted distinct members of an observation
+	 */
+	private static class MemberKey {
+		private final int[] members;
+		private final int hash;
+		
+		private MemberKey(int[] sortedMembers){
+			this.members = sortedMembers;
+			this.hash = Arrays.hashCode(sortedMembers);
+		}
+		
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			return o instanceof MemberKey && Arrays.equals(members, ((MemberKey) o).members);
+		}
+	}
+	
+	/**
+	 * The next entry of a source
+	 */
+	private static class Cursor {
+		private final JournalSource source;
+		private final int order;
+		private JournalEntry head;
+		
+		private Cursor(JournalSource source, int order){
+			this.source = source;
+			this.order = order;
+		}
+	}
+	
+	private static final Comparator<Cursor> CURSOR_ORDER = new Comparator<Cursor>(){
+		@Override
+		public int compare(Cursor a, Cursor b) {
+			int result = Long.compare(a.head.getTimestamp(), b.head.getTimestamp());
+			return result != 0 ? result : Integer.compare(a.order, b.order);
+		}
+	};
+	
+	private final ObservationStore store;
+	private final MemberResolver resolver;
+	private final MergeResult result = new MergeResult();
+	private final HashMap<String,SessionState> sessions = new HashMap<String,SessionState>();
+	private boolean resumeOpenSessions = false;
+	
+	// hash join tables, each built with a single pass the first time it is needed
+	private HashMap<MemberKey,Integer> observationNodes = null;
+	private HashMap<Long,Integer> observationEdges = null;
+	
+	private int startNode = ObservationStore.NONE;
+	private int stopNode = ObservationStore.NONE;
+	
+	public JournalMerger(ObservationStore store, MemberResolver resolver){
+		this.store = store;
+		this.resolver = resolver;
+	}
+	
+	/**
+	 * Sets whether a session whose last visit in the store is not a stop is treated as
+	 * still monitoring, so its entries are merged without waiting for a start (as when
+	 * recovering entries recorded after the index was saved)
+	 * @param resumeOpenSessions
+	 */
+	public void setResumeOpenSessions(boolean resumeOpenSessions){
+		this.resumeOpenSessions = resumeOpenSessions;
+	}
+	
+	public MergeResult getResult(){
+		return result;
+	}
+	
+	/**
+	 * Merges the entries of the given sources by timestamp, only one entry per source
+	 * is held in memory. Each source is expected to be in time order, as journals and
+	 * exports are written. The sources are not closed.
+	 * @param sources
+	 * @throws IOException
+	 */
+	public void merge(List<? extends JournalSource> sources) throws IOException {
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, sources.size()), CURSOR_ORDER);
+		for(int i=0; i<sources.size(); i++){
+			Cursor cursor = new Cursor(sources.get(i), i);
+			cursor.head = cursor.source.next();
+			if(cursor.head != null){
+				queue.add(cursor);
+			}
+		}
+		while(!queue.isEmpty()){
+			Cursor cursor = queue.poll();
+			merge(cursor.head);
+			cursor.head = cursor.source.next();
+			if(cursor.head != null){
+				queue.add(cursor);
+			}
+		}
+	}
+	
+	/**
+	 * Merges the given entries in the given order
+	 * @param entries
+	 */
+	public void merge(Iterable<JournalEntry> entries){
+		for(JournalEntry entry : entries){
+			merge(entry);
+		}
+	}
+	
+	/**
+	 * Merges a single entry, the entries of a session must be merged in time order
+	 * @param entry
+	 */
+	public void merge(JournalEntry entry){
+		SessionState state = getSessionState(entry.getSession());
+		
+		// only ever append to a session, and only once
+		long timestamp = entry.getTimestamp();
+		if(timestamp <= state.mergedUntil){
+			result.numMergedEntries++;
+			return;
+		}
+		if(timestamp != state.lastTimestamp){
+			state.lastTimestamp = timestamp;
+			state.lastEntries.clear();
+		}
+		if(!state.lastEntries.add(entry.toString())){
+			result.numMergedEntries++;
+			return;
+		}
+		
+		switch(entry.getType()){
+		case START:
+			mergeStart(entry, state);
+			break;
+		case STOP:
+			mergeStop(entry, state);
+			break;
+		default:
+			mergeObservation(entry, state);
+			break;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void mergeStart(JournalEntry entry, SessionState state){
+		if(state.lastNode != ObservationStore.NONE && !store.hasTag(state.lastNode, AuditConstants.STOP)){
+			// the session was not stopped, it resumes without a stop -> start sequence
+			state.started = true;
+			result.numSkippedEntries++;
+			return;
+		}
+		int startNode = getStartNode();
+		if(state.lastNode != ObservationStore.NONE){
+			int resumeEdge = getObservationEdge(state.lastNode, startNode);
+			store.addTag(resumeEdge, AuditConstants.RESUME);
+			addSessionEdgeNumber(resumeEdge, entry.getSession(), state);
+		}
+		((ArrayList<String>) store.getAttr(state.sessionNode, AuditConstants.START_TIMESTAMPS)).add(Long.toString(entry.getTimestamp()));
+		state.lastNode = startNode;
+		state.lastMemberKey = null;
+		state.started = true;
+		result.numStarts++;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void mergeStop(JournalEntry entry, SessionState state){
+		if(!state.started || state.lastNode == ObservationStore.NONE){
+			result.numSkippedEntries++;
+			return;
+		}
+		int stopEdge = getObservationEdge(state.lastNode, getStopNode());
+		((ArrayList<String>) store.getAttr(state.sessionNode, AuditConstants.STOP_TIMESTAMPS)).add(Long.toString(entry.getTimestamp()));
+		((ArrayList<String>) store.getAttr(state.sessionNode, AuditConstants.STOP_REASONS)).add(entry.getReason());
+		addSessionEdgeNumber(stopEdge, entry.getSession(), state);
+		state.lastNode = getStopNode();
+		state.lastMemberKey = null;
+		state.started = false;
+		result.numStops++;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void mergeObservation(JournalEntry entry, SessionState state){
+		if(!state.started || state.lastNode == ObservationStore.NONE){
+			result.numSkippedEntries++;
+			return;
+		}
+		
+		// probe the resolver for the members
+		int[] members = new int[entry.getMembers().size()];
+		int numMembers = 0;
+		for(String token : entry.getMembers()){
+			int member = resolver.resolve(token);
+			if(member == ObservationStore.NONE || store.hasTag(member, AuditConstants.OBSERVATION)){
+				result.numUnresolvedMembers++;
+			} else {
+				members[numMembers++] = member;
+			}
+		}
+		if(numMembers == 0){
+			result.numSkippedEntries++;
+			return;
+		}
+		
+		// skip immediately repeated observations
+		MemberKey memberKey = getMemberKey(members, numMembers);
+		if(memberKey.equals(state.lastMemberKey)){
+			result.numSkippedEntries++;
+			return;
+		}
+		
+		String session = entry.getSession();
+		Integer observationNode = getObservationNodes().get(memberKey);
+		if(observationNode == null){
+			observationNode = store.createNode(AuditConstants.OBSERVATION);
+			store.addTag(observationNode, AuditConstants.OBSERVATION);
+			for(int member : memberKey.members){
+				int memberEdge = store.createEdge(member, observationNode, AuditConstants.OBSERVATION_MEMBER);
+				store.addTag(memberEdge, AuditConstants.OBSERVATION_MEMBER);
+			}
+			getObservationNodes().put(memberKey, observationNode);
+			result.numNewObservationNodes++;
+		}
+		
+		// add the session timestamp and origin
+		String originKey = session + AuditConstants.OBSERVATION_ORIGIN_SUFFIX;
+		ArrayList<String> timestamps = (ArrayList<String>) store.getAttr(observationNode, session);
+		if(timestamps == null){
+			timestamps = new ArrayList<String>();
+			store.putAttr(observationNode, session, timestamps);
+		}
+		timestamps.add(Long.toString(entry.getTimestamp()));
+		ArrayList<String> origins = (ArrayList<String>) store.getAttr(observationNode, originKey);
+		if(origins == null){
+			origins = new ArrayList<String>();
+			store.putAttr(observationNode, originKey, origins);
+		}
+		origins.add(entry.getOrigin());
+		store.addTag(observationNode, session);
+		
+		int observationEdge = getObservationEdge(state.lastNode, observationNode);
+		addSessionEdgeNumber(observationEdge, session, state);
+		state.lastNode = observationNode;
+		state.lastMemberKey = memberKey;
+		result.numObservations++;
+	}
+	
+	/**
+	 * Returns the merge state of the session, continuing from the end of the session in the store
+	 */
+	private SessionState getSessionState(String session){
+		SessionState state = sessions.get(session);
+		if(state == null){
+			state = new SessionState();
+			state.sessionNode = store.registerSession(session);
+			int lastEdge = ObservationGraph.findLastObservationEdge(store, session);
+			if(lastEdge != ObservationStore.NONE){
+				state.lastEdgeNumber = ObservationGraph.getLastValue(store, lastEdge, session);
+				state.lastNode = store.getEdgeTo(lastEdge);
+			} else if(ObservationGraph.getLastValue(store, state.sessionNode, AuditConstants.START_TIMESTAMPS) != Long.MIN_VALUE){
+				// started, but nothing was observed yet
+				state.lastNode = getStartNode();
+			}
+			
+			// the last visit is the latest of the last start, the last stop and the last observation
+			state.mergedUntil = Math.max(ObservationGraph.getLastValue(store, state.sessionNode, AuditConstants.START_TIMESTAMPS),
+					ObservationGraph.getLastValue(store, state.sessionNode, AuditConstants.STOP_TIMESTAMPS));
+			if(state.lastNode != ObservationStore.NONE){
+				state.mergedUntil = Math.max(state.mergedUntil, ObservationGraph.getLastValue(store, state.lastNode, session));
+			}
+			
+			state.started = resumeOpenSessions && state.lastNode != ObservationStore.NONE && !store.hasTag(state.lastNode, AuditConstants.STOP);
+			sessions.put(session, state);
+			result.sessions.add(session);
+		}
+		return state;
+	}
+	
+	/**
+	 * Adds the session's next edge number to the given edge
+	 */
+	@SuppressWarnings("unchecked")
+	private void addSessionEdgeNumber(int observationEdge, String session, SessionState state){
+		state.lastEdgeNumber++;
+		ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(observationEdge, session);
+		if(edgeNumbers == null){
+			edgeNumbers = new ArrayList<String>();
+			store.putAttr(observationEdge, session, edgeNumbers);
+		}
+		edgeNumbers.add(Long.toString(state.lastEdgeNumber));
+		store.addTag(observationEdge, session);
+	}
+	
+	/**
+	 * Returns the canonical key of a member set (the sorted distinct members)
+	 */
+	private static MemberKey getMemberKey(int[] members, int numMembers){
+		int[] sorted = Arrays.copyOf(members, numMembers);
+		Arrays.sort(sorted);
+		int size = 0;
+		for(int i=0; i<sorted.length; i++){
+			if(size == 0 || sorted[i] != sorted[size-1]){
+				sorted[size++] = sorted[i];
+			}
+		}
+		return new MemberKey(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+	}
+	
+	/**
+	 * Returns a table from member set to observation node for the observation nodes of the store
+	 */
+	private HashMap<MemberKey,Integer> getObservationNodes(){
+		if(observationNodes == null){
+			HashMap<Integer,ArrayList<Integer>> members = new HashMap<Integer,ArrayList<Integer>>();
+			for(int memberEdge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION_MEMBER)){
+				int observationNode = store.getEdgeTo(memberEdge);
+				ArrayList<Integer> observationMembers = members.get(observationNode);
+				if(observationMembers == null){
+					observationMembers = new ArrayList<Integer>(4);
+					members.put(observationNode, observationMembers);
+				}
+				observationMembers.add(store.getEdgeFrom(memberEdge));
+			}
+			observationNodes = new HashMap<MemberKey,Integer>();
+			for(Entry<Integer,ArrayList<Integer>> observationMembers : members.entrySet()){
+				int[] memberArray = new int[observationMembers.getValue().size()];
+				for(int i=0; i<memberArray.length; i++){
+					memberArray[i] = observationMembers.getValue().get(i);
+				}
+				observationNodes.put(getMemberKey(memberArray, memberArray.length), observationMembers.getKey());
+			}
+		}
+		return observationNodes;
+	}
+	
+	/**
+	 * Returns the observation edge between the two observation nodes, creating it if it does not exist
+	 */
+	private int getObservationEdge(int from, int to){
+		if(observationEdges == null){
+			observationEdges = new HashMap<Long,Integer>();
+			for(int edge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION)){
+				observationEdges.put(getEdgeKey(store.getEdgeFrom(edge), store.getEdgeTo(edge)), edge);
+			}
+		}
+		Long key = getEdgeKey(from, to);
+		Integer edge = observationEdges.get(key);
+		if(edge == null){
+			edge = store.createEdge(from, to, AuditConstants.OBSERVATION);
+			store.addTag(edge, AuditConstants.OBSERVATION);
+			observationEdges.put(key, edge);
+		}
+		return edge;
+	}
+	
+	private static long getEdgeKey(int from, int to){
+		return ((long) from << 32) | (to & 0xffffffffL);
+	}
+	
+	private int getStartNode(){
+		if(startNode == ObservationStore.NONE){
+			startNode = ObservationGraph.getSingletonNode(store, AuditConstants.START);
+		}
+		return startNode;
+	}
+	
+	private int getStopNode(){
+		if(stopNode == ObservationStore.NONE){
+			stopNode = ObservationGraph.getSingletonNode(store, AuditConstants.STOP);
+		}
+		return stopNode;
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Streams the entries of a journal file one line at a time
+ *
+ * @author Ben Holland
+ */
+public class JournalReader implements JournalSource {
+	
+	private final File file;
+	private final BufferedReader reader;
+	private int numMalformedLines = 0;
+	
+	public JournalReader(File file) throws IOException {
+		this.file = file;
+		this.reader = new BufferedReader(new FileReader(file));
+	}
+	
+	public File getFile(){
+		return file;
+	}
+	
+	/**
+	 * Returns the next entry of the journal or null at the end of the journal
+	 * Lines that are not journal entries are skipped
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public JournalEntry next() throws IOException {
+		String line;
+		while((line = reader.readLine()) != null){
+			if(line.isEmpty()){
+				continue;
+			}
+			JournalEntry entry = JournalEntry.parse(line);
+			if(entry != null){
+				return entry;
+			}
+			numMalformedLines++;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the number of lines skipped so far because they were not journal entries
+	 * @return
+	 */
+	public int getNumberOfMalformedLines(){
+		return numMalformedLines;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
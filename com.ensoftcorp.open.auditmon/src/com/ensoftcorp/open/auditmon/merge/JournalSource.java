@@ -0,0 +1,20 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of journal entries, such as a journal file or a generated workload
+ *
+ * @author Ben Holland
+ */
+public interface JournalSource extends Closeable {
+
+	/**
+	 * Returns the next entry or null at the end of the stream
+	 * @return
+	 * @throws IOException
+	 */
+	public JournalEntry next() throws IOException;
+	
+}
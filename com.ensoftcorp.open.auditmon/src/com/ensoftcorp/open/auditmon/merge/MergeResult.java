@@ -0,0 +1,102 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A summary of a merge
+ *
+ * @author Ben Holland
+ */
+public class MergeResult {
+	
+	Set<String> sessions = new LinkedHashSet<String>();
+	int numStarts = 0;
+	int numStops = 0;
+	int numObservations = 0;
+	int numNewObservationNodes = 0;
+	int numSkippedEntries = 0;
+	int numMergedEntries = 0;
+	int numUnresolvedMembers = 0;
+	int numAmbiguousMembers = 0;
+	int numMalformedLines = 0;
+	
+	/**
+	 * Returns the sessions that were merged
+	 * @return
+	 */
+	public Set<String> getSessions(){
+		return sessions;
+	}
+	
+	public int getNumberOfStarts(){
+		return numStarts;
+	}
+	
+	public int getNumberOfStops(){
+		return numStops;
+	}
+	
+	public int getNumberOfObservations(){
+		return numObservations;
+	}
+	
+	/**
+	 * Returns the number of observation nodes that had to be created, the
+	 * other observations reused an observation node with the same members
+	 * @return
+	 */
+	public int getNumberOfNewObservationNodes(){
+		return numNewObservationNodes;
+	}
+	
+	/**
+	 * Returns the number of entries that were not merged, such as repeated
+	 * observations, observations outside of a start and stop or observations
+	 * with no members in the current index
+	 * @return
+	 */
+	public int getNumberOfSkippedEntries(){
+		return numSkippedEntries;
+	}
+	
+	/**
+	 * Returns the number of entries that were not merged because they were recorded
+	 * at or before the last visit of their session, for instance the entries of a
+	 * source that was already merged
+	 * @return
+	 */
+	public int getNumberOfAlreadyMergedEntries(){
+		return numMergedEntries;
+	}
+	
+	/**
+	 * Returns the number of observation members that did not match a node of the current index
+	 * @return
+	 */
+	public int getNumberOfUnresolvedMembers(){
+		return numUnresolvedMembers;
+	}
+	
+	/**
+	 * Returns the number of the unresolved observation members whose signature matched
+	 * several nodes of the current index, such as nodes without a name or source position
+	 * @return
+	 */
+	public int getNumberOfAmbiguousMembers(){
+		return numAmbiguousMembers;
+	}
+	
+	public int getNumberOfMalformedLines(){
+		return numMalformedLines;
+	}
+	
+	@Override
+	public String toString(){
+		return "Merged " + sessions.size() + " sessions: " + numStarts + " starts, " + numStops + " stops, "
+				+ numObservations + " observations (" + numNewObservationNodes + " new observation nodes), "
+				+ numSkippedEntries + " skipped entries, " + numMergedEntries + " already merged entries, "
+				+ numUnresolvedMembers + " unresolved members (" + numAmbiguousMembers + " ambiguous), " + numMalformedLines + " malformed lines";
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.auditmon.NodeSignatures;
+import com.ensoftcorp.open.auditmon.ObservationInvertedIndex;
+import com.ensoftcorp.open.auditmon.ObservationWriter;
+import com.ensoftcorp.open.auditmon.SessionObservationIndex;
+import com.ensoftcorp.open.auditmon.merge.JournalMerger.MemberResolver;
+import com.ensoftcorp.open.auditmon.store.AtlasObservationStore;
+
+/**
+ * Merges the sessions recorded in several journals (or session exports, see
+ * SessionExporter) into the observation graph of the current index
+ *
+ * The sources are streamed and merged by timestamp by a JournalMerger over the index,
+ * so only one entry per source is held in memory. Journal members are resolved by
+ * address with a table built with a single pass, or by signature with the shared
+ * signature table (see NodeSignatures). A merge is applied as a single change of the
+ * ObservationWriter, so it is never interleaved with the changes of an AuditMon
+ * session or with a checkpoint. Merging a source again does not change the index.
+ *
+ * Entries of a session follow the same rules as recording with AuditMon, for
+ * instance observations outside of a start and stop are ignored. AuditMon instances
+ * recording a merged session should call restoreSession afterwards.
+ *
+ * @author Ben Holland
+ */
+public class ObservationMerger {
+	
+	/**
+	 * Resolves journal members to the nodes of the current index
+	 */
+	private static class IndexMemberResolver implements MemberResolver {
+		private final AtlasObservationStore store;
+		private HashMap<String,GraphElement> addressTable = null;
+		private int numAmbiguousMembers = 0;
+		
+		private IndexMemberResolver(AtlasObservationStore store){
+			this.store = store;
+		}
+		
+		@Override
+		public int resolve(String member) {
+			if(NodeSignatures.isSignature(member)){
+				// the signature table is shared with journaling and built once per index
+				GraphElement node = NodeSignatures.resolve(member);
+				if(node == null && NodeSignatures.isAmbiguous(member)){
+					numAmbiguousMembers++;
+				}
+				return store.getHandle(node);
+			}
+			if(addressTable == null){
+				addressTable = new HashMap<String,GraphElement>();
+				for(GraphElement node : Common.universe().eval().nodes()){
+					addressTable.put(node.address().toAddressString(), node);
+				}
+			}
+			return store.getHandle(addressTable.get(member));
+		}
+	}
+	
+	/**
+	 * A merge to apply to the index
+	 */
+	private static interface MergeChange {
+		public void merge(JournalMerger merger) throws IOException;
+	}
+	
+	private ObservationMerger(){}
+	
+	/**
+	 * Merges the given journals or session exports into the current index
+	 * @param sources
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static MergeResult merge(File... sources) throws IOException, InterruptedException {
+		ArrayList<File> files = new ArrayList<File>();
+		Collections.addAll(files, sources);
+		return merge(files);
+	}
+	
+	/**
+	 * Merges the given journals or session exports into the current index
+	 * Each source is expected to be in time order, as journals and exports are written
+	 * Must not be called from a change of the ObservationWriter
+	 * @param sources
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static MergeResult merge(Collection<File> sources) throws IOException, InterruptedException {
+		final ArrayList<JournalReader> readers = new ArrayList<JournalReader>();
+		MergeResult result = null;
+		try {
+			for(File source : sources){
+				readers.add(new JournalReader(source));
+			}
+			result = apply(new MergeChange(){
+				@Override
+				public void merge(JournalMerger merger) throws IOException {
+					merger.merge(readers);
+				}
+			}, false);
+		} finally {
+			for(JournalReader reader : readers){
+				if(result != null){
+					result.numMalformedLines += reader.getNumberOfMalformedLines();
+				}
+				try {
+					reader.close();
+				} catch (IOException e){
+					Log.error("An error has occured closing " + reader.getFile().getName() + ".", e);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Applies the given entries to the current index in the given order
+	 * If resumeOpenSessions is true, a session whose last visit in the index is not a
+	 * stop is treated as still monitoring, so its entries are applied without waiting
+	 * for a start (as when recovering entries recorded after the index was saved)
+	 * Must not be called from a change of the ObservationWriter
+	 * @param entries
+	 * @param resumeOpenSessions
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static MergeResult apply(final Iterable<JournalEntry> entries, boolean resumeOpenSessions) throws IOException, InterruptedException {
+		return apply(new MergeChange(){
+			@Override
+			public void merge(JournalMerger merger) {
+				merger.merge(entries);
+			}
+		}, resumeOpenSessions);
+	}
+	
+	/**
+	 * Runs a merge as a single change of the ObservationWriter and waits for it
+	 */
+	private static MergeResult apply(final MergeChange change, final boolean resumeOpenSessions) throws IOException, InterruptedException {
+		final MergeResult[] result = new MergeResult[1];
+		final Exception[] error = new Exception[1];
+		boolean applied = ObservationWriter.submitAndWait(new Runnable(){
+			@Override
+			public void run() {
+				// a store per merge, so its handles never outlive the merge
+				AtlasObservationStore store = new AtlasObservationStore();
+				IndexMemberResolver resolver = new IndexMemberResolver(store);
+				JournalMerger merger = new JournalMerger(store, resolver);
+				merger.setResumeOpenSessions(resumeOpenSessions);
+				try {
+					change.merge(merger);
+				} catch (Exception e){
+					error[0] = e;
+				} finally {
+					// the cached replays of the merged sessions are out of date
+					for(String session : merger.getResult().getSessions()){
+						SessionObservationIndex.invalidate(session);
+						ObservationInvertedIndex.invalidate(session);
+					}
+					result[0] = merger.getResult();
+					result[0].numAmbiguousMembers += resolver.numAmbiguousMembers;
+				}
+			}
+		});
+		if(error[0] instanceof IOException){
+			throw (IOException) error[0];
+		} else if(error[0] instanceof RuntimeException){
+			throw (RuntimeException) error[0];
+		}
+		if(!applied){
+			throw new IOException("The merge was discarded because the index was reloaded.");
+		}
+		return result[0];
+	}
+
+}
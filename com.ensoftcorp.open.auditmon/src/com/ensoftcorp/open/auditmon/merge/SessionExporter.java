@@ -0,0 +1,94 @@
+package com.ensoftcorp.open.auditmon.merge;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.open.auditmon.AuditUtils;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.Observation;
+import com.ensoftcorp.open.auditmon.AuditUtils.StopObservation;
+import com.ensoftcorp.open.auditmon.NodeSignatures;
+import com.ensoftcorp.open.auditmon.SessionObservationIndex;
+
+/**
+ * Exports the sessions of the current index as a journal whose observation members
+ * are node signatures instead of addresses, so the sessions can be merged into an
+ * index of the same code on another machine (see ObservationMerger)
+ *
+ * @author Ben Holland
+ */
+public class SessionExporter {
+	
+	private static final Comparator<AbstractObservation> TIME_ORDER = new Comparator<AbstractObservation>(){
+		@Override
+		public int compare(AbstractObservation a, AbstractObservation b) {
+			return Long.compare(a.getTimestamp(), b.getTimestamp());
+		}
+	};
+	
+	/**
+	 * Exports every session of the current index
+	 * @param file
+	 * @return the number of exported entries
+	 * @throws IOException
+	 */
+	public static int export(File file) throws IOException {
+		return export(file, AuditUtils.getSessions());
+	}
+	
+	/**
+	 * Exports the given sessions of the current index, the entries are written in time order
+	 * @param file
+	 * @param sessions
+	 * @return the number of exported entries
+	 * @throws IOException
+	 */
+	public static int export(File file, Collection<String> sessions) throws IOException {
+		// merging expects each source in time order
+		ArrayList<AbstractObservation> observations = new ArrayList<AbstractObservation>();
+		for(String session : sessions){
+			for(AbstractObservation observation : SessionObservationIndex.getIndex(session).getObservations()){
+				observations.add(observation);
+			}
+		}
+		Collections.sort(observations, TIME_ORDER);
+		
+		if(file.getParentFile() != null){
+			file.getParentFile().mkdirs();
+		}
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			for(AbstractObservation observation : observations){
+				JournalEntry entry;
+				switch(observation.getType()){
+				case START:
+					entry = JournalEntry.start(observation.getSession(), observation.getTimestamp());
+					break;
+				case STOP:
+					entry = JournalEntry.stop(observation.getSession(), observation.getTimestamp(), ((StopObservation) observation).getReason());
+					break;
+				default:
+					ArrayList<String> members = new ArrayList<String>();
+					for(GraphElement member : observation.getObservedNodes()){
+						members.add(NodeSignatures.getSignature(member));
+					}
+					entry = JournalEntry.observation(observation.getSession(), observation.getTimestamp(), ((Observation) observation).getOrigin(), members);
+					break;
+				}
+				writer.write(entry.toString());
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		return observations.size();
+	}
+
+}
@@ -1,9 +1,21 @@
 package com.ensoftcorp.open.auditmon.smartviews;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.db.set.EmptyAtlasSet;
 import com.ensoftcorp.atlas.core.highlight.Highlighter;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
@@ -11,22 +23,126 @@ import com.ensoftcorp.atlas.core.script.StyledResult;
 import com.ensoftcorp.atlas.ui.scripts.selections.AtlasSmartViewScript;
 import com.ensoftcorp.atlas.ui.selection.event.IAtlasSelectionEvent;
 import com.ensoftcorp.atlas.ui.selection.event.IEditorAtlasSelectionEvent;
+import com.ensoftcorp.open.auditmon.AuditConstants.Granularity;
 import com.ensoftcorp.open.auditmon.AuditMon;
+import com.ensoftcorp.open.auditmon.AuditUtils;
+import com.ensoftcorp.open.auditmon.AuditUtils.AbstractObservation;
+import com.ensoftcorp.open.auditmon.AuditUtils.ObservationType;
+import com.ensoftcorp.open.auditmon.ObservationInvertedIndex;
+import com.ensoftcorp.open.auditmon.SessionObservationIndex;
 
-
+/**
+ * Shows the observations (and their members) of a session, time window, the last N
+ * observations and/or the observations touching the current selection
+ *
+ * The observations are found with the session observation and inverted indexes, not
+ * by stepping over the universe. When more than the maximum number of observations
+ * match, the observed artifacts are summarized at the summary granularity instead,
+ * highlighted by how often they were observed.
+ *
+ * The parameters are static since smart views are instantiated by Atlas, they can be
+ * set from the shell (for example ObservationsGraph.setSession("session1")).
+ */
 public class ObservationsGraph implements AtlasSmartViewScript {
-
+	
+	// the default maximum number of observation nodes shown before the view is summarized
+	public static final int DEFAULT_MAX_OBSERVATIONS = 500;
+	
+	// null means every session
+	private static String session = null;
+	
+	// null means unbounded
+	private static Long beginTime = null;
+	private static Long endTime = null;
+	
+	// 0 means no limit
+	private static int lastObservations = 0;
+	
+	private static boolean touchingSelection = false;
+	private static int maxObservations = DEFAULT_MAX_OBSERVATIONS;
+	private static Granularity summaryGranularity = Granularity.PARENT_CLASS;
+	
+	// observation frequency tiers used to highlight a summary, most observed first
+	private static final Color[] SUMMARY_COLORS = new Color[]{ Color.RED, Color.ORANGE, Color.YELLOW };
+	
+	/**
+	 * Only shows the observations of the given session, or of every session if null
+	 * @param session
+	 */
+	public static void setSession(String session){
+		ObservationsGraph.session = session;
+	}
+	
+	public static String getSession(){
+		return session;
+	}
+	
+	/**
+	 * Only shows the observations made in the given (inclusive) time range, null bounds are unbounded
+	 * @param beginTime
+	 * @param endTime
+	 */
+	public static void setTimeWindow(Long beginTime, Long endTime){
+		ObservationsGraph.beginTime = beginTime;
+		ObservationsGraph.endTime = endTime;
+	}
+	
+	/**
+	 * Only shows the last N observations of each session, 0 shows all of them
+	 * @param lastObservations
+	 */
+	public static void setLastObservations(int lastObservations){
+		ObservationsGraph.lastObservations = Math.max(0, lastObservations);
+	}
+	
+	/**
+	 * Only shows observations that contain part of the current selection
+	 * @param touchingSelection
+	 */
+	public static void setTouchingSelection(boolean touchingSelection){
+		ObservationsGraph.touchingSelection = touchingSelection;
+	}
+	
+	/**
+	 * Sets the number of observation nodes above which the result is summarized
+	 * @param maxObservations
+	 */
+	public static void setMaxObservations(int maxObservations){
+		ObservationsGraph.maxObservations = Math.max(1, maxObservations);
+	}
+	
+	/**
+	 * Sets the granularity observed artifacts are summarized at
+	 * @param summaryGranularity
+	 */
+	public static void setSummaryGranularity(Granularity summaryGranularity){
+		ObservationsGraph.summaryGranularity = summaryGranularity;
+	}
+	
+	/**
+	 * Restores the default parameters, all observations of every session
+	 */
+	public static void reset(){
+		session = null;
+		beginTime = null;
+		endTime = null;
+		lastObservations = 0;
+		touchingSelection = false;
+		maxObservations = DEFAULT_MAX_OBSERVATIONS;
+		summaryGranularity = Granularity.PARENT_CLASS;
+	}
+	
 	@Override
 	public String getTitle() {
 		return "Observations Graph";
 	}
-
+	
 	@Override
 	public void indexChanged(IProgressMonitor monitor) {}
-
+	
 	@Override
 	public void indexCleared() {}
-
+	
 	@Override
 	public StyledResult selectionChanged(IAtlasSelectionEvent atlasSelection) {
 		Highlighter h = new Highlighter();
@@ -36,7 +152,112 @@ public class ObservationsGraph implements AtlasSmartViewScript {
 			selection = atlasEditorSelection.getIdentifier().union(atlasEditorSelection.getControlFlow(), atlasEditorSelection.getDataFlow());
 		}
 		h.highlight(selection, Color.DARK_GRAY);
-		return new StyledResult(Common.universe().reverseStep(Common.universe().nodesTaggedWithAny(AuditMon.OBSERVATION)), h);
+		
+		List<AbstractObservation> observations = getObservations(selection);
+		AtlasSet<GraphElement> observationNodes = new AtlasHashSet<GraphElement>();
+		for(AbstractObservation observation : observations){
+			observationNodes.add(observation.getObservationNode());
+		}
+		if(observationNodes.size() > maxObservations){
+			return summarize(observations, h);
+		}
+		
+		Q observationNodesQ = toQ(observationNodes);
+		Q memberEdges = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION_MEMBER).retainEdges();
+		Q observationEdges = Common.universe().edgesTaggedWithAny(AuditMon.OBSERVATION).retainEdges();
+		Q result = memberEdges.reverseStep(observationNodesQ).union(observationEdges.betweenStep(observationNodesQ, observationNodesQ));
+		return new StyledResult(result, h);
+	}
+	
+	/**
+	 * Returns the observation visits matching the current parameters
+	 * @param selection
+	 * @return
+	 */
+	private static List<AbstractObservation> getObservations(Q selection){
+		long begin = beginTime == null ? Long.MIN_VALUE : beginTime;
+		long end = endTime == null ? Long.MAX_VALUE : endTime;
+		int count = lastObservations == 0 ? Integer.MAX_VALUE : lastObservations;
+		Collection<String> sessions = session == null ? AuditUtils.getSessions() : Arrays.asList(session);
+		
+		List<AbstractObservation> result = new ArrayList<AbstractObservation>();
+		for(String session : sessions){
+			if(touchingSelection){
+				// postings are in time order, so the window and last N are taken from the back
+				List<AbstractObservation> sessionObservations = new ArrayList<AbstractObservation>();
+				for(AbstractObservation observation : ObservationInvertedIndex.getObservations(session, selection, Granularity.PROGRAM_ARTIFACT)){
+					long timestamp = observation.getTimestamp();
+					if(timestamp >= begin && timestamp <= end){
+						sessionObservations.add(observation);
+					}
+				}
+				result.addAll(sessionObservations.subList(Math.max(0, sessionObservations.size() - count), sessionObservations.size()));
+			} else {
+				// start and stop visits count against the last N, they are shown as part of the session's path
+				for(AbstractObservation observation : SessionObservationIndex.getIndex(session).getLastObservations(begin, end, count)){
+					result.add(observation);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Shows the granules of the observed artifacts instead of the observations,
+	 * highlighted by how many of the observations contain them
+	 * @param observations
+	 * @param h
+	 * @return
+	 */
+	private static StyledResult summarize(List<AbstractObservation> observations, Highlighter h){
+		HashMap<GraphElement,Integer> granuleCounts = new HashMap<GraphElement,Integer>();
+		for(AbstractObservation observation : observations){
+			if(observation.getType() != ObservationType.OBSERVATION){
+				continue;
+			}
+			AtlasSet<GraphElement> granules = new AtlasHashSet<GraphElement>();
+			for(GraphElement node : observation.getObservedNodes()){
+				GraphElement granule = ObservationInvertedIndex.getGranule(node, summaryGranularity);
+				if(granule != null){
+					granules.add(granule);
+				}
+			}
+			for(GraphElement granule : granules){
+				Integer count = granuleCounts.get(granule);
+				granuleCounts.put(granule, count == null ? 1 : count + 1);
+			}
+		}
+		
+		// split the granules into equally sized tiers by observation count
+		List<Integer> counts = new ArrayList<Integer>(granuleCounts.values());
+		Collections.sort(counts, Collections.reverseOrder());
+		int[] thresholds = new int[SUMMARY_COLORS.length];
+		for(int i=0; i<thresholds.length; i++){
+			int index = (int) Math.min(counts.size() - 1, ((long) counts.size() * (i + 1)) / (SUMMARY_COLORS.length + 1));
+			thresholds[i] = counts.isEmpty() ? Integer.MAX_VALUE : counts.get(Math.max(0, index));
+		}
+		ArrayList<AtlasSet<GraphElement>> tiers = new ArrayList<AtlasSet<GraphElement>>();
+		for(int i=0; i<SUMMARY_COLORS.length; i++){
+			tiers.add(new AtlasHashSet<GraphElement>());
+		}
+		AtlasSet<GraphElement> summary = new AtlasHashSet<GraphElement>();
+		for(Entry<GraphElement,Integer> granuleCount : granuleCounts.entrySet()){
+			summary.add(granuleCount.getKey());
+			for(int i=0; i<thresholds.length; i++){
+				if(granuleCount.getValue() >= thresholds[i]){
+					tiers.get(i).add(granuleCount.getKey());
+					break;
+				}
+			}
+		}
+		for(int i=0; i<SUMMARY_COLORS.length; i++){
+			h.highlight(toQ(tiers.get(i)), SUMMARY_COLORS[i]);
+		}
+		return new StyledResult(toQ(summary), h);
+	}
+	
+	private static Q toQ(AtlasSet<GraphElement> nodes){
+		return Common.toQ(new UncheckedGraph(nodes, EmptyAtlasSet.<GraphElement> instance()));
 	}
 
 }
@@ -0,0 +1,205 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
+import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.db.set.EmptyAtlasSet;
+import com.ensoftcorp.atlas.core.query.Attr.Edge;
+import com.ensoftcorp.atlas.core.query.Attr.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.auditmon.SessionRegistry;
+
+/**
+ * The observation store of the Atlas index (the universe graph)
+ *
+ * Handles are assigned to graph elements as the observation logic first sees them and
+ * only live as long as the store. AuditMon uses a new store for each change, so the
+ * handle table never holds more than the elements of one change and never holds
+ * elements of an index that was reloaded or compacted.
+ *
+ * @author Ben Holland
+ */
+public class AtlasObservationStore implements ObservationStore {
+	
+	private final ArrayList<GraphElement> elements = new ArrayList<GraphElement>();
+	private final HashMap<GraphElement,Integer> handles = new HashMap<GraphElement,Integer>();
+	
+	/**
+	 * Returns the start or stop node of the current index or null if it does not exist
+	 * @param tag START or STOP
+	 * @return
+	 */
+	public static GraphElement findSingletonNode(String tag){
+		AtlasObservationStore store = new AtlasObservationStore();
+		return store.getElement(ObservationGraph.findSingletonNode(store, tag));
+	}
+	
+	/**
+	 * Returns the observation nodes of the session in the current index in the order
+	 * they were visited, starting with the start node (see ObservationGraph.replay)
+	 * @param session
+	 * @return
+	 */
+	public static List<GraphElement> replay(String session){
+		AtlasObservationStore store = new AtlasObservationStore();
+		int[] visits = ObservationGraph.replay(store, session);
+		ArrayList<GraphElement> result = new ArrayList<GraphElement>(visits.length);
+		for(int visit : visits){
+			result.add(store.getElement(visit));
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the handle of a graph element, or NONE for null
+	 * @param element
+	 * @return
+	 */
+	public int getHandle(GraphElement element){
+		if(element == null){
+			return NONE;
+		}
+		Integer handle = handles.get(element);
+		if(handle == null){
+			handle = elements.size();
+			elements.add(element);
+			handles.put(element, handle);
+		}
+		return handle;
+	}
+	
+	/**
+	 * Returns the handles of the given graph elements
+	 * @param elements
+	 * @return
+	 */
+	public int[] getHandles(AtlasSet<GraphElement> elements){
+		int[] result = new int[(int) elements.size()];
+		int i = 0;
+		for(GraphElement element : elements){
+			result[i++] = getHandle(element);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the graph element of a handle, or null for NONE
+	 * @param handle
+	 * @return
+	 */
+	public GraphElement getElement(int handle){
+		return handle == NONE ? null : elements.get(handle);
+	}
+	
+	private AtlasSet<GraphElement> getElements(int[] handles){
+		AtlasSet<GraphElement> result = new AtlasHashSet<GraphElement>();
+		for(int handle : handles){
+			result.add(getElement(handle));
+		}
+		return result;
+	}
+	
+	@Override
+	public int createNode(String name) {
+		GraphElement node = Graph.U.createNode();
+		node.attr().put(Node.NAME, name);
+		return getHandle(node);
+	}
+	
+	@Override
+	public int createEdge(int from, int to, String name) {
+		GraphElement edge = Graph.U.createEdge(getElement(from), getElement(to));
+		edge.attr().put(Edge.NAME, name);
+		return getHandle(edge);
+	}
+	
+	@Override
+	public void addTag(int element, String tag) {
+		GraphElement graphElement = getElement(element);
+		if(!graphElement.tags().contains(tag)){
+			graphElement.tags().add(tag);
+		}
+	}
+	
+	@Override
+	public boolean hasTag(int element, String tag) {
+		return getElement(element).tags().contains(tag);
+	}
+	
+	@Override
+	public void removeTag(int element, String tag) {
+		getElement(element).tags().remove(tag);
+	}
+	
+	@Override
+	public Object getAttr(int element, String key) {
+		return getElement(element).attr().get(key);
+	}
+	
+	@Override
+	public void putAttr(int element, String key, Object value) {
+		getElement(element).attr().put(key, value);
+	}
+	
+	@Override
+	public Object removeAttr(int element, String key) {
+		return getElement(element).attr().remove(key);
+	}
+	
+	@Override
+	public int[] getNodesTaggedWithAll(String... tags) {
+		return getHandles(Common.universe().nodesTaggedWithAll(tags).eval().nodes());
+	}
+	
+	@Override
+	public int[] getEdgesTaggedWithAll(String... tags) {
+		return getHandles(Common.universe().edgesTaggedWithAll(tags).eval().edges());
+	}
+	
+	@Override
+	public int getEdgeFrom(int edge) {
+		return getHandle(getElement(edge).getNode(EdgeDirection.FROM));
+	}
+	
+	@Override
+	public int getEdgeTo(int edge) {
+		return getHandle(getElement(edge).getNode(EdgeDirection.TO));
+	}
+	
+	@Override
+	public int[] getPredecessors(int node, String edgeTag) {
+		Q edges = Common.universe().edgesTaggedWithAny(edgeTag).retainEdges();
+		return getHandles(edges.predecessors(Common.toQ(Common.toGraph(getElement(node)))).eval().nodes());
+	}
+	
+	@Override
+	public int[] getSuccessors(int[] nodes, String edgeTag) {
+		Q edges = Common.universe().edgesTaggedWithAny(edgeTag).retainEdges();
+		Q origin = Common.toQ(new UncheckedGraph(getElements(nodes), EmptyAtlasSet.<GraphElement> instance()));
+		return getHandles(edges.successors(origin).eval().nodes());
+	}
+	
+	@Override
+	public int findEdge(int from, int to, String edgeTag) {
+		Q edges = Common.universe().edgesTaggedWithAll(edgeTag).retainEdges();
+		Q first = Common.toQ(Common.toGraph(getElement(from)));
+		Q second = Common.toQ(Common.toGraph(getElement(to)));
+		AtlasSet<GraphElement> result = edges.betweenStep(first, second).eval().edges();
+		return result.isEmpty() ? NONE : getHandle(result.getFirst());
+	}
+	
+	@Override
+	public int registerSession(String session) {
+		// the registry moves sessions recorded by earlier versions onto session nodes
+		return getHandle(SessionRegistry.registerSession(session));
+	}
+
+}
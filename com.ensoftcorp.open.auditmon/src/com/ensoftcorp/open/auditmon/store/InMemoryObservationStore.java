@@ -0,0 +1,280 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+
+/**
+ * An in-memory observation store for running the observation logic without Atlas,
+ * for example in load tests and profiling runs
+ *
+ * Elements are array indexes. Edge endpoints and adjacency lists are int arrays, tags
+ * are interned to ints and indexed by tag, and distinct results are collected with a
+ * mark array instead of hash sets. Attribute maps are only created for elements that
+ * have attributes (observation, start, stop and session nodes and observation edges).
+ * The store is not thread safe, AuditMon serializes its changes (see ObservationWriter).
+ *
+ * @author Ben Holland
+ */
+public class InMemoryObservationStore implements ObservationStore {
+	
+	private int size = 0;
+	private int[] from = new int[1024];
+	private int[] to = new int[1024];
+	private IntList[] inEdges = new IntList[1024];
+	private IntList[] outEdges = new IntList[1024];
+	private IntList[] tags = new IntList[1024];
+	private String[] names = new String[1024];
+	private HashMap<String,Object>[] attrs = newAttrs(1024);
+	
+	private final HashMap<String,Integer> tagIds = new HashMap<String,Integer>();
+	private final ArrayList<IntList> taggedNodes = new ArrayList<IntList>();
+	private final ArrayList<IntList> taggedEdges = new ArrayList<IntList>();
+	private final HashMap<String,Integer> sessionNodes = new HashMap<String,Integer>();
+	
+	// marks[element] == mark if the element was already collected by the current query
+	private int[] marks = new int[1024];
+	private int mark = 0;
+	
+	@SuppressWarnings("unchecked")
+	private static HashMap<String,Object>[] newAttrs(int capacity){
+		return new HashMap[capacity];
+	}
+	
+	private int newElement(int from, int to){
+		if(size == this.from.length){
+			int capacity = size * 2;
+			this.from = Arrays.copyOf(this.from, capacity);
+			this.to = Arrays.copyOf(this.to, capacity);
+			inEdges = Arrays.copyOf(inEdges, capacity);
+			outEdges = Arrays.copyOf(outEdges, capacity);
+			tags = Arrays.copyOf(tags, capacity);
+			names = Arrays.copyOf(names, capacity);
+			attrs = Arrays.copyOf(attrs, capacity);
+			marks = Arrays.copyOf(marks, capacity);
+		}
+		int element = size++;
+		this.from[element] = from;
+		this.to[element] = to;
+		return element;
+	}
+	
+	@Override
+	public int createNode(String name) {
+		int node = newElement(NONE, NONE);
+		names[node] = name;
+		inEdges[node] = new IntList(2);
+		outEdges[node] = new IntList(2);
+		return node;
+	}
+	
+	@Override
+	public int createEdge(int from, int to, String name) {
+		int edge = newElement(from, to);
+		names[edge] = name;
+		outEdges[from].add(edge);
+		inEdges[to].add(edge);
+		return edge;
+	}
+	
+	/**
+	 * Returns true if the element is a node
+	 * @param element
+	 * @return
+	 */
+	public boolean isNode(int element){
+		return from[element] == NONE;
+	}
+	
+	/**
+	 * Returns the number of nodes and edges in the store
+	 * @return
+	 */
+	public int size(){
+		return size;
+	}
+	
+	public String getName(int element){
+		return names[element];
+	}
+	
+	@Override
+	public void addTag(int element, String tag) {
+		Integer id = tagIds.get(tag);
+		if(id == null){
+			id = tagIds.size();
+			tagIds.put(tag, id);
+			taggedNodes.add(new IntList());
+			taggedEdges.add(new IntList());
+		}
+		if(tags[element] == null){
+			tags[element] = new IntList(2);
+		} else if(tags[element].contains(id)){
+			return;
+		}
+		tags[element].add(id);
+		(isNode(element) ? taggedNodes : taggedEdges).get(id).add(element);
+	}
+	
+	@Override
+	public boolean hasTag(int element, String tag) {
+		Integer id = tagIds.get(tag);
+		return id != null && tags[element] != null && tags[element].contains(id);
+	}
+	
+	@Override
+	public void removeTag(int element, String tag) {
+		Integer id = tagIds.get(tag);
+		if(id == null || tags[element] == null || !tags[element].remove(id)){
+			return;
+		}
+		// tags are only removed by compactions, so a linear scan of the tag index is fine
+		(isNode(element) ? taggedNodes : taggedEdges).get(id).remove(element);
+	}
+	
+	@Override
+	public Object getAttr(int element, String key) {
+		return attrs[element] == null ? null : attrs[element].get(key);
+	}
+	
+	@Override
+	public void putAttr(int element, String key, Object value) {
+		if(attrs[element] == null){
+			attrs[element] = new HashMap<String,Object>(4);
+		}
+		attrs[element].put(key, value);
+	}
+	
+	@Override
+	public Object removeAttr(int element, String key) {
+		return attrs[element] == null ? null : attrs[element].remove(key);
+	}
+	
+	@Override
+	public int[] getNodesTaggedWithAll(String... tags) {
+		return getTaggedWithAll(taggedNodes, tags);
+	}
+	
+	@Override
+	public int[] getEdgesTaggedWithAll(String... tags) {
+		return getTaggedWithAll(taggedEdges, tags);
+	}
+	
+	private int[] getTaggedWithAll(ArrayList<IntList> index, String... tags){
+		// filter the elements of the least used tag by the other tags
+		IntList smallest = null;
+		int[] ids = new int[tags.length];
+		for(int i=0; i<tags.length; i++){
+			Integer id = tagIds.get(tags[i]);
+			if(id == null){
+				return new int[0];
+			}
+			ids[i] = id;
+			IntList elements = index.get(id);
+			if(smallest == null || elements.size() < smallest.size()){
+				smallest = elements;
+			}
+		}
+		if(smallest == null){
+			return new int[0];
+		}
+		IntList result = new IntList(smallest.size());
+		for(int i=0; i<smallest.size(); i++){
+			int element = smallest.get(i);
+			boolean all = true;
+			for(int id : ids){
+				if(!this.tags[element].contains(id)){
+					all = false;
+					break;
+				}
+			}
+			if(all){
+				result.add(element);
+			}
+		}
+		return result.toArray();
+	}
+	
+	@Override
+	public int getEdgeFrom(int edge) {
+		return from[edge];
+	}
+	
+	@Override
+	public int getEdgeTo(int edge) {
+		return to[edge];
+	}
+	
+	@Override
+	public int[] getPredecessors(int node, String edgeTag) {
+		IntList edges = inEdges[node];
+		IntList result = new IntList(edges.size());
+		nextMark();
+		for(int i=0; i<edges.size(); i++){
+			int edge = edges.get(i);
+			int predecessor = from[edge];
+			if(marks[predecessor] != mark && hasTag(edge, edgeTag)){
+				marks[predecessor] = mark;
+				result.add(predecessor);
+			}
+		}
+		return result.toArray();
+	}
+	
+	@Override
+	public int[] getSuccessors(int[] nodes, String edgeTag) {
+		IntList result = new IntList();
+		nextMark();
+		for(int node : nodes){
+			IntList edges = outEdges[node];
+			for(int i=0; i<edges.size(); i++){
+				int edge = edges.get(i);
+				int successor = to[edge];
+				if(marks[successor] != mark && hasTag(edge, edgeTag)){
+					marks[successor] = mark;
+					result.add(successor);
+				}
+			}
+		}
+		return result.toArray();
+	}
+	
+	private void nextMark(){
+		mark++;
+		if(mark == 0){
+			// wrapped around, old marks could collide
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+	}
+	
+	@Override
+	public int findEdge(int from, int to, String edgeTag) {
+		IntList edges = outEdges[from];
+		for(int i=0; i<edges.size(); i++){
+			int edge = edges.get(i);
+			if(this.to[edge] == to && hasTag(edge, edgeTag)){
+				return edge;
+			}
+		}
+		return NONE;
+	}
+	
+	@Override
+	public int registerSession(String session) {
+		Integer sessionNode = sessionNodes.get(session);
+		if(sessionNode == null){
+			sessionNode = createNode(session);
+			addTag(sessionNode, AuditConstants.OBSERVATION);
+			addTag(sessionNode, AuditConstants.SESSION);
+			putAttr(sessionNode, AuditConstants.START_TIMESTAMPS, new ArrayList<String>());
+			putAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS, new ArrayList<String>());
+			putAttr(sessionNode, AuditConstants.STOP_REASONS, new ArrayList<String>());
+			sessionNodes.put(session, sessionNode);
+		}
+		return sessionNode;
+	}
+
+}
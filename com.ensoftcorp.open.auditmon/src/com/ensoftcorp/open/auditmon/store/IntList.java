@@ -0,0 +1,67 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints
+ * 
+ * @author Ben Holland
+ */
+class IntList {
+	
+	private int[] values;
+	private int size = 0;
+	
+	IntList(){
+		this(4);
+	}
+	
+	IntList(int capacity){
+		values = new int[Math.max(1, capacity)];
+	}
+	
+	void add(int value){
+		if(size == values.length){
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+	
+	int get(int index){
+		return values[index];
+	}
+	
+	int size(){
+		return size;
+	}
+	
+	boolean contains(int value){
+		for(int i=0; i<size; i++){
+			if(values[i] == value){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes the first occurrence of the value, keeping the order of the others
+	 * @param value
+	 * @return true if the value was in the list
+	 */
+	boolean remove(int value){
+		for(int i=0; i<size; i++){
+			if(values[i] == value){
+				System.arraycopy(values, i + 1, values, i, size - i - 1);
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	int[] toArray(){
+		return Arrays.copyOf(values, size);
+	}
+	
+}
@@ -0,0 +1,258 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+import com.ensoftcorp.open.auditmon.ObservationTrace;
+import com.ensoftcorp.open.auditmon.ObservationTrace.Stage;
+
+/**
+ * Records the starts, stops and observations of a session into an observation store
+ *
+ * This is the graph logic of AuditMon without the selection handling, filtering and
+ * journaling around it, so it can run against any ObservationStore. The engine keeps
+ * the last observation node and edge of the session, AuditMon sets them before each
+ * change since it may restore them from the index.
+ *
+ * @author Ben Holland
+ */
+public class ObservationEngine {
+	
+	private final ObservationStore store;
+	private final String session;
+	private int lastObservationNode = ObservationStore.NONE;
+	private int lastObservationEdge = ObservationStore.NONE;
+	
+	public ObservationEngine(ObservationStore store, String session){
+		this.store = store;
+		this.session = session;
+	}
+	
+	public ObservationStore getStore(){
+		return store;
+	}
+	
+	public String getSession(){
+		return session;
+	}
+	
+	public int getLastObservationNode(){
+		return lastObservationNode;
+	}
+	
+	public int getLastObservationEdge(){
+		return lastObservationEdge;
+	}
+	
+	/**
+	 * Sets the last observation node and edge of the session (NONE if the session has not started)
+	 * @param lastObservationNode
+	 * @param lastObservationEdge
+	 */
+	public void setLastObservation(int lastObservationNode, int lastObservationEdge){
+		this.lastObservationNode = lastObservationNode;
+		this.lastObservationEdge = lastObservationEdge;
+	}
+	
+	/**
+	 * Records a start of the session, a session that was not stopped is resumed as is
+	 * @param timestamp
+	 * @return the start node, or NONE if nothing was recorded
+	 */
+	@SuppressWarnings("unchecked")
+	public int start(long timestamp){
+		int startNode = ObservationGraph.getSingletonNode(store, AuditConstants.START);
+		if(lastObservationNode != ObservationStore.NONE){
+			if(!store.hasTag(lastObservationNode, AuditConstants.STOP)){
+				// the last session was not closed properly, resume without a stop -> start sequence
+				return ObservationStore.NONE;
+			}
+			// we are resuming a session, find or create the resume edge from stop to start
+			int resumeEdge = store.findEdge(lastObservationNode, startNode, AuditConstants.OBSERVATION);
+			if(resumeEdge == ObservationStore.NONE){
+				resumeEdge = store.createEdge(lastObservationNode, startNode, AuditConstants.OBSERVATION);
+				store.addTag(resumeEdge, AuditConstants.OBSERVATION);
+				store.addTag(resumeEdge, AuditConstants.RESUME);
+			}
+			addSessionEdgeNumber(resumeEdge);
+			store.addTag(resumeEdge, session);
+			lastObservationEdge = resumeEdge;
+		}
+		
+		// start times are kept on the session's own node
+		int sessionNode = store.registerSession(session);
+		((ArrayList<String>) store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS)).add(Long.toString(timestamp));
+		
+		lastObservationNode = startNode;
+		return startNode;
+	}
+	
+	/**
+	 * Records a stop of the session
+	 * @param timestamp
+	 * @param reason
+	 * @return the stop node, or NONE if the session never started
+	 */
+	@SuppressWarnings("unchecked")
+	public int stop(long timestamp, String reason){
+		if(lastObservationNode == ObservationStore.NONE){
+			return ObservationStore.NONE;
+		}
+		int stopNode = ObservationGraph.getSingletonNode(store, AuditConstants.STOP);
+		int stopEdge = store.findEdge(lastObservationNode, stopNode, AuditConstants.OBSERVATION);
+		if(stopEdge == ObservationStore.NONE){
+			stopEdge = store.createEdge(lastObservationNode, stopNode, AuditConstants.OBSERVATION);
+			store.addTag(stopEdge, AuditConstants.OBSERVATION);
+		}
+		store.addTag(stopEdge, session);
+		
+		// stop times and reasons are kept on the session's own node
+		int sessionNode = store.registerSession(session);
+		((ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS)).add(Long.toString(timestamp));
+		((ArrayList<String>) store.getAttr(sessionNode, AuditConstants.STOP_REASONS)).add(reason);
+		
+		addSessionEdgeNumber(stopEdge);
+		lastObservationNode = stopNode;
+		lastObservationEdge = stopEdge;
+		return stopNode;
+	}
+	
+	/**
+	 * Records an observation of the given distinct member nodes, the caller is expected
+	 * to have skipped empty, filtered and repeated selections
+	 * @param members
+	 * @param timestamp
+	 * @param origin
+	 * @return the observation node, or NONE if the session never started
+	 */
+	public int observe(int[] members, long timestamp, String origin){
+		return observe(members, timestamp, origin, null);
+	}
+	
+	/**
+	 * Records an observation of the given distinct member nodes, timing finding the
+	 * observation node and updating the graph in the given trace record (which may be null)
+	 * @param members
+	 * @param timestamp
+	 * @param origin
+	 * @param trace
+	 * @return the observation node, or NONE if the session never started
+	 */
+	@SuppressWarnings("unchecked")
+	public int observe(int[] members, long timestamp, String origin, ObservationTrace.Record trace){
+		if(lastObservationNode == ObservationStore.NONE){
+			return ObservationStore.NONE;
+		}
+		String originKey = session + AuditConstants.OBSERVATION_ORIGIN_SUFFIX;
+		int observationNode = findObservationNode(members, trace);
+		ObservationTrace.lap(trace, Stage.FIND_OBSERVATION);
+		if(observationNode == ObservationStore.NONE){
+			observationNode = store.createNode(AuditConstants.OBSERVATION);
+			store.addTag(observationNode, AuditConstants.OBSERVATION);
+			
+			ArrayList<String> timestamps = new ArrayList<String>();
+			timestamps.add(Long.toString(timestamp));
+			store.putAttr(observationNode, session, timestamps);
+			
+			ArrayList<String> origins = new ArrayList<String>();
+			origins.add(origin);
+			store.putAttr(observationNode, originKey, origins);
+			
+			for(int member : members){
+				int memberEdge = store.createEdge(member, observationNode, AuditConstants.OBSERVATION_MEMBER);
+				store.addTag(memberEdge, AuditConstants.OBSERVATION_MEMBER);
+			}
+		} else {
+			// the observation node may be reused from another session
+			ArrayList<String> timestamps = (ArrayList<String>) store.getAttr(observationNode, session);
+			if(timestamps == null){
+				timestamps = new ArrayList<String>();
+				store.putAttr(observationNode, session, timestamps);
+			}
+			timestamps.add(Long.toString(timestamp));
+			
+			ArrayList<String> origins = (ArrayList<String>) store.getAttr(observationNode, originKey);
+			if(origins == null){
+				origins = new ArrayList<String>();
+				store.putAttr(observationNode, originKey, origins);
+			}
+			origins.add(origin);
+		}
+		store.addTag(observationNode, session);
+		
+		int observationEdge = store.findEdge(lastObservationNode, observationNode, AuditConstants.OBSERVATION);
+		if(observationEdge == ObservationStore.NONE){
+			observationEdge = store.createEdge(lastObservationNode, observationNode, AuditConstants.OBSERVATION);
+			store.addTag(observationEdge, AuditConstants.OBSERVATION);
+		}
+		store.addTag(observationEdge, session);
+		addSessionEdgeNumber(observationEdge);
+		
+		lastObservationEdge = observationEdge;
+		lastObservationNode = observationNode;
+		ObservationTrace.lap(trace, Stage.GRAPH_MUTATION);
+		return observationNode;
+	}
+	
+	/**
+	 * Adds the next incremental edge number of the session to the given edge
+	 * @param observationEdge
+	 */
+	@SuppressWarnings("unchecked")
+	public void addSessionEdgeNumber(int observationEdge){
+		long edgeNumber = 1L;
+		if(lastObservationEdge != ObservationStore.NONE){
+			ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(lastObservationEdge, session);
+			if(edgeNumbers != null && !edgeNumbers.isEmpty()){
+				edgeNumber = Long.parseLong(edgeNumbers.get(edgeNumbers.size()-1)) + 1;
+			}
+		}
+		ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(observationEdge, session);
+		if(edgeNumbers == null){
+			edgeNumbers = new ArrayList<String>();
+			store.putAttr(observationEdge, session, edgeNumbers);
+		}
+		edgeNumbers.add(Long.toString(edgeNumber));
+	}
+	
+	/**
+	 * Finds the observation node whose members are exactly the given distinct nodes
+	 * Returns NONE if no observation node exists
+	 * @param members
+	 * @return
+	 */
+	public int findObservationNode(int[] members){
+		return findObservationNode(members, null);
+	}
+	
+	private int findObservationNode(int[] members, ObservationTrace.Record trace){
+		int[] sortedMembers = members.clone();
+		Arrays.sort(sortedMembers);
+		int[] reachableObservations = store.getSuccessors(members, AuditConstants.OBSERVATION_MEMBER);
+		if(trace != null){
+			trace.setCandidateObservations(reachableObservations.length);
+		}
+		for(int reachableObservation : reachableObservations){
+			int[] observationMembers = store.getPredecessors(reachableObservation, AuditConstants.OBSERVATION_MEMBER);
+			if(observationMembers.length != sortedMembers.length){
+				continue;
+			}
+			Arrays.sort(observationMembers);
+			if(Arrays.equals(observationMembers, sortedMembers)){
+				return reachableObservation;
+			}
+		}
+		return ObservationStore.NONE;
+	}
+	
+	/**
+	 * Returns the observation nodes of the session in the order they were visited,
+	 * starting with the start node, by following the session's edge numbers
+	 * @return
+	 */
+	public int[] replay(){
+		return ObservationGraph.replay(store, session);
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.ensoftcorp.open.auditmon.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import com.ensoftcorp.open.auditmon.AuditConstants;
+
+/**
+ * Queries and edits of the observation graph shared by everything that records into,
+ * reads from or compacts an observation store
+ *
+ * @author Ben Holland
+ */
+public class ObservationGraph {
+	
+	private ObservationGraph(){}
+	
+	/**
+	 * Returns the start or stop node, creating it if it does not exist
+	 * @param store
+	 * @param tag START or STOP
+	 * @return
+	 */
+	public static int getSingletonNode(ObservationStore store, String tag){
+		int node = findSingletonNode(store, tag);
+		if(node != ObservationStore.NONE){
+			return node;
+		}
+		node = store.createNode(tag);
+		store.addTag(node, AuditConstants.OBSERVATION);
+		store.addTag(node, tag);
+		return node;
+	}
+	
+	/**
+	 * Returns the start or stop node or NONE if it does not exist
+	 * @param store
+	 * @param tag START or STOP
+	 * @return
+	 */
+	public static int findSingletonNode(ObservationStore store, String tag){
+		int[] nodes = store.getNodesTaggedWithAll(AuditConstants.OBSERVATION, tag);
+		// there should only ever be one start node and one stop node
+		return nodes.length > 0 ? nodes[0] : ObservationStore.NONE;
+	}
+	
+	/**
+	 * Returns the observation nodes of the session in the order they were visited,
+	 * starting with the start node, by following the session's edge numbers until the
+	 * numbering has a gap, or an empty array if there is no start node
+	 * @param store
+	 * @param session
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static int[] replay(ObservationStore store, String session){
+		int startNode = findSingletonNode(store, AuditConstants.START);
+		if(startNode == ObservationStore.NONE){
+			return new int[0];
+		}
+		
+		// number the session's observation edges with a single pass instead of searching
+		// the successors of each visited node for the next edge number
+		int[] edgesByNumber = new int[16];
+		Arrays.fill(edgesByNumber, ObservationStore.NONE);
+		int numEdges = 0;
+		for(int edge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION, session)){
+			ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(edge, session);
+			if(edgeNumbers == null){
+				continue;
+			}
+			for(String edgeNumber : edgeNumbers){
+				int number = Integer.parseInt(edgeNumber);
+				if(number >= edgesByNumber.length){
+					int length = edgesByNumber.length;
+					edgesByNumber = Arrays.copyOf(edgesByNumber, Math.max(number + 1, length * 2));
+					Arrays.fill(edgesByNumber, length, edgesByNumber.length, ObservationStore.NONE);
+				}
+				edgesByNumber[number] = edge;
+				numEdges = Math.max(numEdges, number);
+			}
+		}
+		
+		// follow the observation edges in order until the numbering has a gap
+		IntList visits = new IntList(numEdges + 1);
+		visits.add(startNode);
+		for(int edgeNumber=1; edgeNumber<=numEdges && edgesByNumber[edgeNumber] != ObservationStore.NONE; edgeNumber++){
+			visits.add(store.getEdgeTo(edgesByNumber[edgeNumber]));
+		}
+		return visits.toArray();
+	}
+	
+	/**
+	 * Drops the oldest runs of the session until at most maxVisits visits are left or only
+	 * the most recent run is left. The edge numbers of the kept visits are renumbered from 1
+	 * at the first kept start, so the session still replays from a start without a gap.
+	 * Observation nodes and edges the session no longer uses are left for the caller to delete.
+	 * @param store
+	 * @param session
+	 * @param maxVisits
+	 * @return the number of visits removed
+	 */
+	@SuppressWarnings("unchecked")
+	public static int capSession(ObservationStore store, String session, int maxVisits){
+		// a session recorded by an earlier version is moved to a session node first
+		int sessionNode = store.registerSession(session);
+		int[] visits = replay(store, session);
+		if(visits.length <= maxVisits){
+			return 0;
+		}
+		// the first kept visit must be a start so the session still replays from a start
+		int cut = 0;
+		for(int i=1; i<visits.length; i++){
+			if(store.hasTag(visits[i], AuditConstants.START)){
+				cut = i;
+				if(visits.length - i <= maxVisits){
+					break;
+				}
+			}
+		}
+		if(cut == 0){
+			return 0;
+		}
+		
+		// the visits of each node are stored in visit order, so drop the first visits of each dropped node
+		LinkedHashMap<Integer,Integer> droppedVisits = new LinkedHashMap<Integer,Integer>();
+		for(int i=0; i<cut; i++){
+			Integer count = droppedVisits.get(visits[i]);
+			droppedVisits.put(visits[i], count == null ? 1 : count + 1);
+		}
+		String originKey = session + AuditConstants.OBSERVATION_ORIGIN_SUFFIX;
+		for(Entry<Integer,Integer> dropped : droppedVisits.entrySet()){
+			int observationNode = dropped.getKey();
+			int count = dropped.getValue();
+			if(store.hasTag(observationNode, AuditConstants.START)){
+				removeFirst(store.getAttr(sessionNode, AuditConstants.START_TIMESTAMPS), count);
+			} else if(store.hasTag(observationNode, AuditConstants.STOP)){
+				removeFirst(store.getAttr(sessionNode, AuditConstants.STOP_TIMESTAMPS), count);
+				removeFirst(store.getAttr(sessionNode, AuditConstants.STOP_REASONS), count);
+			} else {
+				removeFirst(store.getAttr(observationNode, session), count);
+				removeFirst(store.getAttr(observationNode, originKey), count);
+				Object timestamps = store.getAttr(observationNode, session);
+				if(!(timestamps instanceof ArrayList) || ((ArrayList<?>) timestamps).isEmpty()){
+					store.removeAttr(observationNode, session);
+					store.removeAttr(observationNode, originKey);
+					store.removeTag(observationNode, session);
+				}
+			}
+		}
+		
+		// renumber the kept edges so the first kept start is visit 0 again
+		for(int observationEdge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION, session)){
+			ArrayList<String> edgeNumbers = (ArrayList<String>) store.getAttr(observationEdge, session);
+			if(edgeNumbers == null){
+				continue;
+			}
+			ArrayList<String> keptEdgeNumbers = new ArrayList<String>(edgeNumbers.size());
+			for(String edgeNumber : edgeNumbers){
+				long number = Long.parseLong(edgeNumber);
+				if(number > cut){
+					keptEdgeNumbers.add(Long.toString(number - cut));
+				}
+			}
+			if(keptEdgeNumbers.isEmpty()){
+				store.removeAttr(observationEdge, session);
+				store.removeTag(observationEdge, session);
+			} else {
+				edgeNumbers.clear();
+				edgeNumbers.addAll(keptEdgeNumbers);
+				edgeNumbers.trimToSize();
+			}
+		}
+		return cut;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static void removeFirst(Object list, int count){
+		if(list instanceof ArrayList){
+			ArrayList<String> values = (ArrayList<String>) list;
+			values.subList(0, Math.min(count, values.size())).clear();
+			values.trimToSize();
+		}
+	}
+	
+	/**
+	 * Returns the observation edge of the session with the highest edge number or NONE
+	 * if the session has no observation edges
+	 * @param store
+	 * @param session
+	 * @return
+	 */
+	public static int findLastObservationEdge(ObservationStore store, String session){
+		int result = ObservationStore.NONE;
+		long resultNumber = Long.MIN_VALUE;
+		for(int edge : store.getEdgesTaggedWithAll(AuditConstants.OBSERVATION, session)){
+			long number = getLastValue(store, edge, session);
+			if(number > resultNumber){
+				result = edge;
+				resultNumber = number;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the last value of a list attribute of numbers (timestamps or edge numbers)
+	 * or Long.MIN_VALUE if the element has no such values
+	 * @param store
+	 * @param element
+	 * @param key
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static long getLastValue(ObservationStore store, int element, String key){
+		ArrayList<String> values = (ArrayList<String>) store.getAttr(element, key);
+		if(values == null || values.isEmpty()){
+			return Long.MIN_VALUE;
+		}
+		return Long.parseLong(values.get(values.size()-1));
+	}
+
+}
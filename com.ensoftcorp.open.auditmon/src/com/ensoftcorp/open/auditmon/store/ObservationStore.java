@@ -0,0 +1,112 @@
+package com.ensoftcorp.open.auditmon.store;
+
+/**
+ * The graph operations the observation logic needs from the graph it records into
+ *
+ * Graph elements are referred to by int handles assigned by the store, so a store does
+ * not have to box or wrap its elements. Handles are only valid for the store that
+ * returned them (and, for the Atlas store, only for the change the store was made for).
+ *
+ * @author Ben Holland
+ */
+public interface ObservationStore {
+	
+	/**
+	 * The handle of no element
+	 */
+	public static final int NONE = -1;
+	
+	/**
+	 * Creates a node with the given display name and returns its handle
+	 * @param name
+	 * @return
+	 */
+	public int createNode(String name);
+	
+	/**
+	 * Creates an edge with the given display name from one node to another and returns its handle
+	 * @param from
+	 * @param to
+	 * @param name
+	 * @return
+	 */
+	public int createEdge(int from, int to, String name);
+	
+	public void addTag(int element, String tag);
+	
+	public boolean hasTag(int element, String tag);
+	
+	public void removeTag(int element, String tag);
+	
+	/**
+	 * Returns the value of an attribute or null if the element does not have the attribute
+	 * @param element
+	 * @param key
+	 * @return
+	 */
+	public Object getAttr(int element, String key);
+	
+	public void putAttr(int element, String key, Object value);
+	
+	/**
+	 * Removes an attribute and returns its value, or null if the element did not have the attribute
+	 * @param element
+	 * @param key
+	 * @return
+	 */
+	public Object removeAttr(int element, String key);
+	
+	/**
+	 * Returns the nodes tagged with every given tag
+	 * @param tags
+	 * @return
+	 */
+	public int[] getNodesTaggedWithAll(String... tags);
+	
+	/**
+	 * Returns the edges tagged with every given tag
+	 * @param tags
+	 * @return
+	 */
+	public int[] getEdgesTaggedWithAll(String... tags);
+	
+	public int getEdgeFrom(int edge);
+	
+	public int getEdgeTo(int edge);
+	
+	/**
+	 * Returns the distinct nodes with an edge with the given tag to the given node, for 
+	 * example the members of an observation node
+	 * @param node
+	 * @param edgeTag
+	 * @return
+	 */
+	public int[] getPredecessors(int node, String edgeTag);
+	
+	/**
+	 * Returns the distinct nodes with an edge with the given tag from any of the given
+	 * nodes, for example the observations of a set of members
+	 * @param nodes
+	 * @param edgeTag
+	 * @return
+	 */
+	public int[] getSuccessors(int[] nodes, String edgeTag);
+	
+	/**
+	 * Returns an edge with the given tag from one node to another or NONE if there is none
+	 * @param from
+	 * @param to
+	 * @param edgeTag
+	 * @return
+	 */
+	public int findEdge(int from, int to, String edgeTag);
+	
+	/**
+	 * Returns the session node of the given session, creating it if the session is not 
+	 * registered yet (see SessionRegistry for the session node attributes)
+	 * @param session
+	 * @return
+	 */
+	public int registerSession(String session);
+	
+}